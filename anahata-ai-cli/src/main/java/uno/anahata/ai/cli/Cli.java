@@ -1,5 +1,6 @@
 package uno.anahata.ai.cli;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Scanner;
 import lombok.RequiredArgsConstructor;
@@ -10,6 +11,7 @@ import uno.anahata.ai.model.core.Response;
 import uno.anahata.ai.model.core.TextPart;
 import uno.anahata.ai.model.core.UserMessage;
 import uno.anahata.ai.model.provider.AbstractModel;
+import uno.anahata.ai.session.SessionRepository;
 
 /**
  * The reusable, provider-agnostic core of the Anahata AI Command Line Interface.
@@ -27,6 +29,11 @@ public class Cli {
      * Runs the main application loop.
      */
     public void run() {
+        SessionRepository repository = openRepository();
+        if (repository != null) {
+            // The session is saved in the background as it changes
+            repository.autoSave(chat);
+        }
         try (Scanner scanner = new Scanner(System.in)) {
             // If a model was pre-selected via command-line, go straight to chat.
             if (chat.getSelectedModel() != null) {
@@ -41,19 +48,38 @@ public class Cli {
                 System.out.println("No models found from any registered providers. Exiting.");
                 return;
             }
-            runMainMenu(scanner, models);
+            runMainMenu(scanner, models, repository);
+        } finally {
+            if (repository != null) {
+                repository.stopAutoSave(chat);
+            }
         }
         System.out.println("\nAnahata AI CLI shutting down.");
     }
 
-    private void runMainMenu(Scanner scanner, List<? extends AbstractModel> models) {
+    /**
+     * Opens the repository of saved sessions of the application.
+     *
+     * @return The repository, or {@code null} if it cannot be opened.
+     */
+    private SessionRepository openRepository() {
+        try {
+            return chat.getConfig().getAsiConfig().getSessionRepository();
+        } catch (IOException e) {
+            System.out.println("Saved sessions are not available: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void runMainMenu(Scanner scanner, List<? extends AbstractModel> models, SessionRepository repository) {
         CliConfigMenu configMenu = new CliConfigMenu(chat, scanner);
         
         while (true) {
             System.out.println("\n===== Main Menu =====");
             System.out.println("1. Chat with a Model");
             System.out.println("2. Configure Chat"); // New option
-            System.out.println("3. Exit");
+            System.out.println("3. Saved Sessions");
+            System.out.println("4. Exit");
             System.out.print("Enter your choice: ");
 
             String choice = scanner.nextLine();
@@ -66,6 +92,13 @@ public class Cli {
                     configMenu.runConfigMenu();
                     break;
                 case "3":
+                    if (repository != null) {
+                        new SavedSessionsMenu(repository, scanner).runMenu();
+                    } else {
+                        System.out.println("Saved sessions are not available.");
+                    }
+                    break;
+                case "4":
                     return;
                 default:
                     System.out.println("Invalid choice. Please try again.");
@@ -0,0 +1,88 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.cli;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Scanner;
+import lombok.RequiredArgsConstructor;
+import uno.anahata.ai.session.SessionRepository;
+
+/**
+ * Handles the CLI menu for listing, searching and deleting the saved sessions
+ * of the application. Sessions are listed from the repository index, without
+ * opening any of them.
+ *
+ * @author anahata-ai
+ */
+@RequiredArgsConstructor
+public class SavedSessionsMenu {
+
+    /** The maximum number of sessions printed at once. */
+    private static final int PAGE_SIZE = 20;
+
+    private final SessionRepository repository;
+    private final Scanner scanner;
+
+    public void runMenu() {
+        String query = "";
+
+        while (true) {
+            List<SessionRepository.Entry> entries = repository.search(query);
+            System.out.println("\n===== Saved Sessions =====");
+            if (!query.isBlank()) {
+                System.out.println("Filter: " + query);
+            }
+            if (entries.isEmpty()) {
+                System.out.println("(No saved sessions.)");
+            } else {
+                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+                int shown = Math.min(entries.size(), PAGE_SIZE);
+                for (int i = 0; i < shown; i++) {
+                    SessionRepository.Entry e = entries.get(i);
+                    System.out.printf("%d: %s [%s] %d msgs, %d tokens, %s\n", i + 1, e.getDisplayName(),
+                            e.getModelId() == null ? "no model" : e.getModelId(), e.getMessageCount(),
+                            e.getTotalTokens() > 0 ? e.getTotalTokens() : e.getEstimatedTokens(),
+                            dateFormat.format(new Date(e.getLastModified())));
+                    if (e.getSummary() != null) {
+                        System.out.println("   " + e.getSummary());
+                    }
+                }
+                if (entries.size() > shown) {
+                    System.out.printf("... and %d more. Refine the filter to see them.\n", entries.size() - shown);
+                }
+            }
+
+            System.out.println("F: Filter (name, summary, model or id)");
+            System.out.println("D: Delete a Session");
+            System.out.println("B: Back to Main Menu");
+            System.out.print("Enter choice (F, D, B): ");
+
+            String choice = scanner.nextLine().toUpperCase();
+
+            if ("B".equals(choice)) {
+                return;
+            } else if ("F".equals(choice)) {
+                System.out.print("Enter filter (empty to show all): ");
+                query = scanner.nextLine();
+            } else if ("D".equals(choice)) {
+                System.out.print("Enter session number to delete: ");
+                try {
+                    int index = Integer.parseInt(scanner.nextLine()) - 1;
+                    if (index >= 0 && index < Math.min(entries.size(), PAGE_SIZE)) {
+                        repository.delete(entries.get(index).getSessionId());
+                    } else {
+                        System.out.println("Invalid session number.");
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid input. Please enter a number.");
+                } catch (IOException e) {
+                    System.out.println("Could not delete the session: " + e.getMessage());
+                }
+            } else {
+                System.out.println("Invalid choice. Please try again.");
+            }
+        }
+    }
+}
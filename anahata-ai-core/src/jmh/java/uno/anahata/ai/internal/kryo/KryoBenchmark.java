@@ -0,0 +1,175 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.internal.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.core.UserMessage;
+
+/**
+ * Compares the pooled, registered {@link KryoUtils} with the previous
+ * configuration: a per-thread Kryo without registration (class names written
+ * for every object), field serialization of every class and a new
+ * {@code ByteArrayOutputStream} and {@code Output} per call.
+ * <p>
+ * The previous configuration cannot serialize messages at all: without
+ * references the message/part cycle overflows the stack, and the graph reaches
+ * the whole application through the chat. The legacy path therefore enables
+ * references and writes the chat as nothing; everything else is as it was.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec -Djmh.benchmarks=KryoBenchmark}.
+ *
+ * @author anahata-ai
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Slf4j
+public class KryoBenchmark {
+
+    /** The number of messages in the history. */
+    @Param({"20", "500"})
+    public int messages;
+
+    /** The chat of the messages. */
+    private Chat chat;
+
+    /** The serialized history. */
+    private ArrayList<UserMessage> history;
+
+    /** The legacy Kryo instance. */
+    private Kryo legacy;
+
+    /** The history serialized by the legacy path. */
+    private byte[] legacyBytes;
+
+    /** The history serialized by the pooled path. */
+    private byte[] pooledBytes;
+
+    /**
+     * Builds the history and the legacy Kryo instance.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        chat = new Chat(new ChatConfig(new AsiConfig("benchmark"), "benchmark"));
+        history = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            UserMessage message = new UserMessage(chat);
+            new TextPart(message, ("Message " + i + ": please review the attached change and suggest improvements. ").repeat(8));
+            history.add(message);
+        }
+        legacy = new Kryo();
+        legacy.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        legacy.setRegistrationRequired(false);
+        legacy.setReferences(true);
+        legacy.register(ArrayList.class);
+        legacy.register(HashMap.class);
+        legacy.register(Optional.class, new OptionalSerializer());
+        legacy.addDefaultSerializer(Chat.class, new Serializer<Chat>() {
+            @Override
+            public void write(Kryo kryo, Output output, Chat object) {
+            }
+
+            @Override
+            public Chat read(Kryo kryo, Input input, Class<? extends Chat> type) {
+                return null;
+            }
+        });
+        legacyBytes = legacySerialize();
+        pooledBytes = pooledSerialize();
+        log.info("{} messages: legacy {} bytes, pooled {} bytes", messages, legacyBytes.length, pooledBytes.length);
+    }
+
+    /**
+     * Shuts down the chat.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chat.shutdown();
+    }
+
+    /**
+     * The previous serialization path.
+     *
+     * @return The bytes.
+     */
+    @Benchmark
+    public byte[] legacySerialize() {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (Output output = new Output(byteArrayOutputStream)) {
+            legacy.writeObject(output, history);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * The pooled path, into a byte array.
+     *
+     * @return The bytes.
+     */
+    @Benchmark
+    public byte[] pooledSerialize() {
+        return KryoUtils.serialize(history);
+    }
+
+    /**
+     * The pooled path, streaming (e.g. to a file) without a byte array.
+     */
+    @Benchmark
+    public void pooledSerializeToStream() {
+        KryoUtils.serialize(history, OutputStream.nullOutputStream());
+    }
+
+    /**
+     * The previous deserialization path.
+     *
+     * @return The history.
+     */
+    @Benchmark
+    public Object legacyDeserialize() {
+        try (Input input = new Input(new ByteArrayInputStream(legacyBytes))) {
+            return legacy.readObject(input, ArrayList.class);
+        }
+    }
+
+    /**
+     * The pooled deserialization path.
+     *
+     * @return The history.
+     */
+    @Benchmark
+    public Object pooledDeserialize() {
+        return KryoUtils.deserialize(new ByteArrayInputStream(pooledBytes), ArrayList.class, chat);
+    }
+}
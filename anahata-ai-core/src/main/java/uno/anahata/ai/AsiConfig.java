@@ -10,10 +10,12 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import uno.anahata.ai.chat.Chat;
 import uno.anahata.ai.model.core.BasicPropertyChangeSource;
+import uno.anahata.ai.session.SessionRepository;
 
 /**
  * A hybrid static/instance class for managing global and application-specific configurations.
@@ -32,6 +34,10 @@ public class AsiConfig extends BasicPropertyChangeSource {
     private final Preferences preferences;
     private final List<Chat> activeChats = new ArrayList<>();
 
+    /** The repository of saved sessions, opened on first use. */
+    @Getter(AccessLevel.NONE)
+    private SessionRepository sessionRepository;
+
     /**
      * Creates a configuration instance for a specific host application.
      * Upon instantiation, it loads the preferences for that application.
@@ -77,6 +83,20 @@ public class AsiConfig extends BasicPropertyChangeSource {
         return dir;
     }
 
+    /**
+     * Gets the repository of the saved sessions of this host application,
+     * opening it on first use.
+     *
+     * @return The session repository.
+     * @throws IOException if the repository index cannot be read.
+     */
+    public synchronized SessionRepository getSessionRepository() throws IOException {
+        if (sessionRepository == null) {
+            sessionRepository = SessionRepository.open(this);
+        }
+        return sessionRepository;
+    }
+
     /**
      * Registers a new chat session with this configuration.
      * 
@@ -49,8 +49,7 @@ public class Preferences {
             Files.createDirectories(preferencesFile.getParent());
             log.info("Saving preferences to {}", preferencesFile);
             try (OutputStream os = Files.newOutputStream(preferencesFile)) {
-                byte[] bytes = KryoUtils.serialize(this);
-                os.write(bytes);
+                KryoUtils.serialize(this, os);
             }
         } catch (IOException e) {
             log.error("Error saving preferences to {}", preferencesFile, e);
@@ -68,8 +67,7 @@ public class Preferences {
         if (Files.exists(preferencesFile)) {
             log.info("Loading preferences from {}", preferencesFile);
             try (InputStream is = Files.newInputStream(preferencesFile)) {
-                byte[] bytes = is.readAllBytes();
-                return KryoUtils.deserialize(bytes, Preferences.class);
+                return KryoUtils.deserialize(is, Preferences.class);
             } catch (Exception e) {
                 log.error("Error loading preferences from {}", preferencesFile, e);
             }
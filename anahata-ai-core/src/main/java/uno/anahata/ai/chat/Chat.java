@@ -3,11 +3,14 @@
  */
 package uno.anahata.ai.chat;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
@@ -36,7 +39,9 @@ import uno.anahata.ai.model.core.TextPart;
 import uno.anahata.ai.model.core.UserMessage;
 import uno.anahata.ai.model.provider.AbstractAiProvider;
 import uno.anahata.ai.model.provider.AbstractModel;
+import uno.anahata.ai.model.provider.TokenCalibration;
 import uno.anahata.ai.resource.ResourceManager;
+import uno.anahata.ai.session.SessionJournal;
 import uno.anahata.ai.status.ApiErrorRecord;
 import uno.anahata.ai.status.ApiErrorRecord.ApiErrorRecordBuilder;
 import uno.anahata.ai.status.ChatStatus;
@@ -116,6 +121,12 @@ public class Chat extends BasicPropertyChangeSource {
      */
     private String summary;
 
+    /**
+     * The journal persisting the history of this session, or {@code null} if
+     * journaling is not enabled.
+     */
+    private SessionJournal journal;
+
     @SneakyThrows
     public Chat(@NonNull ChatConfig config) {
         this.config = config;
@@ -248,6 +259,8 @@ public class Chat extends BasicPropertyChangeSource {
 
         RequestConfig requestConfig = config.getRequestConfig();
         List<AbstractMessage> history = contextManager.buildVisibleHistory();
+        // Once per request: the provider adapters may read the instructions several times
+        contextManager.getPromptCacheStats().recordSystemInstructions(contextManager.getSystemInstructions());
         return new GenerationRequest(requestConfig, history);
     }
 
@@ -286,6 +299,8 @@ public class Chat extends BasicPropertyChangeSource {
         for (int attempt = 0; attempt < maxRetries; attempt++) {
             try {
                 GenerationRequest request = prepareRequest();
+                CompletableFuture<double[]> requestFeatures = estimateRequest(request);
+                Response<? extends AbstractModelMessage> previousResponse = lastResponse;
                 statusManager.fireStatusChanged(ChatStatus.API_CALL_IN_PROGRESS);
                 log.info("Sending request to model '{}' (attempt {}/{}) with {} messages.",
                         selectedModel.getModelId(), attempt + 1, maxRetries, request.history().size());
@@ -296,6 +311,8 @@ public class Chat extends BasicPropertyChangeSource {
                 } else {
                     candidates = performSyncTurn(request);
                 }
+                calibrateTokens(requestFeatures, previousResponse);
+                recordCacheUsage(previousResponse);
                 
                 return handleTurnResult(candidates);
 
@@ -336,6 +353,58 @@ public class Chat extends BasicPropertyChangeSource {
         return true; // Should not reach here
     }
 
+    /**
+     * Starts computing, in the background, the local token estimates of a
+     * request, to calibrate them against the billed prompt tokens once the
+     * response arrives.
+     *
+     * @param request The request.
+     * @return The future estimates.
+     */
+    private CompletableFuture<double[]> estimateRequest(GenerationRequest request) {
+        AbstractModel model = selectedModel;
+        boolean includePruned = request.config().isIncludePruned();
+        return CompletableFuture.supplyAsync(() -> TokenCalibration.requestFeatures(model.getTokenizer(), request.history(), includePruned), executor);
+    }
+
+    /**
+     * Feeds the billed prompt tokens of the last response to the selected
+     * model's token calibration.
+     *
+     * @param requestFeatures The local estimates of the request.
+     * @param previousResponse The last response before the request, to ignore
+     *        turns that did not produce a new one.
+     */
+    private void calibrateTokens(CompletableFuture<double[]> requestFeatures, Response<? extends AbstractModelMessage> previousResponse) {
+        Response<? extends AbstractModelMessage> response = lastResponse;
+        if (response == null || response == previousResponse || response.getUsageMetadata() == null) {
+            return;
+        }
+        AbstractModel model = selectedModel;
+        int promptTokens = response.getUsageMetadata().getPromptTokenCount();
+        requestFeatures.thenAccept(features -> model.getTokenCalibration().observe(features, promptTokens))
+                .exceptionally(e -> {
+                    log.warn("Could not calibrate the token estimates of {}", model.getModelId(), e);
+                    return null;
+                });
+    }
+
+    /**
+     * Feeds the usage of the last response to the prompt cache statistics of
+     * the context manager, which report the prefix hash and the cache hit
+     * rate.
+     *
+     * @param previousResponse The last response before the request, to ignore
+     *        turns that did not produce a new one.
+     */
+    private void recordCacheUsage(Response<? extends AbstractModelMessage> previousResponse) {
+        Response<? extends AbstractModelMessage> response = lastResponse;
+        if (response == null || response == previousResponse || response.getUsageMetadata() == null) {
+            return;
+        }
+        contextManager.getPromptCacheStats().recordUsage(response.getUsageMetadata());
+    }
+
     /**
      * Performs a synchronous generation turn.
      * 
@@ -625,12 +694,53 @@ public class Chat extends BasicPropertyChangeSource {
         return id.length() > 7 ? id.substring(id.length() - 7) : id;
     }
 
+    /**
+     * Enables continuous persistence of the history of this session to an
+     * append-only journal, restoring the history saved in the directory (if any).
+     *
+     * @param directory The journal directory.
+     * @return The journal.
+     * @throws IOException if the journal cannot be opened.
+     * @throws IllegalStateException if journaling is already enabled.
+     */
+    public synchronized SessionJournal enableJournal(@NonNull Path directory) throws IOException {
+        if (journal != null) {
+            throw new IllegalStateException("Session " + config.getSessionId() + " is already journaled to " + journal.getDirectory());
+        }
+        journal = SessionJournal.open(this, directory);
+        return journal;
+    }
+
+    /**
+     * Stops journaling the history of this session, flushing pending changes
+     * first. Does nothing if journaling is not enabled.
+     *
+     * @throws IOException if the journal cannot be flushed.
+     */
+    public synchronized void disableJournal() throws IOException {
+        if (journal != null) {
+            SessionJournal closing = journal;
+            journal = null;
+            closing.close();
+        }
+    }
+
     public void shutdown() {
         shutdown.set(true);
         log.info("Shutting down Chat for session {}", config.getSessionId());
         config.getAsiConfig().unregister(this);
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error("Failed to close the session journal {}", journal.getDirectory(), e);
+            }
+        }
+        resourceManager.shutdown();
         if (executor != null && !executor.isShutdown()) {
             executor.shutdown();
         }
+        // Lets providers release what they hold for the session, e.g. server-side caches
+        propertyChangeSupport.firePropertyChange("shutdown", false, true);
     }
 }
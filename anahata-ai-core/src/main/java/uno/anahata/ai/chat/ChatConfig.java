@@ -100,6 +100,13 @@ public class ChatConfig {
     /** If true, token streaming is enabled for model responses. */
     private boolean streaming = true;
     
+    /**
+     * If true, the raw JSON of every request and response is captured as it
+     * happens, for debugging. Otherwise providers render it only when it is
+     * asked for (e.g. by the UI), and it is not saved with the session.
+     */
+    private boolean captureRawJson = false;
+
     /** The maximum number of times to retry an API call on failure. */
     private int apiMaxRetries = 5;
 
@@ -125,6 +132,21 @@ public class ChatConfig {
     
     /** The number of turns a part must be soft-pruned before it is eligible for hard-pruning (permanent deletion). */
     private int hardPruneDelay = 108;
+    
+    /** If true, providers that support it keep the stable prefix of the requests (system instructions, tools and early history) in a server-side context cache. Off by default: cache storage is billed. */
+    private boolean contextCaching = false;
+
+    /** The time to live, in seconds, of a context cache; it is refreshed while the chat is in use. */
+    private int contextCacheTtlSeconds = 600;
+
+    /** If true, requests keep a prefix that only grows from turn to turn: volatile system instructions are sent in the RAG message and time-based pruning is applied in epochs, so provider-side prefix caches stay valid. */
+    private boolean prefixStableContext = false;
+
+    /** In prefix-stable mode, the number of messages added to the history between two applications of time-based pruning. */
+    private int pruningEpochMessages = 10;
+
+    /** The maximum number of tokens of the managed resources in the RAG message (0 for no limit). Resources that do not fit are elided to their header. */
+    private int resourceTokenBudget = 32000;
     //</editor-fold>
     
     /**
@@ -10,6 +10,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
@@ -21,6 +22,7 @@ import uno.anahata.ai.model.core.AbstractModelMessage;
 import uno.anahata.ai.model.core.AbstractPart;
 import uno.anahata.ai.model.core.PropertyChangeSource;
 import uno.anahata.ai.model.core.RagMessage;
+import uno.anahata.ai.model.core.ResourceSnapshotMessage;
 import uno.anahata.ai.model.core.TextPart;
 import uno.anahata.ai.model.provider.AbstractModel;
 import uno.anahata.ai.model.resource.AbstractResource;
@@ -51,6 +53,14 @@ public class ContextManager implements PropertyChangeSource {
     private final AtomicLong partIdCounter = new AtomicLong(0);
     /** List of registered context providers. */
     private final List<ContextProvider> providers = new ArrayList<>();
+    /** The older messages of a restored history that have not been loaded yet, if any. */
+    @Getter(AccessLevel.NONE)
+    private DeferredHistory deferredHistory;
+    /** The stability of the request prefix and the provider's cache hits. */
+    private final PromptCacheStats promptCacheStats = new PromptCacheStats();
+    /** In prefix-stable mode, the message counter when time-based pruning was last applied. */
+    @Getter(AccessLevel.NONE)
+    private long pruningEpochStart;
 
     /**
      * The maximum number of tokens for the context window.
@@ -85,14 +95,122 @@ public class ContextManager implements PropertyChangeSource {
      * Clears the entire conversation history and resets all internal counters to zero.
      * Fires a property change event for the "history" property.
      */
-    public void clear() {
+    public synchronized void clear() {
+        deferredHistory = null;
         history.clear();
         messageIdCounter.set(0);
         partIdCounter.set(0);
+        pruningEpochStart = 0;
         log.info("ContextManager cleared for session {}", chat.getConfig().getSessionId());
         propertyChangeSupport.firePropertyChange("history", null, history);
     }
 
+    /**
+     * Replaces the history with messages restored from persistent storage,
+     * keeping their sequential ids and continuing the counters after the
+     * highest ones. Fires a property change event for the "history" property.
+     *
+     * @param messages The restored messages, in history order.
+     */
+    public void restore(List<AbstractMessage> messages) {
+        restore(messages, null);
+    }
+
+    /**
+     * Replaces the history with the latest messages restored from persistent
+     * storage, deferring the older ones until they are needed (see
+     * {@link #loadOlder(int)}). Sequential ids and counters are handled as in
+     * {@link #restore(List)}. Fires a property change event for the "history"
+     * property.
+     *
+     * @param messages The latest restored messages, in history order.
+     * @param older The messages preceding them, or {@code null} if none.
+     */
+    public synchronized void restore(List<AbstractMessage> messages, DeferredHistory older) {
+        long maxMessageId = 0;
+        long maxPartId = 0;
+        for (AbstractMessage message : messages) {
+            maxMessageId = Math.max(maxMessageId, message.getSequentialId());
+            for (AbstractPart part : message.getParts()) {
+                maxPartId = Math.max(maxPartId, part.getSequentialId());
+            }
+        }
+        synchronized (history) {
+            history.clear();
+            history.addAll(messages);
+        }
+        deferredHistory = older != null && older.size() > 0 ? older : null;
+        messageIdCounter.set(maxMessageId);
+        partIdCounter.set(maxPartId);
+        log.info("Restored {} messages for session {} ({} older units deferred)", messages.size(), chat.getConfig().getSessionId(), getDeferredCount());
+        propertyChangeSupport.firePropertyChange("history", null, history);
+    }
+
+    /**
+     * Gets the number of older message units of a restored history that have
+     * not been loaded yet.
+     *
+     * @return The number of deferred units, 0 if the history is fully loaded.
+     */
+    public synchronized int getDeferredCount() {
+        return deferredHistory != null ? deferredHistory.size() : 0;
+    }
+
+    /**
+     * Gets the loaded messages together with the older units still deferred,
+     * as one consistent view, e.g. to save a session without loading its
+     * deferred part.
+     *
+     * @return The view.
+     */
+    public synchronized HistoryView getHistoryView() {
+        return new HistoryView(getHistory(), deferredHistory, getDeferredCount());
+    }
+
+    /**
+     * A consistent view of the history.
+     *
+     * @param messages A copy of the loaded messages, in history order.
+     * @param deferred The older units not loaded yet, or {@code null} if none.
+     * @param deferredCount The number of units that were deferred when the
+     *        view was taken: the oldest ones of {@code deferred}, which may
+     *        have been loaded since.
+     */
+    public record HistoryView(List<AbstractMessage> messages, DeferredHistory deferred, int deferredCount) {
+    }
+
+    /**
+     * Loads older messages of a restored history, newest first, inserting
+     * them at the start of the history. Fires a property change event for the
+     * "history" property if any message was loaded.
+     *
+     * @param count The maximum number of message units to load.
+     * @return The number of messages loaded.
+     */
+    public synchronized int loadOlder(int count) {
+        if (deferredHistory == null) {
+            return 0;
+        }
+        List<AbstractMessage> older = deferredHistory.loadNewest(count);
+        if (deferredHistory.size() == 0) {
+            deferredHistory = null;
+        }
+        synchronized (history) {
+            history.addAll(0, older);
+        }
+        log.info("Loaded {} older messages for session {} ({} units left)", older.size(), chat.getConfig().getSessionId(), getDeferredCount());
+        propertyChangeSupport.firePropertyChange("history", null, history);
+        return older.size();
+    }
+
+    /**
+     * Loads all the older messages of a restored history, if any are still
+     * deferred.
+     */
+    public void loadAll() {
+        loadOlder(Integer.MAX_VALUE);
+    }
+
     /**
      * Registers a new context provider.
      *
@@ -105,17 +223,23 @@ public class ContextManager implements PropertyChangeSource {
 
     /**
      * Gets the list of system instructions by processing all enabled providers
-     * and all managed resources at the SYSTEM_INSTRUCTIONS position.
+     * and all managed resources at the SYSTEM_INSTRUCTIONS position. In
+     * prefix-stable mode, the system instructions of volatile providers are
+     * left out here and sent in the RAG message by
+     * {@link #buildVisibleHistory()}.
      *
      * @return A list of TextParts for system instructions.
      */
     public List<String> getSystemInstructions() {
         List<String> allSystemInstructions = new ArrayList<>();
+        boolean prefixStable = chat.getConfig().isPrefixStableContext();
 
         // 1. Process providers
         for (ContextProvider provider : providers) {
             String providerChunk = provider.getHeader();
-            if (provider.isEnabled()) {                                
+            if (provider.isEnabled() && prefixStable && provider.isVolatile()) {
+                providerChunk += "\n(Volatile: rendered at the end of the RAG message)";
+            } else if (provider.isEnabled()) {                                
                 try {                  
                     List<String> systemInstructions = provider.getSystemInstructions(chat);
                     for (String string : systemInstructions) {
@@ -127,8 +251,7 @@ public class ContextManager implements PropertyChangeSource {
             }
             allSystemInstructions.add(providerChunk);
         }
-        
-        
+
         return allSystemInstructions;
     }
 
@@ -140,6 +263,9 @@ public class ContextManager implements PropertyChangeSource {
      * @return The filtered list of messages.
      */
     public List<AbstractMessage> buildVisibleHistory() {
+        // The whole conversation is sent, including the older messages of a restored session not shown yet
+        loadAll();
+        applyPruningEpoch();
         boolean includePruned = chat.getConfig().getRequestConfig().isIncludePruned();
 
         // 1. Get the filtered main history
@@ -160,14 +286,75 @@ public class ContextManager implements PropertyChangeSource {
                 }
             }
         }
+        // Full renderings of delta-mode resources become part of the history, so later turns can refer to them
+        ResourceSnapshotMessage snapshot = augmentedMessage.getSnapshotMessage(false);
+        if (snapshot != null && snapshot.hasRenderings()) {
+            addMessageInternal(snapshot);
+            snapshot.updateHeader();
+            snapshot.pruneSuperseded();
+            visibleHistory.add(snapshot);
+        }
+        if (chat.getConfig().isPrefixStableContext()) {
+            populateVolatileInstructions(augmentedMessage);
+        }
+        promptCacheStats.recordHistory(visibleHistory, includePruned);
         visibleHistory.add(augmentedMessage);
 
-        // Process managed resources for prompt augmentation
-        
-
         return visibleHistory;
     }
 
+    /**
+     * Adds the system instructions of the volatile providers to the end of
+     * the RAG message, so that the prefix of the request does not change
+     * with them.
+     *
+     * @param ragMessage The RAG message of the request.
+     */
+    private void populateVolatileInstructions(RagMessage ragMessage) {
+        for (ContextProvider provider : providers) {
+            if (provider.isEnabled() && provider.isVolatile()) {
+                try {
+                    for (String instruction : provider.getSystemInstructions(chat)) {
+                        ragMessage.addPart(instruction);
+                    }
+                } catch (Exception e) {
+                    log.error("Error executing system instruction provider: {}", provider.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * In prefix-stable mode, applies time-based pruning once every
+     * {@link uno.anahata.ai.chat.ChatConfig#getPruningEpochMessages()} messages:
+     * parts whose turns have run out are tombstoned (explicitly pruned), so
+     * the requests between two epochs only ever append to the history.
+     * Pinned and explicitly pruned parts and messages are left alone.
+     */
+    private void applyPruningEpoch() {
+        if (!chat.getConfig().isPrefixStableContext()) {
+            return;
+        }
+        long messages = messageIdCounter.get();
+        if (messages - pruningEpochStart < Math.max(1, chat.getConfig().getPruningEpochMessages())) {
+            return;
+        }
+        pruningEpochStart = messages;
+        int tombstoned = 0;
+        for (AbstractMessage message : getHistory()) {
+            if (message.isPruned() != null) {
+                continue;
+            }
+            for (AbstractPart part : message.getParts(false)) {
+                if (part.getPruned() == null && part.getTurnsLeft() <= 0) {
+                    part.setPruned(true);
+                    tombstoned++;
+                }
+            }
+        }
+        log.info("Pruning epoch at message {}: tombstoned {} parts", messages, tombstoned);
+    }
+
     /**
      * The definitive method for adding any message to the chat history. It
      * injects the chat reference, assigns sequential IDs to all parts, and
@@ -259,6 +446,8 @@ public class ContextManager implements PropertyChangeSource {
 
     /**
      * Gets the complete, canonical conversation history for this session.
+     * The older messages of a restored session are not included until they
+     * are loaded; see {@link #getDeferredCount()}.
      *
      * @return A synchronized, unmodifiable list of all messages.
      */
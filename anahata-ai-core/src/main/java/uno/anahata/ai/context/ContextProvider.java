@@ -62,6 +62,18 @@ public interface ContextProvider {
      */
     void populateMessage(RagMessage ragMessage) throws Exception;
     
+    /**
+     * Whether the system instructions of this provider change from one request
+     * to the next (e.g. live status). In prefix-stable mode they are sent in
+     * the {@link RagMessage} at the end of the request instead, so they do not
+     * break the prefix shared with the previous request.
+     *
+     * @return {@code true} if the system instructions are volatile.
+     */
+    default boolean isVolatile() {
+        return false;
+    }
+
     /**
      * Provides a machine readable header for this context provider
      * 
@@ -0,0 +1,34 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.context;
+
+import java.util.List;
+import uno.anahata.ai.model.core.AbstractMessage;
+
+/**
+ * The older part of a restored history that has not been loaded yet.
+ * <p>
+ * A session restored from a large file shows its latest messages first; the
+ * older ones stay in the file until the {@link ContextManager} asks for them,
+ * newest first, e.g. when they are scrolled to or a request is built.
+ *
+ * @author anahata-ai
+ */
+public interface DeferredHistory {
+
+    /**
+     * Gets the number of message units not loaded yet. A unit is a message,
+     * plus the tool message of a model message.
+     *
+     * @return The number of units left.
+     */
+    int size();
+
+    /**
+     * Loads the newest units not loaded yet.
+     *
+     * @param count The maximum number of units to load.
+     * @return The messages loaded, in history order. They precede any message
+     *         loaded before.
+     */
+    List<AbstractMessage> loadNewest(int count);
+}
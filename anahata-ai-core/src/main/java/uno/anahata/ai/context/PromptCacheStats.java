@@ -0,0 +1,187 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.context;
+
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractPart;
+import uno.anahata.ai.model.core.ResponseUsageMetadata;
+
+/**
+ * Tracks how stable the prefix of a chat's requests is and how much of it the
+ * provider served from its cache. Every request records its system
+ * instructions and its history (without the RAG message at the end); once
+ * the response arrives, the prefix hash, the number of leading messages
+ * unchanged since the previous request and the cache hit rate reported in
+ * {@link ResponseUsageMetadata#getCachedContentTokenCount()} are logged.
+ * <p>
+ * Messages are hashed by their sequential id, their change stamp and the ids
+ * of their visible parts, so the hash identifies a prefix within a session
+ * and changes whenever a message is edited or pruned.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public class PromptCacheStats {
+
+    /** The hash of the system instructions of the request being sent. */
+    private int systemInstructionsHash;
+
+    /** The rolling hashes of the history of the request being sent, one per message. */
+    private long[] historyHashes = new long[0];
+
+    /** The hash of the system instructions of the previous request. */
+    private int previousSystemInstructionsHash;
+
+    /** The rolling hashes of the history of the previous request. */
+    private long[] previousHistoryHashes = new long[0];
+
+    /** The hash of the prefix of the last request that got a response. */
+    private long prefixHash;
+
+    /** The number of leading messages of the last request that were unchanged since the one before. */
+    private int stableMessages;
+
+    /** The number of responses with usage metadata. */
+    private long requests;
+
+    /** The prompt tokens of all responses. */
+    private long promptTokens;
+
+    /** The cached prompt tokens of all responses. */
+    private long cachedTokens;
+
+    /** The cache hit rate of the last response. */
+    private double lastHitRate;
+
+    /**
+     * Records the system instructions of the request being sent.
+     *
+     * @param systemInstructions The system instructions.
+     */
+    public synchronized void recordSystemInstructions(List<String> systemInstructions) {
+        systemInstructionsHash = systemInstructions.hashCode();
+    }
+
+    /**
+     * Records the history of the request being sent, up to (not including)
+     * the RAG message.
+     *
+     * @param history The history.
+     * @param includePruned Whether pruned parts are sent.
+     */
+    public synchronized void recordHistory(List<AbstractMessage> history, boolean includePruned) {
+        long[] hashes = new long[history.size()];
+        long hash = 17;
+        for (int i = 0; i < hashes.length; i++) {
+            AbstractMessage message = history.get(i);
+            hash = mix(hash, message.getSequentialId());
+            hash = mix(hash, message.getVersion());
+            for (AbstractPart part : message.getParts(includePruned)) {
+                hash = mix(hash, part.getSequentialId());
+            }
+            hashes[i] = hash;
+        }
+        historyHashes = hashes;
+    }
+
+    /**
+     * Records the usage of the response to the request being sent and logs
+     * the prefix hash and the cache hit rate.
+     *
+     * @param usage The usage metadata of the response.
+     */
+    public synchronized void recordUsage(ResponseUsageMetadata usage) {
+        stableMessages = systemInstructionsHash == previousSystemInstructionsHash
+                ? commonPrefix(previousHistoryHashes, historyHashes) : 0;
+        prefixHash = mix(systemInstructionsHash, historyHashes.length == 0 ? 0 : historyHashes[historyHashes.length - 1]);
+        previousSystemInstructionsHash = systemInstructionsHash;
+        previousHistoryHashes = historyHashes;
+
+        requests++;
+        promptTokens += usage.getPromptTokenCount();
+        cachedTokens += usage.getCachedContentTokenCount();
+        lastHitRate = usage.getPromptTokenCount() > 0
+                ? (double) usage.getCachedContentTokenCount() / usage.getPromptTokenCount() : 0;
+        log.info("Prompt prefix {}: {} of {} messages unchanged, {} of {} prompt tokens cached ({}%), session hit rate {}%",
+                getPrefixHash(), stableMessages, historyHashes.length, usage.getCachedContentTokenCount(),
+                usage.getPromptTokenCount(), Math.round(lastHitRate * 100), Math.round(getHitRate() * 100));
+    }
+
+    /**
+     * Gets the hash of the prefix (system instructions and history) of the
+     * last request that got a response.
+     *
+     * @return The hash, in hexadecimal.
+     */
+    public synchronized String getPrefixHash() {
+        return Long.toHexString(prefixHash);
+    }
+
+    /**
+     * Gets the number of leading messages of the last request that were
+     * unchanged since the request before it.
+     *
+     * @return The number of stable messages.
+     */
+    public synchronized int getStableMessages() {
+        return stableMessages;
+    }
+
+    /**
+     * Gets the share of the prompt tokens of the last response that were
+     * served from the cache.
+     *
+     * @return The hit rate, between 0 and 1.
+     */
+    public synchronized double getLastHitRate() {
+        return lastHitRate;
+    }
+
+    /**
+     * Gets the share of the prompt tokens of all responses that were served
+     * from the cache.
+     *
+     * @return The hit rate, between 0 and 1.
+     */
+    public synchronized double getHitRate() {
+        return promptTokens > 0 ? (double) cachedTokens / promptTokens : 0;
+    }
+
+    /**
+     * Gets the number of responses recorded.
+     *
+     * @return The number of responses.
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Mixes a value into a rolling hash.
+     *
+     * @param hash The hash so far.
+     * @param value The value.
+     * @return The new hash.
+     */
+    private static long mix(long hash, long value) {
+        long h = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * The number of leading elements two arrays share.
+     *
+     * @param a An array.
+     * @param b Another array.
+     * @return The length of the common prefix.
+     */
+    private static int commonPrefix(long[] a, long[] b) {
+        int n = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < n && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -6,16 +6,27 @@ package uno.anahata.ai.internal;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.Writer;
 import org.apache.tika.Tika;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.exception.WriteLimitReachedException;
 import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
 import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.DefaultParser;
+import org.apache.tika.parser.EmptyParser;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.xml.sax.SAXException;
 
 public final class TikaUtils {
 
     private static final Tika TIKA = new Tika();
 
+    /** The shared parser. {@link AutoDetectParser} is thread-safe, and creating one loads every parser on the classpath. */
+    private static final AutoDetectParser PARSER = new AutoDetectParser();
+
     /**
      * Detects the MIME type of a given file.
      *
@@ -35,17 +46,59 @@ public final class TikaUtils {
      * @throws Exception if an error occurs during parsing.
      */
     public static String detectAndParse(File file) throws Exception {
-        AutoDetectParser parser = new AutoDetectParser();
         BodyContentHandler handler = new BodyContentHandler(-1); // -1 for no write limit
         Metadata metadata = new Metadata();
         ParseContext context = new ParseContext();
 
         try (InputStream stream = new FileInputStream(file)) {
-            parser.parse(stream, handler, metadata, context);
+            PARSER.parse(stream, handler, metadata, context);
             return handler.toString();
         }
     }
 
+    /**
+     * Detects the document type and streams its text content to a writer, without
+     * holding the whole text in memory.
+     *
+     * @param stream The document content.
+     * @param out The writer the extracted text is written to.
+     * @param writeLimit The maximum number of chars to write, or -1 for no limit.
+     * @return {@code true} if the text was truncated because the write limit was reached.
+     * @throws Exception if an error occurs during parsing, or no parser supports the document type.
+     */
+    public static boolean parse(InputStream stream, Writer out, int writeLimit) throws Exception {
+        BodyContentHandler handler = new BodyContentHandler(new WriteOutContentHandler(out, writeLimit));
+        Metadata metadata = new Metadata();
+        try {
+            PARSER.parse(stream, handler, metadata, new ParseContext());
+            if (!isParsed(metadata)) {
+                throw new TikaException("No parser available for documents of type " + metadata.get(Metadata.CONTENT_TYPE));
+            }
+            return false;
+        } catch (SAXException | TikaException e) {
+            if (WriteLimitReachedException.isWriteLimitReached(e)) {
+                return true;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether a parser supporting the document type parsed it, rather
+     * than the empty parser the auto-detecting parser falls back to.
+     *
+     * @param metadata The metadata of the parsed document.
+     * @return {@code true} if a parser supporting the type was used.
+     */
+    private static boolean isParsed(Metadata metadata) {
+        for (String parser : metadata.getValues(TikaCoreProperties.TIKA_PARSED_BY)) {
+            if (!parser.equals(EmptyParser.class.getName()) && !parser.equals(DefaultParser.class.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Infers a file extension from a MIME type.
      * 
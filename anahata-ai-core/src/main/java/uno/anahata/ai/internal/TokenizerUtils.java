@@ -7,13 +7,22 @@ import com.knuddels.jtokkit.Encodings;
 import com.knuddels.jtokkit.api.Encoding;
 import com.knuddels.jtokkit.api.EncodingRegistry;
 import com.knuddels.jtokkit.api.EncodingType;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.model.provider.Tokenizer;
 
 /**
  * A centralized utility class for token counting, powered by the jtokkit library.
  * This provides a single, efficient, and reusable tokenizer instance for the entire application.
+ * <p>
+ * Counts of texts of at least {@value #CACHE_MIN_LENGTH} chars are cached in a
+ * bounded LRU keyed by tokenizer and a 64-bit hash of the text, as the same
+ * large texts (system instructions, tool descriptions and schemas, resources)
+ * are counted on every turn. Large batches are counted in parallel.
  *
  * @author anahata
  */
@@ -21,8 +30,20 @@ import lombok.extern.slf4j.Slf4j;
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public final class TokenizerUtils {
 
+    /** The estimated number of tokens of a non-text part (e.g. an image). */
+    public static final int BLOB_PART_TOKENS = 258;
+
+    /** The minimum length of a text for its count to be cached; shorter texts are cheaper to count than to hash. */
+    public static final int CACHE_MIN_LENGTH = 256;
+
+    /** The maximum number of cached counts. */
+    private static final int CACHE_MAX_ENTRIES = 8192;
+
+    /** The minimum number of chars in a batch for it to be counted in parallel. */
+    private static final int PARALLEL_MIN_CHARS = 64 * 1024;
+
     private static final EncodingRegistry REGISTRY = Encodings.newDefaultEncodingRegistry();
-    
+
     /**
      * A robust, general-purpose tokenizer. CL100K_BASE is the encoding used by
      * gpt-4, gpt-3.5-turbo, and text-embedding-ada-002. It serves as a high-quality
@@ -30,6 +51,37 @@ public final class TokenizerUtils {
      */
     private static final Encoding TOKENIZER = REGISTRY.getEncoding(EncodingType.CL100K_BASE);
 
+    /** The default tokenizer, used for models without a registered one. */
+    public static final Tokenizer DEFAULT_TOKENIZER = new Tokenizer() {
+        @Override
+        public String getName() {
+            return EncodingType.CL100K_BASE.getName();
+        }
+
+        @Override
+        public int countTokens(String text) {
+            return TOKENIZER.countTokens(text);
+        }
+    };
+
+    /**
+     * The key of a cached count.
+     *
+     * @param tokenizer The tokenizer name.
+     * @param hash The 64-bit hash of the text.
+     * @param length The length of the text.
+     */
+    private record CacheKey(String tokenizer, long hash, int length) {
+    }
+
+    /** The cached counts, in access order. */
+    private static final Map<CacheKey, Integer> CACHE = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, Integer> eldest) {
+            return size() > CACHE_MAX_ENTRIES;
+        }
+    };
+
     /**
      * Counts the number of tokens in the given text using the application's default tokenizer.
      *
@@ -37,16 +89,84 @@ public final class TokenizerUtils {
      * @return The number of tokens, or 0 if the text is null or empty.
      */
     public static int countTokens(String text) {
+        return countTokens(DEFAULT_TOKENIZER, text);
+    }
+
+    /**
+     * Counts the number of tokens in the given text with the given tokenizer,
+     * from the cache if the same text was counted before.
+     *
+     * @param tokenizer The tokenizer.
+     * @param text The text to count tokens for. Can be null or empty.
+     * @return The number of tokens, or 0 if the text is null or empty.
+     */
+    public static int countTokens(Tokenizer tokenizer, String text) {
         if (text == null || text.isEmpty()) {
             return 0;
         }
+        CacheKey key = null;
+        if (text.length() >= CACHE_MIN_LENGTH) {
+            key = new CacheKey(tokenizer.getName(), hash64(text), text.length());
+            synchronized (CACHE) {
+                Integer cached = CACHE.get(key);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+        int count;
         try {
-            return TOKENIZER.countTokens(text);
+            count = tokenizer.countTokens(text);
         } catch (Exception e) {
             log.error("Failed to count tokens for text snippet: '{}'",
                       text.substring(0, Math.min(text.length(), 100)), e);
             // Fallback to a rough estimate if the tokenizer fails unexpectedly.
             return text.length() / 4;
         }
+        if (key != null) {
+            synchronized (CACHE) {
+                CACHE.put(key, count);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the total number of tokens of a batch of texts, in parallel on the
+     * common fork/join pool if the batch is large.
+     *
+     * @param tokenizer The tokenizer.
+     * @param texts The texts; {@code null} elements count as 0.
+     * @return The total number of tokens.
+     */
+    public static int countTokens(Tokenizer tokenizer, List<String> texts) {
+        long chars = 0;
+        for (String text : texts) {
+            chars += text != null ? text.length() : 0;
+        }
+        if (chars < PARALLEL_MIN_CHARS || texts.size() < 2) {
+            int total = 0;
+            for (String text : texts) {
+                total += countTokens(tokenizer, text);
+            }
+            return total;
+        }
+        return texts.parallelStream().mapToInt(text -> countTokens(tokenizer, text)).sum();
+    }
+
+    /**
+     * Computes a 64-bit FNV-1a hash of a text, which is much cheaper than
+     * tokenizing it and, together with the length, practically collision free.
+     *
+     * @param text The text.
+     * @return The hash.
+     */
+    private static long hash64(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
     }
 }
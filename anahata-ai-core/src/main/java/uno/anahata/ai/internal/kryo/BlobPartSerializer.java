@@ -0,0 +1,35 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.internal.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import uno.anahata.ai.model.core.BlobPart;
+
+/**
+ * A Kryo serializer for {@link BlobPart} and its subclasses.
+ * <p>
+ * The fields are written as by the {@link PartSerializer}, once any deferred
+ * data has been loaded: the fields are read directly, not through
+ * {@link BlobPart#getData()}.
+ *
+ * @author anahata-ai
+ * @param <T> The blob part type.
+ */
+public class BlobPartSerializer<T extends BlobPart> extends PartSerializer<T> {
+
+    /**
+     * Creates a serializer for a blob part class.
+     *
+     * @param kryo The Kryo instance.
+     * @param type The blob part class.
+     */
+    public BlobPartSerializer(Kryo kryo, Class<T> type) {
+        super(kryo, type);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, T part) {
+        part.getData();
+        super.write(kryo, output, part);
+    }
+}
@@ -4,82 +4,255 @@
 package uno.anahata.ai.internal.kryo;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.SerializerFactory;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import com.esotericsoftware.kryo.util.Pool;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.Optional;
+import java.util.TreeMap;
 import lombok.extern.slf4j.Slf4j;
 import org.objenesis.strategy.StdInstantiatorStrategy;
+import uno.anahata.ai.Preferences;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.model.context.RefreshPolicy;
+import uno.anahata.ai.model.context.RenderMode;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractPart;
+import uno.anahata.ai.model.core.BlobPart;
+import uno.anahata.ai.model.core.FinishReason;
+import uno.anahata.ai.model.core.InputUserMessage;
+import uno.anahata.ai.model.core.ModelBlobPart;
+import uno.anahata.ai.model.core.ModelTextPart;
+import uno.anahata.ai.model.core.RagMessage;
+import uno.anahata.ai.model.core.RequestConfig;
+import uno.anahata.ai.model.core.ResourceSnapshotMessage;
+import uno.anahata.ai.model.core.ResponseUsageMetadata;
+import uno.anahata.ai.model.core.Role;
+import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.core.UserMessage;
+import uno.anahata.ai.model.provider.ServerTool;
+import uno.anahata.ai.model.resource.GrepMatch;
+import uno.anahata.ai.model.resource.GrepResult;
+import uno.anahata.ai.model.tool.AbstractToolResponse;
+import uno.anahata.ai.model.tool.ToolExecutionStatus;
+import uno.anahata.ai.model.tool.ToolPermission;
+import uno.anahata.ai.model.tool.ToolResponseAttachment;
+import uno.anahata.ai.model.tool.bad.BadToolCall;
+import uno.anahata.ai.model.tool.bad.BadToolResponse;
+import uno.anahata.ai.model.tool.java.JavaMethodToolCall;
+import uno.anahata.ai.model.tool.java.JavaMethodToolResponse;
+import uno.anahata.ai.model.web.GroundingMetadata;
+import uno.anahata.ai.model.web.GroundingSource;
 
 /**
  * A utility class for thread-safe Kryo serialization and deserialization.
  * <p>
- * This class uses a {@link ThreadLocal} to manage Kryo instances. This is the standard,
- * enterprise-grade pattern for using Kryo in a multi-threaded environment because Kryo
- * instances are **not thread-safe**.
+ * Kryo instances are <b>not thread-safe</b> and expensive to create, so they
+ * are borrowed from a bounded {@link Pool}, as are the {@link Output} and
+ * {@link Input} buffers, which are reused across calls instead of being
+ * allocated per call. Objects can be written to and read from streams without
+ * materializing the whole payload as a byte array.
  * <p>
- * Using a {@code ThreadLocal} provides two key benefits:
- * <ul>
- *     <li><b>Thread Safety:</b> Each thread gets its own isolated Kryo instance, preventing
- *         race conditions and data corruption.</li>
- *     <li><b>Performance:</b> Each thread reuses its own instance, avoiding the significant
- *         performance overhead of creating a new Kryo object for every operation.</li>
- * </ul>
+ * Registration is required: every class written must be in the registration
+ * table of {@link #configure(Kryo)}, which assigns it a stable id, so a class
+ * is written as a small integer rather than its fully qualified name. New ids
+ * must be appended to the table and never reused, as they are persisted.
+ * Messages and parts are written by the {@link MessageSerializer},
+ * {@link PartSerializer} and {@link TextPartSerializer}, which skip the
+ * back-references and rebuild them on read. Deferred blob data and tool
+ * results are loaded before they are written.
  */
 @Slf4j
 public class KryoUtils {
 
     /**
-     * The core mechanism for managing thread-safe Kryo instances.
+     * The Kryo context key of the {@link Chat} that deserialized messages
+     * belong to. Messages read without it have no chat.
      */
-    private static final ThreadLocal<Kryo> kryoThreadLocal = ThreadLocal.withInitial(() -> {
-        Kryo kryo = new Kryo();
+    public static final String CHAT = "chat";
+
+    /** The initial size of a pooled output buffer. */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** The largest buffer returned to the pool; larger ones are left to the garbage collector. */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    /** The maximum number of pooled instances of each kind. */
+    private static final int POOL_SIZE = 16;
+
+    /** The first id of the registration table, clear of Kryo's default registrations. */
+    private static final int FIRST_ID = 100;
+
+    /** The pool of configured Kryo instances. */
+    private static final Pool<Kryo> KRYO_POOL = new Pool<>(true, false, POOL_SIZE) {
+        @Override
+        protected Kryo create() {
+            Kryo kryo = new Kryo();
+            kryo.setRegistrationRequired(true);
+            configure(kryo);
+            return kryo;
+        }
+    };
+
+    /** The pool of output buffers. */
+    private static final Pool<Output> OUTPUT_POOL = new Pool<>(true, false, POOL_SIZE) {
+        @Override
+        protected Output create() {
+            return new Output(BUFFER_SIZE, -1);
+        }
+    };
+
+    /** The pool of input buffers. */
+    private static final Pool<Input> INPUT_POOL = new Pool<>(true, false, POOL_SIZE) {
+        @Override
+        protected Input create() {
+            return new Input(BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Configures a Kryo instance with the serializers and the registration
+     * table of the domain model.
+     * <p>
+     * Default serializers added before calling this method take precedence
+     * over the ones added here.
+     *
+     * @param kryo The Kryo instance.
+     */
+    public static void configure(Kryo kryo) {
         // Use Objenesis for classes that lack a no-arg constructor.
         kryo.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
-        kryo.setRegistrationRequired(false); // Keep it simple for the core module
+        kryo.addDefaultSerializer(Path.class, new PathSerializer());
+        kryo.addDefaultSerializer(AbstractMessage.class, new SerializerFactory.BaseSerializerFactory<MessageSerializer<?>>() {
+            @Override
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            public MessageSerializer<?> newSerializer(Kryo kryo, Class type) {
+                return new MessageSerializer<>(kryo, type);
+            }
+        });
+        kryo.addDefaultSerializer(BlobPart.class, new SerializerFactory.BaseSerializerFactory<BlobPartSerializer<?>>() {
+            @Override
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            public BlobPartSerializer<?> newSerializer(Kryo kryo, Class type) {
+                return new BlobPartSerializer<>(kryo, type);
+            }
+        });
+        kryo.addDefaultSerializer(AbstractToolResponse.class, new SerializerFactory.BaseSerializerFactory<ToolResponseSerializer<?>>() {
+            @Override
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            public ToolResponseSerializer<?> newSerializer(Kryo kryo, Class type) {
+                return new ToolResponseSerializer<>(kryo, type);
+            }
+        });
+        kryo.addDefaultSerializer(AbstractPart.class, new SerializerFactory.BaseSerializerFactory<PartSerializer<?>>() {
+            @Override
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            public PartSerializer<?> newSerializer(Kryo kryo, Class type) {
+                return new PartSerializer<>(kryo, type);
+            }
+        });
 
-        // Register common JDK types
+        // Common JDK types. The first three keep the implicit ids of earlier versions.
         kryo.register(ArrayList.class);
         kryo.register(HashMap.class);
         kryo.register(Optional.class, new OptionalSerializer()); // Use custom serializer for Optional
 
-        return kryo;
-    });
+        // The registration table. Append only: the ids are persisted.
+        int id = FIRST_ID;
+        kryo.register(Preferences.class, id++);
+        kryo.register(byte[].class, id++);
+        kryo.register(Object[].class, id++);
+        kryo.register(String[].class, id++);
+        kryo.register(LinkedHashMap.class, id++);
+        kryo.register(LinkedList.class, id++);
+        kryo.register(HashSet.class, id++);
+        kryo.register(LinkedHashSet.class, id++);
+        kryo.register(TreeMap.class, id++);
+        kryo.register(Path.of("").getClass(), id++);
+        kryo.register(RefreshPolicy.class, id++);
+        kryo.register(RenderMode.class, id++);
+        kryo.register(FinishReason.class, id++);
+        kryo.register(Role.class, id++);
+        kryo.register(ToolExecutionStatus.class, id++);
+        kryo.register(ToolPermission.class, id++);
+        kryo.register(UserMessage.class, id++);
+        kryo.register(InputUserMessage.class, id++);
+        kryo.register(RagMessage.class, id++);
+        kryo.register(ResourceSnapshotMessage.class, id++);
+        kryo.register(TextPart.class, new TextPartSerializer(), id++);
+        kryo.register(ModelTextPart.class, id++);
+        kryo.register(BlobPart.class, id++);
+        kryo.register(ModelBlobPart.class, id++);
+        kryo.register(JavaMethodToolCall.class, id++);
+        kryo.register(JavaMethodToolResponse.class, id++);
+        kryo.register(BadToolCall.class, id++);
+        kryo.register(BadToolResponse.class, id++);
+        kryo.register(ToolResponseAttachment.class, id++);
+        kryo.register(ResponseUsageMetadata.class, id++);
+        kryo.register(RequestConfig.class, id++);
+        kryo.register(ServerTool.class, id++);
+        kryo.register(GroundingMetadata.class, id++);
+        kryo.register(GroundingSource.class, id++);
+        kryo.register(GrepResult.class, id++);
+        kryo.register(GrepMatch.class, id++);
+    }
 
     /**
-     * Retrieves the Kryo instance for the currently executing thread.
+     * Serializes an object into a byte array.
      *
-     * @return A thread-safe Kryo instance.
+     * @param object The object to serialize.
+     * @return A byte array representing the serialized object.
      */
-    public static Kryo getKryo() {
-        return kryoThreadLocal.get();
+    public static byte[] serialize(Object object) {
+        long start = System.nanoTime();
+        Kryo kryo = KRYO_POOL.obtain();
+        Output output = OUTPUT_POOL.obtain();
+        try {
+            output.reset();
+            kryo.writeObject(output, object);
+            byte[] bytes = output.toBytes();
+            log.debug("Kryo serialization of {} took {} µs, size: {} bytes", object.getClass().getSimpleName(), (System.nanoTime() - start) / 1000, bytes.length);
+            return bytes;
+        } finally {
+            KRYO_POOL.free(kryo);
+            free(output);
+        }
     }
 
     /**
-     * Serializes an object into a byte array using the current thread's Kryo instance.
+     * Serializes an object to a stream, through a pooled buffer.
      *
      * @param object The object to serialize.
-     * @return A byte array representing the serialized object.
+     * @param out The stream, flushed but not closed.
      */
-    public static byte[] serialize(Object object) {
-        long start = System.currentTimeMillis();
-        Kryo kryo = getKryo();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try (Output output = new Output(byteArrayOutputStream)) {
+    public static void serialize(Object object, OutputStream out) {
+        long start = System.nanoTime();
+        Kryo kryo = KRYO_POOL.obtain();
+        Output output = OUTPUT_POOL.obtain();
+        try {
+            output.setOutputStream(out);
             kryo.writeObject(output, object);
+            output.flush();
+            log.debug("Kryo serialization of {} took {} µs, size: {} bytes", object.getClass().getSimpleName(), (System.nanoTime() - start) / 1000, output.total());
+        } finally {
+            output.setOutputStream(null);
+            KRYO_POOL.free(kryo);
+            free(output);
         }
-        byte[] bytes = byteArrayOutputStream.toByteArray();
-        long end = System.currentTimeMillis();
-        log.info("Kryo serialization of {} took {} ms, size: {} bytes", object.getClass().getSimpleName(), (end - start), bytes.length);
-        return bytes;
     }
 
     /**
-     * Deserializes a byte array into an object of the specified class using the current thread's Kryo instance.
+     * Deserializes a byte array into an object of the specified class.
      *
      * @param <T>   The type of the object to deserialize.
      * @param bytes The byte array to deserialize.
@@ -87,14 +260,92 @@ public class KryoUtils {
      * @return The deserialized object.
      */
     public static <T> T deserialize(byte[] bytes, Class<T> clazz) {
-        long start = System.currentTimeMillis();
-        Kryo kryo = getKryo();
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-        try (Input input = new Input(byteArrayInputStream)) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try {
+            return kryo.readObject(new Input(bytes), clazz);
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    /**
+     * Deserializes an object from a stream, through a pooled buffer. The
+     * stream may be read past the end of the object.
+     *
+     * @param <T>   The type of the object to deserialize.
+     * @param in    The stream, not closed.
+     * @param clazz The class of the object.
+     * @return The deserialized object.
+     */
+    public static <T> T deserialize(InputStream in, Class<T> clazz) {
+        return deserialize(in, clazz, null);
+    }
+
+    /**
+     * Deserializes an object from a stream, through a pooled buffer,
+     * attaching any message read to the given chat. The stream may be read
+     * past the end of the object.
+     *
+     * @param <T>   The type of the object to deserialize.
+     * @param in    The stream, not closed.
+     * @param clazz The class of the object.
+     * @param chat  The chat of the messages read, or {@code null}.
+     * @return The deserialized object.
+     */
+    public static <T> T deserialize(InputStream in, Class<T> clazz, Chat chat) {
+        long start = System.nanoTime();
+        Kryo kryo = KRYO_POOL.obtain();
+        Input input = INPUT_POOL.obtain();
+        try {
+            input.setInputStream(in);
+            setChat(kryo, chat);
             T object = kryo.readObject(input, clazz);
-            long end = System.currentTimeMillis();
-            log.info("Kryo deserialization of {} took {} ms, size: {} bytes", clazz.getSimpleName(), (end - start), bytes.length);
+            log.debug("Kryo deserialization of {} took {} µs", clazz.getSimpleName(), (System.nanoTime() - start) / 1000);
             return object;
+        } finally {
+            setChat(kryo, null);
+            input.setInputStream(null);
+            KRYO_POOL.free(kryo);
+            INPUT_POOL.free(input);
+        }
+    }
+
+    /**
+     * Binds the messages a Kryo instance reads to a chat, through the
+     * {@link #CHAT} entry of its context.
+     *
+     * @param kryo The Kryo instance.
+     * @param chat The chat, or {@code null} to unbind it.
+     */
+    @SuppressWarnings("unchecked") // The context is a raw ObjectMap
+    public static void setChat(Kryo kryo, Chat chat) {
+        if (chat != null) {
+            kryo.getContext().put(CHAT, chat);
+        } else {
+            kryo.getContext().remove(CHAT);
+        }
+    }
+
+    /**
+     * Gets the chat the messages a Kryo instance reads are bound to.
+     *
+     * @param kryo The Kryo instance.
+     * @return The chat, or {@code null} if unbound.
+     */
+    public static Chat getChat(Kryo kryo) {
+        @SuppressWarnings("unchecked") // The context is a raw ObjectMap
+        Chat chat = (Chat) kryo.getContext().get(CHAT);
+        return chat;
+    }
+
+    /**
+     * Returns an output buffer to the pool, unless it grew too large to keep.
+     *
+     * @param output The output.
+     */
+    private static void free(Output output) {
+        if (output.getBuffer().length <= MAX_POOLED_BUFFER_SIZE) {
+            OUTPUT_POOL.free(output);
         }
     }
 }
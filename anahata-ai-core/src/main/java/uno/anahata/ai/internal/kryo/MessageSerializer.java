@@ -0,0 +1,95 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.internal.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractPart;
+
+/**
+ * A Kryo serializer for {@link AbstractMessage} and its subclasses.
+ * <p>
+ * The fields of the concrete class are written as by a {@link FieldSerializer},
+ * except for the back-reference to the {@link Chat} and the parts, which are
+ * written explicitly after them. On read, the chat is taken from the
+ * {@link KryoUtils#CHAT} entry of the Kryo context (if any) and each part is
+ * re-attached to the message, restoring the references the
+ * {@link PartSerializer} does not write. The property change support is
+ * transient and recreated on first use.
+ *
+ * @author anahata-ai
+ * @param <T> The message type.
+ */
+public class MessageSerializer<T extends AbstractMessage> extends FieldSerializer<T> {
+
+    /** The back-reference to the chat. */
+    private static final Field CHAT_FIELD = field("chat");
+
+    /** The list of parts. */
+    private static final Field PARTS_FIELD = field("parts");
+
+    /**
+     * Creates a serializer for a message class.
+     *
+     * @param kryo The Kryo instance.
+     * @param type The message class.
+     */
+    public MessageSerializer(Kryo kryo, Class<T> type) {
+        super(kryo, type);
+        removeField("chat");
+        removeField("parts");
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, T message) {
+        super.write(kryo, output, message);
+        List<AbstractPart> parts = message.getParts();
+        output.writeVarInt(parts.size(), true);
+        for (AbstractPart part : parts) {
+            kryo.writeClassAndObject(output, part);
+        }
+    }
+
+    @Override
+    public T read(Kryo kryo, Input input, Class<? extends T> type) {
+        T message = super.read(kryo, input, type);
+        try {
+            CHAT_FIELD.set(message, KryoUtils.getChat(kryo));
+            // Instantiated without running the field initializers
+            int count = input.readVarInt(true);
+            List<AbstractPart> parts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                AbstractPart part = (AbstractPart) kryo.readClassAndObject(input);
+                part.setMessage(message);
+                parts.add(part);
+            }
+            PARTS_FIELD.set(message, parts);
+        } catch (IllegalAccessException e) {
+            throw new KryoException("Cannot restore message " + message.getId(), e);
+        }
+        return message;
+    }
+
+    /**
+     * Gets an accessible field of {@link AbstractMessage}.
+     *
+     * @param name The field name.
+     * @return The field.
+     */
+    private static Field field(String name) {
+        try {
+            Field field = AbstractMessage.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
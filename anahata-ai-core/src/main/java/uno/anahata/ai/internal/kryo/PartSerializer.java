@@ -0,0 +1,32 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.internal.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import uno.anahata.ai.model.core.AbstractPart;
+
+/**
+ * A Kryo serializer for {@link AbstractPart} subclasses without a dedicated
+ * serializer.
+ * <p>
+ * The fields are written as by a {@link FieldSerializer}, except for the
+ * back-reference to the message, which the {@link MessageSerializer} restores
+ * when the part is read as one of its parts. The property change support is
+ * transient and recreated on first use.
+ *
+ * @author anahata-ai
+ * @param <T> The part type.
+ */
+public class PartSerializer<T extends AbstractPart> extends FieldSerializer<T> {
+
+    /**
+     * Creates a serializer for a part class.
+     *
+     * @param kryo The Kryo instance.
+     * @param type The part class.
+     */
+    public PartSerializer(Kryo kryo, Class<T> type) {
+        super(kryo, type);
+        removeField("message");
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça!
+ */
+package uno.anahata.ai.internal.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.nio.file.Path;
+
+/**
+ * A custom Kryo serializer for {@link java.nio.file.Path}.
+ * <p>
+ * Path implementations (e.g. {@code sun.nio.fs.UnixPath}) live in JDK internal
+ * packages that the field serializer cannot access without
+ * {@code --add-opens}, so paths are written as their string form and resolved
+ * against the default file system when read.
+ *
+ * @author anahata-ai
+ */
+public class PathSerializer extends Serializer<Path> {
+
+    /**
+     * Creates the serializer. Paths are immutable, so copies share the instance.
+     */
+    public PathSerializer() {
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, Path path) {
+        output.writeString(path.toString());
+    }
+
+    @Override
+    public Path read(Kryo kryo, Input input, Class<? extends Path> type) {
+        return Path.of(input.readString());
+    }
+}
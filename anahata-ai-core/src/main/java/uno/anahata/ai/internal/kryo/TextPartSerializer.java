@@ -0,0 +1,65 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.internal.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import uno.anahata.ai.model.core.TextPart;
+
+/**
+ * A hand-written Kryo serializer for {@link TextPart}, by far the most
+ * frequent part type.
+ * <p>
+ * Only the state is written: the sequential id, the pruning flags and the
+ * text, without field metadata. The back-reference to the message is restored
+ * by the {@link MessageSerializer}.
+ *
+ * @author anahata-ai
+ */
+public class TextPartSerializer extends Serializer<TextPart> {
+
+    @Override
+    public void write(Kryo kryo, Output output, TextPart part) {
+        output.writeVarLong(part.getSequentialId(), true);
+        writeFlag(output, part.getPruned());
+        Integer turnsToKeep = part.getTurnsToKeep();
+        output.writeBoolean(turnsToKeep != null);
+        if (turnsToKeep != null) {
+            output.writeVarInt(turnsToKeep, false);
+        }
+        output.writeString(part.getText());
+    }
+
+    @Override
+    public TextPart read(Kryo kryo, Input input, Class<? extends TextPart> type) {
+        TextPart part = kryo.newInstance(type);
+        kryo.reference(part);
+        part.setSequentialId(input.readVarLong(true));
+        part.setPruned(readFlag(input));
+        part.setTurnsToKeep(input.readBoolean() ? input.readVarInt(false) : null);
+        part.setText(input.readString());
+        return part;
+    }
+
+    /**
+     * Writes a tri-state flag as a byte.
+     *
+     * @param output The output.
+     * @param flag The flag.
+     */
+    private static void writeFlag(Output output, Boolean flag) {
+        output.writeByte(flag == null ? 0 : flag ? 1 : 2);
+    }
+
+    /**
+     * Reads a tri-state flag written by {@link #writeFlag(Output, Boolean)}.
+     *
+     * @param input The input.
+     * @return The flag.
+     */
+    private static Boolean readFlag(Input input) {
+        byte flag = input.readByte();
+        return flag == 0 ? null : flag == 1;
+    }
+}
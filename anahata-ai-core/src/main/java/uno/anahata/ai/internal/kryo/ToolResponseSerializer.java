@@ -0,0 +1,35 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.internal.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import uno.anahata.ai.model.tool.AbstractToolResponse;
+
+/**
+ * A Kryo serializer for {@link AbstractToolResponse} subclasses.
+ * <p>
+ * The fields are written as by the {@link PartSerializer}, once any deferred
+ * result has been loaded: the fields are read directly, not through
+ * {@link AbstractToolResponse#getResult()}.
+ *
+ * @author anahata-ai
+ * @param <T> The response type.
+ */
+public class ToolResponseSerializer<T extends AbstractToolResponse<?>> extends PartSerializer<T> {
+
+    /**
+     * Creates a serializer for a tool response class.
+     *
+     * @param kryo The Kryo instance.
+     * @param type The response class.
+     */
+    public ToolResponseSerializer(Kryo kryo, Class<T> type) {
+        super(kryo, type);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, T response) {
+        response.getResult();
+        super.write(kryo, output, response);
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça!
+ */
+package uno.anahata.ai.model.context;
+
+/**
+ * Defines how a resource's content is rendered into the Augmented Workspace
+ * on each turn.
+ *
+ * @author anahata-ai
+ */
+public enum RenderMode {
+    /**
+     * The full content is rendered on every turn.
+     */
+    FULL,
+
+    /**
+     * The full content is rendered once into the conversation history (a
+     * resource snapshot message). Later turns only state that the content is
+     * unchanged or show a unified diff against that rendering, until it is
+     * pruned from the history or the diff grows too large. Ideal for large
+     * files under active development.
+     */
+    DELTA;
+}
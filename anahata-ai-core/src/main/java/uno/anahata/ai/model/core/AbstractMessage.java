@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -28,8 +29,11 @@ import uno.anahata.ai.chat.Chat;
 @RequiredArgsConstructor(access = AccessLevel.PROTECTED)
 public abstract class AbstractMessage implements PropertyChangeSource {
 
-    /** Support for firing property change events. */
-    private final PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
+    /** Issues the version stamps of all messages, so that no two changes ever share a stamp. */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /** Support for firing property change events. Not serialized: listeners are runtime (e.g. UI) state. */
+    private transient PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
 
     /**
      * A unique, immutable identifier for this message.
@@ -72,6 +76,14 @@ public abstract class AbstractMessage implements PropertyChangeSource {
      */
     private Boolean pruned = null;
 
+    /**
+     * A stamp that changes whenever a part is added, removed, pruned or
+     * changed, so that model providers can cache the converted form of the
+     * message. Time-based pruning is not stamped: it depends on the depth of
+     * the message, not on its content. Not serialized.
+     */
+    private transient volatile long version = VERSIONS.incrementAndGet();
+
     /**
      * Gets the role of the entity that created this message. This is
      * implemented by subclasses to provide compile-time type safety.
@@ -117,7 +129,8 @@ public abstract class AbstractMessage implements PropertyChangeSource {
         // to a fully initialized part object (including its parent message reference).
         part.setMessage(this);
         this.parts.add(part);
-        propertyChangeSupport.firePropertyChange("parts", null, parts);
+        touch();
+        getPropertyChangeSupport().firePropertyChange("parts", null, parts);
     }
     
     /**
@@ -130,9 +143,18 @@ public abstract class AbstractMessage implements PropertyChangeSource {
         Validate.isTrue(parts.contains(part), "Part " + part + " is not a part of this message.");
         parts.remove(part);
         part.setMessage(null);
-        propertyChangeSupport.firePropertyChange("parts", null, parts);
+        touch();
+        getPropertyChangeSupport().firePropertyChange("parts", null, parts);
     }
     
+    /**
+     * Stamps a new {@link #getVersion() version} on this message, marking
+     * its content as changed.
+     */
+    void touch() {
+        version = VERSIONS.incrementAndGet();
+    }
+
     /**
      * Removes this message from the chat history.
      */
@@ -150,7 +172,8 @@ public abstract class AbstractMessage implements PropertyChangeSource {
     public void setPruned(Boolean pruned) {
         Boolean oldPruned = this.pruned;
         this.pruned = pruned;
-        propertyChangeSupport.firePropertyChange("pruned", oldPruned, pruned);
+        touch();
+        getPropertyChangeSupport().firePropertyChange("pruned", oldPruned, pruned);
     }
 
     /**
@@ -254,7 +277,7 @@ public abstract class AbstractMessage implements PropertyChangeSource {
      * @param listener The listener to add.
      */
     public void addPropertyChangeListener(PropertyChangeListener listener) {
-        propertyChangeSupport.addPropertyChangeListener(listener);
+        getPropertyChangeSupport().addPropertyChangeListener(listener);
     }
 
     /**
@@ -263,12 +286,15 @@ public abstract class AbstractMessage implements PropertyChangeSource {
      * @param listener The listener to remove.
      */
     public void removePropertyChangeListener(PropertyChangeListener listener) {
-        propertyChangeSupport.removePropertyChangeListener(listener);
+        getPropertyChangeSupport().removePropertyChangeListener(listener);
     }
 
     /** {@inheritDoc} */
     @Override
-    public PropertyChangeSupport getPropertyChangeSupport() {
+    public synchronized PropertyChangeSupport getPropertyChangeSupport() {
+        if (propertyChangeSupport == null) {
+            propertyChangeSupport = new PropertyChangeSupport(this); // Deserialized
+        }
         return propertyChangeSupport;
     }
 
@@ -2,6 +2,7 @@
 package uno.anahata.ai.model.core;
 
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -48,9 +49,15 @@ public abstract class AbstractModelMessage<R extends Response, T extends Abstrac
     @Setter(AccessLevel.NONE)
     private int tokenCount;
     
-    /** The raw JSON response from the model. */
+    /** The raw JSON response from the model, or {@code null} while it is deferred. */
+    @Getter(AccessLevel.NONE)
     @Setter(AccessLevel.NONE)
     private String rawJson;
+
+    /** Renders the raw JSON deferred by {@link #deferRawJson(Supplier)} on first access. Not serialized. */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient Supplier<String> rawJsonLoader;
     
     /** The citation metadata for the response, summarized as a string. */
     private String citationMetadata;
@@ -90,11 +97,55 @@ public abstract class AbstractModelMessage<R extends Response, T extends Abstrac
      * @param rawJson The raw JSON string.
      */
     public void setRawJson(String rawJson) {
-        String oldJson = this.rawJson;
-        this.rawJson = rawJson;
+        String oldJson;
+        synchronized (this) {
+            oldJson = this.rawJson;
+            this.rawJson = rawJson;
+            this.rawJsonLoader = null;
+        }
         getPropertyChangeSupport().firePropertyChange("rawJson", oldJson, rawJson);
     }
 
+    /**
+     * Defers the raw JSON of the model's response, which is rendered only if
+     * it is asked for. A deferred raw JSON is not saved with the session.
+     *
+     * @param loader Renders the raw JSON.
+     */
+    public void deferRawJson(@NonNull Supplier<String> loader) {
+        String oldJson;
+        synchronized (this) {
+            oldJson = this.rawJson;
+            this.rawJson = null;
+            this.rawJsonLoader = loader;
+        }
+        getPropertyChangeSupport().firePropertyChange("rawJson", oldJson, null);
+    }
+
+    /**
+     * Gets the raw JSON of the model's response, rendering it first if it is
+     * deferred.
+     *
+     * @return The raw JSON, or {@code null} if there is none.
+     */
+    public synchronized String getRawJson() {
+        if (rawJsonLoader != null) {
+            rawJson = rawJsonLoader.get();
+            rawJsonLoader = null;
+        }
+        return rawJson;
+    }
+
+    /**
+     * Whether this message has a raw JSON, without rendering it if it is
+     * deferred.
+     *
+     * @return {@code true} if there is a raw JSON, captured or deferred.
+     */
+    public synchronized boolean hasRawJson() {
+        return rawJsonLoader != null || (rawJson != null && !rawJson.isEmpty());
+    }
+
     /**
      * Appends a raw JSON chunk to the existing content. If multiple chunks are
      * appended, they are automatically wrapped in a JSON array to maintain
@@ -106,7 +157,7 @@ public abstract class AbstractModelMessage<R extends Response, T extends Abstrac
         if (chunk == null || chunk.isEmpty()) {
             return;
         }
-        String oldJson = this.rawJson;
+        String oldJson = getRawJson();
         if (this.rawJson == null || this.rawJson.isEmpty()) {
             this.rawJson = chunk;
         } else {
@@ -4,6 +4,7 @@ package uno.anahata.ai.model.core;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
@@ -21,9 +22,10 @@ import uno.anahata.ai.chat.ChatConfig;
 @Setter
 public abstract class AbstractPart implements PropertyChangeSource {
     
-    /** Support for firing property change events. */
+    /** Support for firing property change events. Not serialized: listeners are runtime (e.g. UI) state. */
     @JsonIgnore
-    private final PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
+    @Setter(AccessLevel.NONE)
+    private transient PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
 
     /**
      * A unique, sequential identifier assigned to this part when it is added to a chat.
@@ -73,7 +75,39 @@ public abstract class AbstractPart implements PropertyChangeSource {
     public void setPruned(Boolean pruned) {
         Boolean oldPruned = this.pruned;
         this.pruned = pruned;
-        propertyChangeSupport.firePropertyChange("pruned", oldPruned, pruned);
+        firePropertyChange("pruned", oldPruned, pruned);
+    }
+
+    /**
+     * Sets the sequential id of this part, which is part of its content as
+     * sent to the model.
+     *
+     * @param sequentialId The sequential id.
+     */
+    public void setSequentialId(long sequentialId) {
+        this.sequentialId = sequentialId;
+        touch();
+    }
+
+    /**
+     * Sets the instance-level retention policy of this part.
+     *
+     * @param turnsToKeep The number of turns to keep this part, or {@code null} for the default.
+     */
+    public void setTurnsToKeep(Integer turnsToKeep) {
+        this.turnsToKeep = turnsToKeep;
+        touch();
+    }
+
+    /**
+     * Marks the content of this part as changed, stamping a new version on
+     * the parent message. Setters that fire no event call this directly.
+     */
+    protected void touch() {
+        AbstractMessage owner = message;
+        if (owner != null) {
+            owner.touch();
+        }
     }
 
     /**
@@ -94,7 +128,7 @@ public abstract class AbstractPart implements PropertyChangeSource {
      * @param listener The listener to add.
      */
     public void addPropertyChangeListener(PropertyChangeListener listener) {
-        propertyChangeSupport.addPropertyChangeListener(listener);
+        getPropertyChangeSupport().addPropertyChangeListener(listener);
     }
 
     /**
@@ -103,7 +137,7 @@ public abstract class AbstractPart implements PropertyChangeSource {
      * @param listener The listener to remove.
      */
     public void removePropertyChangeListener(PropertyChangeListener listener) {
-        propertyChangeSupport.removePropertyChangeListener(listener);
+        getPropertyChangeSupport().removePropertyChangeListener(listener);
     }
 
     /**
@@ -135,13 +169,25 @@ public abstract class AbstractPart implements PropertyChangeSource {
             return true;
         }
         // 5. Finally, check the time-based auto-pruning logic (only if pruned is null for both).
-        if (getTurnsLeft() <= 0) {
+        // In prefix-stable mode it is applied in epochs by the ContextManager, which tombstones expired parts.
+        if (!isPrefixStable() && getTurnsLeft() <= 0) {
             return true;
         }
 
         return false;
     }
 
+    /**
+     * Whether the chat of this part assembles its requests in prefix-stable
+     * mode, where time-based pruning does not take effect on its own.
+     *
+     * @return {@code true} in prefix-stable mode.
+     */
+    private boolean isPrefixStable() {
+        ChatConfig config = getChatConfig();
+        return config != null && config.isPrefixStableContext();
+    }
+
     /**
      * Calculates the remaining turns before this part is auto-pruned.
      * 
@@ -208,9 +254,33 @@ public abstract class AbstractPart implements PropertyChangeSource {
      */
     public abstract String asText();
 
+    /**
+     * Marks the content of this part as changed and fires a property change
+     * event, unless the property change support has not been recreated since
+     * deserialization, in which case no listener can be registered and none
+     * is allocated just to fire into the void.
+     *
+     * @param propertyName The property name.
+     * @param oldValue The old value.
+     * @param newValue The new value.
+     */
+    protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+        touch();
+        PropertyChangeSupport support;
+        synchronized (this) {
+            support = propertyChangeSupport;
+        }
+        if (support != null) {
+            support.firePropertyChange(propertyName, oldValue, newValue);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
-    public PropertyChangeSupport getPropertyChangeSupport() {
+    public synchronized PropertyChangeSupport getPropertyChangeSupport() {
+        if (propertyChangeSupport == null) {
+            propertyChangeSupport = new PropertyChangeSupport(this); // Deserialized
+        }
         return propertyChangeSupport;
     }
 }
@@ -5,6 +5,8 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.Supplier;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import uno.anahata.ai.internal.TikaUtils;
@@ -13,6 +15,9 @@ import uno.anahata.ai.internal.TikaUtils;
  * Represents a binary data part, such as an image or a document.
  * It can be created from raw bytes or directly from a file path, in which case
  * it retains a reference to the source path for traceability.
+ * <p>
+ * The data of a part restored from a session file can be deferred: it stays
+ * in the file until it is first read.
  *
  * @author anahata-gemini-pro-2.5
  */
@@ -23,9 +28,17 @@ public class BlobPart extends AbstractPart {
     @NonNull
     private final String mimeType;
 
-    /** The raw binary data. */
-    @NonNull
-    private final byte[] data;
+    /** The raw binary data, or {@code null} while it is deferred. */
+    @Getter(AccessLevel.NONE)
+    private byte[] data;
+
+    /** Loads the deferred data on first access. Not serialized. */
+    @Getter(AccessLevel.NONE)
+    private transient Supplier<byte[]> dataLoader;
+
+    /** The size of the deferred data. */
+    @Getter(AccessLevel.NONE)
+    private transient int deferredSize;
     
     /** The original source path if this blob was created from a file. Can be null. */
     private Path sourcePath;
@@ -72,10 +85,54 @@ public class BlobPart extends AbstractPart {
         return from(message, file.toPath());
     }
     
+    /**
+     * Gets the binary data, loading it first if it is deferred.
+     *
+     * @return The binary data.
+     */
+    public synchronized byte[] getData() {
+        if (data == null && dataLoader != null) {
+            data = dataLoader.get();
+            dataLoader = null;
+        }
+        return data;
+    }
+
+    /**
+     * Gets the size of the data, without loading it if it is deferred.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized int getSize() {
+        return data != null ? data.length : deferredSize;
+    }
+
+    /**
+     * Whether the data is deferred, i.e. not loaded yet.
+     *
+     * @return {@code true} if the data has not been loaded yet.
+     */
+    public synchronized boolean isDeferred() {
+        return data == null && dataLoader != null;
+    }
+
+    /**
+     * Defers the data of a restored part, dropping it from memory until it is
+     * first read.
+     *
+     * @param size The size of the data.
+     * @param loader Loads the data.
+     */
+    public synchronized void defer(int size, @NonNull Supplier<byte[]> loader) {
+        this.data = null;
+        this.deferredSize = size;
+        this.dataLoader = loader;
+    }
+
     @Override
     public String asText() {
         String source = sourcePath != null ? ", source: " + sourcePath : "";
-        return "[Blob: " + mimeType + ", " + data.length + " bytes" + source + "]";
+        return "[Blob: " + mimeType + ", " + getSize() + " bytes" + source + "]";
     }
 
     @Override
@@ -29,4 +29,11 @@ public class ModelBlobPart extends BlobPart implements ThoughtSignature {
         super(message, mimeType, data);
         this.thoughtSignature = thoughtSignature;
     }
-}
\ No newline at end of file
+
+    /** {@inheritDoc} */
+    @Override
+    public void setThoughtSignature(byte[] thoughtSignature) {
+        this.thoughtSignature = thoughtSignature;
+        touch();
+    }
+}
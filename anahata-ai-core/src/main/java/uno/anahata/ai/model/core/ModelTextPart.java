@@ -31,6 +31,23 @@ public class ModelTextPart extends TextPart implements ThoughtSignature {
         this.thought = thought;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void setThoughtSignature(byte[] thoughtSignature) {
+        this.thoughtSignature = thoughtSignature;
+        touch();
+    }
+
+    /**
+     * Sets whether this part represents a thought process.
+     *
+     * @param thought {@code true} for a thought.
+     */
+    public void setThought(boolean thought) {
+        this.thought = thought;
+        touch();
+    }
+
     @Override
     public boolean isThought() {
         return thought;
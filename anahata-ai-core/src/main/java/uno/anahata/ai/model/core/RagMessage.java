@@ -15,6 +15,9 @@ import uno.anahata.ai.chat.Chat;
  */
 public class RagMessage extends UserMessage {
 
+    /** The snapshot message for the full renderings of delta-mode resources, created on demand. */
+    private ResourceSnapshotMessage snapshotMessage;
+
     public RagMessage(Chat chat) {
         super(chat);
         new TextPart(this, "**RAG Message (Live Workspace)**\n\n This message is dynamically generated at runtime (not written by the user) and populated by all enabled context providers after tool execution");
@@ -29,6 +32,21 @@ public class RagMessage extends UserMessage {
         new TextPart(this, text);
     }
 
+    /**
+     * Gets the snapshot message that receives the full renderings of resources
+     * in delta render mode. The context manager adds it to the history, just
+     * before this message.
+     *
+     * @param create Whether to create the message if no resource used it yet.
+     * @return The snapshot message, or {@code null} if none was created and {@code create} is false.
+     */
+    public ResourceSnapshotMessage getSnapshotMessage(boolean create) {
+        if (snapshotMessage == null && create) {
+            snapshotMessage = new ResourceSnapshotMessage(getChat());
+        }
+        return snapshotMessage;
+    }
+
     /**
      * Overrides the default pruning logic to declare that this message is
      * ephemeral and should never be pruned. This is the key to preventing
@@ -0,0 +1,94 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.model.core;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import uno.anahata.ai.chat.Chat;
+
+/**
+ * A message in the conversation history holding the full renderings of the
+ * resources in {@link uno.anahata.ai.model.context.RenderMode#DELTA DELTA}
+ * render mode.
+ * <p>
+ * Unlike the {@link RagMessage}, which is rebuilt for every request, this
+ * message is added to the history, so later RAG messages can refer to it and
+ * render only the changes made since. Its parts are pruned like any other
+ * text part, after which the resources render in full again. A rendering that
+ * replaces an earlier one still in the history prunes it when this message
+ * joins the history, so the model never sees two full renderings of a resource.
+ *
+ * @author anahata-ai
+ */
+public class ResourceSnapshotMessage extends UserMessage {
+
+    /** The header part, updated with the message number once the message is in the history. */
+    private final TextPart header;
+
+    /** The earlier full renderings replaced by the renderings of this message, by replacing rendering; created on first use. */
+    private transient Map<TextPart, TextPart> superseded;
+
+    /**
+     * Creates a new, empty snapshot message.
+     *
+     * @param chat The chat.
+     */
+    public ResourceSnapshotMessage(Chat chat) {
+        super(chat);
+        this.header = new TextPart(this, "**Resource Snapshot**");
+    }
+
+    /**
+     * Updates the header with the message number, once the message has been
+     * added to the history.
+     */
+    public void updateHeader() {
+        header.setText("**Resource Snapshot (message #" + getSequentialId() + ")**\n\n"
+                + "Full renderings of workspace resources. Later RAG messages only show the changes made to them since this message.");
+    }
+
+    /**
+     * Records that a rendering of this message replaces an earlier full
+     * rendering of the same resource.
+     *
+     * @param rendering The rendering in this message.
+     * @param previous The earlier rendering, in the history.
+     */
+    public void supersede(TextPart rendering, TextPart previous) {
+        if (superseded == null) {
+            superseded = new IdentityHashMap<>();
+        }
+        superseded.put(rendering, previous);
+    }
+
+    /**
+     * Prunes the earlier renderings replaced by the renderings of this
+     * message, once it has been added to the history. An earlier rendering
+     * whose replacement was removed from this message again (e.g. elided for
+     * the token budget) stays visible.
+     */
+    public void pruneSuperseded() {
+        if (superseded == null) {
+            return;
+        }
+        superseded.forEach((rendering, previous) -> {
+            if (getParts().contains(rendering)) {
+                previous.setPruned(true);
+            }
+        });
+        superseded = null;
+    }
+
+    /**
+     * Checks whether any resource rendered into this message.
+     *
+     * @return {@code true} if there are parts other than the header.
+     */
+    public boolean hasRenderings() {
+        return getParts().size() > 1;
+    }
+
+    @Override
+    public String getFrom() {
+        return "Java workspace";
+    }
+}
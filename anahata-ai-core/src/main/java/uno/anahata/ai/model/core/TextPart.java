@@ -34,7 +34,7 @@ public class TextPart extends AbstractPart {
     public void setText(String text) {
         String oldText = this.text;
         this.text = text;
-        getPropertyChangeSupport().firePropertyChange("text", oldText, text);
+        firePropertyChange("text", oldText, text);
     }
 
     /**
@@ -48,7 +48,7 @@ public class TextPart extends AbstractPart {
         }
         String oldText = this.text;
         this.text = (this.text == null ? "" : this.text) + delta;
-        getPropertyChangeSupport().firePropertyChange("text", oldText, this.text);
+        firePropertyChange("text", oldText, this.text);
     }
 
     /** {@inheritDoc} */
@@ -9,13 +9,17 @@ import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.WeakHashMap;
 import java.util.stream.Collectors;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.tool.RetryableApiException;
 
 /**
  * The abstract base class for all AI model providers, now with model caching.
@@ -28,7 +32,11 @@ import uno.anahata.ai.AsiConfig;
 public abstract class AbstractAiProvider {
     private List<String> keyPool;
     private final String providerId;
-    private final AtomicInteger round = new AtomicInteger(0);
+    /** Tracks the health of the keys in the pool and hands them out to requests. */
+    private final ApiKeyManager keyManager = new ApiKeyManager();
+    /** The key each chat used last, kept while healthy so the provider's prefix caches stay warm. */
+    @Getter(AccessLevel.NONE)
+    private final Map<Chat, String> chatKeys = Collections.synchronizedMap(new WeakHashMap<>());
     
     // Transient cache for the models
     private transient List<? extends AbstractModel> models;
@@ -112,30 +120,37 @@ public abstract class AbstractAiProvider {
     /**
      * Reloads the keys from the api_keys.txt file
      */
-    public void reloadKeyPool() {
+    public synchronized void reloadKeyPool() {
         keyPool = readApiKeysFile();
+        keyManager.setKeys(keyPool);
     }
     
     /**
-     * Gets the next API key for the specific provider implementation using a round-robin selection from the loaded key pool.
-     * 
-     * The key pool is reloaded from the file system on every call.
-     * @return The API key.
+     * Leases an API key for a request of a chat: the key the chat used last
+     * while it is healthy and has spare capacity, otherwise the healthiest
+     * key (see {@link ApiKeyManager}). The key pool is loaded on first use.
+     * The lease must be closed when the request is over, after reporting its
+     * outcome.
+     *
+     * @param chat The chat of the request, or null.
+     * @return The lease.
+     * @throws IllegalStateException if there are no API keys.
+     * @throws RetryableApiException if every key is cooling down for longer
+     *         than {@link ApiKeyManager#MAX_COOLDOWN_WAIT}.
      */
-    protected String getNextKey() {
-        if (keyPool == null) {
-            keyPool = readApiKeysFile();
+    public ApiKeyManager.Lease acquireKey(Chat chat) {
+        synchronized (this) {
+            if (keyPool == null) {
+                reloadKeyPool();
+            }
         }
-        
-        if (keyPool.isEmpty()) {
-            return null;
+        String preferred = chat != null ? chatKeys.get(chat) : null;
+        ApiKeyManager.Lease lease = keyManager.acquire(preferred)
+                .orElseThrow(() -> new IllegalStateException("Could not load an API key for " + providerId + ". Check " + getKeysFilePath()));
+        if (chat != null) {
+            chatKeys.put(chat, lease.getKey());
         }
-        
-        // Round-robin key selection
-        int nextIdx = round.getAndIncrement() % keyPool.size();
-        String key = keyPool.get(nextIdx);
-        log.debug("Using API key from pool (index {}). Key ends with: {}", nextIdx, key.substring(key.length() - 5));
-        return key;
+        return lease;
     }
 
     /**
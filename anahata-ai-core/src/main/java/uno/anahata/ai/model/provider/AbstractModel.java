@@ -5,6 +5,7 @@ package uno.anahata.ai.model.provider;
 
 import java.util.List;
 import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.internal.TokenizerUtils;
 import uno.anahata.ai.model.core.AbstractMessage;
 import uno.anahata.ai.model.core.AbstractModelMessage;
 import uno.anahata.ai.model.core.GenerationRequest;
@@ -49,6 +50,40 @@ public abstract class AbstractModel {
         return getProvider().getProviderId();
     }
     
+    /**
+     * Gets the tokenizer of this model, as registered in the {@link TokenizerRegistry}.
+     *
+     * @return The tokenizer; the default one if none is registered.
+     */
+    public Tokenizer getTokenizer() {
+        return TokenizerRegistry.get(this);
+    }
+
+    /**
+     * Gets the calibration of this model's local token estimates against the
+     * prompt token counts billed by the provider.
+     *
+     * @return The calibration.
+     */
+    public TokenCalibration getTokenCalibration() {
+        return TokenCalibration.of(this);
+    }
+
+    /**
+     * Estimates locally, without an API call, the number of input tokens of
+     * the given messages. Pruned parts are not counted, non-text parts count
+     * {@value TokenizerUtils#BLOB_PART_TOKENS} tokens each, and large histories
+     * are counted in parallel. The estimate is corrected by the
+     * {@link #getTokenCalibration() calibration} learnt from previous requests,
+     * including the fixed overhead per request.
+     *
+     * @param messages The messages, e.g. the visible history.
+     * @return The estimated number of prompt tokens.
+     */
+    public int countTokens(List<AbstractMessage> messages) {
+        return getTokenCalibration().estimate(TokenCalibration.requestFeatures(getTokenizer(), messages, false), true);
+    }
+
     // --- Abstract Capability Methods ---
     public abstract boolean isSupportsFunctionCalling();
 
@@ -0,0 +1,414 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.model.provider;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.tool.RetryableApiException;
+
+/**
+ * Tracks the health of a provider's API keys and hands them out to requests.
+ * Every key has a decaying error rate, a cooldown after it was rate limited
+ * (for as long as the API asked, when it said) or after repeated failures,
+ * and a count of the requests in flight with it.
+ * <p>
+ * A request {@link #acquire(String) leases} a key and reports how it went.
+ * The preferred key (e.g. the one the chat used last, whose prefix the
+ * provider may still have cached) is kept while it is healthy and has spare
+ * capacity; otherwise the healthiest key not cooling down is chosen, the
+ * least recently used one on ties. When every key is cooling down, the lease
+ * waits for the first one to be ready rather than sending a request that
+ * would be rate limited again, for up to {@link #MAX_COOLDOWN_WAIT}: beyond
+ * that it fails with a {@link RetryableApiException}, leaving the wait to the
+ * caller's own retry policy.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public class ApiKeyManager {
+
+    /** The default number of concurrent requests per key before another key is preferred. */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    /** The cooldown after a rate limit without a retry-after hint, doubled on every further one. */
+    private static final Duration BASE_COOLDOWN = Duration.ofSeconds(15);
+
+    /** The longest cooldown. */
+    private static final Duration MAX_COOLDOWN = Duration.ofMinutes(10);
+
+    /** The longest a lease waits for a key to stop cooling down. */
+    public static final Duration MAX_COOLDOWN_WAIT = Duration.ofSeconds(30);
+
+    /** The number of consecutive failures after which a key cools down. */
+    private static final int FAILURES_BEFORE_COOLDOWN = 3;
+
+    /** How much of its previous value the error rate keeps on every outcome. */
+    private static final double ERROR_DECAY = 0.8;
+
+    /** Above this error rate a preferred key is no longer kept. */
+    private static final double MAX_PREFERRED_ERROR_RATE = 0.5;
+
+    /** The number of concurrent requests per key before another key is preferred. */
+    @Getter
+    private final int maxInFlight;
+
+    /** The state of every key, in key file order. */
+    private final Map<String, KeyState> states = new LinkedHashMap<>();
+
+    /** Increases on every lease, to find the least recently used key. */
+    private long leases;
+
+    /** The key of the last lease. */
+    private String lastKey;
+
+    /**
+     * Creates a manager with the default capacity per key.
+     */
+    public ApiKeyManager() {
+        this(DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Creates a manager.
+     *
+     * @param maxInFlight The number of concurrent requests per key before
+     *        another key is preferred.
+     */
+    public ApiKeyManager(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Replaces the keys, keeping the health of the ones that remain.
+     *
+     * @param keys The keys.
+     */
+    public synchronized void setKeys(@NonNull List<String> keys) {
+        Map<String, KeyState> previous = new LinkedHashMap<>(states);
+        states.clear();
+        for (String key : keys) {
+            states.put(key, previous.getOrDefault(key, new KeyState(key)));
+        }
+        // New keys may end the wait of a lease
+        notifyAll();
+    }
+
+    /**
+     * Gets the keys.
+     *
+     * @return The keys, in key file order.
+     */
+    public synchronized List<String> getKeys() {
+        return new ArrayList<>(states.keySet());
+    }
+
+    /**
+     * Gets the key of the last lease.
+     *
+     * @return The key, or null if none was leased yet.
+     */
+    public synchronized String getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * Leases a key for a request, waiting up to {@link #MAX_COOLDOWN_WAIT}
+     * for a key to be ready if all of them are cooling down. The lease must
+     * be closed when the request is over, after reporting its outcome.
+     *
+     * @param preferred The key to keep if it is healthy, or null.
+     * @return The lease, or empty if there are no keys.
+     * @throws RetryableApiException if no key is ready within the wait.
+     * @throws IllegalStateException if interrupted while waiting.
+     */
+    public synchronized Optional<Lease> acquire(String preferred) {
+        Instant deadline = Instant.now().plus(MAX_COOLDOWN_WAIT);
+        KeyState chosen = null;
+        while (chosen == null) {
+            if (states.isEmpty()) {
+                return Optional.empty();
+            }
+            Instant now = Instant.now();
+            chosen = states.get(preferred);
+            if (chosen == null || chosen.isCooling(now) || chosen.inFlight >= maxInFlight || chosen.errorRate > MAX_PREFERRED_ERROR_RATE) {
+                chosen = null;
+                for (KeyState state : states.values()) {
+                    if (!state.isCooling(now) && (chosen == null || isHealthier(state, chosen))) {
+                        chosen = state;
+                    }
+                }
+            }
+            if (chosen == null) {
+                awaitCooldown(now, deadline);
+            }
+        }
+        chosen.inFlight++;
+        chosen.lastLease = ++leases;
+        lastKey = chosen.key;
+        log.debug("Leased API key ending with {} ({} in flight, error rate {})", suffix(chosen.key), chosen.inFlight, chosen.errorRate);
+        return Optional.of(new Lease(chosen.key));
+    }
+
+    /**
+     * Waits, releasing the lock, until the first key stops cooling down or
+     * the keys are replaced.
+     *
+     * @param now The current time.
+     * @param deadline The time by which a key must be ready.
+     * @throws RetryableApiException if no key is ready by the deadline.
+     * @throws IllegalStateException if interrupted.
+     */
+    private void awaitCooldown(Instant now, Instant deadline) {
+        Instant ready = Instant.MAX;
+        for (KeyState state : states.values()) {
+            if (state.cooldownUntil.isBefore(ready)) {
+                ready = state.cooldownUntil;
+            }
+        }
+        if (ready.isAfter(deadline)) {
+            throw new RetryableApiException(null, "All " + states.size() + " API keys are cooling down until at least " + ready, null);
+        }
+        long millis = Math.max(1, Duration.between(now, ready).toMillis());
+        log.warn("All {} API keys are cooling down, waiting {} ms for the first one", states.size(), millis);
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an API key to cool down", e);
+        }
+    }
+
+    /**
+     * Gets a snapshot of the health of every key.
+     *
+     * @return The health of the keys, in key file order.
+     */
+    public synchronized List<KeyHealth> getHealth() {
+        Instant now = Instant.now();
+        List<KeyHealth> health = new ArrayList<>();
+        for (KeyState state : states.values()) {
+            health.add(new KeyHealth(state.key, state.errorRate, state.inFlight,
+                    state.isCooling(now) ? state.cooldownUntil : null));
+        }
+        return health;
+    }
+
+    /**
+     * Whether a key is a better choice than another: keys at capacity come
+     * last, then the lower load plus error rate wins, then the least recently
+     * used key.
+     *
+     * @param a A key.
+     * @param b Another key.
+     * @return {@code true} if {@code a} is healthier.
+     */
+    private boolean isHealthier(KeyState a, KeyState b) {
+        boolean aFull = a.inFlight >= maxInFlight;
+        boolean bFull = b.inFlight >= maxInFlight;
+        if (aFull != bFull) {
+            return bFull;
+        }
+        double aScore = a.errorRate + (double) a.inFlight / maxInFlight;
+        double bScore = b.errorRate + (double) b.inFlight / maxInFlight;
+        if (aScore != bScore) {
+            return aScore < bScore;
+        }
+        return a.lastLease < b.lastLease;
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param key The key of the request.
+     * @param failed Whether the request failed.
+     * @param cooldown The cooldown to start, or null.
+     */
+    private synchronized void record(String key, boolean failed, Duration cooldown) {
+        KeyState state = states.get(key);
+        if (state == null) {
+            return; // Removed from the key file meanwhile
+        }
+        state.errorRate = state.errorRate * ERROR_DECAY + (failed ? 1 - ERROR_DECAY : 0);
+        state.consecutiveFailures = failed ? state.consecutiveFailures + 1 : 0;
+        if (cooldown != null) {
+            state.cooldownUntil = Instant.now().plus(cooldown.compareTo(MAX_COOLDOWN) > 0 ? MAX_COOLDOWN : cooldown);
+            log.info("API key ending with {} cooling down until {} (error rate {})", suffix(key), state.cooldownUntil, state.errorRate);
+        }
+    }
+
+    /**
+     * The cooldown of a key after its latest failure when the API gave no
+     * hint: exponential in the number of consecutive failures.
+     *
+     * @param key The key.
+     * @param rateLimited Whether the key was rate limited, which always
+     *        starts a cooldown.
+     * @return The cooldown, or null if none is due yet.
+     */
+    private synchronized Duration backoff(String key, boolean rateLimited) {
+        KeyState state = states.get(key);
+        int failures = state == null ? 1 : state.consecutiveFailures + 1;
+        if (!rateLimited && failures < FAILURES_BEFORE_COOLDOWN) {
+            return null;
+        }
+        int doublings = rateLimited ? failures - 1 : failures - FAILURES_BEFORE_COOLDOWN;
+        return BASE_COOLDOWN.multipliedBy(1L << Math.min(doublings, 10));
+    }
+
+    /**
+     * Ends a lease.
+     *
+     * @param key The key of the lease.
+     */
+    private synchronized void release(String key) {
+        KeyState state = states.get(key);
+        if (state != null && state.inFlight > 0) {
+            state.inFlight--;
+        }
+    }
+
+    /**
+     * The last characters of a key, for logging.
+     *
+     * @param key The key.
+     * @return The suffix.
+     */
+    private static String suffix(String key) {
+        return key.length() > 5 ? key.substring(key.length() - 5) : "*****";
+    }
+
+    /**
+     * A key leased to a request. The outcome is reported at most once;
+     * closing the lease without a report leaves the key's health unchanged
+     * (e.g. for a request that was rejected as invalid).
+     */
+    public final class Lease implements AutoCloseable {
+
+        /** The leased key. */
+        @Getter
+        private final String key;
+
+        /** Whether the outcome was reported. */
+        private boolean reported;
+
+        /** Whether the lease was closed. */
+        private boolean closed;
+
+        /**
+         * Creates a lease.
+         *
+         * @param key The leased key.
+         */
+        private Lease(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Reports that the request succeeded.
+         */
+        public synchronized void succeeded() {
+            if (!reported) {
+                reported = true;
+                record(key, false, null);
+            }
+        }
+
+        /**
+         * Reports that the request was rate limited. The key cools down for
+         * the given time, or for an exponential backoff if the API gave no
+         * hint.
+         *
+         * @param retryAfter How long the API asked to wait, or null.
+         */
+        public synchronized void rateLimited(Duration retryAfter) {
+            if (!reported) {
+                reported = true;
+                record(key, true, retryAfter != null ? retryAfter : backoff(key, true));
+            }
+        }
+
+        /**
+         * Reports that the request failed, e.g. with a server error. The key
+         * cools down after repeated failures.
+         */
+        public synchronized void failed() {
+            if (!reported) {
+                reported = true;
+                record(key, true, backoff(key, false));
+            }
+        }
+
+        /**
+         * Ends the lease, freeing its capacity on the key.
+         */
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(key);
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the health of a key.
+     *
+     * @param key The key.
+     * @param errorRate The decaying error rate, between 0 and 1.
+     * @param inFlight The number of requests in flight with the key.
+     * @param cooldownUntil When the key stops cooling down, or null if it is
+     *        not cooling down.
+     */
+    public record KeyHealth(String key, double errorRate, int inFlight, Instant cooldownUntil) {
+    }
+
+    /**
+     * The mutable state of a key.
+     */
+    private static final class KeyState {
+
+        /** The key. */
+        private final String key;
+
+        /** The decaying error rate. */
+        private double errorRate;
+
+        /** The number of failures since the last success. */
+        private int consecutiveFailures;
+
+        /** The requests in flight. */
+        private int inFlight;
+
+        /** The key is not leased, unless all keys are cooling down, before this time. */
+        private Instant cooldownUntil = Instant.MIN;
+
+        /** The lease counter value of the key's last lease. */
+        private long lastLease;
+
+        /**
+         * Creates the state of a new key.
+         *
+         * @param key The key.
+         */
+        private KeyState(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Whether the key is cooling down.
+         *
+         * @param now The current time.
+         * @return {@code true} if cooling down.
+         */
+        private boolean isCooling(Instant now) {
+            return now.isBefore(cooldownUntil);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.model.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.internal.TokenizerUtils;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractPart;
+import uno.anahata.ai.model.core.BlobPart;
+import uno.anahata.ai.model.tool.AbstractToolCall;
+import uno.anahata.ai.model.tool.AbstractToolResponse;
+
+/**
+ * Corrects the local token estimates of a model using the prompt token counts
+ * billed by the provider.
+ * <p>
+ * A request is described by the local estimate of each kind of content it
+ * carries ({@link Feature}). After every response, the billed
+ * {@code promptTokenCount} is fed to an online linear regression (recursive
+ * least squares with exponential forgetting) that learns, per kind, how many
+ * billed tokens a local token is worth, plus a fixed overhead per request
+ * (system instructions, tool declarations). The learnt weights then correct
+ * the local estimates, so budgets can be computed closer to the real limits.
+ * <p>
+ * Before any observation the weights are 1 and the overhead is 0, i.e. the
+ * raw local estimates. Calibrations are kept per model for the lifetime of
+ * the JVM.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public class TokenCalibration {
+
+    /** The kinds of content estimated separately. */
+    public enum Feature {
+        /** Prose text parts. */
+        TEXT,
+        /** Fenced code blocks within text parts. */
+        CODE,
+        /** Tool calls and tool responses (JSON). */
+        JSON,
+        /** Non-text parts (images, documents), estimated at a fixed cost each. */
+        BLOB
+    }
+
+    /** The number of regression coefficients: one per feature plus the overhead. */
+    private static final int DIMENSIONS = Feature.values().length + 1;
+
+    /** The scale of the regression inputs and outputs (thousands of tokens), for numerical stability. */
+    private static final double SCALE = 1000;
+
+    /** The forgetting factor: older observations weigh less, so the fit follows model or usage changes. */
+    private static final double FORGETTING = 0.98;
+
+    /**
+     * The maximum trace of the covariance matrix. Forgetting inflates the
+     * covariance of features that never vary (e.g. no blobs for a while); it
+     * stops growing beyond this, so their first occurrence does not cause a jump.
+     */
+    private static final double MAX_COVARIANCE_TRACE = 1000;
+
+    /** The bounds of a learnt weight, to keep a few unusual requests from producing absurd estimates. */
+    private static final double MIN_WEIGHT = 0.25;
+
+    /** The upper bound of a learnt weight. */
+    private static final double MAX_WEIGHT = 4;
+
+    /** The calibrations, by {@code providerId/modelId}. */
+    private static final Map<String, TokenCalibration> CALIBRATIONS = new ConcurrentHashMap<>();
+
+    /** The key of the calibrated model. */
+    @Getter
+    private final String modelKey;
+
+    /** The coefficients: a weight per feature, then the overhead (in thousands of tokens). */
+    private final double[] weights = new double[DIMENSIONS];
+
+    /** The inverse covariance matrix of the regression. */
+    private final double[][] covariance = new double[DIMENSIONS][DIMENSIONS];
+
+    /** The number of observations. */
+    private int samples;
+
+    /**
+     * Creates a new, uncalibrated instance.
+     *
+     * @param modelKey The key of the model.
+     */
+    TokenCalibration(String modelKey) {
+        this.modelKey = modelKey;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            weights[i] = i < DIMENSIONS - 1 ? 1 : 0;
+            // Confident about the unit weights, uncertain about the overhead
+            covariance[i][i] = i < DIMENSIONS - 1 ? 1 : 25;
+        }
+    }
+
+    /**
+     * Gets the calibration of a model, creating it on first use.
+     *
+     * @param model The model.
+     * @return The calibration.
+     */
+    public static TokenCalibration of(AbstractModel model) {
+        return CALIBRATIONS.computeIfAbsent(model.getProviderId() + "/" + model.getModelId(), TokenCalibration::new);
+    }
+
+    /**
+     * Computes the local token estimate of each kind of content in the given messages.
+     *
+     * @param tokenizer The tokenizer.
+     * @param messages The messages.
+     * @param includePruned Whether pruned parts are counted, as they are when
+     *        the request sends them.
+     * @return The estimates, indexed by {@link Feature#ordinal()}.
+     */
+    public static double[] requestFeatures(Tokenizer tokenizer, List<AbstractMessage> messages, boolean includePruned) {
+        List<AbstractPart> parts = new ArrayList<>();
+        for (AbstractMessage message : messages) {
+            parts.addAll(message.getParts(includePruned));
+        }
+        return features(tokenizer, parts);
+    }
+
+    /**
+     * Computes the local token estimate of each kind of content in a text that
+     * is yet to be rendered into a part.
+     *
+     * @param tokenizer The tokenizer.
+     * @param text The text.
+     * @return The estimates, indexed by {@link Feature#ordinal()}.
+     */
+    public static double[] features(Tokenizer tokenizer, String text) {
+        List<String> prose = new ArrayList<>();
+        List<String> code = new ArrayList<>();
+        splitFences(text, prose, code);
+        double[] features = new double[Feature.values().length];
+        features[Feature.TEXT.ordinal()] = TokenizerUtils.countTokens(tokenizer, prose);
+        features[Feature.CODE.ordinal()] = TokenizerUtils.countTokens(tokenizer, code);
+        return features;
+    }
+
+    /**
+     * Computes the local token estimate of each kind of content in the given parts.
+     *
+     * @param tokenizer The tokenizer.
+     * @param parts The parts.
+     * @return The estimates, indexed by {@link Feature#ordinal()}.
+     */
+    public static double[] features(Tokenizer tokenizer, List<AbstractPart> parts) {
+        List<String> text = new ArrayList<>();
+        List<String> code = new ArrayList<>();
+        List<String> json = new ArrayList<>();
+        int blobs = 0;
+        for (AbstractPart part : parts) {
+            if (part instanceof BlobPart) {
+                blobs++;
+            } else if (part instanceof AbstractToolCall || part instanceof AbstractToolResponse) {
+                json.add(part.asText());
+            } else {
+                splitFences(part.asText(), text, code);
+            }
+        }
+        double[] features = new double[Feature.values().length];
+        features[Feature.TEXT.ordinal()] = TokenizerUtils.countTokens(tokenizer, text);
+        features[Feature.CODE.ordinal()] = TokenizerUtils.countTokens(tokenizer, code);
+        features[Feature.JSON.ordinal()] = TokenizerUtils.countTokens(tokenizer, json);
+        features[Feature.BLOB.ordinal()] = blobs * TokenizerUtils.BLOB_PART_TOKENS;
+        return features;
+    }
+
+    /**
+     * Records the billed prompt tokens of a request.
+     *
+     * @param features The local estimates of the request content.
+     * @param promptTokens The billed prompt token count.
+     */
+    public synchronized void observe(double[] features, int promptTokens) {
+        if (promptTokens <= 0) {
+            return;
+        }
+        double[] x = input(features);
+        double y = promptTokens / SCALE;
+        // Recursive least squares: gain k = P x / (lambda + x' P x)
+        double[] px = new double[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            for (int j = 0; j < DIMENSIONS; j++) {
+                px[i] += covariance[i][j] * x[j];
+            }
+        }
+        double denominator = FORGETTING;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            denominator += x[i] * px[i];
+        }
+        double error = y - dot(weights, x);
+        for (int i = 0; i < DIMENSIONS; i++) {
+            weights[i] += px[i] / denominator * error;
+        }
+        // P = (P - k x' P) / lambda; P is symmetric, so x' P = (P x)'
+        double trace = 0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            trace += covariance[i][i];
+        }
+        double forgetting = trace < MAX_COVARIANCE_TRACE ? FORGETTING : 1;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            for (int j = 0; j < DIMENSIONS; j++) {
+                covariance[i][j] = (covariance[i][j] - px[i] * px[j] / denominator) / forgetting;
+            }
+        }
+        samples++;
+        log.debug("Token calibration of {} after {} requests: billed {}, prior estimate off by {}, now {}",
+                modelKey, samples, promptTokens, Math.round(error * SCALE), this);
+    }
+
+    /**
+     * Estimates the billed tokens of some content.
+     *
+     * @param features The local estimates of the content.
+     * @param includeOverhead Whether to add the fixed per-request overhead, i.e.
+     *        whether the content is a whole request rather than a part of one.
+     * @return The corrected estimate.
+     */
+    public synchronized int estimate(double[] features, boolean includeOverhead) {
+        double total = 0;
+        for (int i = 0; i < features.length; i++) {
+            total += getWeight(Feature.values()[i]) * features[i];
+        }
+        if (includeOverhead) {
+            total += getOverhead();
+        }
+        return (int) Math.round(total);
+    }
+
+    /**
+     * Gets the learnt number of billed tokens per local token of a kind of content.
+     *
+     * @param feature The kind of content.
+     * @return The weight, within sane bounds.
+     */
+    public synchronized double getWeight(Feature feature) {
+        return Math.max(MIN_WEIGHT, Math.min(MAX_WEIGHT, weights[feature.ordinal()]));
+    }
+
+    /**
+     * Gets the learnt fixed number of billed tokens per request.
+     *
+     * @return The overhead, never negative.
+     */
+    public synchronized int getOverhead() {
+        return (int) Math.max(0, Math.round(weights[DIMENSIONS - 1] * SCALE));
+    }
+
+    /**
+     * Gets the number of observed requests.
+     *
+     * @return The number of observations.
+     */
+    public synchronized int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Scales the features and appends the overhead input.
+     *
+     * @param features The features.
+     * @return The regression input.
+     */
+    private static double[] input(double[] features) {
+        double[] x = new double[DIMENSIONS];
+        for (int i = 0; i < features.length; i++) {
+            x[i] = features[i] / SCALE;
+        }
+        x[DIMENSIONS - 1] = 1;
+        return x;
+    }
+
+    /**
+     * Computes the dot product of two vectors.
+     *
+     * @param a The first vector.
+     * @param b The second vector.
+     * @return The dot product.
+     */
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Splits a text into its prose and its fenced code blocks.
+     *
+     * @param text The text.
+     * @param prose The target of the prose segments.
+     * @param code The target of the code segments.
+     */
+    private static void splitFences(String text, List<String> prose, List<String> code) {
+        int pos = 0;
+        boolean inCode = false;
+        while (pos < text.length()) {
+            int fence = text.indexOf("```", pos);
+            int end = fence < 0 ? text.length() : fence;
+            if (end > pos) {
+                (inCode ? code : prose).add(text.substring(pos, end));
+            }
+            if (fence < 0) {
+                break;
+            }
+            pos = fence + 3;
+            inCode = !inCode;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Feature feature : Feature.values()) {
+            sb.append(feature).append('=').append(String.format("%.3f", getWeight(feature))).append(' ');
+        }
+        return sb.append("overhead=").append(getOverhead()).toString();
+    }
+}
@@ -0,0 +1,32 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.model.provider;
+
+/**
+ * Counts the tokens of a text the way a given model (or family of models)
+ * does, so that context budgeting can be done locally without an API call.
+ * <p>
+ * Implementations must be thread-safe and deterministic: counts are cached by
+ * {@link uno.anahata.ai.internal.TokenizerUtils} under the tokenizer's
+ * {@link #getName() name}.
+ *
+ * @author anahata-ai
+ * @see TokenizerRegistry
+ */
+public interface Tokenizer {
+
+    /**
+     * Gets the unique name of this tokenizer, e.g. {@code "cl100k_base"}. Two
+     * tokenizers with the same name must return the same counts.
+     *
+     * @return The name.
+     */
+    String getName();
+
+    /**
+     * Counts the tokens of a text.
+     *
+     * @param text The text, never {@code null}.
+     * @return The number of tokens.
+     */
+    int countTokens(String text);
+}
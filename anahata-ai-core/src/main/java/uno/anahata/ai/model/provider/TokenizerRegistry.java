@@ -0,0 +1,100 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.model.provider;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.internal.TokenizerUtils;
+
+/**
+ * The JVM-wide registry of the {@link Tokenizer}s of each provider and model.
+ * <p>
+ * A model's tokenizer is looked up by model id, then by provider id, and
+ * falls back to the {@link #getDefault() default} tokenizer (jtokkit's
+ * {@code cl100k_base}). Providers whose models do not ship a local tokenizer
+ * register an {@link #estimator(String, double) estimator}: the default
+ * tokenizer scaled by the ratio between the provider's reported counts and
+ * the default ones.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class TokenizerRegistry {
+
+    /** The registered tokenizers, by provider id or {@code providerId/modelId}. */
+    private static final Map<String, Tokenizer> TOKENIZERS = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the default tokenizer.
+     *
+     * @return The jtokkit {@code cl100k_base} tokenizer.
+     */
+    public static Tokenizer getDefault() {
+        return TokenizerUtils.DEFAULT_TOKENIZER;
+    }
+
+    /**
+     * Registers the tokenizer of all the models of a provider.
+     *
+     * @param providerId The provider id.
+     * @param tokenizer The tokenizer.
+     */
+    public static void register(String providerId, Tokenizer tokenizer) {
+        TOKENIZERS.put(providerId, tokenizer);
+        log.debug("Registered tokenizer {} for provider {}", tokenizer.getName(), providerId);
+    }
+
+    /**
+     * Registers the tokenizer of a single model, overriding the provider's.
+     *
+     * @param providerId The provider id.
+     * @param modelId The model id.
+     * @param tokenizer The tokenizer.
+     */
+    public static void register(String providerId, String modelId, Tokenizer tokenizer) {
+        TOKENIZERS.put(providerId + "/" + modelId, tokenizer);
+        log.debug("Registered tokenizer {} for model {}/{}", tokenizer.getName(), providerId, modelId);
+    }
+
+    /**
+     * Gets the tokenizer of a model.
+     *
+     * @param model The model, or {@code null}.
+     * @return The model's tokenizer, its provider's, or the default one.
+     */
+    public static Tokenizer get(AbstractModel model) {
+        if (model == null) {
+            return getDefault();
+        }
+        Tokenizer tokenizer = TOKENIZERS.get(model.getProviderId() + "/" + model.getModelId());
+        if (tokenizer == null) {
+            tokenizer = TOKENIZERS.get(model.getProviderId());
+        }
+        return tokenizer != null ? tokenizer : getDefault();
+    }
+
+    /**
+     * Creates an estimator: the default tokenizer, with its counts multiplied by a ratio.
+     *
+     * @param name The unique name of the estimator.
+     * @param ratio The number of tokens of the target model per default token.
+     * @return The estimator.
+     */
+    public static Tokenizer estimator(String name, double ratio) {
+        Tokenizer base = getDefault();
+        return new Tokenizer() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public int countTokens(String text) {
+                return (int) Math.round(TokenizerUtils.countTokens(base, text) * ratio);
+            }
+        };
+    }
+}
@@ -2,6 +2,7 @@ package uno.anahata.ai.model.resource;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -9,12 +10,17 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import uno.anahata.ai.model.context.RefreshPolicy;
+import uno.anahata.ai.model.context.RenderMode;
 import uno.anahata.ai.model.core.AbstractPart;
 import uno.anahata.ai.model.core.RagMessage;
+import uno.anahata.ai.model.core.ResourceSnapshotMessage;
+import uno.anahata.ai.model.core.TextPart;
 
 /**
  * An abstract base class for all resources that represent a file on the local filesystem.
@@ -31,6 +37,12 @@ import uno.anahata.ai.model.core.RagMessage;
 public abstract class AbstractPathResource<R, C> extends AbstractResource<Path> {
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
         .withZone(ZoneId.systemDefault());
+
+    /** The number of unchanged lines shown around each change in delta renderings. */
+    private static final int DIFF_CONTEXT_LINES = 2;
+
+    /** The maximum number of changed lines of a delta rendering, beyond which the content is rendered in full. */
+    private static final int MAX_DIFF_EDITS = 500;
     
     //<editor-fold defaultstate="collapsed" desc="File Metadata">
     /** The absolute path to the file on the local filesystem. */
@@ -44,6 +56,34 @@ public abstract class AbstractPathResource<R, C> extends AbstractResource<Path>
     protected C cache;
     //</editor-fold>
 
+    //<editor-fold defaultstate="collapsed" desc="Watched Attributes">
+    /** Whether the file is watched by the ResourceManager, allowing its attributes to be cached. */
+    @JsonIgnore
+    private transient volatile boolean watched;
+
+    /** The cached file attributes (empty if the file does not exist), or {@code null} if they must be read again. */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient volatile Optional<BasicFileAttributes> fileAttributes;
+
+    /** Incremented on every invalidation, so that a read racing with a change is not cached. */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient long invalidations;
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Delta Rendering">
+    /** How the content is rendered on each turn. */
+    private RenderMode renderMode = RenderMode.FULL;
+
+    /** The last full rendering in the history, which delta renderings are computed against. Not serialized. */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient TextPart baseline;
+    //</editor-fold>
+
     /**
      * The smart accessor for the resource's view. This is the single point of entry
      * for the RAG provider. It acts as an orchestrator, checking for existence and
@@ -54,6 +94,35 @@ public abstract class AbstractPathResource<R, C> extends AbstractResource<Path>
      */
     @Override
     public void populate(RagMessage ragMessage) throws Exception {
+        refresh();
+        populateFromCache(ragMessage);
+    }
+
+    /**
+     * Refreshes the cache as {@link #populate(RagMessage)} would and returns
+     * the text it will render: the delta rendering in {@link RenderMode#DELTA
+     * DELTA} mode when there is one, otherwise the cached content.
+     *
+     * @return The text to render, or {@code null} if the cache is not text.
+     * @throws Exception if the reload operation fails.
+     */
+    @Override
+    public String prepare() throws Exception {
+        refresh();
+        if (!(cache instanceof String text)) {
+            return null;
+        }
+        String delta = renderMode == RenderMode.DELTA ? renderDelta(text) : null;
+        return delta != null ? delta : text;
+    }
+
+    /**
+     * Reloads the cache if the file is gone, it was never loaded, or it changed
+     * on disk and the refresh policy is LIVE.
+     *
+     * @throws Exception if the reload operation fails.
+     */
+    private void refresh() throws Exception {
         if (!exists()) {
             log.warn("Resource file does not exist: {}", path);
             this.cache = null; // Invalidate cache
@@ -63,11 +132,79 @@ public abstract class AbstractPathResource<R, C> extends AbstractResource<Path>
         if (cache == null || (isStale() && getRefreshPolicy() == RefreshPolicy.LIVE)) {
             reload();
         }
-        
-        populateFromCache(ragMessage);
     }
     
     protected abstract void populateFromCache(RagMessage rm);
+
+    /**
+     * Renders text content according to the {@link #getRenderMode() render mode}.
+     * In {@link RenderMode#DELTA DELTA} mode, the content is rendered in full
+     * into the RAG message's snapshot message (which becomes part of the
+     * history) and, on later turns, only a note that it is unchanged or a
+     * unified diff against that rendering is added to the RAG message. The
+     * content is rendered in full again once that rendering has been pruned or
+     * when the diff would be more than half the size of the content; in the
+     * latter case the previous rendering is pruned when the new one joins the
+     * history.
+     *
+     * @param rm The RAG message.
+     * @param text The full text content.
+     */
+    protected void populateText(RagMessage rm, String text) {
+        if (renderMode != RenderMode.DELTA) {
+            new TextPart(rm, text);
+            return;
+        }
+        String delta = renderDelta(text);
+        if (delta != null) {
+            new TextPart(rm, delta);
+            return;
+        }
+        ResourceSnapshotMessage snapshot = rm.getSnapshotMessage(true);
+        TextPart rendering = new TextPart(snapshot, text);
+        if (isBaselineVisible()) {
+            snapshot.supersede(rendering, baseline); // Pruned once the new rendering joins the history
+        }
+        this.baseline = rendering;
+        new TextPart(rm, String.format("--- Resource: %s (id: %s) rendered in full in the resource snapshot message ---\n", getName(), getId()));
+    }
+
+    /**
+     * Renders text content as a note that it is unchanged or a unified diff
+     * against the last full rendering, if that rendering is still visible and
+     * the diff is less than half the size of the content.
+     *
+     * @param text The full text content.
+     * @return The delta rendering, or {@code null} if the content must be rendered in full.
+     */
+    private String renderDelta(String text) {
+        if (!isBaselineVisible()) {
+            return null;
+        }
+        long messageId = baseline.getMessage().getSequentialId();
+        String diff = TextDiff.unified(baseline.getText(), text, DIFF_CONTEXT_LINES, MAX_DIFF_EDITS);
+        if (diff != null && diff.isEmpty()) {
+            return String.format("--- Resource: %s (id: %s) unchanged since its rendering in message #%d ---\n",
+                    getName(), getId(), messageId);
+        }
+        if (diff != null && diff.length() < text.length() / 2) {
+            return String.format("--- Resource: %s (id: %s) changes since its rendering in message #%d ---\n```diff\n%s```\n",
+                    getName(), getId(), messageId, diff);
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the last full rendering is still visible to the model:
+     * part of a message in the history and not pruned.
+     *
+     * @return {@code true} if delta renderings can refer to it.
+     */
+    private boolean isBaselineVisible() {
+        return baseline != null && baseline.getMessage() != null
+                && baseline.getMessage().getDepth() >= 0 && !baseline.isEffectivelyPruned()
+                && baseline.getMessage().getParts().contains(baseline);
+    }
     
     
     /**
@@ -75,7 +212,47 @@ public abstract class AbstractPathResource<R, C> extends AbstractResource<Path>
      * @return {@code true} if the file exists, {@code false} otherwise.
      */
     public boolean exists() {
-        return Files.exists(Paths.get(path));
+        return getFileAttributes() != null;
+    }
+
+    /**
+     * Gets the attributes of the file. If the file is {@link #isWatched() watched},
+     * they are served from memory until the watcher reports a change; otherwise
+     * they are read from disk on every call.
+     *
+     * @return The attributes, or {@code null} if the file does not exist or cannot be read.
+     */
+    @JsonIgnore
+    public BasicFileAttributes getFileAttributes() {
+        Optional<BasicFileAttributes> cached = fileAttributes;
+        if (watched && cached != null) {
+            return cached.orElse(null);
+        }
+        long stamp;
+        synchronized (this) {
+            stamp = invalidations;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+        } catch (IOException e) {
+            attrs = null;
+        }
+        synchronized (this) {
+            if (watched && stamp == invalidations) {
+                fileAttributes = Optional.ofNullable(attrs);
+            }
+        }
+        return attrs;
+    }
+
+    /**
+     * Discards the cached file attributes. Called by the ResourceManager's watcher
+     * when the file is created, modified or deleted.
+     */
+    public synchronized void invalidateFileAttributes() {
+        invalidations++;
+        fileAttributes = null;
     }
     
     /**
@@ -93,7 +270,11 @@ public abstract class AbstractPathResource<R, C> extends AbstractResource<Path>
      * @throws IOException if an I/O error occurs.
      */
     public long getCurrentLastModified() throws IOException {
-        return Files.getLastModifiedTime(Paths.get(path)).toMillis();
+        BasicFileAttributes attrs = getFileAttributes();
+        if (attrs == null) {
+            throw new NoSuchFileException(path);
+        }
+        return attrs.lastModifiedTime().toMillis();
     }
     
     /**
@@ -109,25 +290,20 @@ public abstract class AbstractPathResource<R, C> extends AbstractResource<Path>
     protected String buildHeader() {
         StringBuilder sb = new StringBuilder(super.buildHeader());
         sb.append(String.format("Path: %s\n", getPath()));
-        sb.append(String.format("Exists: %s\n", exists()));
+        BasicFileAttributes attrs = getFileAttributes();
+        sb.append(String.format("Exists: %s\n", attrs != null));
         
-        if (!exists()) {
+        if (attrs == null) {
             return sb.toString();
         }
         
-        try {
-            BasicFileAttributes attrs = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
-            String formattedModTime = FORMATTER.format(attrs.lastModifiedTime().toInstant());
-            boolean isStale = isStale();
-            
-            sb.append(String.format("Size: %d bytes\n", attrs.size()));
-            sb.append(String.format("Load Last Modified: %d (%s)\n", getLoadLastModified(), FORMATTER.format(Instant.ofEpochMilli(getLoadLastModified()))));
-            sb.append(String.format("Disk Last Modified: %d (%s)\n", attrs.lastModifiedTime().toMillis(), formattedModTime));
-            sb.append(String.format("Status: %s\n", isStale ? "**STALE**" : "VALID"));
+        String formattedModTime = FORMATTER.format(attrs.lastModifiedTime().toInstant());
+        boolean isStale = attrs.lastModifiedTime().toMillis() != getLoadLastModified();
 
-        } catch (IOException e) {
-            sb.append(String.format("Status: Error reading attributes: %s\n", e.getMessage()));
-        }
+        sb.append(String.format("Size: %d bytes\n", attrs.size()));
+        sb.append(String.format("Load Last Modified: %d (%s)\n", getLoadLastModified(), FORMATTER.format(Instant.ofEpochMilli(getLoadLastModified()))));
+        sb.append(String.format("Disk Last Modified: %d (%s)\n", attrs.lastModifiedTime().toMillis(), formattedModTime));
+        sb.append(String.format("Status: %s\n", isStale ? "**STALE**" : "VALID"));
         return sb.toString();
     }
 }
\ No newline at end of file
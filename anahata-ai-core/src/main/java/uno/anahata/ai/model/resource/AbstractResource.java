@@ -8,6 +8,7 @@ import uno.anahata.ai.context.ContextPosition;
 import uno.anahata.ai.model.context.RefreshPolicy;
 import uno.anahata.ai.model.core.AbstractPart;
 import uno.anahata.ai.model.core.RagMessage;
+import uno.anahata.ai.model.core.TextPart;
 
 /**
  * The abstract base class for all managed resources in the V2 framework.
@@ -45,6 +46,12 @@ public abstract class AbstractResource<R> {
 
     /** The position where this resource's content should be injected into the prompt. */
     private ContextPosition contextPosition = ContextPosition.PROMPT_AUGMENTATION;
+
+    /** The rendering priority. When the resource token budget is tight, higher priority resources are rendered in full first. */
+    private int priority;
+
+    /** The last time the resource was loaded or a tool changed what it renders, ranking resources of the same priority. */
+    private long lastUsed = System.currentTimeMillis();
     //</editor-fold>
     
     /**
@@ -57,7 +64,39 @@ public abstract class AbstractResource<R> {
      * @throws java.lang.Exception
      */
     public abstract void populate(RagMessage message) throws Exception;
+
+    /**
+     * Brings the content of this resource up to date for rendering, as
+     * {@link #populate(RagMessage)} would, and returns the text it will render
+     * without adding anything to a message. Used to grant the resource token
+     * budget before any resource is rendered.
+     *
+     * @return The text {@link #populate(RagMessage)} will render, or {@code null} if it renders no text.
+     * @throws Exception if the content cannot be brought up to date.
+     */
+    public abstract String prepare() throws Exception;
     
+    /**
+     * Renders only the header of this resource, used instead of {@link #populate(RagMessage)}
+     * when its content does not fit in the resource token budget.
+     *
+     * @param message The message to populate.
+     * @param contentTokens The estimated number of tokens of the elided content.
+     */
+    public void populateHeader(RagMessage message, int contentTokens) {
+        new TextPart(message, buildHeader() + String.format(
+            "[Content elided (~%d tokens) to fit the resource token budget. Raise its priority or unload other resources to see it]\n", contentTokens));
+    }
+
+    /**
+     * Marks this resource as used now, ranking it ahead of less recently used
+     * resources of the same priority. Called when a tool changes what the
+     * resource renders, not when its settings are merely looked up or changed.
+     */
+    public void touch() {
+        this.lastUsed = System.currentTimeMillis();
+    }
+
     /**
      * Gets the number of turns remaining before this resource is pruned.
      * The implementation of this method defines the resource's lifecycle policy.
@@ -80,12 +119,14 @@ public abstract class AbstractResource<R> {
             "Id: %s\n" +
             "Refresh Policy: %s\n" +
             "Context Position: %s\n" +
-            "Turns Remaining: %s\n",
+            "Turns Remaining: %s\n" +
+            "Priority: %d\n",
             getName(),
             getId(),
             getRefreshPolicy(),
             getContextPosition(),
-            turnsStr
+            turnsStr,
+            getPriority()
         );
     }
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+package uno.anahata.ai.model.resource;
+
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * An immutable node of the in-memory tree built by {@link DirectoryScanner}.
+ * <p>
+ * Directory nodes carry the aggregated size and file count of their (non
+ * ignored) subtree, plus the data needed to rescan them incrementally: the
+ * directory's own modification time, the time it was listed and the rules
+ * that applied to its entries. Unchanged subtrees are shared between
+ * successive scans, so identity comparison tells whether anything changed.
+ *
+ * @author anahata-ai
+ */
+@Getter
+public final class DirectoryNode {
+
+    /** The name of the file or directory. */
+    private final String name;
+
+    /** Whether this node is a directory. */
+    private final boolean directory;
+
+    /** The size of the file, or the total size of the files in the subtree of a directory. */
+    private final long size;
+
+    /** The last modified time of the file or directory, in millis. */
+    private final long lastModified;
+
+    /** The number of files in the subtree (1 for a file). */
+    private final int fileCount;
+
+    /** The number of directories in the subtree, excluding this one. */
+    private final int directoryCount;
+
+    /** The children of a directory, directories first and then by name. Empty for files. */
+    private final List<DirectoryNode> children;
+
+    /** Whether the directory was not listed because the scan reached its entry limit. */
+    private final boolean truncated;
+
+    /** The time the directory was listed, in millis. */
+    @Getter(AccessLevel.PACKAGE)
+    private final long listedAt;
+
+    /** The rules that applied to the entries of the directory. */
+    @Getter(AccessLevel.PACKAGE)
+    private final IgnoreRules rules;
+
+    /**
+     * Creates a file node.
+     *
+     * @param name The file name.
+     * @param size The file size.
+     * @param lastModified The last modified time.
+     */
+    DirectoryNode(String name, long size, long lastModified) {
+        this.name = name;
+        this.directory = false;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.fileCount = 1;
+        this.directoryCount = 0;
+        this.children = List.of();
+        this.truncated = false;
+        this.listedAt = 0;
+        this.rules = null;
+    }
+
+    /**
+     * Creates a directory node, aggregating the sizes and counts of its children.
+     *
+     * @param name The directory name.
+     * @param lastModified The last modified time of the directory.
+     * @param children The children, already sorted.
+     * @param truncated Whether the directory was not listed.
+     * @param listedAt The time the directory was listed.
+     * @param rules The rules that applied to its entries.
+     */
+    DirectoryNode(String name, long lastModified, List<DirectoryNode> children, boolean truncated, long listedAt, IgnoreRules rules) {
+        this.name = name;
+        this.directory = true;
+        this.lastModified = lastModified;
+        this.children = List.copyOf(children);
+        this.truncated = truncated;
+        this.listedAt = listedAt;
+        this.rules = rules;
+        long totalSize = 0;
+        int files = 0;
+        int dirs = 0;
+        for (DirectoryNode child : children) {
+            totalSize += child.size;
+            files += child.fileCount;
+            dirs += child.directoryCount + (child.directory ? 1 : 0);
+        }
+        this.size = totalSize;
+        this.fileCount = files;
+        this.directoryCount = dirs;
+    }
+
+    /**
+     * Finds a direct child by name.
+     *
+     * @param childName The name.
+     * @return The child, or {@code null} if there is none.
+     */
+    public DirectoryNode getChild(String childName) {
+        for (DirectoryNode child : children) {
+            if (child.name.equals(childName)) {
+                return child;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,248 @@
+package uno.anahata.ai.model.resource;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.internal.TextUtils;
+import uno.anahata.ai.internal.TokenizerUtils;
+import uno.anahata.ai.model.core.RagMessage;
+
+/**
+ * A resource representing a directory tree, rendered as an indented listing
+ * with file sizes and per-directory totals.
+ * <p>
+ * The tree is walked in parallel by {@link DirectoryScanner}, honouring
+ * {@code .gitignore} files, and kept in memory; reloads rescan only the
+ * directories that changed and re-render only if the tree changed. The
+ * listing is bounded by {@link #getMaxTokens() maxTokens}: directories are
+ * expanded breadth-first until the budget is spent, and the rest are shown
+ * collapsed with their totals.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+@Getter
+@Setter
+@Schema(description = "A resource representing a directory tree")
+public class DirectoryResource extends AbstractPathResource<DirectoryNode, String> {
+
+    /** The default token budget of the rendered listing. */
+    public static final int DEFAULT_MAX_TOKENS = 4000;
+
+    @Schema(description = "The maximum number of tokens of the rendered directory listing")
+    private int maxTokens = DEFAULT_MAX_TOKENS;
+
+    @Schema(description = "The maximum number of entries scanned; directories beyond it are not listed")
+    private int maxEntries = DirectoryScanner.DEFAULT_MAX_ENTRIES;
+
+    /** The scanned tree. Not serialized: it is rescanned after the session is restored. */
+    @JsonIgnore
+    private transient DirectoryNode tree;
+
+    /**
+     * Creates a new DirectoryResource with the default token budget.
+     * @param path The path to the directory.
+     * @throws Exception if the directory cannot be read.
+     */
+    public DirectoryResource(Path path) throws Exception {
+        this(path, DEFAULT_MAX_TOKENS);
+    }
+
+    /**
+     * Creates a new DirectoryResource.
+     * @param path The path to the directory.
+     * @param maxTokens The token budget of the rendered listing.
+     * @throws Exception if the directory cannot be read.
+     */
+    public DirectoryResource(Path path, int maxTokens) throws Exception {
+        this.setResource(path); // Store the Path as the handle
+        this.setPath(path.toAbsolutePath().toString());
+        this.setName(path.getFileName() != null ? path.getFileName().toString() : path.toString());
+        this.maxTokens = maxTokens;
+        reload(); // Perform the initial scan
+    }
+
+    /**
+     * A directory tree can change below its root without changing the root's
+     * modification time, so besides the root, the modification times of all
+     * the scanned directories are checked (see
+     * {@link DirectoryScanner#isModified(Path, DirectoryNode)}). With a
+     * {@link uno.anahata.ai.model.context.RefreshPolicy#LIVE LIVE} policy, a
+     * turn therefore only rescans the tree when entries were added, removed or
+     * renamed; sizes of files modified in place are refreshed by that rescan.
+     *
+     * @return {@code true} if the tree should be rescanned.
+     * @throws IOException if the root cannot be read.
+     */
+    @Override
+    public boolean isStale() throws IOException {
+        return tree == null || super.isStale() || DirectoryScanner.isModified(getResource(), tree);
+    }
+
+    /**
+     * Rescans the tree incrementally and re-renders the listing if anything changed.
+     *
+     * @throws Exception if the directory cannot be read.
+     */
+    @Override
+    public void reload() throws Exception {
+        this.setLoadLastModified(getCurrentLastModified());
+        DirectoryNode previous = tree;
+        this.tree = DirectoryScanner.scan(getResource(), previous, maxEntries);
+        if (cache == null || tree != previous) {
+            render();
+        }
+    }
+
+    /**
+     * Forces the listing to be rendered again, e.g. after changing the token budget.
+     */
+    public void rerender() {
+        if (tree != null) {
+            render();
+        }
+    }
+
+    @Override
+    protected void populateFromCache(RagMessage rm) {
+        populateText(rm, cache);
+    }
+
+    @Override
+    public Integer getTurnsRemaining() {
+        // This is a stateful, permanent resource by default.
+        return null;
+    }
+
+    @Override
+    protected String buildHeader() {
+        StringBuilder sb = new StringBuilder(super.buildHeader());
+        if (tree != null) {
+            sb.append(String.format("Tree: %d files, %d directories, %s%s\n", tree.getFileCount(), tree.getDirectoryCount(),
+                    TextUtils.formatSize(tree.getSize()), isTruncated(tree) ? " (entry limit reached, some directories not scanned)" : ""));
+        }
+        sb.append(String.format("Max Tokens: %d\n", maxTokens));
+        return sb.toString();
+    }
+
+    /**
+     * Renders the header and the token-bounded listing into the cached part.
+     */
+    private void render() {
+        Map<DirectoryNode, Integer> expanded = selectExpanded();
+        StringBuilder sb = new StringBuilder();
+        sb.append(buildHeader());
+        sb.append("```\n");
+        sb.append(tree.getName()).append("/\n");
+        renderChildren(sb, tree, expanded, "  ");
+        sb.append("```");
+        this.cache = sb.toString();
+    }
+
+    /**
+     * Chooses which directories to expand, breadth-first, so that the listing
+     * fits in the token budget. The last directory may be expanded partially.
+     *
+     * @return The number of children to show, by expanded directory.
+     */
+    private Map<DirectoryNode, Integer> selectExpanded() {
+        Map<DirectoryNode, Integer> expanded = new HashMap<>();
+        Deque<DirectoryNode> queue = new ArrayDeque<>();
+        queue.add(tree);
+        int used = 0;
+        while (!queue.isEmpty()) {
+            DirectoryNode dir = queue.poll();
+            List<DirectoryNode> children = dir.getChildren();
+            int shown = 0;
+            for (DirectoryNode child : children) {
+                int cost = TokenizerUtils.countTokens(line(child));
+                if (used + cost > maxTokens) {
+                    break;
+                }
+                used += cost;
+                shown++;
+            }
+            if (shown > 0 || children.isEmpty()) {
+                expanded.put(dir, shown);
+            }
+            if (shown < children.size()) {
+                break; // Budget spent: everything else stays collapsed
+            }
+            for (DirectoryNode child : children) {
+                if (child.isDirectory()) {
+                    queue.add(child);
+                }
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * Renders the children of an expanded directory, recursing into the expanded subdirectories.
+     *
+     * @param sb The target.
+     * @param dir The directory.
+     * @param expanded The number of children to show, by expanded directory.
+     * @param indent The indentation of the children.
+     */
+    private void renderChildren(StringBuilder sb, DirectoryNode dir, Map<DirectoryNode, Integer> expanded, String indent) {
+        Integer shown = expanded.get(dir);
+        if (shown == null) {
+            return;
+        }
+        List<DirectoryNode> children = dir.getChildren();
+        for (int i = 0; i < shown; i++) {
+            DirectoryNode child = children.get(i);
+            sb.append(indent).append(line(child)).append('\n');
+            if (child.isDirectory()) {
+                renderChildren(sb, child, expanded, indent + "  ");
+            }
+        }
+        if (shown < children.size()) {
+            sb.append(indent).append("... ").append(children.size() - shown).append(" more entries\n");
+        }
+    }
+
+    /**
+     * Formats the line of a node: name and size for files, name and totals for directories.
+     *
+     * @param node The node.
+     * @return The line, without indentation.
+     */
+    private static String line(DirectoryNode node) {
+        if (!node.isDirectory()) {
+            return node.getName() + " (" + TextUtils.formatSize(node.getSize()) + ")";
+        }
+        if (node.isTruncated()) {
+            return node.getName() + "/ (not scanned)";
+        }
+        return node.getName() + "/ (" + node.getFileCount() + " files, " + TextUtils.formatSize(node.getSize()) + ")";
+    }
+
+    /**
+     * Checks whether any directory of a subtree was not listed.
+     *
+     * @param node The root of the subtree.
+     * @return {@code true} if the entry limit was reached.
+     */
+    private static boolean isTruncated(DirectoryNode node) {
+        if (node.isTruncated()) {
+            return true;
+        }
+        for (DirectoryNode child : node.getChildren()) {
+            if (child.isDirectory() && isTruncated(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,368 @@
+package uno.anahata.ai.model.resource;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Builds and incrementally refreshes {@link DirectoryNode} trees, walking
+ * subdirectories in parallel on a dedicated fork/join pool.
+ * <p>
+ * A rescan relists a directory only if its modification time changed (entries
+ * were added, removed or renamed), its ignore rules changed, or it was modified
+ * too close to the previous listing to trust the timestamp granularity.
+ * Otherwise the previous listing is reused and only its entries are re-stat'ed.
+ * Nodes whose content did not change are returned as the same instance, so an
+ * unchanged tree rescans to the identical root. Symbolic links are never
+ * followed.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public final class DirectoryScanner {
+
+    /** The default maximum number of entries in a tree. */
+    public static final int DEFAULT_MAX_ENTRIES = 200_000;
+
+    /**
+     * The coarsest modification time granularity we expect (FAT), in millis. A
+     * directory modified within this window before its listing may have changed
+     * again without changing its timestamp.
+     */
+    private static final long MTIME_GRANULARITY = 2000;
+
+    /** Orders directories first and then by name. */
+    private static final Comparator<DirectoryNode> ORDER = Comparator
+            .comparing((DirectoryNode n) -> !n.isDirectory())
+            .thenComparing(DirectoryNode::getName);
+
+    /** The pool for the (I/O bound) walker tasks. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Private constructor for this utility class.
+     */
+    private DirectoryScanner() {
+    }
+
+    /**
+     * Scans a directory tree.
+     *
+     * @param root The root directory.
+     * @param previous The tree of a previous scan of the same root, or {@code null} for a full scan.
+     * @param maxEntries The maximum number of entries; directories beyond it are marked truncated and not listed.
+     * @return The tree; the same instance as {@code previous} if nothing changed.
+     * @throws IOException if the root is not a readable directory.
+     */
+    public static DirectoryNode scan(Path root, DirectoryNode previous, int maxEntries) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class);
+        if (!attrs.isDirectory()) {
+            throw new IOException("Not a directory: " + root);
+        }
+        long start = System.currentTimeMillis();
+        Scan scan = new Scan(maxEntries, start);
+        Path name = root.getFileName();
+        DirectoryNode tree = POOL.invoke(new ScanTask(scan, root, "", name != null ? name.toString() : root.toString(),
+                attrs, IgnoreRules.DEFAULT, previous != null && previous.isDirectory() ? previous : null));
+        log.debug("Scanned {} in {} ms: {} entries, {} directories listed, changed: {}",
+                root, System.currentTimeMillis() - start, scan.entries.get(), scan.listed.get(), tree != previous);
+        return tree;
+    }
+
+    /**
+     * Checks whether the structure of a scanned tree may have changed: a
+     * directory of the tree is gone or was modified (entries added, removed or
+     * renamed), or it was listed too close to its modification time to trust
+     * the timestamp. Only directories are stat'ed, so this costs a fraction of
+     * a {@link #scan(Path, DirectoryNode, int) rescan}; files modified in place
+     * do not change their directory's timestamp and are not detected.
+     *
+     * @param root The root directory.
+     * @param tree The tree of a previous scan of the root.
+     * @return {@code true} if the tree should be rescanned.
+     */
+    public static boolean isModified(Path root, DirectoryNode tree) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(root, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return true;
+        }
+        return isModified(root, tree, attrs);
+    }
+
+    /**
+     * Checks whether a directory or any directory below it changed since it was listed.
+     *
+     * @param dir The directory.
+     * @param node The node of the directory in the previous scan.
+     * @param attrs The current attributes of the directory.
+     * @return {@code true} if the directory should be rescanned.
+     */
+    private static boolean isModified(Path dir, DirectoryNode node, BasicFileAttributes attrs) {
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        if (!attrs.isDirectory() || node.getLastModified() != lastModified) {
+            return true;
+        }
+        if (node.isTruncated()) {
+            return false; // Not listed: nothing more to compare
+        }
+        if (lastModified + MTIME_GRANULARITY >= node.getListedAt()) {
+            return true;
+        }
+        for (DirectoryNode child : node.getChildren()) {
+            if (child.isDirectory()) {
+                Path childDir = dir.resolve(child.getName());
+                BasicFileAttributes childAttrs;
+                try {
+                    childAttrs = Files.readAttributes(childDir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    return true;
+                }
+                if (isModified(childDir, child, childAttrs)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The state shared by the tasks of a scan.
+     */
+    private static final class Scan {
+
+        /** The maximum number of entries. */
+        private final int maxEntries;
+
+        /** The start time of the scan. */
+        private final long startedAt;
+
+        /** The number of entries in the tree so far. */
+        private final AtomicInteger entries = new AtomicInteger();
+
+        /** The number of directories listed (as opposed to reused). */
+        private final AtomicInteger listed = new AtomicInteger();
+
+        /**
+         * Creates the state of a new scan.
+         *
+         * @param maxEntries The maximum number of entries.
+         * @param startedAt The start time.
+         */
+        Scan(int maxEntries, long startedAt) {
+            this.maxEntries = maxEntries;
+            this.startedAt = startedAt;
+        }
+    }
+
+    /**
+     * Scans a single directory, forking a task per subdirectory.
+     */
+    private static final class ScanTask extends RecursiveTask<DirectoryNode> {
+
+        /** The shared scan state. */
+        private final Scan scan;
+
+        /** The directory. */
+        private final Path dir;
+
+        /** The path of the directory relative to the root. */
+        private final String relPath;
+
+        /** The name of the directory. */
+        private final String name;
+
+        /** The attributes of the directory. */
+        private final BasicFileAttributes attrs;
+
+        /** The rules inherited from the parent directory. */
+        private final IgnoreRules parentRules;
+
+        /** The node of the previous scan, or {@code null}. */
+        private final DirectoryNode previous;
+
+        /**
+         * Creates a new task.
+         *
+         * @param scan The shared scan state.
+         * @param dir The directory.
+         * @param relPath The path relative to the root.
+         * @param name The directory name.
+         * @param attrs The directory attributes.
+         * @param parentRules The inherited rules.
+         * @param previous The previous node, or {@code null}.
+         */
+        ScanTask(Scan scan, Path dir, String relPath, String name, BasicFileAttributes attrs, IgnoreRules parentRules, DirectoryNode previous) {
+            this.scan = scan;
+            this.dir = dir;
+            this.relPath = relPath;
+            this.name = name;
+            this.attrs = attrs;
+            this.parentRules = parentRules;
+            this.previous = previous;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected DirectoryNode compute() {
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            IgnoreRules rules = parentRules.child(dir, relPath, previous != null ? previous.getRules() : null);
+            boolean rulesChanged = previous == null || previous.getRules() != rules;
+            boolean reuse = previous != null && !previous.isTruncated() && !rulesChanged
+                    && previous.getLastModified() == lastModified
+                    && lastModified + MTIME_GRANULARITY < previous.getListedAt();
+
+            List<DirectoryNode> children = null;
+            long listedAt = reuse ? previous.getListedAt() : scan.startedAt;
+            if (reuse) {
+                children = restat(rules);
+            }
+            if (children == null) {
+                if (scan.entries.get() >= scan.maxEntries) {
+                    return new DirectoryNode(name, lastModified, List.of(), true, scan.startedAt, rules);
+                }
+                children = list(rules);
+                listedAt = scan.startedAt;
+                scan.listed.incrementAndGet();
+            }
+            children.sort(ORDER);
+
+            // Keep the previous node if nothing changed. After a racy listing, the new node records the new listing time.
+            if (previous != null && previous.getLastModified() == lastModified && !rulesChanged
+                    && lastModified + MTIME_GRANULARITY < previous.getListedAt()
+                    && previous.getChildren().size() == children.size()) {
+                boolean same = true;
+                for (int i = 0; i < children.size() && same; i++) {
+                    same = children.get(i) == previous.getChildren().get(i);
+                }
+                if (same) {
+                    return previous;
+                }
+            }
+            return new DirectoryNode(name, lastModified, children, false, listedAt, rules);
+        }
+
+        /**
+         * Re-stats the entries of the previous listing.
+         *
+         * @param rules The rules for the entries.
+         * @return The children, or {@code null} if an entry vanished and the directory must be listed.
+         */
+        private List<DirectoryNode> restat(IgnoreRules rules) {
+            List<ScanTask> subtasks = new ArrayList<>();
+            List<DirectoryNode> children = new ArrayList<>(previous.getChildren().size());
+            for (DirectoryNode old : previous.getChildren()) {
+                Path child;
+                BasicFileAttributes childAttrs;
+                try {
+                    child = dir.resolve(old.getName());
+                    childAttrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException | InvalidPathException e) {
+                    return null; // Vanished, or a name not representable in the platform charset
+                }
+                if (childAttrs.isDirectory() != old.isDirectory()) {
+                    return null;
+                }
+                if (old.isDirectory()) {
+                    subtasks.add(new ScanTask(scan, child, childPath(old.getName()), old.getName(), childAttrs, rules, old));
+                } else {
+                    children.add(fileNode(old.getName(), childAttrs, old));
+                }
+            }
+            scan.entries.addAndGet(previous.getChildren().size());
+            for (ScanTask task : invokeAll(subtasks)) {
+                children.add(task.join());
+            }
+            return children;
+        }
+
+        /**
+         * Lists the directory, applying the ignore rules.
+         *
+         * @param rules The rules for the entries.
+         * @return The children.
+         */
+        private List<DirectoryNode> list(IgnoreRules rules) {
+            List<ScanTask> subtasks = new ArrayList<>();
+            List<DirectoryNode> children = new ArrayList<>();
+            // Looked up once per entry: a linear search would make large directories quadratic
+            Map<String, DirectoryNode> previousChildren = new HashMap<>();
+            if (previous != null) {
+                for (DirectoryNode old : previous.getChildren()) {
+                    previousChildren.put(old.getName(), old);
+                }
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    String childName = child.getFileName().toString();
+                    BasicFileAttributes childAttrs;
+                    try {
+                        childAttrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        log.debug("Skipping unreadable entry {}", child, e);
+                        continue;
+                    }
+                    String childRelPath = childPath(childName);
+                    if (rules.isIgnored(childRelPath, childAttrs.isDirectory())) {
+                        continue;
+                    }
+                    DirectoryNode old = previousChildren.get(childName);
+                    if (childAttrs.isDirectory()) {
+                        subtasks.add(new ScanTask(scan, child, childRelPath, childName, childAttrs, rules,
+                                old != null && old.isDirectory() ? old : null));
+                    } else {
+                        children.add(fileNode(childName, childAttrs, old));
+                    }
+                }
+            } catch (IOException e) {
+                log.debug("Cannot list {}", dir, e);
+            }
+            scan.entries.addAndGet(children.size() + subtasks.size());
+            for (ScanTask task : invokeAll(subtasks)) {
+                children.add(task.join());
+            }
+            return children;
+        }
+
+        /**
+         * Creates a file node, reusing the previous one if the file did not change.
+         *
+         * @param childName The file name.
+         * @param childAttrs The file attributes.
+         * @param old The previous node, or {@code null}.
+         * @return The node.
+         */
+        private DirectoryNode fileNode(String childName, BasicFileAttributes childAttrs, DirectoryNode old) {
+            long size = childAttrs.size();
+            long modified = childAttrs.lastModifiedTime().toMillis();
+            if (old != null && !old.isDirectory() && old.getSize() == size && old.getLastModified() == modified) {
+                return old;
+            }
+            return new DirectoryNode(childName, size, modified);
+        }
+
+        /**
+         * Gets the path of a child relative to the root.
+         *
+         * @param childName The child name.
+         * @return The relative path.
+         */
+        private String childPath(String childName) {
+            return relPath.isEmpty() ? childName : relPath + "/" + childName;
+        }
+    }
+}
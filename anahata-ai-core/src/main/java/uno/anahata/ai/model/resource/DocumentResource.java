@@ -0,0 +1,207 @@
+package uno.anahata.ai.model.resource;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.internal.TikaUtils;
+import uno.anahata.ai.model.core.RagMessage;
+import uno.anahata.ai.resource.DocumentExtractionCache;
+
+/**
+ * A resource representing a binary document (PDF, Word, Excel, etc.) whose text
+ * is extracted with Apache Tika and paged through a {@link TextViewport}.
+ * <p>
+ * Extraction happens in the background through the JVM-wide
+ * {@link DocumentExtractionCache}, so the same document is only parsed once
+ * regardless of how many sessions load it. Until the text is available, the
+ * resource renders its header with an "extracting" status and re-renders on
+ * the first turn after the extraction completes. The stored text is mapped,
+ * not read, so only the viewport's page of it is decoded.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+@Getter
+@Setter
+@Schema(description = "A resource representing a document (e.g. PDF, Office) whose text has been extracted")
+public class DocumentResource extends AbstractPathResource<String, String> {
+
+    @Schema(description = "The current view port for the extracted text")
+    private TextViewport viewport;
+
+    @Schema(description = "The detected MIME type of the document")
+    private String mimeType;
+
+    @Schema(description = "The SHA-256 hash of the document content")
+    private String contentHash;
+
+    @Schema(description = "True if the extracted text exceeded the size limit and was truncated")
+    private boolean truncated;
+
+    @Schema(description = "The reason the text could not be extracted, if any")
+    private String extractionError;
+
+    /** The pending or completed extraction. Not serialized: restored sessions look it up again in the shared cache. */
+    @JsonIgnore
+    private transient CompletableFuture<DocumentExtractionCache.Extraction> extraction;
+
+    /** The line index of the extracted text, shared JVM-wide as the stored text never changes. */
+    @JsonIgnore
+    private transient LineIndex lineIndex;
+
+    /** Whether the cached part was rendered before the extraction completed. */
+    @JsonIgnore
+    private transient boolean pending;
+
+    /**
+     * Creates a new DocumentResource with a default viewport.
+     * @param path The path to the document.
+     * @throws Exception if an I/O error occurs reading the document
+     */
+    public DocumentResource(Path path) throws Exception {
+        this(path, new TextViewport());
+    }
+
+    /**
+     * Creates a new DocumentResource with a custom viewport.
+     * @param path The path to the document.
+     * @param viewport The custom viewport to use.
+     * @throws Exception if an I/O error occurs reading the document
+     */
+    public DocumentResource(Path path, TextViewport viewport) throws Exception {
+        this.setResource(path); // Store the Path as the handle
+        this.setPath(path.toAbsolutePath().toString());
+        this.setName(path.getFileName().toString());
+        this.viewport = viewport;
+        reload(); // Start the extraction and render the initial view
+    }
+
+    /**
+     * Re-renders the view once a background extraction has completed, and looks
+     * the extraction up again after the session was restored.
+     *
+     * @param ragMessage The RAG message to populate.
+     * @throws Exception if the reload operation fails.
+     */
+    @Override
+    public void populate(RagMessage ragMessage) throws Exception {
+        refreshExtraction();
+        super.populate(ragMessage);
+    }
+
+    /**
+     * Re-renders the view once a background extraction has completed, so the
+     * resource token budget is granted on the extracted text rather than on
+     * the "in progress" placeholder.
+     *
+     * @return The text to render.
+     * @throws Exception if the reload operation fails.
+     */
+    @Override
+    public String prepare() throws Exception {
+        refreshExtraction();
+        return super.prepare();
+    }
+
+    /**
+     * Re-renders the cached part if it was rendered before the extraction
+     * completed, or discards it after the session was restored so that the
+     * next reload looks the extraction up again.
+     *
+     * @throws Exception if the extracted text cannot be read from the store.
+     */
+    private void refreshExtraction() throws Exception {
+        if (extraction == null) {
+            this.cache = null; // Restored session: reattach to the shared extraction cache
+        } else if (pending && extraction.isDone()) {
+            render();
+        }
+    }
+
+    /**
+     * Hashes the document, starts (or reuses) its text extraction and renders
+     * the current view.
+     *
+     * @throws Exception if the document cannot be read.
+     */
+    @Override
+    public void reload() throws Exception {
+        this.setLoadLastModified(getCurrentLastModified());
+        this.mimeType = TikaUtils.detectMimeType(getResource().toFile());
+        this.extraction = DocumentExtractionCache.extract(getResource());
+        render();
+    }
+
+    /**
+     * Renders the header and, if the extraction has completed, the viewport's
+     * page of the extracted text into the cached part, decoding that page only.
+     *
+     * @throws Exception if the extracted text cannot be read from the store.
+     */
+    private void render() throws Exception {
+        String body;
+        if (!extraction.isDone()) {
+            this.pending = true;
+            body = "[Text extraction in progress, the content will be available in the next turn]";
+        } else {
+            this.pending = false;
+            try {
+                DocumentExtractionCache.Extraction result = extraction.join();
+                if (!result.getHash().equals(contentHash)) {
+                    this.lineIndex = null; // Another content: the index of the previous text does not apply
+                }
+                this.contentHash = result.getHash();
+                this.truncated = result.isTruncated();
+                this.extractionError = null;
+                try (MappedTextFile file = MappedTextFile.open(result.getTextFile())) {
+                    lineIndex = LineIndex.loadShared(file, Files.readAttributes(result.getTextFile(), BasicFileAttributes.class), lineIndex);
+                    viewport.process(file, lineIndex);
+                }
+                body = viewport.getProcessedText();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                log.warn("Text extraction failed for {}", getPath(), cause);
+                this.extractionError = cause.getMessage();
+                body = "[Text extraction failed: " + extractionError + "]";
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(buildHeader());
+        sb.append("```\n");
+        sb.append(body);
+        sb.append("\n```");
+        this.cache = sb.toString();
+    }
+
+    @Override
+    protected void populateFromCache(RagMessage rm) {
+        populateText(rm, cache);
+    }
+
+    @Override
+    public Integer getTurnsRemaining() {
+        // This is a stateful, permanent resource by default.
+        return null;
+    }
+
+    @Override
+    protected String buildHeader() {
+        StringBuilder sb = new StringBuilder(super.buildHeader());
+        sb.append(String.format("MIME Type: %s\n", mimeType));
+        sb.append(String.format("Extraction: %s\n", pending ? "IN PROGRESS"
+                : extractionError != null ? "FAILED" : truncated ? "DONE (truncated)" : "DONE"));
+        if (viewport != null) {
+            sb.append(viewport.toString());
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,36 @@
+package uno.anahata.ai.model.resource;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * A single line matched by the {@link TextGrep} engine, with its position in the
+ * file and optional surrounding context lines.
+ *
+ * @author anahata-ai
+ */
+@Value
+@AllArgsConstructor
+@Schema(description = "A line matching a grep pattern")
+public class GrepMatch {
+    /** The zero-based line number of the matching line. */
+    @Schema(description = "The zero-based line number")
+    long lineNumber;
+    /** The char offset of the start of the match in the file. */
+    @Schema(description = "The char offset of the start of the match in the file")
+    long startChar;
+    /** The char offset of the end of the match in the file (exclusive). */
+    @Schema(description = "The char offset of the end of the match in the file (exclusive)")
+    long endChar;
+    /** The matching line, truncated if very long. */
+    @Schema(description = "The matching line")
+    String line;
+    /** The lines preceding the match. */
+    @Schema(description = "The context lines preceding the match")
+    List<String> before;
+    /** The lines following the match. */
+    @Schema(description = "The context lines following the match")
+    List<String> after;
+}
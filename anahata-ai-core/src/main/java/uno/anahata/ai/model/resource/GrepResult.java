@@ -0,0 +1,30 @@
+package uno.anahata.ai.model.resource;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * The result of a {@link TextGrep} search: the first matches in file order and
+ * the total number of matching lines.
+ *
+ * @author anahata-ai
+ */
+@Value
+@AllArgsConstructor
+@Schema(description = "The result of a grep search over a text file")
+public class GrepResult {
+    /** The matches, in file order, up to the match cap. */
+    @Schema(description = "The matches in file order, up to the requested maximum")
+    List<GrepMatch> matches;
+    /** The total number of matching lines in the file. */
+    @Schema(description = "The total number of matching lines in the file")
+    long totalMatches;
+    /** Whether matches were left out because of the match cap. */
+    @Schema(description = "True if there are more matches than the ones returned")
+    boolean capped;
+    /** The time the search took. */
+    @Schema(description = "The time in milliseconds the search took")
+    long elapsedMillis;
+}
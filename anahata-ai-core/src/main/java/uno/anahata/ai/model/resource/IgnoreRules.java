@@ -0,0 +1,272 @@
+package uno.anahata.ai.model.resource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An immutable stack of {@code .gitignore}-style rules used when walking a
+ * directory tree.
+ * <p>
+ * Each directory's {@code .gitignore} is layered on top of the rules inherited
+ * from its parents with {@link #child(Path, String, IgnoreRules)}; rules are relative to the
+ * directory that declared them and, as in git, the last matching rule wins.
+ * Supported syntax: comments, negation ({@code !}), directory-only rules
+ * (trailing {@code /}), anchored rules (containing a {@code /}), {@code *},
+ * {@code ?}, {@code [...]} and {@code **}. The {@code .git} directory is always
+ * ignored.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public final class IgnoreRules {
+
+    /** The name of the per-directory ignore file. */
+    public static final String IGNORE_FILE = ".gitignore";
+
+    /** The rules applied at the root of every walk. */
+    public static final IgnoreRules DEFAULT = new IgnoreRules(List.of(parse("", ".git/")), null, 0, 0);
+
+    /** The rules, in declaration order (parents first). */
+    private final List<Rule> rules;
+
+    /** The rules this stack was layered on, or {@code null} for {@link #DEFAULT}. */
+    private final IgnoreRules parent;
+
+    /** The last modified time of the ignore file these rules were parsed from. */
+    private final long sourceModified;
+
+    /** The size of the ignore file these rules were parsed from. */
+    private final long sourceSize;
+
+    /**
+     * Creates a new rule stack.
+     *
+     * @param rules The rules, in declaration order.
+     * @param parent The parent rules.
+     * @param sourceModified The last modified time of the ignore file.
+     * @param sourceSize The size of the ignore file.
+     */
+    private IgnoreRules(List<Rule> rules, IgnoreRules parent, long sourceModified, long sourceSize) {
+        this.rules = rules;
+        this.parent = parent;
+        this.sourceModified = sourceModified;
+        this.sourceSize = sourceSize;
+    }
+
+    /**
+     * Gets the rules that apply to the entries of a directory: these rules plus
+     * the directory's own {@value #IGNORE_FILE}, if it has one.
+     *
+     * @param dir The directory.
+     * @param relPath The path of the directory relative to the root of the walk
+     *                ({@code ""} for the root), using {@code /} as separator.
+     * @param previous The rules computed for the same directory by a previous
+     *                 walk, returned as is if neither these rules nor the ignore
+     *                 file changed. May be {@code null}.
+     * @return The rules, or this instance if the directory has no ignore file.
+     */
+    public IgnoreRules child(Path dir, String relPath, IgnoreRules previous) {
+        Path file = dir.resolve(IGNORE_FILE);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return this;
+        }
+        if (!attrs.isRegularFile()) {
+            return this;
+        }
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (previous != null && previous.parent == this && previous.sourceModified == modified && previous.sourceSize == attrs.size()) {
+            return previous;
+        }
+        List<Rule> combined = new ArrayList<>(rules);
+        try {
+            for (String line : Files.readAllLines(file)) {
+                Rule rule = parse(relPath, line);
+                if (rule != null) {
+                    combined.add(rule);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not read {}", file, e);
+            return this;
+        }
+        return new IgnoreRules(Collections.unmodifiableList(combined), this, modified, attrs.size());
+    }
+
+    /**
+     * Checks whether an entry is ignored.
+     *
+     * @param relPath The path of the entry relative to the root of the walk, using {@code /} as separator.
+     * @param directory Whether the entry is a directory.
+     * @return {@code true} if the last matching rule ignores the entry.
+     */
+    public boolean isIgnored(String relPath, boolean directory) {
+        String name = relPath.substring(relPath.lastIndexOf('/') + 1);
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if (rule.matches(relPath, name, directory)) {
+                return !rule.negated;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a line of an ignore file.
+     *
+     * @param base The path of the directory declaring the rule, relative to the root of the walk.
+     * @param line The line.
+     * @return The rule, or {@code null} for blank lines and comments.
+     */
+    static Rule parse(String base, String line) {
+        String pattern = line.strip();
+        if (pattern.isEmpty() || pattern.startsWith("#")) {
+            return null;
+        }
+        boolean negated = pattern.startsWith("!");
+        if (negated) {
+            pattern = pattern.substring(1);
+        } else if (pattern.startsWith("\\!") || pattern.startsWith("\\#")) {
+            pattern = pattern.substring(1);
+        }
+        boolean directoryOnly = pattern.endsWith("/");
+        if (directoryOnly) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        boolean anchored = pattern.contains("/");
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        if (pattern.isEmpty()) {
+            return null;
+        }
+        return new Rule(base, Pattern.compile(toRegex(pattern)), negated, directoryOnly, anchored);
+    }
+
+    /**
+     * Translates a glob into a regular expression.
+     *
+     * @param glob The glob, without leading or trailing slashes.
+     * @return The regular expression.
+     */
+    private static String toRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (c == '*' && glob.startsWith("**", i)) {
+                boolean leading = i == 0 || glob.charAt(i - 1) == '/';
+                boolean trailing = i + 2 == glob.length() || glob.charAt(i + 2) == '/';
+                if (leading && trailing) {
+                    if (i + 2 == glob.length()) {
+                        sb.append(".*"); // "a/**": everything inside a
+                        i += 2;
+                    } else {
+                        sb.append("(?:.*/)?"); // "**/b" or "a/**/b": zero or more directories
+                        i += 3;
+                    }
+                    continue;
+                }
+                sb.append("[^/]*");
+                i += 2;
+            } else if (c == '*') {
+                sb.append("[^/]*");
+                i++;
+            } else if (c == '?') {
+                sb.append("[^/]");
+                i++;
+            } else if (c == '[') {
+                int close = glob.indexOf(']', i + 2);
+                if (close < 0) {
+                    sb.append("\\[");
+                    i++;
+                    continue;
+                }
+                String set = glob.substring(i + 1, close);
+                if (set.startsWith("!")) {
+                    set = "^" + set.substring(1);
+                }
+                sb.append('[').append(set.replace("\\", "\\\\")).append(']');
+                i = close + 1;
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                sb.append(Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+                i += 2;
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A single parsed rule.
+     */
+    static final class Rule {
+
+        /** The path of the declaring directory relative to the root of the walk. */
+        private final String base;
+
+        /** The compiled pattern. */
+        private final Pattern pattern;
+
+        /** Whether the rule re-includes matching entries ({@code !}). */
+        private final boolean negated;
+
+        /** Whether the rule only matches directories (trailing {@code /}). */
+        private final boolean directoryOnly;
+
+        /** Whether the rule is matched against the path relative to its base rather than the entry name. */
+        private final boolean anchored;
+
+        /**
+         * Creates a new rule.
+         *
+         * @param base The path of the declaring directory.
+         * @param pattern The compiled pattern.
+         * @param negated Whether the rule is negated.
+         * @param directoryOnly Whether the rule only matches directories.
+         * @param anchored Whether the rule is anchored to its base.
+         */
+        Rule(String base, Pattern pattern, boolean negated, boolean directoryOnly, boolean anchored) {
+            this.base = base;
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+        }
+
+        /**
+         * Checks whether the rule matches an entry.
+         *
+         * @param relPath The path of the entry relative to the root of the walk.
+         * @param name The name of the entry.
+         * @param directory Whether the entry is a directory.
+         * @return {@code true} if the rule matches.
+         */
+        boolean matches(String relPath, String name, boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            if (!anchored) {
+                return pattern.matcher(name).matches();
+            }
+            if (base.isEmpty()) {
+                return pattern.matcher(relPath).matches();
+            }
+            if (!relPath.startsWith(base + "/")) {
+                return false;
+            }
+            return pattern.matcher(relPath.substring(base.length() + 1)).matches();
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package uno.anahata.ai.model.resource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.resource.SharedResourceCache;
+
+/**
+ * A compact index of the line start offsets of a text file, used by the
+ * {@link TextViewport} to convert between lines and char offsets without
+ * decoding the file.
+ * <p>
+ * For every line, the index stores the byte offset and the UTF-16 char offset
+ * of its first character in two primitive {@code long[]} arrays (16 bytes per
+ * line). Line counts and totals are O(1); line/offset conversions are binary
+ * searches, O(log n).
+ * <p>
+ * An index is immutable once built. When a file only grows by appending (e.g.
+ * logs), an {@link #extended(MappedTextFile) extension} of its index scans only
+ * the new bytes. Indexes of large files are also persisted under the global
+ * work dir, keyed by a content fingerprint, so reopening the same file after a
+ * restart skips the initial scan; the least recently used ones are deleted once
+ * they exceed {@value #DISK_CACHE_MAX_BYTES} bytes in total. Within the JVM,
+ * {@link #loadShared(MappedTextFile, BasicFileAttributes, LineIndex)} shares a
+ * single index per file content between all sessions. On disk, offsets are
+ * stored as variable-length deltas (line lengths), which typically takes 2
+ * bytes per line.
+ * <p>
+ * Reads are lock-free so that parallel workers (e.g. {@link TextGrep}) can share
+ * an index.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public class LineIndex {
+
+    /** Files smaller than this are always indexed from scratch, as scanning them is cheaper than a disk lookup. */
+    public static final long DISK_CACHE_THRESHOLD = 8L * 1024 * 1024;
+
+    /** The total size of the on-disk index cache above which the least recently used indexes are deleted. */
+    public static final long DISK_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+
+    /** The number of bytes before the indexed end covered by the tail checksum. */
+    private static final int TAIL_SAMPLE_SIZE = 4096;
+
+    /** The number of bytes sampled from the head and the tail of a file to compute its fingerprint. */
+    private static final int FINGERPRINT_SAMPLE_SIZE = 64 * 1024;
+
+    /** The version of the on-disk format. */
+    private static final int FORMAT_VERSION = 2;
+
+    /** The byte offset of the start of each line. */
+    private long[] lineStartBytes;
+
+    /** The char offset of the start of each line. */
+    private long[] lineStartChars;
+
+    /** The number of used entries in the offset arrays. */
+    private int entries;
+
+    /** The number of bytes indexed so far. */
+    @Getter
+    private long byteSize;
+
+    /** The number of UTF-16 chars in the indexed bytes. */
+    @Getter
+    private long charCount;
+
+    /** The CRC32 of the last {@value #TAIL_SAMPLE_SIZE} indexed bytes, used to detect non-append changes. */
+    private long tailChecksum;
+
+    /** Whether an {@link #extended(MappedTextFile) extension} of this index already took over its arrays. */
+    private final AtomicBoolean arraysClaimed = new AtomicBoolean();
+
+    /** Shared by an index and all its extensions: identifies the content they each index a prefix of. */
+    private final Object lineage;
+
+    /**
+     * Creates an empty index.
+     */
+    private LineIndex() {
+        this.lineStartBytes = new long[1024];
+        this.lineStartChars = new long[1024];
+        this.entries = 1; // line 0 starts at offset 0
+        this.lineage = new Object();
+    }
+
+    /**
+     * Creates an index continuing another one.
+     *
+     * @param base The index to continue.
+     * @param shareArrays Whether to write into the base's arrays beyond its
+     *        entries (which the base never reads) instead of copying them.
+     */
+    private LineIndex(LineIndex base, boolean shareArrays) {
+        this.lineStartBytes = shareArrays ? base.lineStartBytes : Arrays.copyOf(base.lineStartBytes, base.lineStartBytes.length);
+        this.lineStartChars = shareArrays ? base.lineStartChars : Arrays.copyOf(base.lineStartChars, base.lineStartChars.length);
+        this.entries = base.entries;
+        this.byteSize = base.byteSize;
+        this.charCount = base.charCount;
+        this.tailChecksum = base.tailChecksum;
+        this.lineage = base.lineage;
+    }
+
+    /**
+     * Builds a new index by scanning the whole file once.
+     *
+     * @param file The mapped file.
+     * @return The index.
+     */
+    public static LineIndex build(MappedTextFile file) {
+        LineIndex index = new LineIndex();
+        index.scan(file);
+        return index;
+    }
+
+    /**
+     * Gets an index for the given file, reusing the on-disk cache for large files
+     * and building (and persisting) it otherwise.
+     *
+     * @param file The mapped file.
+     * @return The index.
+     */
+    public static LineIndex load(MappedTextFile file) {
+        if (file.getByteSize() < DISK_CACHE_THRESHOLD) {
+            return build(file);
+        }
+        Path cacheFile = null;
+        try {
+            cacheFile = AsiConfig.getWorkDirSubDir("line-index").resolve(fingerprint(file) + ".idx");
+            if (Files.exists(cacheFile)) {
+                LineIndex cached = read(cacheFile);
+                if (cached.byteSize == file.getByteSize()) {
+                    log.debug("Loaded line index for {} from {}", file.getPath(), cacheFile);
+                    Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(System.currentTimeMillis())); // Recently used
+                    return cached;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Could not read cached line index for {}", file.getPath(), e);
+        }
+        LineIndex index = build(file);
+        if (cacheFile != null) {
+            try {
+                index.write(cacheFile);
+                pruneDiskCache(cacheFile.getParent(), DISK_CACHE_MAX_BYTES);
+            } catch (IOException e) {
+                log.warn("Could not write line index cache {}", cacheFile, e);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Gets the index of a file's current content from the JVM-wide
+     * {@link SharedResourceCache}, so all sessions viewing the same file share
+     * one index. On a miss, the given previous index of the file is
+     * {@link #extended(MappedTextFile) extended} if the file was only appended
+     * to, and a new index is {@link #load(MappedTextFile) loaded} otherwise.
+     *
+     * @param file The mapped file.
+     * @param attrs The file's attributes, or {@code null} if unknown (no sharing).
+     * @param previous The previous index of the file, or {@code null}.
+     * @return The index; never modified afterwards.
+     */
+    public static LineIndex loadShared(MappedTextFile file, BasicFileAttributes attrs, LineIndex previous) {
+        // Attributes served from memory may lag behind the mapped file: do not share under a stale key
+        SharedResourceCache.FileKey key = attrs != null && attrs.size() == file.getByteSize()
+                ? SharedResourceCache.FileKey.of("line-index", file.getPath(), attrs) : null;
+        LineIndex shared = key != null ? SharedResourceCache.get(key, LineIndex.class) : null;
+        if (shared != null && shared.covers(file)) {
+            return shared;
+        }
+        LineIndex index = previous != null ? previous.extended(file) : null;
+        if (index == null) {
+            index = load(file);
+        }
+        if (key == null) {
+            return index;
+        }
+        if (shared != null) {
+            SharedResourceCache.remove(key); // Rewritten within the timestamp granularity
+        }
+        LineIndex cached = SharedResourceCache.put(key, index, index.getMemorySize());
+        return cached.covers(file) ? cached : index;
+    }
+
+    /**
+     * Checks whether this index matches the file: same size and same tail checksum.
+     *
+     * @param file The mapped file.
+     * @return {@code true} if the index can be used for the file.
+     */
+    private boolean covers(MappedTextFile file) {
+        return byteSize == file.getByteSize() && tailChecksum(file, byteSize) == tailChecksum;
+    }
+
+    /**
+     * Gets an index covering the bytes appended to the file since this index
+     * was built, leaving this index untouched so it can still be shared. Costs
+     * O(appended bytes): the first extension of an index reuses its arrays
+     * (writing only past its last entry), later ones copy them.
+     *
+     * @param file The mapped file.
+     * @return This index if the file did not grow, a new index if it was
+     *         appended to, or {@code null} if the file shrank or its indexed
+     *         region changed, in which case the index must be rebuilt.
+     */
+    public LineIndex extended(MappedTextFile file) {
+        if (file.getByteSize() < byteSize || tailChecksum(file, byteSize) != tailChecksum) {
+            return null;
+        }
+        if (file.getByteSize() == byteSize) {
+            return this;
+        }
+        LineIndex next = new LineIndex(this, arraysClaimed.compareAndSet(false, true));
+        next.scan(file);
+        return next;
+    }
+
+    /**
+     * Checks whether this index covers the same content as another one, plus
+     * any bytes appended since: it is the other index or one of its
+     * {@link #extended(MappedTextFile) extensions}, so the lines the other
+     * index covers are unchanged.
+     *
+     * @param other The other index, or {@code null}.
+     * @return {@code true} if this index continues the other one.
+     */
+    public boolean continues(LineIndex other) {
+        return other != null && lineage == other.lineage && byteSize >= other.byteSize;
+    }
+
+    /**
+     * Gets the estimated heap size of this index.
+     *
+     * @return The size in bytes.
+     */
+    public long getMemorySize() {
+        return 16L * lineStartBytes.length + 64;
+    }
+
+    /**
+     * Gets the number of lines, following the semantics of {@link String#lines()}
+     * (a trailing line feed does not start a new line).
+     *
+     * @return The number of lines.
+     */
+    public int getLineCount() {
+        return lineStartBytes[entries - 1] == byteSize ? entries - 1 : entries;
+    }
+
+    /**
+     * Gets the byte offset of the first character of a line.
+     *
+     * @param line The zero-based line number.
+     * @return The byte offset.
+     */
+    public long getLineStartByte(int line) {
+        return lineStartBytes[checkLine(line)];
+    }
+
+    /**
+     * Gets the char offset of the first character of a line.
+     *
+     * @param line The zero-based line number.
+     * @return The char offset.
+     */
+    public long getLineStartChar(int line) {
+        return lineStartChars[checkLine(line)];
+    }
+
+    /**
+     * Gets the byte offset just after the last character of a line, excluding the
+     * line feed (but not a preceding carriage return).
+     *
+     * @param line The zero-based line number.
+     * @return The byte offset of the line feed, or the file size for the last line.
+     */
+    public long getLineEndByte(int line) {
+        return checkLine(line) + 1 < entries ? lineStartBytes[line + 1] - 1 : byteSize;
+    }
+
+    /**
+     * Gets the char offset just after the last character of a line, excluding the
+     * line feed.
+     *
+     * @param line The zero-based line number.
+     * @return The char offset of the line feed, or the total char count for the last line.
+     */
+    public long getLineEndChar(int line) {
+        return checkLine(line) + 1 < entries ? lineStartChars[line + 1] - 1 : charCount;
+    }
+
+    /**
+     * Finds the line containing the given char offset.
+     *
+     * @param charOffset The char offset.
+     * @return The zero-based line number.
+     */
+    public int lineOfChar(long charOffset) {
+        return floor(lineStartChars, charOffset);
+    }
+
+    /**
+     * Finds the line containing the given byte offset.
+     *
+     * @param byteOffset The byte offset.
+     * @return The zero-based line number.
+     */
+    public int lineOfByte(long byteOffset) {
+        return floor(lineStartBytes, byteOffset);
+    }
+
+    /**
+     * Converts a char offset to a byte offset, scanning at most one line.
+     *
+     * @param file The mapped file this index was built from.
+     * @param charOffset The char offset.
+     * @return The byte offset.
+     */
+    public long byteOffsetOfChar(MappedTextFile file, long charOffset) {
+        int line = lineOfChar(charOffset);
+        return file.advanceChars(getLineStartByte(line), charOffset - getLineStartChar(line));
+    }
+
+    /**
+     * Scans the file from the current end of the index to the end of the file.
+     *
+     * @param file The mapped file.
+     */
+    private void scan(MappedTextFile file) {
+        long size = file.getByteSize();
+        long chars = charCount;
+        long pos = byteSize;
+        while (pos < size) {
+            // Scan segment by segment to avoid a bounds check per byte
+            MappedByteBuffer seg = file.segment(pos);
+            long base = pos - (pos % MappedTextFile.SEGMENT_SIZE);
+            int limit = seg.limit();
+            for (int i = (int) (pos - base); i < limit; i++) {
+                byte b = seg.get(i);
+                chars += MappedTextFile.charUnits(b);
+                if (b == '\n') {
+                    add(base + i + 1, chars);
+                }
+            }
+            pos = base + limit;
+        }
+        this.byteSize = size;
+        this.charCount = chars;
+        this.tailChecksum = tailChecksum(file, size);
+    }
+
+    /**
+     * Appends a line start to the index, growing the arrays if needed.
+     *
+     * @param byteOffset The byte offset of the line start.
+     * @param charOffset The char offset of the line start.
+     */
+    private void add(long byteOffset, long charOffset) {
+        if (entries == lineStartBytes.length) {
+            int newLength = lineStartBytes.length + (lineStartBytes.length >> 1);
+            lineStartBytes = Arrays.copyOf(lineStartBytes, newLength);
+            lineStartChars = Arrays.copyOf(lineStartChars, newLength);
+        }
+        lineStartBytes[entries] = byteOffset;
+        lineStartChars[entries] = charOffset;
+        entries++;
+    }
+
+    /**
+     * Finds the greatest entry less than or equal to the given offset.
+     *
+     * @param offsets The sorted offsets.
+     * @param offset The offset to look up.
+     * @return The index of the entry.
+     */
+    private int floor(long[] offsets, long offset) {
+        int idx = Arrays.binarySearch(offsets, 0, entries, offset);
+        if (idx < 0) {
+            idx = -idx - 2;
+        }
+        // Several entries can share an offset only at the very end (empty trailing line)
+        return Math.max(0, Math.min(idx, getLineCount() - 1));
+    }
+
+    /**
+     * Validates a line number.
+     *
+     * @param line The zero-based line number.
+     * @return The line number.
+     */
+    private int checkLine(int line) {
+        if (line < 0 || line >= entries) {
+            throw new IndexOutOfBoundsException("Line " + line + " out of bounds for " + getLineCount() + " lines");
+        }
+        return line;
+    }
+
+    /**
+     * Computes the CRC32 of the bytes just before the given offset.
+     *
+     * @param file The mapped file.
+     * @param end The end offset (exclusive).
+     * @return The checksum.
+     */
+    private static long tailChecksum(MappedTextFile file, long end) {
+        CRC32 crc = new CRC32();
+        for (long pos = Math.max(0, end - TAIL_SAMPLE_SIZE); pos < end; pos++) {
+            crc.update(file.byteAt(pos));
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Computes a fingerprint of the file content from its size and its first and
+     * last {@value #FINGERPRINT_SAMPLE_SIZE} bytes, so that it can be computed
+     * without reading the whole file. The absolute path and last modified time
+     * are mixed in to avoid collisions between files that only differ in the middle.
+     *
+     * @param file The mapped file.
+     * @return The hex encoded SHA-256 fingerprint.
+     * @throws Exception if the file attributes cannot be read.
+     */
+    static String fingerprint(MappedTextFile file) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        long size = file.getByteSize();
+        md.update(file.getPath().toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+        md.update(Long.toString(size).getBytes(StandardCharsets.UTF_8));
+        md.update(Long.toString(Files.getLastModifiedTime(file.getPath()).toMillis()).getBytes(StandardCharsets.UTF_8));
+        long headEnd = Math.min(size, FINGERPRINT_SAMPLE_SIZE);
+        for (long pos = 0; pos < headEnd; pos++) {
+            md.update(file.byteAt(pos));
+        }
+        for (long pos = Math.max(headEnd, size - FINGERPRINT_SAMPLE_SIZE); pos < size; pos++) {
+            md.update(file.byteAt(pos));
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    /**
+     * Writes this index to disk atomically.
+     *
+     * @param target The target file.
+     * @throws IOException if the file cannot be written.
+     */
+    private void write(Path target) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(byteSize);
+            out.writeLong(charCount);
+            out.writeLong(tailChecksum);
+            out.writeInt(entries);
+            for (int i = 1; i < entries; i++) {
+                writeVarLong(out, lineStartBytes[i] - lineStartBytes[i - 1]);
+                writeVarLong(out, lineStartChars[i] - lineStartChars[i - 1]);
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the least recently used (oldest modified) indexes of an on-disk
+     * cache directory until their total size is at most the given cap.
+     *
+     * @param dir The cache directory.
+     * @param maxBytes The maximum total size of the cached indexes.
+     * @throws IOException if the directory cannot be listed.
+     */
+    static void pruneDiskCache(Path dir, long maxBytes) throws IOException {
+        List<Path> indexes = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attrs = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.idx")) {
+            for (Path path : stream) {
+                try {
+                    BasicFileAttributes a = Files.readAttributes(path, BasicFileAttributes.class);
+                    attrs.put(path, a);
+                    indexes.add(path);
+                    total += a.size();
+                } catch (IOException e) {
+                    log.debug("Skipping line index cache file {}", path, e); // Deleted concurrently
+                }
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        indexes.sort(Comparator.comparing(path -> attrs.get(path).lastModifiedTime()));
+        for (Path path : indexes) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (Files.deleteIfExists(path)) {
+                log.debug("Evicted line index cache file {}", path);
+            }
+            total -= attrs.get(path).size();
+        }
+    }
+
+    /**
+     * Reads an index previously written with {@link #write(Path)}.
+     *
+     * @param source The source file.
+     * @return The index.
+     * @throws IOException if the file cannot be read or has an unsupported format.
+     */
+    private static LineIndex read(Path source) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported line index format: " + source);
+            }
+            LineIndex index = new LineIndex();
+            index.byteSize = in.readLong();
+            index.charCount = in.readLong();
+            index.tailChecksum = in.readLong();
+            int entries = in.readInt();
+            if (entries < 1) {
+                throw new IOException("Corrupt line index: " + source);
+            }
+            index.lineStartBytes = new long[entries];
+            index.lineStartChars = new long[entries];
+            for (int i = 1; i < entries; i++) {
+                index.lineStartBytes[i] = index.lineStartBytes[i - 1] + readVarLong(in);
+                index.lineStartChars[i] = index.lineStartChars[i - 1] + readVarLong(in);
+            }
+            index.entries = entries;
+            return index;
+        }
+    }
+
+    /**
+     * Writes a non-negative long using a variable-length encoding of 7 bits per byte.
+     *
+     * @param out The output stream.
+     * @param value The value.
+     * @throws IOException if the value cannot be written.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a long written with {@link #writeVarLong(DataOutputStream, long)}.
+     *
+     * @param in The input stream.
+     * @return The value.
+     * @throws IOException if the value cannot be read.
+     */
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length long");
+    }
+}
@@ -0,0 +1,368 @@
+package uno.anahata.ai.model.resource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import lombok.Getter;
+
+/**
+ * A read-only, memory-mapped view of a UTF-8 text file that decodes only the
+ * byte windows it is asked for.
+ * <p>
+ * The file is mapped lazily in segments of {@value #SEGMENT_SIZE} bytes, so files
+ * larger than 2 GB are supported and no segment is touched until it is read.
+ * Character offsets are expressed in UTF-16 code units (the unit of
+ * {@link String#length()}) and are computed by scanning UTF-8 lead bytes, without
+ * decoding. Heap usage is therefore bounded by the size of the decoded windows,
+ * regardless of the size of the file.
+ * <p>
+ * Absolute reads do not modify any buffer state, so a single instance can be
+ * read concurrently by multiple threads.
+ *
+ * @author anahata-ai
+ */
+public class MappedTextFile implements Closeable {
+
+    /** The size of each lazily mapped segment. */
+    public static final int SEGMENT_SIZE = 1 << 28; // 256 MB
+
+    /** The path of the mapped file. */
+    @Getter
+    private final Path path;
+
+    /** The channel the segments are mapped from. */
+    private final FileChannel channel;
+
+    /** The size of the file in bytes at the time it was opened. */
+    private final long size;
+
+    /** The lazily mapped segments. */
+    private final MappedByteBuffer[] segments;
+
+    /** The cached number of UTF-16 chars in the file, or -1 if not yet computed. */
+    private long charCount = -1;
+
+    /** The cached number of lines in the file, or -1 if not yet computed. */
+    private long lineCount = -1;
+
+    /**
+     * Creates a new mapped text file.
+     *
+     * @param path The path of the file.
+     * @param channel The open channel.
+     * @param size The number of bytes to map.
+     */
+    private MappedTextFile(Path path, FileChannel channel, long size) {
+        this.path = path;
+        this.channel = channel;
+        this.size = size;
+        this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+    }
+
+    /**
+     * Opens a file for page-on-demand reading. Only the bytes present at the time
+     * of opening are visible through the returned instance.
+     *
+     * @param path The path of the file.
+     * @return The mapped text file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static MappedTextFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MappedTextFile(path, channel, channel.size());
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the size of the mapped file in bytes.
+     *
+     * @return The size in bytes.
+     */
+    public long getByteSize() {
+        return size;
+    }
+
+    /**
+     * Gets the byte at the given absolute position.
+     *
+     * @param pos The byte offset.
+     * @return The byte.
+     */
+    public byte byteAt(long pos) {
+        return segment(pos).get((int) (pos % SEGMENT_SIZE));
+    }
+
+    /**
+     * Finds the first occurrence of a byte at or after the given position.
+     *
+     * @param b The byte to find.
+     * @param from The byte offset to start searching from.
+     * @return The byte offset of the first occurrence, or -1 if not found.
+     */
+    public long indexOf(byte b, long from) {
+        long pos = Math.max(0, from);
+        while (pos < size) {
+            MappedByteBuffer seg = segment(pos);
+            long base = pos - (pos % SEGMENT_SIZE);
+            int limit = seg.limit();
+            for (int i = (int) (pos - base); i < limit; i++) {
+                if (seg.get(i) == b) {
+                    return base + i;
+                }
+            }
+            pos = base + limit;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the last occurrence of a byte at or before the given position.
+     *
+     * @param b The byte to find.
+     * @param from The byte offset to start searching backwards from.
+     * @return The byte offset of the last occurrence, or -1 if not found.
+     */
+    public long lastIndexOf(byte b, long from) {
+        long pos = Math.min(from, size - 1);
+        while (pos >= 0) {
+            MappedByteBuffer seg = segment(pos);
+            long base = pos - (pos % SEGMENT_SIZE);
+            for (int i = (int) (pos - base); i >= 0; i--) {
+                if (seg.get(i) == b) {
+                    return base + i;
+                }
+            }
+            pos = base - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Counts the occurrences of {@code '\n'} in the given byte range.
+     *
+     * @param from The start byte offset (inclusive).
+     * @param to The end byte offset (exclusive).
+     * @return The number of line feeds.
+     */
+    public long countNewlines(long from, long to) {
+        long count = 0;
+        long pos = Math.max(0, from);
+        long end = Math.min(to, size);
+        while (pos < end) {
+            MappedByteBuffer seg = segment(pos);
+            long base = pos - (pos % SEGMENT_SIZE);
+            int limit = (int) Math.min(seg.limit(), end - base);
+            for (int i = (int) (pos - base); i < limit; i++) {
+                if (seg.get(i) == '\n') {
+                    count++;
+                }
+            }
+            pos = base + limit;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the UTF-16 chars encoded in the given byte range without decoding it.
+     *
+     * @param from The start byte offset (inclusive).
+     * @param to The end byte offset (exclusive).
+     * @return The number of chars.
+     */
+    public long countChars(long from, long to) {
+        long count = 0;
+        long pos = Math.max(0, from);
+        long end = Math.min(to, size);
+        while (pos < end) {
+            MappedByteBuffer seg = segment(pos);
+            long base = pos - (pos % SEGMENT_SIZE);
+            int limit = (int) Math.min(seg.limit(), end - base);
+            for (int i = (int) (pos - base); i < limit; i++) {
+                count += charUnits(seg.get(i));
+            }
+            pos = base + limit;
+        }
+        return count;
+    }
+
+    /**
+     * Advances the given number of UTF-16 chars from a byte offset, never
+     * splitting a UTF-8 sequence or a surrogate pair.
+     *
+     * @param fromByte The byte offset to start from (must be at a character boundary).
+     * @param chars The number of chars to skip.
+     * @return The byte offset after the skipped chars, clamped to the file size.
+     */
+    public long advanceChars(long fromByte, long chars) {
+        long pos = Math.max(0, fromByte);
+        long remaining = chars;
+        while (pos < size && remaining > 0) {
+            int units = charUnits(byteAt(pos));
+            if (units > remaining) {
+                break;
+            }
+            remaining -= units;
+            pos++;
+            while (pos < size && charUnits(byteAt(pos)) == 0) {
+                pos++;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes the given byte range as UTF-8. Malformed input is replaced.
+     *
+     * @param from The start byte offset (inclusive).
+     * @param to The end byte offset (exclusive).
+     * @return The decoded text.
+     */
+    public String decode(long from, long to) {
+        long start = Math.max(0, from);
+        long end = Math.min(to, size);
+        if (end <= start) {
+            return "";
+        }
+        if (end - start > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Window too large to decode: " + (end - start) + " bytes");
+        }
+        byte[] bytes = new byte[(int) (end - start)];
+        int written = 0;
+        long pos = start;
+        while (pos < end) {
+            MappedByteBuffer seg = segment(pos);
+            long base = pos - (pos % SEGMENT_SIZE);
+            int offset = (int) (pos - base);
+            int length = (int) Math.min(seg.limit() - offset, end - pos);
+            seg.slice(offset, length).get(bytes, written, length);
+            written += length;
+            pos += length;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a single line, removing a trailing carriage return if present.
+     *
+     * @param from The byte offset of the start of the line.
+     * @param to The byte offset of the line feed (or end of file).
+     * @return The decoded line.
+     */
+    public String decodeLine(long from, long to) {
+        long end = to;
+        if (end > from && byteAt(end - 1) == '\r') {
+            end--;
+        }
+        return decode(from, end);
+    }
+
+    /**
+     * Gets the total number of UTF-16 chars in the file, computing it (together
+     * with the line count) in a single streaming pass on first access.
+     *
+     * @return The number of chars.
+     */
+    public synchronized long getCharCount() {
+        if (charCount == -1) {
+            computeStats();
+        }
+        return charCount;
+    }
+
+    /**
+     * Gets the total number of lines in the file, following the semantics of
+     * {@link String#lines()} (a trailing line feed does not start a new line).
+     *
+     * @return The number of lines.
+     */
+    public synchronized long getLineCount() {
+        if (lineCount == -1) {
+            computeStats();
+        }
+        return lineCount;
+    }
+
+    /**
+     * Computes the char and line counts in a single streaming pass.
+     */
+    private void computeStats() {
+        long chars = 0;
+        long newlines = 0;
+        long pos = 0;
+        while (pos < size) {
+            MappedByteBuffer seg = segment(pos);
+            int limit = seg.limit();
+            for (int i = 0; i < limit; i++) {
+                byte b = seg.get(i);
+                chars += charUnits(b);
+                if (b == '\n') {
+                    newlines++;
+                }
+            }
+            pos += limit;
+        }
+        this.charCount = chars;
+        this.lineCount = (size > 0 && byteAt(size - 1) != '\n') ? newlines + 1 : newlines;
+    }
+
+    /**
+     * Gets the number of UTF-16 code units started by a UTF-8 byte.
+     *
+     * @param b The byte.
+     * @return 0 for continuation bytes, 2 for the lead byte of a supplementary code point, 1 otherwise.
+     */
+    static int charUnits(byte b) {
+        if ((b & 0xC0) == 0x80) {
+            return 0;
+        }
+        return (b & 0xF8) == 0xF0 ? 2 : 1;
+    }
+
+    /**
+     * Gets (mapping it if necessary) the segment containing the given position.
+     *
+     * @param pos The byte offset.
+     * @return The mapped segment.
+     */
+    MappedByteBuffer segment(long pos) {
+        if (pos < 0 || pos >= size) {
+            throw new IndexOutOfBoundsException("Byte offset " + pos + " out of bounds for file of " + size + " bytes: " + path);
+        }
+        int idx = (int) (pos / SEGMENT_SIZE);
+        MappedByteBuffer seg = segments[idx];
+        if (seg == null) {
+            synchronized (segments) {
+                seg = segments[idx];
+                if (seg == null) {
+                    long start = (long) idx * SEGMENT_SIZE;
+                    try {
+                        seg = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not map segment " + idx + " of " + path, e);
+                    }
+                    segments[idx] = seg;
+                }
+            }
+        }
+        return seg;
+    }
+
+    /**
+     * Closes the underlying channel. Mapped segments are released by the garbage collector.
+     *
+     * @throws IOException if the channel cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,211 @@
+package uno.anahata.ai.model.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A line-based diff (Myers' O(ND) algorithm) producing compact unified diffs,
+ * used to render only what changed in a resource since its last full rendering.
+ * <p>
+ * Common leading and trailing lines are stripped before diffing, so the cost
+ * is proportional to the changed region. Diffs with more than a given number of
+ * edits are abandoned, as a full rendering is then cheaper anyway.
+ *
+ * @author anahata-ai
+ */
+public final class TextDiff {
+
+    /**
+     * Private constructor for this utility class.
+     */
+    private TextDiff() {
+    }
+
+    /**
+     * Computes a unified diff between two texts.
+     *
+     * @param oldText The original text.
+     * @param newText The new text.
+     * @param context The number of unchanged lines around each change.
+     * @param maxEdits The maximum number of inserted plus deleted lines.
+     * @return The diff hunks (without file headers), an empty string if the texts
+     *         are equal, or {@code null} if there are more than {@code maxEdits} edits.
+     */
+    public static String unified(String oldText, String newText, int context, int maxEdits) {
+        if (oldText.equals(newText)) {
+            return "";
+        }
+        String[] a = oldText.split("\n", -1);
+        String[] b = newText.split("\n", -1);
+        int prefix = 0;
+        while (prefix < a.length && prefix < b.length && a[prefix].equals(b[prefix])) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < a.length - prefix && suffix < b.length - prefix
+                && a[a.length - 1 - suffix].equals(b[b.length - 1 - suffix])) {
+            suffix++;
+        }
+        int[] ops = diff(a, prefix, a.length - suffix, b, prefix, b.length - suffix, maxEdits);
+        if (ops == null) {
+            return null;
+        }
+        return format(a, b, prefix, suffix, ops, context);
+    }
+
+    /**
+     * Computes the shortest edit script of two line ranges.
+     *
+     * @param a The old lines.
+     * @param aFrom The start of the old range.
+     * @param aTo The end of the old range (exclusive).
+     * @param b The new lines.
+     * @param bFrom The start of the new range.
+     * @param bTo The end of the new range (exclusive).
+     * @param maxEdits The maximum number of edits.
+     * @return The script: one of {@code ' '}, {@code '-'} or {@code '+'} per step,
+     *         or {@code null} if it needs more than {@code maxEdits} edits.
+     */
+    private static int[] diff(String[] a, int aFrom, int aTo, String[] b, int bFrom, int bTo, int maxEdits) {
+        int n = aTo - aFrom;
+        int m = bTo - bFrom;
+        int max = Math.min(n + m, maxEdits);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= max; d++) {
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aFrom + x].equals(b[bFrom + y])) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return backtrack(trace, offset, n, m, d);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Walks the trace of the forward search back from the end to build the edit script.
+     *
+     * @param trace The frontier of each step, before the step.
+     * @param offset The offset of diagonal 0 in the frontiers.
+     * @param n The number of old lines.
+     * @param m The number of new lines.
+     * @param edits The number of edits found.
+     * @return The edit script.
+     */
+    private static int[] backtrack(List<int[]> trace, int offset, int n, int m, int edits) {
+        int[] ops = new int[n + m];
+        int size = 0;
+        int x = n;
+        int y = m;
+        for (int d = edits; d > 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) ? k + 1 : k - 1;
+            int prevX = v[offset + prevK];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                ops[size++] = ' ';
+                x--;
+                y--;
+            }
+            ops[size++] = x == prevX ? '+' : '-';
+            x = prevX;
+            y = prevY;
+        }
+        while (x > 0 && y > 0) {
+            ops[size++] = ' ';
+            x--;
+            y--;
+        }
+        int[] script = new int[size];
+        for (int i = 0; i < size; i++) {
+            script[i] = ops[size - 1 - i];
+        }
+        return script;
+    }
+
+    /**
+     * Formats an edit script as unified diff hunks.
+     *
+     * @param a The old lines.
+     * @param b The new lines.
+     * @param prefix The number of common leading lines (not in the script).
+     * @param suffix The number of common trailing lines (not in the script).
+     * @param script The edit script of the middle range.
+     * @param context The number of context lines.
+     * @return The hunks.
+     */
+    private static String format(String[] a, String[] b, int prefix, int suffix, int[] script, int context) {
+        // Expand the script to the full texts, so context can extend into the common prefix and suffix
+        int total = prefix + script.length + suffix;
+        int[] ops = new int[total];
+        for (int i = 0; i < total; i++) {
+            ops[i] = i < prefix || i >= prefix + script.length ? ' ' : script[i - prefix];
+        }
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        int oldLine = 0;
+        int newLine = 0;
+        while (i < total) {
+            if (ops[i] == ' ') {
+                i++;
+                oldLine++;
+                newLine++;
+                continue;
+            }
+            // Start a hunk with up to 'context' lines before the change
+            int lead = 0;
+            while (lead < context && i - lead > 0 && ops[i - lead - 1] == ' ') {
+                lead++;
+            }
+            int start = i - lead;
+            int oldStart = oldLine - lead;
+            int newStart = newLine - lead;
+            // Extend the hunk while changes are at most 2 * context lines apart
+            int end = i;
+            int gap = 0;
+            while (end < total && gap <= 2 * context) {
+                gap = ops[end] == ' ' ? gap + 1 : 0;
+                end++;
+            }
+            end -= Math.max(0, gap - context);
+            StringBuilder hunk = new StringBuilder();
+            int oldCount = 0;
+            int newCount = 0;
+            int ai = oldStart;
+            int bi = newStart;
+            for (int j = start; j < end; j++) {
+                switch (ops[j]) {
+                    case ' ' -> {
+                        hunk.append(' ').append(a[ai++]).append('\n');
+                        bi++;
+                        oldCount++;
+                        newCount++;
+                    }
+                    case '-' -> {
+                        hunk.append('-').append(a[ai++]).append('\n');
+                        oldCount++;
+                    }
+                    default -> {
+                        hunk.append('+').append(b[bi++]).append('\n');
+                        newCount++;
+                    }
+                }
+            }
+            sb.append(String.format("@@ -%d,%d +%d,%d @@\n", oldStart + 1, oldCount, newStart + 1, newCount)).append(hunk);
+            i = end;
+            oldLine = ai;
+            newLine = bi;
+        }
+        return sb.toString();
+    }
+}
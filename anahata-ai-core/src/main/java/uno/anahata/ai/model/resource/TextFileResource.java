@@ -1,12 +1,14 @@
 package uno.anahata.ai.model.resource;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.swagger.v3.oas.annotations.media.Schema;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
 import lombok.Getter;
 import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 import uno.anahata.ai.model.core.RagMessage;
-import uno.anahata.ai.model.core.TextPart;
 
 /**
  * A concrete resource representing a text file loaded into the context.
@@ -15,6 +17,7 @@ import uno.anahata.ai.model.core.TextPart;
  * 
  * @author anahata-ai
  */
+@Slf4j
 @Getter
 @Setter
 @Schema(description = "A resource representing a text file")
@@ -23,6 +26,14 @@ public class TextFileResource extends AbstractPathResource<String, String> {
     @Schema(description = "The current view port for the text file")
     private TextViewport viewport;
 
+    /** The line index of the file, shared JVM-wide and extended when the file only grows. Rebuilt after deserialization. */
+    @JsonIgnore
+    private transient LineIndex lineIndex;
+
+    /** The file key (e.g. inode) of the file when it was last loaded, used to detect log rotation. */
+    @JsonIgnore
+    private transient Object fileKey;
+
     /**
      * Creates a new TextFileResource with a default viewport.
      * @param path The path to the file.
@@ -46,14 +57,33 @@ public class TextFileResource extends AbstractPathResource<String, String> {
         reload(); // Perform initial atomic load
     }
     
+    /**
+     * Atomically reloads the file. When the file has only been appended to since
+     * the last load (same file key, not shorter, unchanged tail checksum), only
+     * the appended bytes are indexed and, in grep mode, matched; the viewport
+     * then renders a single page, so a reload costs O(delta + page). On
+     * truncation, rewrite or rotation, the file is indexed from scratch. If
+     * another session already indexed the current content, its index is reused.
+     *
+     * @throws Exception if the file cannot be read.
+     */
     @Override
     public void reload() throws Exception {
-        // Atomic operation: read, process, and cache the view.
-        String content = Files.readString(getResource());
-        this.setLoadLastModified(getCurrentLastModified());
-        
-        // Process the new content through the existing viewport
-        this.viewport.process(content);
+        // Atomic operation: map, process, and cache the view.
+        // Only the viewport's page is decoded, so large files never land on the heap.
+        try (MappedTextFile file = MappedTextFile.open(getResource())) {
+            this.setLoadLastModified(getCurrentLastModified());
+            BasicFileAttributes attrs = getFileAttributes();
+            Object currentFileKey = attrs != null ? attrs.fileKey() : null;
+            if (lineIndex != null && !Objects.equals(fileKey, currentFileKey)) {
+                log.info("File {} was replaced (rotated), reloading from scratch", getPath());
+                lineIndex = null;
+            }
+            fileKey = currentFileKey;
+            // Shared with every other session viewing the same file content
+            lineIndex = LineIndex.loadShared(file, attrs, lineIndex);
+            this.viewport.process(file, lineIndex);
+        }
         
         // Render and cache the new TextPart using the hierarchical header
         StringBuilder sb = new StringBuilder();
@@ -67,7 +97,7 @@ public class TextFileResource extends AbstractPathResource<String, String> {
 
     @Override
     protected void populateFromCache(RagMessage rm) {
-        new TextPart(rm, cache);
+        populateText(rm, cache);
     }
     
     
@@ -0,0 +1,351 @@
+package uno.anahata.ai.model.resource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A streaming, parallel grep engine over memory-mapped text files.
+ * <p>
+ * The file is split into line-aligned chunks (using its {@link LineIndex}) that
+ * are matched in parallel on the common {@link ForkJoinPool}. Lines are decoded
+ * one at a time, so the heap never holds more than one line per worker plus the
+ * match positions. Compiled patterns are cached, as the same pattern is usually
+ * applied on every reload of a resource.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public final class TextGrep {
+
+    /** The approximate number of bytes below which a chunk is matched sequentially. */
+    static final long CHUNK_BYTES = 1024 * 1024;
+
+    /** The maximum number of compiled patterns kept in the cache. */
+    private static final int PATTERN_CACHE_SIZE = 128;
+
+    /** The maximum length of a line (or context line) returned in a {@link GrepMatch}. */
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    /** The LRU cache of compiled patterns, by regex. */
+    private static final Map<String, Pattern> PATTERN_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+            return size() > PATTERN_CACHE_SIZE;
+        }
+    });
+
+    /**
+     * Private constructor for this utility class.
+     */
+    private TextGrep() {
+    }
+
+    /**
+     * Gets a compiled pattern from the cache, compiling it on first use.
+     *
+     * @param regex The regular expression.
+     * @return The compiled pattern.
+     */
+    public static Pattern compile(String regex) {
+        return PATTERN_CACHE.computeIfAbsent(regex, Pattern::compile);
+    }
+
+    /**
+     * Finds the matching lines of a file in parallel.
+     *
+     * @param file The mapped file.
+     * @param index The line index of the file.
+     * @param pattern The pattern.
+     * @param wholeLine {@code true} to require the pattern to match the whole line
+     *                  ({@link Matcher#matches()}), {@code false} to search for it
+     *                  within the line ({@link Matcher#find()}).
+     * @param maxMatches The maximum number of match positions to keep. All matching
+     *                   lines are counted regardless.
+     * @return The matches.
+     */
+    public static Matches findMatches(MappedTextFile file, LineIndex index, Pattern pattern, boolean wholeLine, int maxMatches) {
+        return findMatches(file, index, pattern, wholeLine, maxMatches, 0);
+    }
+
+    /**
+     * Finds the matching lines of a file in parallel, starting at a given line.
+     * Used to match only the lines appended since a previous search.
+     *
+     * @param file The mapped file.
+     * @param index The line index of the file.
+     * @param pattern The pattern.
+     * @param wholeLine Whether the pattern must match the whole line.
+     * @param maxMatches The maximum number of match positions to keep.
+     * @param fromLine The first line to match.
+     * @return The matches.
+     */
+    public static Matches findMatches(MappedTextFile file, LineIndex index, Pattern pattern, boolean wholeLine, int maxMatches, int fromLine) {
+        int lineCount = index.getLineCount();
+        Matches matches = ForkJoinPool.commonPool().invoke(
+                new GrepTask(file, index, pattern, wholeLine, Math.max(0, maxMatches), Math.min(Math.max(0, fromLine), lineCount), lineCount));
+        log.debug("Grep '{}' on {}: {} matching lines", pattern, file.getPath(), matches.getTotal());
+        return matches;
+    }
+
+    /**
+     * Searches a file for a pattern, returning the first matches with their
+     * offsets and optional context lines.
+     *
+     * @param file The mapped file.
+     * @param index The line index of the file.
+     * @param regex The regular expression, searched for within each line.
+     * @param contextLines The number of lines of context to include before and after each match.
+     * @param maxMatches The maximum number of matches to return.
+     * @return The result.
+     */
+    public static GrepResult grep(MappedTextFile file, LineIndex index, String regex, int contextLines, int maxMatches) {
+        long start = System.currentTimeMillis();
+        Matches found = findMatches(file, index, compile(regex), false, maxMatches);
+        int lineCount = index.getLineCount();
+        List<GrepMatch> matches = new ArrayList<>(found.size());
+        for (int i = 0; i < found.size(); i++) {
+            int line = found.getLine(i);
+            long lineStartChar = index.getLineStartChar(line);
+            matches.add(new GrepMatch(
+                    line,
+                    lineStartChar + found.getStartColumn(i),
+                    lineStartChar + found.getEndColumn(i),
+                    readLine(file, index, line),
+                    readLines(file, index, Math.max(0, line - contextLines), line),
+                    readLines(file, index, line + 1, Math.min(lineCount, line + 1 + contextLines))));
+        }
+        return new GrepResult(matches, found.getTotal(), found.getTotal() > found.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Decodes a line, abbreviating it if it is very long.
+     *
+     * @param file The mapped file.
+     * @param index The line index of the file.
+     * @param line The zero-based line number.
+     * @return The line.
+     */
+    private static String readLine(MappedTextFile file, LineIndex index, int line) {
+        long startByte = index.getLineStartByte(line);
+        long endByte = index.getLineEndByte(line);
+        long cutByte = file.advanceChars(startByte, MAX_LINE_LENGTH);
+        if (cutByte < endByte) {
+            return file.decode(startByte, cutByte) + " [" + (index.getLineEndChar(line) - index.getLineStartChar(line) - MAX_LINE_LENGTH) + " more chars...]";
+        }
+        return file.decodeLine(startByte, endByte);
+    }
+
+    /**
+     * Decodes a range of lines.
+     *
+     * @param file The mapped file.
+     * @param index The line index of the file.
+     * @param from The first line (inclusive).
+     * @param to The last line (exclusive).
+     * @return The lines.
+     */
+    private static List<String> readLines(MappedTextFile file, LineIndex index, int from, int to) {
+        List<String> lines = new ArrayList<>(Math.max(0, to - from));
+        for (int line = from; line < to; line++) {
+            lines.add(readLine(file, index, line));
+        }
+        return lines;
+    }
+
+    /**
+     * The positions of the matching lines found by a grep task, in file order.
+     * Each entry holds the line number and the columns of the (first) match.
+     */
+    public static final class Matches {
+
+        /** The packed entries: line, start column, end column. */
+        private int[] data = new int[48];
+
+        /** The number of entries. */
+        private int size;
+
+        /** The total number of matching lines, including those beyond the cap. */
+        private long total;
+
+        /**
+         * Gets the number of kept entries.
+         *
+         * @return The number of entries.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Gets the total number of matching lines, including those beyond the cap.
+         *
+         * @return The total.
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * Gets the line number of an entry.
+         *
+         * @param i The entry index.
+         * @return The zero-based line number.
+         */
+        public int getLine(int i) {
+            return data[i * 3];
+        }
+
+        /**
+         * Gets the start column (in chars) of the match of an entry.
+         *
+         * @param i The entry index.
+         * @return The start column.
+         */
+        public int getStartColumn(int i) {
+            return data[i * 3 + 1];
+        }
+
+        /**
+         * Gets the end column (in chars, exclusive) of the match of an entry.
+         *
+         * @param i The entry index.
+         * @return The end column.
+         */
+        public int getEndColumn(int i) {
+            return data[i * 3 + 2];
+        }
+
+        /**
+         * Adds an entry.
+         *
+         * @param line The line number.
+         * @param start The start column.
+         * @param end The end column.
+         */
+        private void add(int line, int start, int end) {
+            if ((size + 1) * 3 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size * 3] = line;
+            data[size * 3 + 1] = start;
+            data[size * 3 + 2] = end;
+            size++;
+        }
+
+        /**
+         * Removes the entries at or after a given line. Only meaningful for
+         * uncapped matches, where every counted match has an entry.
+         *
+         * @param line The first line to remove.
+         */
+        void truncateFrom(int line) {
+            while (size > 0 && getLine(size - 1) >= line) {
+                size--;
+                total--;
+            }
+        }
+
+        /**
+         * Appends the entries of the following chunk, up to the cap.
+         *
+         * @param next The matches of the following chunk.
+         * @param cap The maximum number of entries to keep.
+         * @return This instance.
+         */
+        Matches append(Matches next, int cap) {
+            for (int i = 0; i < next.size && size < cap; i++) {
+                add(next.getLine(i), next.getStartColumn(i), next.getEndColumn(i));
+            }
+            total += next.total;
+            return this;
+        }
+    }
+
+    /**
+     * Matches a line-aligned range of a file, splitting it in halves while it is
+     * larger than {@link #CHUNK_BYTES}.
+     */
+    private static final class GrepTask extends RecursiveTask<Matches> {
+
+        /** The mapped file. */
+        private final MappedTextFile file;
+
+        /** The line index of the file. */
+        private final LineIndex index;
+
+        /** The pattern. */
+        private final Pattern pattern;
+
+        /** Whether the pattern must match the whole line. */
+        private final boolean wholeLine;
+
+        /** The maximum number of entries to keep. */
+        private final int cap;
+
+        /** The first line of the range (inclusive). */
+        private final int from;
+
+        /** The last line of the range (exclusive). */
+        private final int to;
+
+        /**
+         * Creates a new task.
+         *
+         * @param file The mapped file.
+         * @param index The line index.
+         * @param pattern The pattern.
+         * @param wholeLine Whether the pattern must match the whole line.
+         * @param cap The maximum number of entries to keep.
+         * @param from The first line (inclusive).
+         * @param to The last line (exclusive).
+         */
+        GrepTask(MappedTextFile file, LineIndex index, Pattern pattern, boolean wholeLine, int cap, int from, int to) {
+            this.file = file;
+            this.index = index;
+            this.pattern = pattern;
+            this.wholeLine = wholeLine;
+            this.cap = cap;
+            this.from = from;
+            this.to = to;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected Matches compute() {
+            if (to - from > 1) {
+                long startByte = index.getLineStartByte(from);
+                long endByte = index.getLineEndByte(to - 1);
+                if (endByte - startByte > CHUNK_BYTES) {
+                    int mid = Math.max(from + 1, Math.min(to - 1, index.lineOfByte(startByte + (endByte - startByte) / 2)));
+                    GrepTask left = new GrepTask(file, index, pattern, wholeLine, cap, from, mid);
+                    GrepTask right = new GrepTask(file, index, pattern, wholeLine, cap, mid, to);
+                    right.fork();
+                    Matches leftMatches = left.compute();
+                    return leftMatches.append(right.join(), cap);
+                }
+            }
+            Matches matches = new Matches();
+            Matcher matcher = pattern.matcher("");
+            for (int line = from; line < to; line++) {
+                matcher.reset(file.decodeLine(index.getLineStartByte(line), index.getLineEndByte(line)));
+                if (wholeLine ? matcher.matches() : matcher.find()) {
+                    matches.total++;
+                    if (matches.size < cap) {
+                        matches.add(line, matcher.start(), matcher.end());
+                    }
+                }
+            }
+            return matches;
+        }
+    }
+}
@@ -2,9 +2,11 @@ package uno.anahata.ai.model.resource;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -27,10 +29,14 @@ public class TextViewport {
 
     //<editor-fold defaultstate="collapsed" desc="View Settings">
     private long startChar = 0;
+    /** If set, the page starts at the beginning of this (zero-based) line and {@code startChar} is updated accordingly. Ignored in grep mode. */
+    private Integer startLine;
     private int pageSizeInChars = 16 * 1024; // 16KB default page size
     private int columnWidth = 256;
     private String grepPattern;
     private boolean includeLineNumbers = false;
+    /** If true, the page always shows the end of the (filtered) text, like {@code tail -f}, and {@code startChar} is updated on every reload. */
+    private boolean tail = false;
     //</editor-fold>
 
     //<editor-fold defaultstate="collapsed" desc="Cached Process Results">
@@ -42,6 +48,56 @@ public class TextViewport {
     private int truncatedLinesCount;
     //</editor-fold>
 
+    //<editor-fold defaultstate="collapsed" desc="Incremental Grep State">
+    /** The matches of the last grep over a mapped file, extended when the file grows. */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient TextGrep.Matches grepMatches;
+
+    /** The line index the cached matches were last computed or extended against. */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient LineIndex grepIndex;
+
+    /** The pattern the cached matches were computed with. */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient String grepMatchesPattern;
+
+    /** The number of bytes covered by the cached matches. */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient long grepByteSize;
+
+    /** The number of lines covered by the cached matches. */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient int grepLineCount;
+
+    /** The number of leading cached matches whose lengths are summed in {@link #grepMatchedChars}. */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient int grepCountedMatches;
+
+    /** The total length in chars of the counted matches, without separators. */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient long grepMatchedChars;
+
+    /** The length in chars of the last counted match, which may still grow. */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient long grepLastMatchLength;
+    //</editor-fold>
+
     /**
      * Processes a block of text according to the viewport's settings, caching the results.
      *
@@ -62,7 +118,7 @@ public class TextViewport {
         // Step 1: Apply grep pattern if it exists
         String contentToPaginate;
         if (grepPattern != null && !grepPattern.trim().isEmpty()) {
-            Pattern pattern = Pattern.compile(grepPattern);
+            Pattern pattern = TextGrep.compile(grepPattern);
             contentToPaginate = fullText.lines()
                     .filter(line -> pattern.matcher(line).matches())
                     .collect(Collectors.joining("\n"));
@@ -70,6 +126,13 @@ public class TextViewport {
         } else {
             contentToPaginate = fullText;
             this.matchingLineCount = null; // Not applicable
+            if (startLine != null) {
+                this.startChar = lineStartChar(fullText, startLine);
+            }
+        }
+
+        if (tail) {
+            this.startChar = tailStart(contentToPaginate);
         }
 
         // Step 2: Paginate by character offsets
@@ -105,18 +168,322 @@ public class TextViewport {
         }
         
         // Step 4: Truncate long lines and optionally add line numbers
-        List<String> pageLines = sb.toString().lines().collect(Collectors.toList());
+        if (includeLineNumbers) {
+            // Line numbers are tricky with char offsets, so we find the starting line number
+            int startLineNum = (int) fullText.substring(0, (int)effectiveStart).lines().count();
+            render(sb.toString(), List.of((long) startLineNum));
+        } else {
+            render(sb.toString(), List.of());
+        }
+    }
+
+    /**
+     * Processes a memory-mapped text file according to the viewport's settings,
+     * caching the results. Unlike {@link #process(String)}, the file is never
+     * fully decoded: only the bytes of the requested page are turned into a
+     * {@code String} (in grep mode, lines are decoded one at a time), so heap
+     * usage is bounded by the page size rather than the file size.
+     *
+     * @param file The mapped file to process.
+     */
+    public void process(MappedTextFile file) {
+        process(file, LineIndex.build(file));
+    }
+
+    /**
+     * Processes a memory-mapped text file using a prebuilt line index, so totals,
+     * line numbers and line navigation are resolved without scanning the file.
+     *
+     * @param file The mapped file to process.
+     * @param index The line index of the file, covering all its bytes.
+     */
+    public void process(MappedTextFile file, LineIndex index) {
+        Validate.notNull(file, "file cannot be null");
+        Validate.isTrue(index.getByteSize() == file.getByteSize(), "The line index does not cover the file");
+        this.totalChars = index.getCharCount();
+        this.totalLines = index.getLineCount();
+
+        if (file.getByteSize() == 0) {
+            this.matchingLineCount = 0;
+            this.truncatedLinesCount = 0;
+            this.processedText = "";
+            return;
+        }
+
+        if (grepPattern != null && !grepPattern.trim().isEmpty()) {
+            processGrep(file, index);
+        } else {
+            this.matchingLineCount = null; // Not applicable
+            if (tail) {
+                this.startChar = tailStart(index);
+            } else if (startLine != null) {
+                this.startChar = index.getLineStartChar(Math.max(0, Math.min(startLine, totalLines - 1)));
+            }
+            processPage(file, index);
+        }
+    }
+
+    /**
+     * Paginates a mapped file by character offsets, decoding only the page window.
+     *
+     * @param file The mapped file.
+     * @param index The line index of the file.
+     */
+    private void processPage(MappedTextFile file, LineIndex index) {
+        long effectiveStart = Math.max(0, startChar);
+        if (effectiveStart >= totalChars) {
+            this.processedText = "";
+            return;
+        }
+        long size = file.getByteSize();
+        long startByte = index.byteOffsetOfChar(file, effectiveStart);
+        long endByte = file.advanceChars(startByte, pageSizeInChars);
+        int startLineNum = index.lineOfByte(startByte);
+
+        StringBuilder sb = new StringBuilder();
+        if (startByte > index.getLineStartByte(startLineNum)) {
+            sb.append("[...").append(effectiveStart - index.getLineStartChar(startLineNum)).append(" preceding chars] ");
+        }
+
+        String pageText = file.decode(startByte, endByte);
+        sb.append(pageText);
+
+        if (endByte < size && file.byteAt(endByte) != '\n') {
+            int endLine = index.lineOfByte(endByte);
+            if (index.getLineEndByte(endLine) < size) {
+                long endChar = effectiveStart + pageText.length();
+                sb.append(" [").append(index.getLineEndChar(endLine) - endChar).append(" more chars...]");
+            }
+        }
+
+        render(sb.toString(), List.of((long) startLineNum));
+    }
+
+    /**
+     * Pages through the lines of a mapped file matching the grep pattern, as if
+     * they were joined with {@code '\n'}, without materializing that text. The
+     * matching lines are found in parallel by the {@link TextGrep} engine. Only
+     * the matches overlapping the page window are decoded, and each keeps its
+     * real (zero-based) line number in the file.
+     *
+     * @param file The mapped file.
+     * @param index The line index of the file.
+     */
+    private void processGrep(MappedTextFile file, LineIndex index) {
+        TextGrep.Matches found = findGrepMatches(file, index);
+        this.matchingLineCount = found.size();
+        if (tail) {
+            this.startChar = tailStart(file, index, found);
+        }
+        long start = Math.max(0, startChar);
+        long end = start + pageSizeInChars;
+
+        StringBuilder sb = new StringBuilder();
+        List<Long> lineNumbers = new ArrayList<>();
+        long pos = 0; // position in the virtual, filtered text
+        for (int i = 0; i < found.size() && pos < end; i++) {
+            int lineNumber = found.getLine(i);
+            if (i > 0) {
+                if (pos >= start) {
+                    sb.append('\n');
+                }
+                pos++;
+            }
+            long ls = pos;
+            long le = pos + lineLength(file, index, lineNumber);
+            if (ls < end && le >= start) {
+                if (ls < start) {
+                    sb.append("[...").append(start - ls).append(" preceding chars] ");
+                }
+                String line = file.decodeLine(index.getLineStartByte(lineNumber), index.getLineEndByte(lineNumber));
+                sb.append(line, (int) (Math.max(ls, start) - ls), (int) (Math.min(le, end) - ls));
+                lineNumbers.add((long) lineNumber);
+                if (end < le && i + 1 < found.size()) {
+                    // Only reported when the cut line is not the last one, as in process(String)
+                    sb.append(" [").append(le - end).append(" more chars...]");
+                }
+            } else if (ls == end && le > end && start < end && i + 1 < found.size()) {
+                // The page ends right after a separator: report the length of the next line, as in process(String)
+                sb.append(" [").append(le - end).append(" more chars...]");
+            }
+            pos = le;
+        }
+
+        if (found.size() == 0 || start >= pos) {
+            this.processedText = "";
+            return;
+        }
+        render(sb.toString(), lineNumbers);
+    }
+
+    /**
+     * Gets the lines matching the grep pattern. If the previous call used the same
+     * pattern and the index {@link LineIndex#continues(LineIndex) continues} the
+     * previous one (the file was only appended to), only the lines added since
+     * then are matched; the last previously indexed line is matched again, as it
+     * may have been incomplete.
+     *
+     * @param file The mapped file.
+     * @param index The line index of the file.
+     * @return The matches.
+     */
+    private TextGrep.Matches findGrepMatches(MappedTextFile file, LineIndex index) {
+        Pattern pattern = TextGrep.compile(grepPattern);
+        if (grepMatches != null && index.continues(grepIndex) && grepPattern.equals(grepMatchesPattern)
+                && grepByteSize <= index.getByteSize() && grepLineCount <= index.getLineCount()) {
+            if (grepByteSize < index.getByteSize()) {
+                int fromLine = Math.max(0, grepLineCount - 1);
+                grepMatches.truncateFrom(fromLine);
+                if (grepMatches.size() < grepCountedMatches) {
+                    // Only the match on the last line can be dropped, its line may have grown since it was counted
+                    boolean lastOnly = grepMatches.size() == grepCountedMatches - 1;
+                    grepMatchedChars = lastOnly ? grepMatchedChars - grepLastMatchLength : 0;
+                    grepCountedMatches = lastOnly ? grepMatches.size() : 0;
+                }
+                grepMatches.append(TextGrep.findMatches(file, index, pattern, true, Integer.MAX_VALUE, fromLine), Integer.MAX_VALUE);
+            }
+        } else {
+            grepMatches = TextGrep.findMatches(file, index, pattern, true, Integer.MAX_VALUE);
+            grepMatchesPattern = grepPattern;
+            grepCountedMatches = 0;
+            grepMatchedChars = 0;
+        }
+        grepIndex = index;
+        grepByteSize = index.getByteSize();
+        grepLineCount = index.getLineCount();
+        return grepMatches;
+    }
+
+    /**
+     * Finds the start of the last page of an in-memory text, moved forward to the
+     * next line start so that the page does not begin with a partial line.
+     *
+     * @param text The text to paginate.
+     * @return The char offset of the start of the last page.
+     */
+    private long tailStart(String text) {
+        int start = Math.max(0, text.length() - pageSizeInChars);
+        if (start > 0 && text.charAt(start - 1) != '\n') {
+            int next = text.indexOf('\n', start);
+            if (next != -1 && next + 1 < text.length()) {
+                start = next + 1;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Finds the start of the last page of a mapped file, moved forward to the
+     * next line start so that the page does not begin with a partial line.
+     *
+     * @param index The line index of the file.
+     * @return The char offset of the start of the last page.
+     */
+    private long tailStart(LineIndex index) {
+        long start = Math.max(0, totalChars - pageSizeInChars);
+        int line = index.lineOfChar(start);
+        if (index.getLineStartChar(line) < start && line + 1 < totalLines) {
+            start = index.getLineStartChar(line + 1);
+        }
+        return start;
+    }
+
+    /**
+     * Finds the start of the last page of the filtered text formed by the
+     * matching lines, moved forward to the start of the next matching line.
+     * The length of the filtered text is kept across calls, so only the
+     * matches appended since the previous call are measured; the page start is
+     * then found walking back from the end, over the matches of the last page.
+     *
+     * @param file The mapped file.
+     * @param index The line index of the file.
+     * @param found The matching lines, the cached {@link #grepMatches}.
+     * @return The char offset, in the filtered text, of the start of the last page.
+     */
+    private long tailStart(MappedTextFile file, LineIndex index, TextGrep.Matches found) {
+        for (int i = grepCountedMatches; i < found.size(); i++) {
+            grepLastMatchLength = lineLength(file, index, found.getLine(i));
+            grepMatchedChars += grepLastMatchLength;
+        }
+        grepCountedMatches = found.size();
+        long length = Math.max(0, found.size() - 1) + grepMatchedChars; // separators
+        long desired = Math.max(0, length - pageSizeInChars);
+        long start = desired;
+        long end = length; // end of the match i, exclusive
+        for (int i = found.size() - 1; i >= 0; i--) {
+            long pos = end - lineLength(file, index, found.getLine(i));
+            if (pos < desired) {
+                break;
+            }
+            if (pos < length) {
+                start = pos;
+            }
+            end = pos - 1;
+        }
+        return start;
+    }
+
+    /**
+     * Gets the length in chars of a line, excluding its line terminator.
+     *
+     * @param file The mapped file.
+     * @param index The line index of the file.
+     * @param line The zero-based line number.
+     * @return The length of the line.
+     */
+    private static long lineLength(MappedTextFile file, LineIndex index, int line) {
+        long length = index.getLineEndChar(line) - index.getLineStartChar(line);
+        long endByte = index.getLineEndByte(line);
+        if (length > 0 && file.byteAt(endByte - 1) == '\r') {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * Finds the char offset of the start of a line in an in-memory text.
+     *
+     * @param fullText The text.
+     * @param line The zero-based line number, clamped to the last line.
+     * @return The char offset.
+     */
+    private static long lineStartChar(String fullText, int line) {
+        int offset = 0;
+        for (int i = 0; i < line; i++) {
+            int newline = fullText.indexOf('\n', offset);
+            if (newline == -1 || newline + 1 == fullText.length()) {
+                break;
+            }
+            offset = newline + 1;
+        }
+        return offset;
+    }
+
+    /**
+     * Truncates long lines and optionally adds line numbers to a page of text,
+     * caching the result in {@link #processedText}.
+     *
+     * @param pageText The page text, including any partial line markers.
+     * @param lineNumbers The line numbers of the page lines. If there are fewer
+     *                    numbers than lines, numbering continues sequentially.
+     */
+    private void render(String pageText, List<Long> lineNumbers) {
+        List<String> pageLines = pageText.lines().collect(Collectors.toList());
         this.truncatedLinesCount = (int) pageLines.stream()
                 .filter(line -> line.length() > columnWidth)
                 .count();
 
         if (includeLineNumbers) {
-            // Line numbers are tricky with char offsets, so we find the starting line number
-            int startLineNum = (int) fullText.substring(0, (int)effectiveStart).lines().count();
-            final int[] lineNumber = {startLineNum};
-            this.processedText = pageLines.stream()
-                .map(line -> String.format("[%d]: %s", lineNumber[0]++, truncateLine(line)))
-                .collect(Collectors.joining("\n"));
+            StringBuilder sb = new StringBuilder();
+            long lineNumber = 0;
+            for (int i = 0; i < pageLines.size(); i++) {
+                lineNumber = i < lineNumbers.size() ? lineNumbers.get(i) : lineNumber + 1;
+                if (i > 0) {
+                    sb.append('\n');
+                }
+                sb.append(String.format("[%d]: %s", lineNumber, truncateLine(pageLines.get(i))));
+            }
+            this.processedText = sb.toString();
         } else {
             this.processedText = pageLines.stream()
                 .map(this::truncateLine)
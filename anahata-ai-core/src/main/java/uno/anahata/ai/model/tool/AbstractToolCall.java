@@ -62,6 +62,13 @@ public abstract class AbstractToolCall<T extends AbstractTool<?, ?>, R extends A
         getChat().getContextManager().ensureToolMessageFolllowsModelMessage(getMessage());
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void setThoughtSignature(byte[] thoughtSignature) {
+        this.thoughtSignature = thoughtSignature;
+        touch();
+    }
+
     /**
      * Gets the name of the tool to be invoked.
      * @return The tool's name.
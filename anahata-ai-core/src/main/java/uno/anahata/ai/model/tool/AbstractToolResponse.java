@@ -4,7 +4,10 @@ package uno.anahata.ai.model.tool;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.NonNull;
 import lombok.Setter;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import uno.anahata.ai.internal.TextUtils;
@@ -25,8 +28,15 @@ public abstract class AbstractToolResponse<C extends AbstractToolCall<?, ?>> ext
     private ToolExecutionStatus status;
 
     /** The result of the invocation if it succeeded, otherwise {@code null}. */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
     private Object result;
 
+    /** Loads a result deferred by {@link #deferResult(Supplier)} on first access. Not serialized. */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient Supplier<Object> resultLoader;
+
     /** A descriptive error message if the tool failed or was rejected. */
     private String error;
 
@@ -54,9 +64,74 @@ public abstract class AbstractToolResponse<C extends AbstractToolCall<?, ?>> ext
     public void setStatus(ToolExecutionStatus status) {
         ToolExecutionStatus oldStatus = this.status;
         this.status = status;
-        getPropertyChangeSupport().firePropertyChange("status", oldStatus, status);
+        firePropertyChange("status", oldStatus, status);
     }
     
+    /**
+     * Gets the result of the invocation, loading it first if it is deferred.
+     *
+     * @return The result, or {@code null} if the invocation did not succeed.
+     */
+    public synchronized Object getResult() {
+        if (resultLoader != null) {
+            result = resultLoader.get();
+            resultLoader = null;
+        }
+        return result;
+    }
+
+    /**
+     * Sets the result of the invocation.
+     *
+     * @param result The result.
+     */
+    public synchronized void setResult(Object result) {
+        this.resultLoader = null;
+        this.result = result;
+        touch();
+    }
+
+    /**
+     * Sets the error message of the invocation.
+     *
+     * @param error The error message.
+     */
+    public void setError(String error) {
+        this.error = error;
+        touch();
+    }
+
+    /**
+     * Sets the time taken to execute the method.
+     *
+     * @param executionTimeMillis The execution time, in milliseconds.
+     */
+    public void setExecutionTimeMillis(long executionTimeMillis) {
+        this.executionTimeMillis = executionTimeMillis;
+        touch();
+    }
+
+    /**
+     * Sets the feedback of the user on a prompted execution.
+     *
+     * @param userFeedback The feedback.
+     */
+    public void setUserFeedback(String userFeedback) {
+        this.userFeedback = userFeedback;
+        touch();
+    }
+
+    /**
+     * Defers the result of a restored response, which stays in the session
+     * file it was read from until it is first accessed.
+     *
+     * @param loader Loads the result.
+     */
+    public synchronized void deferResult(@NonNull Supplier<Object> loader) {
+        this.result = null;
+        this.resultLoader = loader;
+    }
+
     /**
      * Gets the name of the tool that was invoked.
      * @return The tool's name.
@@ -96,7 +171,7 @@ public abstract class AbstractToolResponse<C extends AbstractToolCall<?, ?>> ext
         setExecutionTimeMillis(0);
         clearLogs();
         this.attachments.clear();
-        getPropertyChangeSupport().firePropertyChange("attachments", null, attachments);
+        firePropertyChange("attachments", null, attachments);
     }
 
     /**
@@ -105,7 +180,7 @@ public abstract class AbstractToolResponse<C extends AbstractToolCall<?, ?>> ext
      */
     public void addLog(String message) {
         this.logs.add(message);
-        getPropertyChangeSupport().firePropertyChange("logs", null, logs);
+        firePropertyChange("logs", null, logs);
     }
     
     /**
@@ -130,7 +205,7 @@ public abstract class AbstractToolResponse<C extends AbstractToolCall<?, ?>> ext
         } else {
             this.error = "\n" + error;
         }
-        getPropertyChangeSupport().firePropertyChange("error", null, this.error);
+        firePropertyChange("error", null, this.error);
     }
     
     /**
@@ -140,7 +215,7 @@ public abstract class AbstractToolResponse<C extends AbstractToolCall<?, ?>> ext
      */
     public void addAttachment(byte[] data, String mimeType) {
         this.attachments.add(new ToolResponseAttachment(data, mimeType));
-        getPropertyChangeSupport().firePropertyChange("attachments", null, attachments);
+        firePropertyChange("attachments", null, attachments);
     }
 
     /**
@@ -149,7 +224,7 @@ public abstract class AbstractToolResponse<C extends AbstractToolCall<?, ?>> ext
      */
     public void removeAttachment(ToolResponseAttachment attachment) {
         if (this.attachments.remove(attachment)) {
-            getPropertyChangeSupport().firePropertyChange("attachments", null, attachments);
+            firePropertyChange("attachments", null, attachments);
         }
     }
     
@@ -166,7 +241,7 @@ public abstract class AbstractToolResponse<C extends AbstractToolCall<?, ?>> ext
      */
     public void clearLogs() {
         this.logs.clear();
-        getPropertyChangeSupport().firePropertyChange("logs", null, logs);
+        firePropertyChange("logs", null, logs);
     }
     
     @Override
@@ -176,6 +251,7 @@ public abstract class AbstractToolResponse<C extends AbstractToolCall<?, ?>> ext
     
     @Override
     public String asText() {
-        return String.format("[%s] %s", status, result != null ? TextUtils.formatValue(result) : (error != null ? error : ""));
+        Object value = getResult();
+        return String.format("[%s] %s", status, value != null ? TextUtils.formatValue(value) : (error != null ? error : ""));
     }
 }
@@ -0,0 +1,240 @@
+package uno.anahata.ai.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.internal.TikaUtils;
+
+/**
+ * A JVM-wide cache of the text extracted from binary documents (PDF, Office,
+ * etc.) by Apache Tika, keyed by the SHA-256 hash of the document content.
+ * <p>
+ * Extracted text is streamed straight into a UTF-8 file under the global work
+ * dir ({@code ~/.anahata/ai/documents}), so a document is parsed once no matter
+ * how many sessions (or restarts) load it. Extractions run on a
+ * small bounded pool of daemon threads; concurrent requests for the same
+ * content share a single extraction. Documents larger than
+ * {@value #MAX_DOCUMENT_BYTES} bytes are rejected and extracted text is capped
+ * at {@value #MAX_EXTRACTED_CHARS} chars. Documents that no installed parser
+ * supports, or that yield no text, fail to extract and are not stored, so
+ * they are parsed again on the next attempt.
+ * <p>
+ * The text is stored uncompressed so that it can be paged through as a
+ * {@link uno.anahata.ai.model.resource.MappedTextFile}: rendering a page
+ * decodes that page only, however large the extracted text is.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class DocumentExtractionCache {
+
+    /** The maximum size of a document that can be extracted. */
+    public static final long MAX_DOCUMENT_BYTES = 256L * 1024 * 1024;
+
+    /** The maximum number of chars extracted from a single document. */
+    public static final int MAX_EXTRACTED_CHARS = 32 * 1024 * 1024;
+
+    /** The maximum number of extractions waiting for a thread. */
+    private static final int MAX_QUEUED_EXTRACTIONS = 64;
+
+    /** The extraction pool: bounded in threads and queue length. */
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(MAX_QUEUED_EXTRACTIONS),
+            new BasicThreadFactory.Builder()
+                    .namingPattern("anahata-ai-document-extractor-%d")
+                    .daemon(true)
+                    .priority(Thread.MIN_PRIORITY)
+                    .build());
+
+    static {
+        POOL.allowCoreThreadTimeOut(true);
+    }
+
+    /** The extractions in progress, by content hash. */
+    private static final Map<String, CompletableFuture<Extraction>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    /** The store directory, or {@code null} for the default one under the global work dir. */
+    private static volatile Path storeDir;
+
+    /**
+     * The result of an extraction: the location of the text in the store.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static final class Extraction {
+        /** The SHA-256 hash of the document content. */
+        private final String hash;
+        /** The UTF-8 text file; never modified once stored. */
+        private final Path textFile;
+        /** Whether the text was truncated at {@link #MAX_EXTRACTED_CHARS}. */
+        private final boolean truncated;
+    }
+
+    /**
+     * Gets the extracted text of a document, parsing it in the background if it
+     * is not in the store yet. The content hash is computed on the calling thread.
+     *
+     * @param document The document.
+     * @return A future completed with the extraction, completed exceptionally if
+     *         the document is too large, the pool is saturated or parsing fails.
+     * @throws IOException if the document cannot be read.
+     */
+    public static CompletableFuture<Extraction> extract(Path document) throws IOException {
+        long size = Files.size(document);
+        if (size > MAX_DOCUMENT_BYTES) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    "Document too large for text extraction: " + size + " bytes (max " + MAX_DOCUMENT_BYTES + ")"));
+        }
+        String hash = hash(document);
+        Extraction stored = lookup(hash);
+        if (stored != null) {
+            log.debug("Extracted text of {} found in store: {}", document, stored.getTextFile());
+            return CompletableFuture.completedFuture(stored);
+        }
+        CompletableFuture<Extraction> future = IN_FLIGHT.computeIfAbsent(hash, h -> submit(document, h));
+        future.whenComplete((extraction, error) -> IN_FLIGHT.remove(hash, future));
+        return future;
+    }
+
+    /**
+     * Submits a document to the extraction pool.
+     *
+     * @param document The document.
+     * @param hash The content hash.
+     * @return The future extraction, failed if the pool queue is full.
+     */
+    private static CompletableFuture<Extraction> submit(Path document, String hash) {
+        try {
+            return CompletableFuture.supplyAsync(() -> parseToStore(document, hash), POOL);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Too many documents waiting for text extraction, try again later", e));
+        }
+    }
+
+    /**
+     * Finds an extraction in the store.
+     *
+     * @param hash The content hash.
+     * @return The extraction, or {@code null} if the document has not been extracted yet.
+     */
+    private static Extraction lookup(String hash) {
+        Path textFile = getStoreDir().resolve(hash + ".txt");
+        if (Files.exists(textFile)) {
+            return new Extraction(hash, textFile, Files.exists(getStoreDir().resolve(hash + ".truncated")));
+        }
+        return null;
+    }
+
+    /**
+     * Parses a document and streams its text into the store.
+     *
+     * @param document The document.
+     * @param hash The content hash.
+     * @return The extraction.
+     */
+    private static Extraction parseToStore(Path document, String hash) {
+        Path dir = getStoreDir();
+        Path textFile = dir.resolve(hash + ".txt");
+        Path tmp = dir.resolve(hash + ".txt." + Thread.currentThread().getId() + ".tmp");
+        long start = System.currentTimeMillis();
+        try {
+            boolean truncated;
+            try (InputStream in = Files.newInputStream(document);
+                    Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                truncated = TikaUtils.parse(in, out, MAX_EXTRACTED_CHARS);
+            }
+            if (Files.size(tmp) == 0) {
+                // Not stored: a later attempt may succeed (e.g. with more parsers installed)
+                throw new IOException("No text found in the document");
+            }
+            if (truncated) {
+                Files.writeString(dir.resolve(hash + ".truncated"), document.toString());
+            }
+            Files.move(tmp, textFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Extracted text of {} in {} ms (truncated: {})", document, System.currentTimeMillis() - start, truncated);
+            return new Extraction(hash, textFile, truncated);
+        } catch (Exception e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ex) {
+                log.warn("Could not delete {}", tmp, ex);
+            }
+            throw new CompletionException("Text extraction failed for " + document + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file's content.
+     *
+     * @param file The file.
+     * @return The hex encoded hash.
+     * @throws IOException if the file cannot be read.
+     */
+    private static String hash(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the store directory, creating it if needed.
+     *
+     * @return The directory.
+     */
+    public static Path getStoreDir() {
+        Path dir = storeDir;
+        if (dir == null) {
+            return AsiConfig.getWorkDirSubDir("documents");
+        }
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            log.error("Could not create document store: {}", dir, e);
+        }
+        return dir;
+    }
+
+    /**
+     * Sets the store directory. Extractions already stored in the previous
+     * directory are not moved.
+     *
+     * @param dir The directory, or {@code null} for the default one under the global work dir.
+     */
+    public static void setStoreDir(Path dir) {
+        storeDir = dir;
+    }
+}
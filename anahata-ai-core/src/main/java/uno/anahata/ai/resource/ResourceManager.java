@@ -1,10 +1,17 @@
 package uno.anahata.ai.resource;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import uno.anahata.ai.chat.Chat;
@@ -13,30 +20,68 @@ import uno.anahata.ai.context.ContextPosition;
 import uno.anahata.ai.context.ContextProvider;
 import uno.anahata.ai.model.core.RagMessage;
 import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.provider.AbstractModel;
+import uno.anahata.ai.model.provider.TokenCalibration;
+import uno.anahata.ai.model.provider.Tokenizer;
+import uno.anahata.ai.model.provider.TokenizerRegistry;
+import uno.anahata.ai.model.resource.AbstractPathResource;
 import uno.anahata.ai.model.resource.AbstractResource;
 
 /**
  * The central, unified manager for all V2 managed resources.
  * This class acts as the pure backend container for all {@link AbstractResource}
  * instances, preserving the order of registration.
+ * <p>
+ * Resources are indexed by id, by normalized absolute path and by type in
+ * concurrent maps, so lookups are O(1) and never block. Registration and
+ * unregistration are serialized to keep the indexes consistent; iteration
+ * always works on a snapshot, so resources can be registered by a tool while
+ * the RAG message is being populated.
  *
  * @author anahata-ai
  */
 @Slf4j
 public class ResourceManager {
 
-    
     /**
-     * A map of all tracked resources by resource id.
+     * All tracked resources, keyed by registration sequence so that iteration
+     * follows the order of registration.
+     */
+    private final ConcurrentSkipListMap<Long, AbstractResource> resources = new ConcurrentSkipListMap<>();
+
+    /**
+     * The sequence of the last registered resource. Guarded by this manager's lock.
      */
-    private final Map<String, AbstractResource> resources = Collections.synchronizedMap(new LinkedHashMap<>());
+    private long lastSequence;
+
+    /**
+     * The lookup indexes, rebuilt from {@link #resources} on first use after deserialization. Not serialized.
+     */
+    private transient volatile Indexes indexes;
+
+    /**
+     * The order in which resources are granted the token budget: highest
+     * priority first, then most recently used.
+     */
+    private static final Comparator<AbstractResource> BUDGET_ORDER = (a, b) -> a.getPriority() != b.getPriority()
+            ? Integer.compare(b.getPriority(), a.getPriority())
+            : Long.compare(b.getLastUsed(), a.getLastUsed());
 
     /**
      * Registers a new resource, making it managed by the framework.
      * @param resource The resource to register.
      */
-    public void register(@NonNull AbstractResource resource) {
-        resources.put(resource.getId(), resource);
+    public synchronized void register(@NonNull AbstractResource resource) {
+        Indexes idx = getIndexes();
+        if (idx.sequenceById.containsKey(resource.getId())) {
+            return;
+        }
+        long sequence = ++lastSequence;
+        resources.put(sequence, resource);
+        idx.add(sequence, resource);
+        if (resource instanceof AbstractPathResource) {
+            getWatcher().watch((AbstractPathResource<?, ?>) resource);
+        }
     }
     
     /**
@@ -48,10 +93,11 @@ public class ResourceManager {
      * @throws IllegalArgumentException - If no resource for that id is registered.
      */    
     public <T extends AbstractResource> T getResource(String id) throws IllegalArgumentException{
-        if (!resources.containsKey(id)) {
+        AbstractResource resource = getIndexes().byId.get(id);
+        if (resource == null) {
             throw new IllegalArgumentException("Resource not registered: " + id);
         }
-        return (T) resources.get(id);
+        return (T) resource;
     }
 
     /**
@@ -59,17 +105,289 @@ public class ResourceManager {
      * @param resourceId The ID of the resource to unregister.
      * @return The unregistered resource, or null if it was not found.
      */
-    public AbstractResource unregister(@NonNull String resourceId) {
-        return resources.remove(resourceId);
+    public synchronized AbstractResource unregister(@NonNull String resourceId) {
+        Indexes idx = getIndexes();
+        Long sequence = idx.sequenceById.get(resourceId);
+        if (sequence == null) {
+            return null;
+        }
+        AbstractResource resource = resources.remove(sequence);
+        idx.remove(resource);
+        if (resource instanceof AbstractPathResource) {
+            getWatcher().unwatch((AbstractPathResource<?, ?>) resource);
+        }
+        return resource;
     }
-    
+
+    /**
+     * Gets the resources registered for a file or directory.
+     *
+     * @param path The path, normalized to an absolute path for the lookup.
+     * @return The resources for the path, in registration order (usually at most one).
+     */
+    public List<AbstractPathResource<?, ?>> getResourcesByPath(@NonNull String path) {
+        Set<AbstractPathResource<?, ?>> found = getIndexes().byPath.get(normalize(path));
+        return found == null ? List.of() : inRegistrationOrder(found);
+    }
+
+    /**
+     * Gets the resources of a given type, including subclasses.
+     *
+     * @param <T> The type.
+     * @param type The class of the type.
+     * @return The resources of the type, in registration order.
+     */
+    public <T extends AbstractResource> List<T> getResourcesByType(@NonNull Class<T> type) {
+        List<T> found = new ArrayList<>();
+        getIndexes().byType.forEach((clazz, set) -> {
+            if (type.isAssignableFrom(clazz)) {
+                set.forEach(r -> found.add(type.cast(r)));
+            }
+        });
+        return inRegistrationOrder(found);
+    }
+
     /**
-     * Gets an unmodifiable view of all currently managed resources, preserving registration order.
-     * @return A collection of all managed resources.
+     * Renders the prompt augmentation resources into the RAG message within a
+     * token budget.
+     * <p>
+     * Every resource is first {@link AbstractResource#prepare() prepared} and
+     * its rendering measured. The budget is then granted by priority and
+     * recency of use, and only the resources that fit are rendered (in
+     * registration order); the others are rendered as their header only,
+     * after them. A summary at the top of the section lists the elided
+     * resources so the model can ask for them.
+     *
+     * @param ragMessage The message to populate.
+     * @param tokenBudget The maximum number of tokens of resource content, or 0 (or less) for no limit.
      */
-    public Collection<AbstractResource> getResources() {
-        return Collections.unmodifiableCollection(resources.values());
+    public void populate(RagMessage ragMessage, int tokenBudget) {
+        List<AbstractResource> candidates = new ArrayList<>();
+        for (AbstractResource resource : resources.values()) {
+            if (resource.getContextPosition() == ContextPosition.PROMPT_AUGMENTATION) {
+                candidates.add(resource);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+        TextPart summary = new TextPart(ragMessage, "");
+        AbstractModel model = ragMessage.getChat() != null ? ragMessage.getChat().getSelectedModel() : null;
+        Tokenizer tokenizer = TokenizerRegistry.get(model);
+        TokenCalibration calibration = model != null ? model.getTokenCalibration() : null;
+
+        Map<AbstractResource, Integer> tokens = new HashMap<>();
+        for (AbstractResource resource : candidates) {
+            String text = null;
+            try {
+                text = resource.prepare();
+            } catch (Exception e) {
+                log.error("Error preparing managed resource {} for prompt augmentation", resource.getName(), e);
+            }
+            tokens.put(resource, text != null ? estimateTokens(tokenizer, calibration, text) : 0);
+        }
+
+        Set<AbstractResource> elided = new LinkedHashSet<>();
+        if (tokenBudget > 0) {
+            List<AbstractResource> ranked = new ArrayList<>(candidates);
+            ranked.sort(BUDGET_ORDER);
+            int used = 0;
+            for (AbstractResource resource : ranked) {
+                int cost = tokens.get(resource);
+                if (used + cost <= tokenBudget) {
+                    used += cost;
+                } else {
+                    elided.add(resource);
+                }
+            }
+        }
+
+        for (AbstractResource resource : candidates) {
+            if (elided.contains(resource)) {
+                continue;
+            }
+            try {
+                // Delegate rendering to the resource itself
+                resource.populate(ragMessage);
+            } catch (Exception e) {
+                log.error("Error processing managed resource {} for prompt augmentation", resource.getName(), e);
+            }
+        }
+        for (AbstractResource resource : elided) {
+            resource.populateHeader(ragMessage, tokens.get(resource));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("**Managed Resources**: %d rendered in full, %d elided to their header (resource token budget: %s)\n",
+                candidates.size() - elided.size(), elided.size(), tokenBudget > 0 ? tokenBudget : "unlimited"));
+        for (AbstractResource resource : elided) {
+            sb.append(String.format("- Elided: %s (id: %s, ~%d tokens, priority %d)\n",
+                    resource.getName(), resource.getId(), tokens.get(resource), resource.getPriority()));
+        }
+        summary.setText(sb.toString());
+        if (!elided.isEmpty()) {
+            log.info("Elided {} of {} resources to fit the resource token budget of {}", elided.size(), candidates.size(), tokenBudget);
+        }
     }
 
+    /**
+     * Estimates the number of tokens of the text a resource will render.
+     *
+     * @param tokenizer The tokenizer of the selected model.
+     * @param calibration The token calibration of the selected model, or {@code null}.
+     * @param text The text.
+     * @return The estimated number of tokens.
+     */
+    private static int estimateTokens(Tokenizer tokenizer, TokenCalibration calibration, String text) {
+        double[] features = TokenCalibration.features(tokenizer, text);
+        if (calibration != null) {
+            return calibration.estimate(features, false);
+        }
+        double total = 0;
+        for (double feature : features) {
+            total += feature;
+        }
+        return (int) total;
+    }
 
+    /**
+     * Starts watching any path resource that is not watched yet, e.g. after the
+     * chat was restored from a saved session (watch registrations are not
+     * serialized). Cheap to call on every turn: directories that cannot be
+     * watched are remembered by the watcher and not retried.
+     */
+    public void ensureWatched() {
+        for (AbstractResource resource : resources.values()) {
+            if (resource instanceof AbstractPathResource && !((AbstractPathResource<?, ?>) resource).isWatched()) {
+                getWatcher().watch((AbstractPathResource<?, ?>) resource);
+            }
+        }
+    }
+
+    /**
+     * Stops watching the path resources of this manager. Resources keep
+     * working, reading their file attributes from disk.
+     */
+    public synchronized void shutdown() {
+        for (AbstractResource resource : resources.values()) {
+            if (resource instanceof AbstractPathResource) {
+                getWatcher().unwatch((AbstractPathResource<?, ?>) resource);
+            }
+        }
+    }
+
+    /**
+     * Gets the file watcher, shared by the resource managers of all chats.
+     *
+     * @return The watcher.
+     */
+    private static ResourceWatcher getWatcher() {
+        return ResourceWatcher.getShared();
+    }
+
+    /**
+     * Gets a snapshot of all currently managed resources, preserving registration
+     * order. The snapshot is not affected by later registrations.
+     *
+     * @return An unmodifiable list of all managed resources.
+     */
+    public List<AbstractResource> getResources() {
+        return List.copyOf(resources.values());
+    }
+
+    /**
+     * Gets the lookup indexes, building them from the registered resources
+     * after deserialization.
+     *
+     * @return The indexes.
+     */
+    private Indexes getIndexes() {
+        Indexes idx = indexes;
+        if (idx == null) {
+            synchronized (this) {
+                idx = indexes;
+                if (idx == null) {
+                    idx = new Indexes();
+                    for (Map.Entry<Long, AbstractResource> entry : resources.entrySet()) {
+                        idx.add(entry.getKey(), entry.getValue());
+                    }
+                    lastSequence = Math.max(lastSequence, resources.isEmpty() ? 0 : resources.lastKey());
+                    indexes = idx;
+                }
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Sorts resources by registration sequence.
+     *
+     * @param <T> The resource type.
+     * @param found The resources.
+     * @return A new list, in registration order.
+     */
+    private <T extends AbstractResource> List<T> inRegistrationOrder(Collection<T> found) {
+        Map<String, Long> sequences = getIndexes().sequenceById;
+        List<T> sorted = new ArrayList<>(found);
+        sorted.sort(Comparator.comparingLong(r -> sequences.getOrDefault(r.getId(), Long.MAX_VALUE)));
+        return sorted;
+    }
+
+    /**
+     * Normalizes a path for the path index.
+     *
+     * @param path The path.
+     * @return The normalized absolute path.
+     */
+    private static Path normalize(String path) {
+        return Paths.get(path).toAbsolutePath().normalize();
+    }
+
+    /**
+     * The secondary indexes of the registered resources. All maps are
+     * concurrent, so lookups never block registration.
+     */
+    private static final class Indexes {
+
+        /** The registration sequence of each resource, by id. */
+        private final Map<String, Long> sequenceById = new ConcurrentHashMap<>();
+
+        /** The resources by id. */
+        private final Map<String, AbstractResource> byId = new ConcurrentHashMap<>();
+
+        /** The path resources by normalized absolute path. */
+        private final Map<Path, Set<AbstractPathResource<?, ?>>> byPath = new ConcurrentHashMap<>();
+
+        /** The resources by concrete class. */
+        private final Map<Class<?>, Set<AbstractResource>> byType = new ConcurrentHashMap<>();
+
+        /**
+         * Indexes a resource.
+         *
+         * @param sequence The registration sequence.
+         * @param resource The resource.
+         */
+        void add(long sequence, AbstractResource resource) {
+            sequenceById.put(resource.getId(), sequence);
+            byId.put(resource.getId(), resource);
+            byType.computeIfAbsent(resource.getClass(), k -> ConcurrentHashMap.newKeySet()).add(resource);
+            if (resource instanceof AbstractPathResource<?, ?> pathResource && pathResource.getPath() != null) {
+                byPath.computeIfAbsent(normalize(pathResource.getPath()), k -> ConcurrentHashMap.newKeySet()).add(pathResource);
+            }
+        }
+
+        /**
+         * Removes a resource from the indexes.
+         *
+         * @param resource The resource.
+         */
+        void remove(AbstractResource resource) {
+            sequenceById.remove(resource.getId());
+            byId.remove(resource.getId());
+            byType.computeIfPresent(resource.getClass(), (k, set) -> set.remove(resource) && set.isEmpty() ? null : set);
+            if (resource instanceof AbstractPathResource<?, ?> pathResource && pathResource.getPath() != null) {
+                byPath.computeIfPresent(normalize(pathResource.getPath()), (k, set) -> set.remove(resource) && set.isEmpty() ? null : set);
+            }
+        }
+    }
 }
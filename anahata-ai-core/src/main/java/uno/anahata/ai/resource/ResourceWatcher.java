@@ -0,0 +1,274 @@
+package uno.anahata.ai.resource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.model.resource.AbstractPathResource;
+
+/**
+ * A single {@link WatchService} shared by all the path resources of the
+ * {@link ResourceManager}s of the JVM (see {@link #getShared()}), so the
+ * number of watch services and event threads does not grow with the number
+ * of chats.
+ * <p>
+ * The parent directory of every watched resource is registered once (reference
+ * counted by the number of watched files in it). A background daemon thread
+ * turns create/modify/delete events into
+ * {@link AbstractPathResource#invalidateFileAttributes()} calls, so resources can
+ * serve their file attributes from memory until the file actually changes. On
+ * overflow, every resource in the affected directory is invalidated. If a
+ * directory can no longer be watched, its resources are unwatched and fall back
+ * to reading the attributes on every access. A directory that cannot be
+ * registered (e.g. the OS limit of watches is reached) is remembered and not
+ * retried, nor reported again, until a watched directory is released.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public class ResourceWatcher implements Closeable {
+
+    /** The watcher shared by all the resource managers, created on first use. */
+    private static ResourceWatcher shared;
+
+    /** The watch service, created when the first resource is watched. */
+    private WatchService watchService;
+
+    /** The watch keys, by directory. */
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+
+    /** The watched resources, by absolute file path. */
+    private final Map<Path, List<AbstractPathResource<?, ?>>> resourcesByFile = new HashMap<>();
+
+    /** The directories that could not be registered, not retried until a watched directory is released. */
+    private final Set<Path> unwatchable = new HashSet<>();
+
+    /** Whether this watcher has been closed. */
+    private boolean closed;
+
+    /**
+     * Gets the watcher shared by all the resource managers of the JVM. It is
+     * never closed; its event thread is a daemon.
+     *
+     * @return The shared watcher.
+     */
+    public static synchronized ResourceWatcher getShared() {
+        if (shared == null) {
+            shared = new ResourceWatcher();
+        }
+        return shared;
+    }
+
+    /**
+     * Starts watching a resource's file.
+     *
+     * @param resource The resource.
+     * @return {@code true} if the resource is now watched, {@code false} if its
+     *         directory cannot be watched (the resource keeps reading its attributes from disk).
+     */
+    public synchronized boolean watch(AbstractPathResource<?, ?> resource) {
+        Path file = toKey(resource);
+        Path dir = file.getParent();
+        if (closed || dir == null || unwatchable.contains(dir)) {
+            return false;
+        }
+        if (!keys.containsKey(dir)) {
+            if (!Files.isDirectory(dir)) {
+                return false;
+            }
+            try {
+                keys.put(dir, register(dir));
+                log.debug("Watching directory {}", dir);
+            } catch (IOException | UnsupportedOperationException e) {
+                unwatchable.add(dir);
+                log.warn("Cannot watch directory {}, resources in it will be checked on every turn", dir, e);
+                return false;
+            }
+        }
+        resourcesByFile.computeIfAbsent(file, k -> new ArrayList<>()).add(resource);
+        resource.invalidateFileAttributes();
+        resource.setWatched(true);
+        return true;
+    }
+
+    /**
+     * Stops watching a resource's file, cancelling the directory registration
+     * when it was the last watched file in it.
+     *
+     * @param resource The resource.
+     */
+    public synchronized void unwatch(AbstractPathResource<?, ?> resource) {
+        Path file = toKey(resource);
+        List<AbstractPathResource<?, ?>> list = resourcesByFile.get(file);
+        if (list == null || !list.remove(resource)) {
+            return;
+        }
+        resource.setWatched(false);
+        if (list.isEmpty()) {
+            resourcesByFile.remove(file);
+            Path dir = file.getParent();
+            if (resourcesByFile.keySet().stream().noneMatch(f -> dir.equals(f.getParent()))) {
+                WatchKey key = keys.remove(dir);
+                if (key != null) {
+                    key.cancel();
+                    unwatchable.clear(); // The released watch may be what the failed registrations lacked
+                    log.debug("Stopped watching directory {}", dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the watch service, stopping the background thread. All watched
+     * resources fall back to reading their attributes from disk.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (List<AbstractPathResource<?, ?>> list : resourcesByFile.values()) {
+            list.forEach(r -> r.setWatched(false));
+        }
+        resourcesByFile.clear();
+        keys.clear();
+        unwatchable.clear();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.warn("Error closing watch service", e);
+            }
+        }
+    }
+
+    /**
+     * Registers a directory with the watch service.
+     *
+     * @param dir The directory.
+     * @return The watch key.
+     * @throws IOException if the directory cannot be watched.
+     */
+    WatchKey register(Path dir) throws IOException {
+        return dir.register(getWatchService(),
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    /**
+     * Gets the watch service, creating it and starting the event loop thread on first use.
+     *
+     * @return The watch service.
+     * @throws IOException if the watch service cannot be created.
+     */
+    private WatchService getWatchService() throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread thread = new Thread(this::run, "anahata-ai-resource-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return watchService;
+    }
+
+    /**
+     * The event loop: waits for watch keys and invalidates the affected resources.
+     */
+    private void run() {
+        WatchService ws;
+        synchronized (this) {
+            ws = watchService;
+        }
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidateDirectory(dir);
+                    } else {
+                        invalidateFile(dir.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    dropDirectory(dir);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.debug("Resource watcher closed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Invalidates the resources of a single file.
+     *
+     * @param file The absolute file path.
+     */
+    private synchronized void invalidateFile(Path file) {
+        List<AbstractPathResource<?, ?>> list = resourcesByFile.get(file);
+        if (list != null) {
+            log.debug("File changed: {}", file);
+            list.forEach(AbstractPathResource::invalidateFileAttributes);
+        }
+    }
+
+    /**
+     * Invalidates all the resources in a directory (e.g. after an overflow).
+     *
+     * @param dir The directory.
+     */
+    private synchronized void invalidateDirectory(Path dir) {
+        resourcesByFile.forEach((file, list) -> {
+            if (dir.equals(file.getParent())) {
+                list.forEach(AbstractPathResource::invalidateFileAttributes);
+            }
+        });
+    }
+
+    /**
+     * Unwatches all the resources of a directory that can no longer be watched
+     * (e.g. because it was deleted or unmounted).
+     *
+     * @param dir The directory.
+     */
+    private synchronized void dropDirectory(Path dir) {
+        log.info("Directory no longer watchable: {}", dir);
+        keys.remove(dir);
+        unwatchable.clear();
+        resourcesByFile.entrySet().removeIf(entry -> {
+            if (dir.equals(entry.getKey().getParent())) {
+                entry.getValue().forEach(r -> {
+                    r.setWatched(false);
+                    r.invalidateFileAttributes();
+                });
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Gets the normalized absolute path of a resource's file.
+     *
+     * @param resource The resource.
+     * @return The path.
+     */
+    private static Path toKey(AbstractPathResource<?, ?> resource) {
+        return Paths.get(resource.getPath()).toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,309 @@
+package uno.anahata.ai.resource;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A JVM-wide cache of immutable resource content (line indexes, extracted
+ * document text, etc.) shared by the resources of all sessions, so memory
+ * grows with the number of distinct files rather than with sessions × files.
+ * <p>
+ * Entries are keyed by content identity: a {@link FileKey} (path, modification
+ * time, size and file key) or a content hash. The most recently used entries
+ * are held strongly, up to {@link #getMaxBytes() maxBytes} of estimated size,
+ * and evicted in LRU order. Evicted entries remain reachable through weak
+ * references for as long as a session still holds them, so a lookup returns
+ * the instance already in use instead of loading a second copy.
+ * <p>
+ * Cached values must be immutable, or at least never modified after being
+ * {@link #put(Object, Object, long) put}: resources replace their reference
+ * with a new instance (under a new key) when the content changes.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class SharedResourceCache {
+
+    /** The default maximum size of the strongly held entries: an eighth of the heap, at most 256 MB. */
+    public static final long DEFAULT_MAX_BYTES = Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+
+    /** The lock guarding all the state below. */
+    private static final Object LOCK = new Object();
+
+    /** The strongly held entries, in access order. */
+    private static final LinkedHashMap<Object, Entry> LRU = new LinkedHashMap<>(64, 0.75f, true);
+
+    /** The weak references to every cached value, including evicted ones still in use. */
+    private static final Map<Object, WeakValue> WEAK = new HashMap<>();
+
+    /** The queue of the cleared weak references. */
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+    /** The estimated size of the strongly held entries. */
+    private static long sizeBytes;
+
+    /** The maximum estimated size of the strongly held entries. */
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+
+    /** The number of lookups that found a value. */
+    private static long hits;
+
+    /** The number of lookups that did not. */
+    private static long misses;
+
+    /**
+     * The identity of a file's content: it changes whenever the file is
+     * modified, grows, shrinks or is replaced.
+     *
+     * @param kind The kind of the cached value, so different values of the same file do not collide.
+     * @param path The absolute, normalized path.
+     * @param lastModified The modification time, in millis.
+     * @param size The size in bytes.
+     * @param fileKey The file key (e.g. inode), or {@code null} if not supported.
+     */
+    public record FileKey(String kind, Path path, long lastModified, long size, Object fileKey) {
+
+        /**
+         * Creates the key of a file's current content.
+         *
+         * @param kind The kind of the cached value.
+         * @param path The file.
+         * @param attrs The file's attributes.
+         * @return The key.
+         */
+        public static FileKey of(String kind, Path path, BasicFileAttributes attrs) {
+            return new FileKey(kind, path.toAbsolutePath().normalize(), attrs.lastModifiedTime().toMillis(), attrs.size(), attrs.fileKey());
+        }
+    }
+
+    /**
+     * A strongly held value and its estimated size.
+     *
+     * @param value The value.
+     * @param bytes The estimated size in bytes.
+     */
+    private record Entry(Object value, long bytes) {
+    }
+
+    /**
+     * A weak reference to a cached value that remembers its key, so it can be
+     * removed once cleared.
+     */
+    private static final class WeakValue extends WeakReference<Object> {
+
+        /** The key. */
+        private final Object key;
+
+        /** The estimated size in bytes, to re-admit the value into the LRU. */
+        private final long bytes;
+
+        /**
+         * Creates a new weak value.
+         *
+         * @param key The key.
+         * @param value The value.
+         * @param bytes The estimated size.
+         */
+        WeakValue(Object key, Object value, long bytes) {
+            super(value, QUEUE);
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Gets a cached value, re-admitting it as most recently used.
+     *
+     * @param <T> The type of the value.
+     * @param key The key.
+     * @param type The expected type of the value.
+     * @return The value, or {@code null} if it is not cached (or of another type).
+     */
+    public static <T> T get(Object key, Class<T> type) {
+        synchronized (LOCK) {
+            expunge();
+            Entry entry = LRU.get(key);
+            Object value = entry != null ? entry.value() : null;
+            if (value == null) {
+                WeakValue ref = WEAK.get(key);
+                value = ref != null ? ref.get() : null;
+                if (value != null) {
+                    admit(key, value, ref.bytes);
+                }
+            }
+            if (type.isInstance(value)) {
+                hits++;
+                return type.cast(value);
+            }
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Caches a value. If another thread cached a value under the same key in
+     * the meantime, that value is kept and returned instead, so all sessions
+     * converge on a single instance.
+     *
+     * @param <T> The type of the value.
+     * @param key The key.
+     * @param value The value; must not be modified afterwards.
+     * @param bytes The estimated size of the value in bytes.
+     * @return The cached value: {@code value} or the one cached before it.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T put(Object key, T value, long bytes) {
+        synchronized (LOCK) {
+            expunge();
+            WeakValue ref = WEAK.get(key);
+            Object existing = ref != null ? ref.get() : null;
+            if (existing != null && existing.getClass() == value.getClass()) {
+                admit(key, existing, ref.bytes);
+                return (T) existing;
+            }
+            WEAK.put(key, new WeakValue(key, value, bytes));
+            admit(key, value, bytes);
+            return value;
+        }
+    }
+
+    /**
+     * Removes a value, e.g. after it turned out to be stale.
+     *
+     * @param key The key.
+     */
+    public static void remove(Object key) {
+        synchronized (LOCK) {
+            Entry entry = LRU.remove(key);
+            if (entry != null) {
+                sizeBytes -= entry.bytes();
+            }
+            WEAK.remove(key);
+        }
+    }
+
+    /**
+     * Removes all the values.
+     */
+    public static void clear() {
+        synchronized (LOCK) {
+            LRU.clear();
+            WEAK.clear();
+            sizeBytes = 0;
+        }
+    }
+
+    /**
+     * Gets the estimated size of the strongly held values.
+     *
+     * @return The size in bytes.
+     */
+    public static long getSizeBytes() {
+        synchronized (LOCK) {
+            return sizeBytes;
+        }
+    }
+
+    /**
+     * Gets the maximum estimated size of the strongly held values.
+     *
+     * @return The maximum size in bytes.
+     */
+    public static long getMaxBytes() {
+        synchronized (LOCK) {
+            return maxBytes;
+        }
+    }
+
+    /**
+     * Sets the maximum estimated size of the strongly held values, evicting the
+     * least recently used ones if needed.
+     *
+     * @param max The maximum size in bytes.
+     */
+    public static void setMaxBytes(long max) {
+        synchronized (LOCK) {
+            maxBytes = max;
+            evict();
+        }
+    }
+
+    /**
+     * Gets the number of values, including evicted ones still in use by some session.
+     *
+     * @return The number of values.
+     */
+    public static int size() {
+        synchronized (LOCK) {
+            expunge();
+            return WEAK.size();
+        }
+    }
+
+    /**
+     * Gets a summary of the cache usage, for logging and diagnostics.
+     *
+     * @return The summary.
+     */
+    public static String getStats() {
+        synchronized (LOCK) {
+            expunge();
+            return String.format("%d values (%d held) of ~%d/%d bytes, %d hits, %d misses",
+                    WEAK.size(), LRU.size(), sizeBytes, maxBytes, hits, misses);
+        }
+    }
+
+    /**
+     * Adds or moves a value to the most recently used end of the LRU and
+     * evicts the least recently used values beyond the size limit. Must be
+     * called holding the lock.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @param bytes The estimated size.
+     */
+    private static void admit(Object key, Object value, long bytes) {
+        Entry previous = LRU.put(key, new Entry(value, bytes));
+        if (previous != null) {
+            sizeBytes -= previous.bytes();
+        }
+        sizeBytes += bytes;
+        evict();
+    }
+
+    /**
+     * Evicts the least recently used values until the size limit is met. The
+     * most recently used value is always kept, even if it alone exceeds the
+     * limit. Must be called holding the lock.
+     */
+    private static void evict() {
+        Iterator<Map.Entry<Object, Entry>> it = LRU.entrySet().iterator();
+        while (sizeBytes > maxBytes && LRU.size() > 1 && it.hasNext()) {
+            Map.Entry<Object, Entry> eldest = it.next();
+            sizeBytes -= eldest.getValue().bytes();
+            it.remove();
+            log.debug("Evicted {} (~{} bytes) from the shared resource cache", eldest.getKey(), eldest.getValue().bytes());
+        }
+    }
+
+    /**
+     * Removes the weak references cleared by the garbage collector. Must be
+     * called holding the lock.
+     */
+    private static void expunge() {
+        WeakValue ref;
+        while ((ref = (WeakValue) QUEUE.poll()) != null) {
+            WEAK.remove(ref.key, ref);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.session;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.internal.kryo.OptionalSerializer;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractModelMessage;
+
+/**
+ * Reads the session files saved before {@link SessionArchive archives}, when
+ * "Save Session" wrote the whole {@link Chat} graph with the Kryo settings of
+ * the time: no registration, no references and Objenesis instantiation.
+ * <p>
+ * The graph is read with those settings, except that a file may only name
+ * classes of the domain model and of the JDK's collections and value types.
+ * Its messages are then copied one unit at a time into a new chat through a
+ * {@link SessionKryo}, which binds them to the new chat and resolves their
+ * tools in its tool manager. A file only loads as long as the saved classes
+ * still match the current ones; one that does not fails to load as a whole.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class LegacySession {
+
+    /** The prefixes of the names of the classes a legacy session file may name. */
+    private static final List<String> ALLOWED_PACKAGES = List.of(
+            "uno.anahata.ai.", "java.lang.", "java.util.", "java.time.", "java.nio.file.", "sun.nio.fs.");
+
+    /**
+     * Reads a legacy session file into a new chat with the saved session id
+     * and name.
+     *
+     * @param asiConfig The application config of the new chat.
+     * @param file The file.
+     * @return The new chat.
+     * @throws IOException if the file cannot be read or is not a legacy session.
+     */
+    static Chat load(AsiConfig asiConfig, Path file) throws IOException {
+        long start = System.currentTimeMillis();
+        Chat saved;
+        try (Input input = new Input(Files.newInputStream(file))) {
+            saved = kryo().readObject(input, Chat.class);
+        } catch (RuntimeException e) {
+            throw new IOException("Not a session file: " + file, e);
+        }
+        ChatConfig savedConfig = saved.getConfig();
+        Chat chat = new Chat(new ChatConfig(asiConfig, savedConfig.getSessionId()));
+        chat.getConfig().setName(savedConfig.getName());
+        try {
+            Map<String, AbstractMessage> messages = new HashMap<>();
+            SessionKryo writer = SessionKryo.create(saved, new HashMap<>());
+            SessionKryo reader = SessionKryo.create(chat, messages);
+            Map<String, Boolean> toolInHistory = new HashMap<>();
+            List<AbstractMessage> history = new ArrayList<>();
+            for (AbstractMessage unit : SessionJournal.units(saved.getContextManager().getHistory(), toolInHistory)) {
+                AbstractMessage copy = (AbstractMessage) reader.readClassAndObject(new Input(writer.writeUnit(unit)));
+                for (AbstractMessage message : SessionJournal.messages(copy)) {
+                    messages.put(message.getId(), message);
+                }
+                history.add(copy);
+                if (toolInHistory.get(unit.getId()) && copy instanceof AbstractModelMessage<?, ?> amm && amm.getToolMessage() != null) {
+                    history.add(amm.getToolMessage());
+                }
+            }
+            chat.getContextManager().restore(history);
+        } catch (RuntimeException e) {
+            chat.shutdown();
+            throw new IOException("Unreadable legacy session file: " + file, e);
+        }
+        log.info("Loaded {} messages of legacy session {} from {} in {} ms", chat.getContextManager().getHistory().size(), savedConfig.getSessionId(), file, System.currentTimeMillis() - start);
+        return chat;
+    }
+
+    /**
+     * Creates a Kryo instance with the settings legacy session files were
+     * written with, refusing any class outside {@link #ALLOWED_PACKAGES}.
+     *
+     * @return The Kryo instance.
+     */
+    private static Kryo kryo() {
+        Kryo kryo = new Kryo() {
+            @Override
+            public Registration getRegistration(Class type) {
+                Class<?> element = type;
+                while (element.isArray()) {
+                    element = element.getComponentType();
+                }
+                String name = element.getName();
+                if (!element.isPrimitive() && ALLOWED_PACKAGES.stream().noneMatch(name::startsWith)) {
+                    throw new KryoException("Class not allowed in a legacy session file: " + name);
+                }
+                return super.getRegistration(type);
+            }
+        };
+        kryo.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        kryo.setRegistrationRequired(false);
+        kryo.register(ArrayList.class);
+        kryo.register(HashMap.class);
+        kryo.register(Optional.class, new OptionalSerializer());
+        return kryo;
+    }
+}
@@ -0,0 +1,651 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.session;
+
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.context.ContextManager;
+import uno.anahata.ai.context.DeferredHistory;
+import uno.anahata.ai.internal.TokenizerUtils;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractModelMessage;
+import uno.anahata.ai.model.core.AbstractPart;
+import uno.anahata.ai.model.core.Role;
+
+/**
+ * A saved session file that can be opened without reading it in full.
+ * <p>
+ * The file starts with a fixed header pointing to an index at its end, which
+ * holds the session id and name and, for each message unit (a message, plus
+ * the tool message of a model message), the position of its block and some
+ * lightweight metadata: role, timestamp, token count and pruned state. Blob
+ * data and tool results are written out of line, ahead of the record of
+ * their unit and at offsets relative to its block, so a block can be copied
+ * to another archive as is:
+ * <pre>
+ * [magic, version, index offset, index length, index CRC]
+ * [payloads of unit 1][record of unit 1] ... [payloads of unit n][record of unit n]
+ * [index]
+ * </pre>
+ * Opening an archive maps the file into memory and reads the header and the
+ * index only. {@link #load(AsiConfig, int)} decodes the latest units, so a
+ * session can be shown straight away, and hands the older ones to the
+ * {@link ContextManager} as a {@link DeferredHistory}, decoded when they are
+ * scrolled to or a request is built. Blob data and tool results are deferred
+ * until they are first accessed, so pruned attachments are never read.
+ * <p>
+ * Archives are written in one go, e.g. by "Save Session" or when a
+ * {@link SessionJournal} is compacted, between turns of the chat so that no
+ * message changes while it is serialized. Units still deferred are copied
+ * from the archive they were loaded from without decoding them, and a unit
+ * that cannot be written fails the whole file rather than being left out.
+ * The file is replaced atomically, so a session loaded from it keeps reading
+ * the version it was mapped from; on Windows a file cannot be replaced while
+ * it is mapped, which is why journals write every snapshot to a new file.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+@Getter
+public class SessionArchive {
+
+    /** The number of message units decoded when a session is loaded; older ones are deferred. */
+    public static final int RECENT_UNITS = 20;
+
+    /** The magic number of archive files. */
+    private static final int MAGIC = 0x414E5341;
+
+    /** The version of the file format. */
+    private static final int VERSION = 2;
+
+    /** The size of the file header: magic, version, index offset, length and CRC. */
+    private static final int HEADER_SIZE = 24;
+
+    /** The archive file. */
+    private final Path file;
+
+    /** The saved session id. */
+    private final String sessionId;
+
+    /** The saved session name. */
+    private final String name;
+
+    /** The index entries of the message units, in history order. */
+    private final List<Entry> entries;
+
+    /** The highest sequential id of a message in the archive. */
+    @Getter(AccessLevel.NONE)
+    private final long maxMessageId;
+
+    /** The highest sequential id of a part in the archive. */
+    @Getter(AccessLevel.NONE)
+    private final long maxPartId;
+
+    /** The mapped file. Read with absolute offsets only, so it can be shared by threads. */
+    @Getter(AccessLevel.NONE)
+    private final ByteBuffer map;
+
+    /**
+     * The index entry of a message unit.
+     */
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class Entry {
+
+        /** The id of the root message of the unit. */
+        private final String id;
+
+        /** The role of the root message. */
+        private final Role role;
+
+        /** The creation time of the root message, in milliseconds since the epoch. */
+        private final long timestamp;
+
+        /** The sequential id of the root message. */
+        private final long sequentialId;
+
+        /** The token count of the unit: as billed for model messages, estimated otherwise. */
+        private final int tokenCount;
+
+        /** The explicit pruned state of the root message. */
+        private final Boolean pruned;
+
+        /** Whether the tool message of the unit is in the history. */
+        private final boolean toolInHistory;
+
+        /** The offset of the block of the unit: its payloads followed by its record. */
+        @Getter(AccessLevel.NONE)
+        private final long offset;
+
+        /** The length of the block of the unit. */
+        @Getter(AccessLevel.NONE)
+        private final int length;
+
+        /** The length of the record of the unit, at the end of its block. */
+        @Getter(AccessLevel.NONE)
+        private final int recordLength;
+
+        /** The CRC-32 of the record of the unit. */
+        @Getter(AccessLevel.NONE)
+        private final int checksum;
+    }
+
+    /**
+     * Creates a new instance over a mapped file, reading its header and index.
+     *
+     * @param file The file.
+     * @param map The mapped file.
+     * @throws IOException if the file is not an archive or its index is corrupt.
+     */
+    private SessionArchive(Path file, ByteBuffer map) throws IOException {
+        this.file = file;
+        this.map = map;
+        if (map.limit() < HEADER_SIZE || map.getInt(0) != MAGIC) {
+            throw new IOException("Not a session archive: " + file);
+        }
+        int version = map.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported session archive version: " + version);
+        }
+        long indexOffset = map.getLong(8);
+        int indexLength = map.getInt(16);
+        if (indexOffset < HEADER_SIZE || indexOffset + indexLength > map.limit()) {
+            throw new IOException("Corrupt session archive: " + file);
+        }
+        ByteBuffer index = map.slice((int) indexOffset, indexLength);
+        if (checksum(index) != map.getInt(20)) {
+            throw new IOException("Corrupt session archive index: " + file);
+        }
+        Input in = new ByteBufferInput(index);
+        this.sessionId = in.readString();
+        this.name = in.readString();
+        this.maxMessageId = in.readVarLong(true);
+        this.maxPartId = in.readVarLong(true);
+        int count = in.readVarInt(true);
+        List<Entry> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(new Entry(in.readString(), Role.valueOf(in.readString()), in.readLong(), in.readVarLong(true),
+                    in.readVarInt(true), readFlag(in), in.readBoolean(), in.readVarLong(true), in.readVarInt(true),
+                    in.readVarInt(true), in.readInt()));
+        }
+        this.entries = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Opens an archive, mapping the file and reading its index. No message is
+     * decoded.
+     *
+     * @param file The archive file.
+     * @return The archive.
+     * @throws IOException if the file cannot be read, is not an archive or is corrupt.
+     */
+    public static SessionArchive open(@NonNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Session archive too large to map: " + file);
+            }
+            // The mapping outlives the channel
+            return new SessionArchive(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Loads a saved session into a new chat, decoding the latest
+     * {@link #RECENT_UNITS} message units and deferring the older ones. Files
+     * saved before archives were introduced (the whole chats saved by earlier
+     * versions) are read in full.
+     *
+     * @param asiConfig The application config of the new chat.
+     * @param file The saved session.
+     * @return The new chat.
+     * @throws IOException if the file cannot be read, is corrupt or is not a session.
+     */
+    public static Chat load(@NonNull AsiConfig asiConfig, @NonNull Path file) throws IOException {
+        if (isArchive(file)) {
+            return open(file).load(asiConfig, RECENT_UNITS);
+        }
+        return LegacySession.load(asiConfig, file);
+    }
+
+    /**
+     * Loads the session into a new chat with the saved session id and name,
+     * decoding the latest message units and deferring the older ones.
+     *
+     * @param asiConfig The application config of the new chat.
+     * @param recent The number of message units to decode straight away.
+     * @return The new chat.
+     */
+    public Chat load(@NonNull AsiConfig asiConfig, int recent) {
+        return load(new ChatConfig(asiConfig, sessionId), recent);
+    }
+
+    /**
+     * Loads the session into a new chat with the given config, e.g. one of
+     * the host application carrying its providers, decoding the latest
+     * message units and deferring the older ones. The saved name is applied
+     * unless the config already has one.
+     *
+     * @param config The config of the new chat.
+     * @param recent The number of message units to decode straight away.
+     * @return The new chat.
+     */
+    public Chat load(@NonNull ChatConfig config, int recent) {
+        long start = System.currentTimeMillis();
+        Chat chat = new Chat(config);
+        if (config.getName() == null) {
+            config.setName(name);
+        }
+        Loader loader = new Loader(chat);
+        loader.restore(loader.loadNewest(recent));
+        log.info("Loaded {} of {} message units of session {} from {} in {} ms", entries.size() - loader.size(), entries.size(), sessionId, file, System.currentTimeMillis() - start);
+        return chat;
+    }
+
+    /**
+     * Writes the history of a chat to an archive, waiting for the running
+     * turn of the chat (if any) to end. Deferred messages are copied without
+     * being loaded.
+     *
+     * @param chat The chat.
+     * @param file The target file, replaced atomically; left as it was if
+     *        any message unit cannot be written.
+     * @return The total token count of the written message units.
+     * @throws IOException if the file cannot be written.
+     */
+    public static int write(@NonNull Chat chat, @NonNull Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        List<Entry> written;
+        ReentrantLock turn = chat.getRunningLock();
+        turn.lock();
+        try {
+            written = writeFile(chat, view(chat), tmp);
+        } finally {
+            turn.unlock();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written.stream().mapToInt(Entry::getTokenCount).sum();
+    }
+
+    /**
+     * Gets a view of the history of a chat that can be written to an archive:
+     * one whose deferred units, if any, are in an archive.
+     *
+     * @param chat The chat.
+     * @return The view.
+     */
+    static ContextManager.HistoryView view(Chat chat) {
+        ContextManager contextManager = chat.getContextManager();
+        ContextManager.HistoryView view = contextManager.getHistoryView();
+        if (view.deferred() != null && !(view.deferred() instanceof Loader)) {
+            // Not an archive whose blocks can be copied
+            contextManager.loadAll();
+            view = contextManager.getHistoryView();
+        }
+        return view;
+    }
+
+    /**
+     * Writes a history to a new file. The units still deferred in the archive
+     * the chat was loaded from are copied from it as they are; the loaded ones
+     * are serialized. Must be called between turns, holding the running lock
+     * of the chat.
+     *
+     * @param chat The chat.
+     * @param view The history, as returned by {@link #view(Chat)}.
+     * @param file The file, deleted again if it cannot be written in full.
+     * @return The index entries of the written units, in history order.
+     * @throws IOException if the file cannot be written or a unit cannot be serialized.
+     */
+    static List<Entry> writeFile(Chat chat, ContextManager.HistoryView view, Path file) throws IOException {
+        long start = System.currentTimeMillis();
+        Loader source = (Loader) view.deferred();
+        List<Entry> copied = source != null ? source.archive().entries.subList(0, view.deferredCount()) : List.of();
+        Map<String, Boolean> toolInHistory = new HashMap<>();
+        List<AbstractMessage> units = SessionJournal.units(view.messages(), toolInHistory);
+        ChatConfig config = chat.getConfig();
+        List<Entry> written = new ArrayList<>(copied.size() + units.size());
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.position(HEADER_SIZE);
+            long maxMessageId = source != null ? source.archive().maxMessageId : 0;
+            long maxPartId = source != null ? source.archive().maxPartId : 0;
+            for (Entry entry : copied) {
+                long offset = out.position();
+                writeFully(out, source.archive().map.slice((int) entry.offset, entry.length));
+                written.add(new Entry(entry.id, entry.role, entry.timestamp, entry.sequentialId, entry.tokenCount,
+                        entry.pruned, entry.toolInHistory, offset, entry.length, entry.recordLength, entry.checksum));
+            }
+            Writer writer = new Writer(out);
+            SessionKryo kryo = SessionKryo.create(chat, new HashMap<>(), writer);
+            for (AbstractMessage unit : units) {
+                List<AbstractMessage> messages = SessionJournal.messages(unit);
+                long offset = out.position();
+                writer.blockStart = offset;
+                byte[] record;
+                try {
+                    record = kryo.writeUnit(unit);
+                } catch (RuntimeException e) {
+                    if (writer.failure != null) {
+                        throw writer.failure;
+                    }
+                    throw new IOException("Could not write message " + unit.getSequentialId() + " of session " + config.getSessionId(), e);
+                }
+                writeFully(out, ByteBuffer.wrap(record));
+                for (AbstractMessage message : messages) {
+                    maxMessageId = Math.max(maxMessageId, message.getSequentialId());
+                    for (AbstractPart part : message.getParts()) {
+                        maxPartId = Math.max(maxPartId, part.getSequentialId());
+                    }
+                }
+                written.add(new Entry(unit.getId(), unit.getRole(), unit.getTimestamp(), unit.getSequentialId(),
+                        tokenCount(messages), unit.isPruned(), toolInHistory.getOrDefault(unit.getId(), false),
+                        offset, (int) (out.position() - offset), record.length, checksum(ByteBuffer.wrap(record))));
+            }
+            Output index = new Output(4096, -1);
+            index.writeString(config.getSessionId());
+            index.writeString(config.getName());
+            index.writeVarLong(maxMessageId, true);
+            index.writeVarLong(maxPartId, true);
+            index.writeVarInt(written.size(), true);
+            for (Entry entry : written) {
+                index.writeString(entry.id);
+                index.writeString(entry.role.name());
+                index.writeLong(entry.timestamp);
+                index.writeVarLong(entry.sequentialId, true);
+                index.writeVarInt(entry.tokenCount, true);
+                writeFlag(index, entry.pruned);
+                index.writeBoolean(entry.toolInHistory);
+                index.writeVarLong(entry.offset, true);
+                index.writeVarInt(entry.length, true);
+                index.writeVarInt(entry.recordLength, true);
+                index.writeInt(entry.checksum);
+            }
+            long indexOffset = out.position();
+            ByteBuffer indexBuffer = ByteBuffer.wrap(index.getBuffer(), 0, index.position());
+            int indexChecksum = checksum(indexBuffer);
+            int indexLength = indexBuffer.remaining();
+            writeFully(out, indexBuffer);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC).putInt(VERSION).putLong(indexOffset).putInt(indexLength).putInt(indexChecksum)
+                    .flip();
+            out.position(0);
+            writeFully(out, header);
+            out.force(true);
+            log.info("Wrote {} message units of session {} to {} ({} copied, {} bytes) in {} ms", written.size(), config.getSessionId(), file, copied.size(), indexOffset + indexLength, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return written;
+    }
+
+    /**
+     * Whether a file is an archive, as opposed to an older session file.
+     *
+     * @param file The file.
+     * @return {@code true} if the file starts with the archive magic number.
+     * @throws IOException if the file cannot be read.
+     */
+    public static boolean isArchive(@NonNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Gets the token count of a unit: the billed count of its model message
+     * if known, otherwise a local estimate of its text.
+     *
+     * @param messages The messages of the unit.
+     * @return The token count.
+     */
+    static int tokenCount(List<AbstractMessage> messages) {
+        int total = 0;
+        for (AbstractMessage message : messages) {
+            if (message instanceof AbstractModelMessage<?, ?> amm && amm.getTokenCount() > 0) {
+                total += amm.getTokenCount();
+            } else {
+                total += TokenizerUtils.countTokens(message.asText(true));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Computes the CRC-32 of the remaining bytes of a buffer, without moving
+     * its position.
+     *
+     * @param buffer The buffer.
+     * @return The CRC-32.
+     */
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a channel at its position.
+     *
+     * @param channel The channel.
+     * @param buffer The buffer.
+     * @throws IOException if the channel cannot be written.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes a tri-state flag as a byte.
+     *
+     * @param output The output.
+     * @param flag The flag.
+     */
+    private static void writeFlag(Output output, Boolean flag) {
+        output.writeByte(flag == null ? 0 : flag ? 1 : 2);
+    }
+
+    /**
+     * Reads a tri-state flag written by {@link #writeFlag(Output, Boolean)}.
+     *
+     * @param input The input.
+     * @return The flag.
+     */
+    private static Boolean readFlag(Input input) {
+        byte flag = input.readByte();
+        return flag == 0 ? null : flag == 1;
+    }
+
+    /**
+     * Writes the payloads of the units to the archive being written, at
+     * offsets relative to the block of their unit.
+     */
+    private static class Writer implements SessionKryo.PayloadWriter {
+
+        /** The archive channel, positioned at its end. */
+        private final FileChannel channel;
+
+        /** The offset of the block of the unit being written. */
+        private long blockStart;
+
+        /** The first failure to write, which aborts the archive. */
+        private IOException failure;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param channel The archive channel.
+         */
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public long write(byte[] bytes) {
+            try {
+                long offset = channel.position() - blockStart;
+                writeFully(channel, ByteBuffer.wrap(bytes));
+                return offset;
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+    /**
+     * Creates a loader decoding the units of this archive into a chat.
+     *
+     * @param chat The chat.
+     * @return The loader, with no unit decoded yet.
+     */
+    Loader loader(Chat chat) {
+        return new Loader(chat);
+    }
+
+    /**
+     * Decodes the units of the archive into a chat, newest first, and the
+     * deferred payloads of their parts.
+     */
+    class Loader implements DeferredHistory, SessionKryo.PayloadReader {
+
+        /** The messages decoded, by id, for resolving references. */
+        @Getter
+        private final Map<String, AbstractMessage> messages = new HashMap<>();
+
+        /** The chat the units are decoded into. */
+        private final Chat chat;
+
+        /** The Kryo instance of the units. */
+        private final SessionKryo kryo;
+
+        /** The number of units not decoded yet: the oldest ones. */
+        private int remaining = entries.size();
+
+        /** The offset of the block of the unit being decoded. */
+        private long blockStart;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param chat The chat the units are decoded into.
+         */
+        private Loader(Chat chat) {
+            this.chat = chat;
+            this.kryo = SessionKryo.create(chat, messages, this);
+        }
+
+        /**
+         * Gets the archive of this loader.
+         *
+         * @return The archive.
+         */
+        SessionArchive archive() {
+            return SessionArchive.this;
+        }
+
+        /**
+         * Restores a history into the chat, deferring the units not decoded
+         * yet, and continues the id counters after the highest archived ids.
+         *
+         * @param latest The latest messages, in history order.
+         */
+        void restore(List<AbstractMessage> latest) {
+            ContextManager contextManager = chat.getContextManager();
+            contextManager.restore(latest, this);
+            // The deferred messages and parts have lower ids, but not necessarily all of them
+            contextManager.getMessageIdCounter().accumulateAndGet(maxMessageId, Math::max);
+            contextManager.getPartIdCounter().accumulateAndGet(maxPartId, Math::max);
+        }
+
+        @Override
+        public synchronized int size() {
+            return remaining;
+        }
+
+        @Override
+        public synchronized List<AbstractMessage> loadNewest(int count) {
+            int from = Math.max(0, remaining - count);
+            List<AbstractMessage> loaded = new ArrayList<>();
+            for (int i = from; i < remaining; i++) {
+                Entry entry = entries.get(i);
+                AbstractMessage unit = decode(entry);
+                if (unit == null) {
+                    continue;
+                }
+                for (AbstractMessage message : SessionJournal.messages(unit)) {
+                    messages.put(message.getId(), message);
+                }
+                loaded.add(unit);
+                if (entry.toolInHistory && unit instanceof AbstractModelMessage<?, ?> amm && amm.getToolMessage() != null) {
+                    loaded.add(amm.getToolMessage());
+                }
+            }
+            remaining = from;
+            return loaded;
+        }
+
+        /**
+         * Decodes the record of a unit.
+         *
+         * @param entry The index entry of the unit.
+         * @return The root message of the unit, or {@code null} if the record is unreadable.
+         */
+        private AbstractMessage decode(Entry entry) {
+            ByteBuffer record = map.slice((int) (entry.offset + entry.length - entry.recordLength), entry.recordLength);
+            if (checksum(record) != entry.checksum) {
+                log.warn("Skipping corrupt message {} of session {} in {}", entry.sequentialId, sessionId, file);
+                return null;
+            }
+            blockStart = entry.offset;
+            try {
+                return (AbstractMessage) kryo.readClassAndObject(new ByteBufferInput(record));
+            } catch (RuntimeException e) {
+                // E.g. a class that no longer exists
+                log.warn("Skipping unreadable message {} of session {} in {}", entry.sequentialId, sessionId, file, e);
+                return null;
+            }
+        }
+
+        @Override
+        public long locate(long offset) {
+            return blockStart + offset;
+        }
+
+        @Override
+        public byte[] read(long offset, int length) {
+            byte[] bytes = new byte[length];
+            map.get((int) offset, bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,1124 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.session;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.context.ContextManager;
+import uno.anahata.ai.context.DeferredHistory;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractModelMessage;
+import uno.anahata.ai.model.core.AbstractPart;
+import uno.anahata.ai.model.core.AbstractToolMessage;
+
+/**
+ * An append-only journal of the history of a chat session, compacted into
+ * {@link SessionArchive archive} snapshots.
+ * <p>
+ * Instead of serializing the whole history on save, the journal listens to
+ * the history and appends a record for each change:
+ * <ul>
+ *     <li>{@code PUT}: a message unit (a message, plus the tool message of a
+ *         model message) was added or changed, e.g. a part was appended, a
+ *         text was edited or a tool status changed. Changes are coalesced, so
+ *         a unit is written at most once per flush.</li>
+ *     <li>{@code REMOVE}: a unit left the history.</li>
+ *     <li>{@code PRUNED}: the pruned flag of a message or part changed, without
+ *         re-writing the message.</li>
+ *     <li>{@code NAME}: the session was renamed.</li>
+ * </ul>
+ * Records are framed with their length and a CRC-32 and written through a
+ * {@link FileChannel} shortly after the change, so saving is continuous and
+ * costs O(delta). Messages are only serialized between turns, holding the
+ * running lock of the chat, so a flush never reads a message while a turn is
+ * changing it; changes made during a turn are written when it ends. A torn
+ * record at the end of the log (e.g. after a crash) is detected and truncated
+ * on open.
+ * <p>
+ * When the log outgrows the snapshot, the history is written to a new
+ * snapshot and the log is restarted. Units still deferred are copied from the
+ * snapshot they were loaded from without being decoded. Every snapshot is a
+ * new file named after its generation, never one replacing a file a chat may
+ * still have mapped; superseded snapshots are deleted once they can be. The
+ * log carries the generation of its snapshot, so a log left over from before
+ * a compaction is never replayed on top of the snapshot that already includes
+ * it.
+ * <p>
+ * A session is restored lazily: the latest units of the snapshot are decoded,
+ * along with any older unit the log refers to, and the rest stays deferred.
+ * <p>
+ * Listeners, native provider responses and runtime objects (tools, the chat
+ * itself) are not persisted; see {@link SessionKryo}.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public class SessionJournal implements Closeable {
+
+    /** The prefix of the names of the snapshot files, followed by their generation. */
+    public static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    /** The extension of the snapshot files. */
+    public static final String SNAPSHOT_EXTENSION = ".anahata";
+
+    /** The name of the log file in the journal directory. */
+    public static final String JOURNAL_FILE = "journal.log";
+
+    /** The magic number of log files. */
+    private static final int MAGIC = 0x414E4A4C;
+
+    /** The version of the file format. */
+    private static final int VERSION = 2;
+
+    /** The size of the file header: magic, version and generation. */
+    private static final int HEADER_SIZE = 16;
+
+    /** The size of the record framing: length and CRC. */
+    private static final int FRAME_SIZE = 8;
+
+    /** The delay between a change and its flush, to coalesce bursts (e.g. streaming, tool execution). */
+    private static final long FLUSH_DELAY_MILLIS = 500;
+
+    /** How long closing waits for a running turn to end before giving up the last flush. */
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    /** The minimum size of the log before it is compacted into a snapshot. */
+    private static final long MIN_COMPACTION_BYTES = 4L * 1024 * 1024;
+
+    /** Record type of a renamed session. */
+    private static final byte NAME = 0;
+
+    /** Record type of an added or changed message unit. */
+    private static final byte PUT = 1;
+
+    /** Record type of a removed message unit. */
+    private static final byte REMOVE = 2;
+
+    /** Record type of a changed pruned flag. */
+    private static final byte PRUNED = 3;
+
+    /** The shared scheduler of the flushes of all journals. */
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The journaled chat. */
+    @Getter
+    private final Chat chat;
+
+    /** The directory of the snapshot and log files. */
+    @Getter
+    private final Path directory;
+
+    /** The log file channel, positioned at its end. */
+    private final FileChannel channel;
+
+    /** The Kryo instance writing the units, only used while holding the lock of this journal. */
+    private final SessionKryo kryo;
+
+    /** The generation of the snapshot the log applies to, 0 if there is no snapshot yet. */
+    @Getter
+    private long generation;
+
+    /** The highest generation of a snapshot file in the directory, readable or not. */
+    private long lastGeneration;
+
+    /** The size of the snapshot file. */
+    private long snapshotBytes;
+
+    /** The size of the log file. */
+    @Getter
+    private long journalBytes;
+
+    /** The size the log must exceed before the next compaction is attempted. */
+    private long compactionBytes = MIN_COMPACTION_BYTES;
+
+    /** The session name in the files. */
+    private String savedName;
+
+    /**
+     * The units in the files, in history order. The oldest ones may still be
+     * deferred in the {@link #deferredSource}.
+     */
+    private final Map<String, Unit> journaled = new LinkedHashMap<>();
+
+    /** The deferred part of the history the oldest journaled units are in, if any. */
+    private DeferredHistory deferredSource;
+
+    /** Whether the files do not hold the history of the chat: the next flush writes a new snapshot. */
+    private boolean rewrite;
+
+    /** The units changed since they were last written. */
+    private final Set<AbstractMessage> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** The messages and parts being listened to. */
+    private final Set<Object> listened = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** The records to write on the next flush, ahead of the unit changes. */
+    private final List<byte[]> pending = new ArrayList<>();
+
+    /** The listener of the history and of the session name. */
+    private final PropertyChangeListener historyListener = evt -> scheduleFlush();
+
+    /** The listener of messages and parts. */
+    private final PropertyChangeListener changeListener = this::onChange;
+
+    /** The scheduled flush, if any. */
+    private ScheduledFuture<?> scheduledFlush;
+
+    /** Whether the journal is closed. */
+    private boolean closed;
+
+    /**
+     * What the files hold of a unit.
+     *
+     * @param toolInHistory Whether its tool message was in the history when written.
+     * @param tokenCount Its token count, as in {@link SessionArchive.Entry#getTokenCount()}.
+     */
+    private record Unit(boolean toolInHistory, int tokenCount) {
+    }
+
+    /**
+     * Creates a new instance over an open log.
+     *
+     * @param chat The chat.
+     * @param directory The journal directory.
+     * @param channel The log channel.
+     * @param snapshot The latest snapshot, or {@code null} if none.
+     * @param lastGeneration The highest generation of a snapshot file.
+     * @throws IOException if the snapshot size cannot be read.
+     */
+    private SessionJournal(Chat chat, Path directory, FileChannel channel, SessionArchive snapshot, long lastGeneration) throws IOException {
+        this.chat = chat;
+        this.directory = directory;
+        this.channel = channel;
+        this.kryo = SessionKryo.create(chat, new HashMap<>());
+        this.generation = snapshot != null ? generation(snapshot.getFile()) : 0;
+        this.lastGeneration = lastGeneration;
+        this.snapshotBytes = snapshot != null ? Files.size(snapshot.getFile()) : 0;
+        this.savedName = snapshot != null ? snapshot.getName() : null;
+    }
+
+    /**
+     * Opens the journal of a chat in the given directory and journals all the
+     * changes of the chat from then on. If the chat has no history yet, the
+     * history saved in the directory (if any) is restored into it, latest
+     * messages first; otherwise the history of the chat replaces the saved one
+     * on the first flush.
+     *
+     * @param chat The chat.
+     * @param directory The journal directory, created if missing.
+     * @return The open journal.
+     * @throws IOException if the files cannot be read or written.
+     */
+    public static SessionJournal open(@NonNull Chat chat, @NonNull Path directory) throws IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        List<Path> snapshots = snapshots(directory);
+        SessionArchive snapshot = null;
+        for (Path file : snapshots) {
+            if (snapshot == null) {
+                try {
+                    snapshot = SessionArchive.open(file);
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable session snapshot {}", file, e);
+                }
+            } else {
+                // Superseded, but possibly still mapped when it was
+                deleteQuietly(file);
+            }
+        }
+        long lastGeneration = snapshots.isEmpty() ? 0 : generation(snapshots.get(0));
+        FileChannel channel = FileChannel.open(directory.resolve(JOURNAL_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            SessionJournal journal = new SessionJournal(chat, directory, channel, snapshot, lastGeneration);
+            long generation = readJournalHeader(channel);
+            if (generation != journal.generation) {
+                if (generation != -1) {
+                    log.info("Discarding the log of generation {} in {}, the snapshot is at generation {}", generation, directory, journal.generation);
+                }
+                channel.truncate(0);
+                channel.write(header(journal.generation), 0);
+                channel.force(true);
+            }
+            ContextManager contextManager = chat.getContextManager();
+            if (contextManager.getHistory().isEmpty() && contextManager.getDeferredCount() == 0) {
+                journal.restore(snapshot);
+            } else {
+                journal.rewrite = true;
+            }
+            journal.journalBytes = channel.size();
+            channel.position(journal.journalBytes);
+            journal.attach(contextManager.getHistory());
+            contextManager.addPropertyChangeListener(journal.historyListener);
+            chat.addPropertyChangeListener("nickname", journal.historyListener);
+            // Anything in the history that is not in the files is written on the first flush
+            journal.scheduleFlush();
+            log.info("Opened session journal {} (generation {}, {} message units) in {} ms", directory, journal.generation, journal.journaled.size(), System.currentTimeMillis() - start);
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Restores the saved history into the chat: the latest units of the
+     * snapshot and any unit the log refers to are decoded, the log is replayed
+     * on top of them and the older units are deferred.
+     *
+     * @param snapshot The snapshot, or {@code null} if none.
+     * @throws IOException if the log cannot be read or truncated.
+     */
+    private void restore(SessionArchive snapshot) throws IOException {
+        List<SessionArchive.Entry> entries = snapshot != null ? snapshot.getEntries() : List.of();
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            positions.put(entries.get(i).getId(), i);
+        }
+        int[] oldest = {entries.size()};
+        if (snapshot != null) {
+            read(channel, record -> {
+                List<String> ids = unitIds(record);
+                Integer position = ids.isEmpty() ? null : positions.get(ids.get(0));
+                if (position == null && ids.size() > 1) {
+                    // A new unit: placed after the one it follows
+                    position = positions.get(ids.get(1));
+                }
+                if (position != null && position < oldest[0]) {
+                    oldest[0] = position;
+                }
+            });
+        }
+        SessionArchive.Loader loader = snapshot != null ? snapshot.loader(chat) : null;
+        Replay replay = new Replay(chat, loader != null ? loader.getMessages() : new HashMap<>());
+        if (loader != null) {
+            List<AbstractMessage> latest = loader.loadNewest(Math.max(SessionArchive.RECENT_UNITS, entries.size() - oldest[0]));
+            Map<String, Boolean> toolInHistory = new HashMap<>();
+            for (AbstractMessage unit : units(latest, toolInHistory)) {
+                SessionArchive.Entry entry = entries.get(positions.get(unit.getId()));
+                replay.add(unit, new Unit(toolInHistory.get(unit.getId()), entry.getTokenCount()));
+            }
+        }
+        long end = read(channel, replay::apply);
+        if (end < channel.size()) {
+            log.warn("Truncating {} bytes of incomplete records at the end of {}", channel.size() - end, directory.resolve(JOURNAL_FILE));
+            channel.truncate(end);
+            channel.force(true);
+        }
+        List<AbstractMessage> history = replay.history();
+        if (loader != null) {
+            for (SessionArchive.Entry entry : entries.subList(0, loader.size())) {
+                journaled.put(entry.getId(), new Unit(entry.isToolInHistory(), entry.getTokenCount()));
+            }
+            loader.restore(history);
+            deferredSource = loader.size() > 0 ? loader : null;
+        } else if (!history.isEmpty()) {
+            chat.getContextManager().restore(history);
+        }
+        for (String id : replay.order) {
+            journaled.put(id, replay.state.get(id));
+        }
+        if (replay.renamed) {
+            savedName = replay.name;
+        }
+        if (savedName != null && chat.getConfig().getName() == null) {
+            chat.getConfig().setName(savedName);
+        }
+    }
+
+    /**
+     * Writes any pending changes to the log and compacts it if it has
+     * outgrown the snapshot, waiting for the running turn of the chat (if
+     * any) to end.
+     *
+     * @throws IOException if the files cannot be written.
+     */
+    public void flush() throws IOException {
+        ReentrantLock turn = chat.getRunningLock();
+        turn.lock();
+        try {
+            write();
+        } finally {
+            turn.unlock();
+        }
+    }
+
+    /**
+     * Writes any pending changes, unless a turn of the chat is running.
+     *
+     * @return {@code false} if a turn is running and nothing was written.
+     * @throws IOException if the files cannot be written.
+     */
+    public boolean tryFlush() throws IOException {
+        ReentrantLock turn = chat.getRunningLock();
+        if (!turn.tryLock()) {
+            return false;
+        }
+        try {
+            write();
+            return true;
+        } finally {
+            turn.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of messages in the files.
+     *
+     * @return The number of messages, including deferred ones.
+     */
+    public synchronized int getMessageCount() {
+        int count = 0;
+        for (Unit unit : journaled.values()) {
+            count += unit.toolInHistory ? 2 : 1;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the token count of the history in the files: billed counts of
+     * model messages, local estimates of the rest.
+     *
+     * @return The token count.
+     */
+    public synchronized int getTokenCount() {
+        int count = 0;
+        for (Unit unit : journaled.values()) {
+            count += unit.tokenCount;
+        }
+        return count;
+    }
+
+    /**
+     * Writes any pending changes. Must be called holding the running lock of
+     * the chat.
+     *
+     * @throws IOException if the files cannot be written.
+     */
+    private void write() throws IOException {
+        // Taken before the journal lock: the history lock is held while firing events to this journal
+        ContextManager.HistoryView view = SessionArchive.view(chat);
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (closed) {
+                return;
+            }
+            if (view.deferred() != null && view.deferred() != deferredSource) {
+                // Restored from elsewhere: the oldest journaled units are not the deferred ones
+                rewrite = true;
+            }
+            if (rewrite) {
+                compact(view);
+                return;
+            }
+            Map<String, Boolean> toolInHistory = new HashMap<>();
+            List<AbstractMessage> units = units(view.messages(), toolInHistory);
+            List<byte[]> records = new ArrayList<>(pending);
+            pending.clear();
+            String name = chat.getConfig().getName();
+            if (!Objects.equals(name, savedName)) {
+                records.add(record(NAME, out -> out.writeString(name)));
+                savedName = name;
+            }
+
+            // The oldest units may still be deferred: they are in the files and unchanged
+            List<String> ids = new ArrayList<>(journaled.keySet());
+            int deferred = Math.min(view.deferredCount(), ids.size());
+            Set<String> present = new HashSet<>(ids.subList(0, deferred));
+            present.addAll(toolInHistory.keySet());
+            boolean removed = false;
+            for (String id : ids) {
+                if (!present.contains(id)) {
+                    records.add(record(REMOVE, out -> out.writeString(id)));
+                    journaled.remove(id);
+                    removed = true;
+                }
+            }
+            if (removed) {
+                detachRemoved(toolInHistory.keySet());
+            }
+
+            boolean reschedule = false;
+            boolean failed = false;
+            String previous = deferred > 0 ? ids.get(deferred - 1) : null;
+            for (AbstractMessage unit : units) {
+                String id = unit.getId();
+                boolean tool = toolInHistory.get(id);
+                // Also listens to older units loaded since the last flush
+                attach(unit);
+                if (failed) {
+                    // Their records would follow a unit missing from the log
+                    continue;
+                }
+                Unit written = journaled.get(id);
+                if (written == null || written.toolInHistory != tool || dirty.contains(unit)) {
+                    if (unit instanceof AbstractModelMessage amm && amm.isStreaming()) {
+                        dirty.add(unit);
+                        reschedule = true;
+                    } else {
+                        try {
+                            records.add(put(kryo, previous, unit, tool));
+                            journaled.put(id, new Unit(tool, SessionArchive.tokenCount(messages(unit))));
+                            dirty.remove(unit);
+                        } catch (RuntimeException e) {
+                            // Retried by the next flush, with the units after it
+                            log.warn("Could not journal message {} of session {}, nor the messages after it", unit.getSequentialId(), chat.getConfig().getSessionId(), e);
+                            failed = true;
+                            continue;
+                        }
+                    }
+                }
+                previous = id;
+            }
+            if (!records.isEmpty()) {
+                journalBytes += write(channel, records);
+                channel.force(false);
+            }
+            if (reschedule) {
+                scheduleFlush();
+            }
+            if (journalBytes > Math.max(compactionBytes, snapshotBytes)) {
+                try {
+                    compact(view);
+                } catch (IOException e) {
+                    // The log still holds every change: retried once it has grown further
+                    compactionBytes = journalBytes + MIN_COMPACTION_BYTES;
+                    log.error("Failed to compact the session journal {}", directory, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes pending changes, stops listening and closes the log. If a turn
+     * of the chat is running, waits a few seconds for it to end; changes made
+     * during a turn that outlasts the wait are not written.
+     *
+     * @throws IOException if the log cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        ReentrantLock turn = chat.getRunningLock();
+        boolean idle = false;
+        try {
+            idle = turn.tryLock(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (idle) {
+                write();
+            } else {
+                log.warn("Closing the session journal {} without a last flush: a turn of the chat is still running", directory);
+            }
+        } finally {
+            if (idle) {
+                turn.unlock();
+            }
+            synchronized (this) {
+                if (!closed) {
+                    closed = true;
+                    chat.getContextManager().removePropertyChangeListener(historyListener);
+                    chat.removePropertyChangeListener("nickname", historyListener);
+                    for (Object source : listened) {
+                        if (source instanceof AbstractMessage message) {
+                            message.removePropertyChangeListener(changeListener);
+                        } else {
+                            ((AbstractPart) source).removePropertyChangeListener(changeListener);
+                        }
+                    }
+                    listened.clear();
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the history into a new snapshot and restarts the log. Must be
+     * called holding the running lock of the chat and the lock of this
+     * journal. Nothing changes if the snapshot cannot be written.
+     *
+     * @param view The history.
+     * @throws IOException if the files cannot be written.
+     */
+    private void compact(ContextManager.HistoryView view) throws IOException {
+        long start = System.currentTimeMillis();
+        long next = lastGeneration + 1;
+        Path snapshot = snapshotFile(next);
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        List<SessionArchive.Entry> written = SessionArchive.writeFile(chat, view, tmp);
+        // A new file: no snapshot a chat may have mapped is replaced
+        Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        // From here on the old log is stale: its generation no longer matches the snapshot
+        channel.truncate(0);
+        channel.write(header(next), 0);
+        channel.position(HEADER_SIZE);
+        channel.force(true);
+        Path previous = generation > 0 ? snapshotFile(generation) : null;
+        generation = next;
+        lastGeneration = next;
+        snapshotBytes = Files.size(snapshot);
+        journalBytes = HEADER_SIZE;
+        compactionBytes = MIN_COMPACTION_BYTES;
+        savedName = chat.getConfig().getName();
+        journaled.clear();
+        for (SessionArchive.Entry entry : written) {
+            journaled.put(entry.getId(), new Unit(entry.isToolInHistory(), entry.getTokenCount()));
+        }
+        deferredSource = view.deferred();
+        rewrite = false;
+        // Written into the snapshot; changes made since are marked again when their events get the journal lock
+        dirty.clear();
+        pending.clear();
+        attach(view.messages());
+        if (previous != null) {
+            // Fails on Windows while a chat still has it mapped: deleted when the journal is next opened
+            deleteQuietly(previous);
+        }
+        log.info("Compacted session journal {} into generation {} ({} bytes) in {} ms", directory, next, snapshotBytes, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Handles a change of a message or part.
+     *
+     * @param evt The event.
+     */
+    private synchronized void onChange(PropertyChangeEvent evt) {
+        if (closed) {
+            return;
+        }
+        AbstractPart part = evt.getSource() instanceof AbstractPart p ? p : null;
+        AbstractMessage message = part != null ? part.getMessage() : (AbstractMessage) evt.getSource();
+        if (message == null) {
+            return; // A removed part: its message fires a "parts" event
+        }
+        AbstractMessage unit = unit(message);
+        if ("pruned".equals(evt.getPropertyName()) && !rewrite && journaled.containsKey(unit.getId()) && !dirty.contains(unit)) {
+            int index = part != null ? message.getParts().indexOf(part) : -1;
+            Boolean pruned = (Boolean) evt.getNewValue();
+            pending.add(record(PRUNED, out -> {
+                out.writeString(unit.getId());
+                out.writeBoolean(message != unit);
+                out.writeInt(index);
+                out.writeByte(pruned == null ? 0 : pruned ? 1 : 2);
+            }));
+        } else {
+            dirty.add(unit);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Schedules a flush, unless one is already scheduled.
+     */
+    private synchronized void scheduleFlush() {
+        if (scheduledFlush == null && !closed) {
+            scheduledFlush = FLUSHER.schedule(this::flushQuietly, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Flushes from the scheduler, logging failures. While a turn is running,
+     * the flush is retried after the delay.
+     */
+    private void flushQuietly() {
+        synchronized (this) {
+            scheduledFlush = null;
+        }
+        try {
+            if (!tryFlush()) {
+                scheduleFlush();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to flush the session journal {}", directory, e);
+        }
+    }
+
+    /**
+     * Starts listening to the given messages and their parts.
+     *
+     * @param messages The messages.
+     */
+    private synchronized void attach(List<AbstractMessage> messages) {
+        for (AbstractMessage message : messages) {
+            attach(unit(message));
+        }
+    }
+
+    /**
+     * Starts listening to the messages and parts of a unit.
+     *
+     * @param unit The unit.
+     */
+    private void attach(AbstractMessage unit) {
+        for (AbstractMessage message : messages(unit)) {
+            if (listened.add(message)) {
+                message.addPropertyChangeListener(changeListener);
+            }
+            for (AbstractPart part : message.getParts()) {
+                if (listened.add(part)) {
+                    part.addPropertyChangeListener(changeListener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops listening to the messages no longer in the history, and their parts.
+     *
+     * @param current The ids of the units in the history.
+     */
+    private void detachRemoved(Set<String> current) {
+        listened.removeIf(source -> {
+            AbstractMessage message = source instanceof AbstractPart part ? part.getMessage() : (AbstractMessage) source;
+            boolean removed = message == null || !current.contains(unit(message).getId());
+            if (removed && source instanceof AbstractPart part) {
+                part.removePropertyChangeListener(changeListener);
+            } else if (removed) {
+                ((AbstractMessage) source).removePropertyChangeListener(changeListener);
+            }
+            if (removed && message != null) {
+                dirty.remove(unit(message));
+            }
+            return removed;
+        });
+    }
+
+    /**
+     * Gets the unit of a message: the model message of a tool message, otherwise the message itself.
+     *
+     * @param message The message.
+     * @return The root message of its unit.
+     */
+    static AbstractMessage unit(AbstractMessage message) {
+        if (message instanceof AbstractToolMessage<?> tm && tm.getModelMessage() != null) {
+            return tm.getModelMessage();
+        }
+        return message;
+    }
+
+    /**
+     * Gets the messages of a unit.
+     *
+     * @param unit The root message of the unit.
+     * @return The root message, followed by its tool message if any.
+     */
+    static List<AbstractMessage> messages(AbstractMessage unit) {
+        if (unit instanceof AbstractModelMessage<?, ?> amm && amm.getToolMessage() != null) {
+            return List.of(unit, amm.getToolMessage());
+        }
+        return List.of(unit);
+    }
+
+    /**
+     * Groups a history into units.
+     *
+     * @param history The history.
+     * @param toolInHistory The target of whether the tool message of each unit is in the history, by unit id.
+     * @return The units, in history order.
+     */
+    static List<AbstractMessage> units(List<AbstractMessage> history, Map<String, Boolean> toolInHistory) {
+        List<AbstractMessage> units = new ArrayList<>();
+        for (AbstractMessage message : history) {
+            AbstractMessage unit = unit(message);
+            if (!toolInHistory.containsKey(unit.getId())) {
+                toolInHistory.put(unit.getId(), false);
+                units.add(unit);
+            }
+            if (unit != message) {
+                toolInHistory.put(unit.getId(), true);
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Serializes a unit into a {@code PUT} record.
+     *
+     * @param kryo The Kryo instance.
+     * @param afterId The id of the unit it follows in the history, or {@code null} if first.
+     * @param unit The unit.
+     * @param toolInHistory Whether its tool message is in the history.
+     * @return The record.
+     */
+    private static byte[] put(SessionKryo kryo, String afterId, AbstractMessage unit, boolean toolInHistory) {
+        return record(PUT, out -> {
+            out.writeString(unit.getId());
+            out.writeString(afterId);
+            out.writeBoolean(toolInHistory);
+            kryo.writeUnit(out, unit);
+        });
+    }
+
+    /**
+     * Gets the ids of the units a record refers to, without decoding any message.
+     *
+     * @param record The record.
+     * @return The unit ids: the unit and, for a {@code PUT}, the unit it
+     *         follows, if any.
+     */
+    private static List<String> unitIds(byte[] record) {
+        Input in = new Input(record);
+        byte type = in.readByte();
+        if (type == PUT) {
+            String id = in.readString();
+            String afterId = in.readString();
+            return afterId != null ? List.of(id, afterId) : List.of(id);
+        }
+        if (type == REMOVE || type == PRUNED) {
+            return List.of(in.readString());
+        }
+        return List.of();
+    }
+
+    /**
+     * Builds a record.
+     *
+     * @param type The record type.
+     * @param payload The writer of the payload.
+     * @return The record, without framing.
+     */
+    private static byte[] record(byte type, Consumer<Output> payload) {
+        Output out = new Output(256, -1);
+        out.writeByte(type);
+        payload.accept(out);
+        return out.toBytes();
+    }
+
+    /**
+     * Writes framed records to a channel at its position.
+     *
+     * @param channel The channel.
+     * @param records The records.
+     * @return The number of bytes written.
+     * @throws IOException if the channel cannot be written.
+     */
+    private static long write(FileChannel channel, List<byte[]> records) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[records.size() * 2];
+        long total = 0;
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < records.size(); i++) {
+            byte[] record = records.get(i);
+            crc.reset();
+            crc.update(record);
+            buffers[2 * i] = ByteBuffer.allocate(FRAME_SIZE).putInt(record.length).putInt((int) crc.getValue()).flip();
+            buffers[2 * i + 1] = ByteBuffer.wrap(record);
+            total += FRAME_SIZE + record.length;
+        }
+        long written = 0;
+        while (written < total) {
+            written += channel.write(buffers);
+        }
+        return total;
+    }
+
+    /**
+     * Reads the records of a log, from after its header up to the first
+     * incomplete or corrupt one.
+     *
+     * @param channel The log channel.
+     * @param consumer The consumer of the records.
+     * @return The position after the last valid record.
+     * @throws IOException if the channel cannot be read.
+     */
+    private static long read(FileChannel channel, Consumer<byte[]> consumer) throws IOException {
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        channel.position(position);
+        // Not closed: closing the stream would close the channel
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+        CRC32 crc = new CRC32();
+        while (position + FRAME_SIZE <= size) {
+            int length = input.readInt();
+            int checksum = input.readInt();
+            if (length < 1 || position + FRAME_SIZE + length > size) {
+                break;
+            }
+            byte[] record = new byte[length];
+            input.readFully(record);
+            crc.reset();
+            crc.update(record);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            position += FRAME_SIZE + length;
+            consumer.accept(record);
+        }
+        return position;
+    }
+
+    /**
+     * Builds a log header.
+     *
+     * @param generation The generation of the snapshot the log applies to.
+     * @return The header, ready to be written.
+     */
+    private static ByteBuffer header(long generation) {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+    }
+
+    /**
+     * Reads the header of a log.
+     *
+     * @param channel The log channel.
+     * @return The generation, or -1 if the log is empty, not a session log or
+     *         of another version.
+     * @throws IOException if the channel cannot be read.
+     */
+    private static long readJournalHeader(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            log.warn("Ignoring a journal file that is not a session log");
+            return -1;
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            log.warn("Ignoring session log of unsupported version {}", version);
+            return -1;
+        }
+        return header.getLong();
+    }
+
+    /**
+     * Gets the snapshot file of a generation.
+     *
+     * @param generation The generation.
+     * @return The file.
+     */
+    private Path snapshotFile(long generation) {
+        return directory.resolve(SNAPSHOT_PREFIX + generation + SNAPSHOT_EXTENSION);
+    }
+
+    /**
+     * Lists the snapshot files of a journal directory, deleting any left
+     * unfinished by a compaction.
+     *
+     * @param directory The directory.
+     * @return The snapshot files, newest generation first.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private static List<Path> snapshots(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*")) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    deleteQuietly(file);
+                } else if (generation(file) > 0) {
+                    snapshots.add(file);
+                }
+            }
+        }
+        snapshots.sort(Comparator.comparingLong(SessionJournal::generation).reversed());
+        return snapshots;
+    }
+
+    /**
+     * Gets the generation of a snapshot file from its name.
+     *
+     * @param file The file.
+     * @return The generation, or -1 if the name is not that of a snapshot.
+     */
+    private static long generation(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SNAPSHOT_PREFIX) || !name.endsWith(SNAPSHOT_EXTENSION)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Deletes a file, logging failures.
+     *
+     * @param file The file.
+     */
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Could not delete {} yet", file, e);
+        }
+    }
+
+    /**
+     * The history of a session as read from a snapshot and a log.
+     */
+    private static class Replay {
+
+        /** The Kryo instance reading the messages. */
+        private final SessionKryo kryo;
+
+        /** The messages read, by id, including tool messages. */
+        private final Map<String, AbstractMessage> messages;
+
+        /** The ids of the units, in history order. */
+        private final List<String> order = new ArrayList<>();
+
+        /** The units, by id. */
+        private final Map<String, AbstractMessage> units = new HashMap<>();
+
+        /** What the files hold of each unit, by id. */
+        private final Map<String, Unit> state = new HashMap<>();
+
+        /** The session name of the last {@code NAME} record. */
+        private String name;
+
+        /** Whether the log holds a {@code NAME} record. */
+        private boolean renamed;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param chat The chat messages are read into.
+         * @param messages The messages already read, by id, shared with the
+         *        loader of the snapshot.
+         */
+        Replay(Chat chat, Map<String, AbstractMessage> messages) {
+            this.messages = messages;
+            this.kryo = SessionKryo.create(chat, messages);
+        }
+
+        /**
+         * Adds a unit decoded from the snapshot, after the ones added so far.
+         *
+         * @param unit The unit.
+         * @param saved What the snapshot holds of it.
+         */
+        void add(AbstractMessage unit, Unit saved) {
+            order.add(unit.getId());
+            units.put(unit.getId(), unit);
+            state.put(unit.getId(), saved);
+        }
+
+        /**
+         * Applies a record.
+         *
+         * @param record The record.
+         */
+        void apply(byte[] record) {
+            Input in = new Input(record);
+            byte type = in.readByte();
+            try {
+                switch (type) {
+                    case NAME -> {
+                        name = in.readString();
+                        renamed = true;
+                    }
+                    case PUT -> {
+                        String id = in.readString();
+                        String afterId = in.readString();
+                        boolean tool = in.readBoolean();
+                        AbstractMessage unit = (AbstractMessage) kryo.readClassAndObject(in);
+                        if (units.put(id, unit) == null) {
+                            int index = afterId != null ? order.indexOf(afterId) + 1 : 0;
+                            order.add(index > 0 || afterId == null ? index : order.size(), id);
+                        }
+                        List<AbstractMessage> unitMessages = SessionJournal.messages(unit);
+                        state.put(id, new Unit(tool, SessionArchive.tokenCount(unitMessages)));
+                        for (AbstractMessage message : unitMessages) {
+                            messages.put(message.getId(), message);
+                        }
+                    }
+                    case REMOVE -> {
+                        String id = in.readString();
+                        AbstractMessage unit = units.remove(id);
+                        order.remove(id);
+                        state.remove(id);
+                        if (unit != null) {
+                            for (AbstractMessage message : SessionJournal.messages(unit)) {
+                                messages.remove(message.getId());
+                            }
+                        }
+                    }
+                    case PRUNED -> {
+                        AbstractMessage unit = units.get(in.readString());
+                        List<AbstractMessage> unitMessages = unit != null ? SessionJournal.messages(unit) : List.of();
+                        int position = in.readBoolean() ? 1 : 0;
+                        AbstractMessage message = position < unitMessages.size() ? unitMessages.get(position) : null;
+                        int index = in.readInt();
+                        byte flag = in.readByte();
+                        Boolean pruned = flag == 0 ? null : flag == 1;
+                        if (message != null && index < 0) {
+                            message.setPruned(pruned);
+                        } else if (message != null && index < message.getParts().size()) {
+                            message.getParts().get(index).setPruned(pruned);
+                        }
+                    }
+                    default -> log.warn("Skipping session record of unknown type {}", type);
+                }
+            } catch (RuntimeException e) {
+                // A well-formed record that no longer deserializes (e.g. a removed class): skip it
+                log.warn("Skipping unreadable session record of type {}", type, e);
+            }
+        }
+
+        /**
+         * Builds the history from the units read.
+         *
+         * @return The messages, in history order.
+         */
+        List<AbstractMessage> history() {
+            List<AbstractMessage> history = new ArrayList<>();
+            for (String id : order) {
+                AbstractMessage unit = units.get(id);
+                history.add(unit);
+                if (state.get(id).toolInHistory && unit instanceof AbstractModelMessage<?, ?> amm && amm.getToolMessage() != null) {
+                    history.add(amm.getToolMessage());
+                }
+            }
+            return history;
+        }
+    }
+}
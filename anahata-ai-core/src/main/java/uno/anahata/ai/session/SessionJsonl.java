@@ -0,0 +1,604 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.session;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractModelMessage;
+import uno.anahata.ai.model.core.AbstractPart;
+import uno.anahata.ai.model.core.BlobPart;
+import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.tool.AbstractToolCall;
+import uno.anahata.ai.model.tool.AbstractToolResponse;
+import uno.anahata.ai.tool.schema.SchemaProvider;
+
+/**
+ * Streams sessions to and from JSON Lines, one JSON object per line, for
+ * moving large sessions between nodes and analyzing them offline with
+ * line-oriented tools.
+ * <p>
+ * Every line has a {@code type}:
+ * <ul>
+ *     <li>{@code session}: the first line, with the session id, name and summary.</li>
+ *     <li>{@code payload}: out of line data (blob data or a serialized tool
+ *         result) with its id and length, either in a sidecar {@code file} or
+ *         in the {@code chunk} lines that follow it, base64 encoded.</li>
+ *     <li>{@code message}: a message with its id, role, class, timestamp and
+ *         pruned state. The first message of each unit (a message, plus the
+ *         tool message of a model message) carries the {@code state} of the
+ *         whole unit, base64 encoded as in a {@link SessionArchive}, which is
+ *         what the session is rebuilt from.</li>
+ *     <li>{@code part}: a part of the preceding message, with its text, blob
+ *         type and size, or tool name, arguments, status and result as JSON,
+ *         for analysis only.</li>
+ * </ul>
+ * The payloads of a unit come before its messages. Lines are written and
+ * read one at a time through Jackson's streaming {@link JsonGenerator} and
+ * {@link JsonParser} with the settings of {@link SchemaProvider#OBJECT_MAPPER},
+ * so neither direction holds more than one unit in memory. On import, chunked
+ * payloads are spooled to a temporary file and sidecar files are referenced
+ * in place; blob data and tool results are read from them on first access.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class SessionJsonl {
+
+    /** The version of the line format. */
+    public static final int FORMAT = 1;
+
+    /** The suffix of the sidecar directory of a file written with sidecars. */
+    public static final String SIDECAR_SUFFIX = ".blobs";
+
+    /** The maximum number of payload bytes in a chunk line. */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Writes a session to a JSON Lines file, replacing it atomically.
+     *
+     * @param chat The chat.
+     * @param file The target file.
+     * @param sidecars Whether payloads are written as files in the
+     *        {@value #SIDECAR_SUFFIX} directory next to the target file,
+     *        rather than as base64 chunks.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(@NonNull Chat chat, @NonNull Path file, boolean sidecars) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Path sidecarDirectory = sidecars ? sidecarDirectory(file) : null;
+        if (sidecarDirectory != null) {
+            Files.createDirectories(sidecarDirectory);
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            write(chat, out, sidecarDirectory);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a session as JSON Lines to a stream, loading any deferred
+     * messages first. The stream is not closed.
+     *
+     * @param chat The chat.
+     * @param out The stream.
+     * @param sidecarDirectory The directory of the payload files, or
+     *        {@code null} to write payloads as base64 chunks.
+     * @throws IOException if the stream or a sidecar file cannot be written.
+     */
+    public static void write(@NonNull Chat chat, @NonNull OutputStream out, Path sidecarDirectory) throws IOException {
+        long start = System.currentTimeMillis();
+        chat.getContextManager().loadAll();
+        Map<String, Boolean> toolInHistory = new HashMap<>();
+        List<AbstractMessage> units = SessionJournal.units(chat.getContextManager().getHistory(), toolInHistory);
+        ChatConfig config = chat.getConfig();
+        try (JsonGenerator generator = SchemaProvider.OBJECT_MAPPER.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            Exporter exporter = new Exporter(generator, sidecarDirectory);
+
+            generator.writeStartObject();
+            generator.writeStringField("type", "session");
+            generator.writeNumberField("format", FORMAT);
+            generator.writeStringField("sessionId", config.getSessionId());
+            generator.writeStringField("name", config.getName());
+            generator.writeStringField("summary", chat.getSummary());
+            generator.writeNumberField("units", units.size());
+            endLine(generator);
+
+            SessionKryo kryo = SessionKryo.create(chat, new HashMap<>(), exporter);
+            int count = 0;
+            for (AbstractMessage unit : units) {
+                List<AbstractMessage> messages = SessionJournal.messages(unit);
+                exporter.payloadIds.clear();
+                byte[] state;
+                try {
+                    state = kryo.writeUnit(unit);
+                } catch (RuntimeException e) {
+                    if (exporter.failure != null) {
+                        throw exporter.failure;
+                    }
+                    log.warn("Could not write message {} of session {}", unit.getSequentialId(), config.getSessionId(), e);
+                    continue;
+                }
+                for (AbstractMessage message : messages) {
+                    exporter.writeMessage(message, unit, message == unit ? state : null, toolInHistory.getOrDefault(unit.getId(), false));
+                }
+                count++;
+            }
+            generator.flush();
+            log.info("Exported {} message units of session {} as JSON lines in {} ms", count, config.getSessionId(), System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Reads a session from a JSON Lines file written by
+     * {@link #write(Chat, Path, boolean)}, resolving sidecar files in the
+     * {@value #SIDECAR_SUFFIX} directory next to it.
+     *
+     * @param asiConfig The application config of the new chat.
+     * @param file The file.
+     * @return The new chat.
+     * @throws IOException if the file cannot be read or is not a session.
+     */
+    public static Chat load(@NonNull AsiConfig asiConfig, @NonNull Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            return load(asiConfig, in, sidecarDirectory(file));
+        }
+    }
+
+    /**
+     * Reads a session from a JSON Lines stream, rebuilding the chat one unit
+     * at a time. The stream is not closed. Blob data and tool results are
+     * deferred until first accessed.
+     *
+     * @param asiConfig The application config of the new chat.
+     * @param in The stream.
+     * @param sidecarDirectory The directory sidecar file names are resolved against.
+     * @return The new chat.
+     * @throws IOException if the stream cannot be read or is not a session.
+     */
+    public static Chat load(@NonNull AsiConfig asiConfig, @NonNull InputStream in, Path sidecarDirectory) throws IOException {
+        long start = System.currentTimeMillis();
+        Importer importer = new Importer(sidecarDirectory);
+        try (JsonParser parser = SchemaProvider.OBJECT_MAPPER.getFactory().createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            MappingIterator<JsonNode> lines = SchemaProvider.OBJECT_MAPPER.readerFor(JsonNode.class).readValues(parser);
+            while (lines.hasNextValue()) {
+                importer.accept(asiConfig, lines.nextValue());
+            }
+        } catch (IOException | RuntimeException e) {
+            if (importer.chat != null) {
+                importer.chat.shutdown();
+            }
+            throw e;
+        } finally {
+            importer.closeSpool();
+        }
+        if (importer.chat == null) {
+            throw new IOException("Not a session: no session line");
+        }
+        importer.chat.getContextManager().restore(importer.history);
+        log.info("Imported {} messages of session {} from JSON lines in {} ms", importer.history.size(), importer.chat.getConfig().getSessionId(), System.currentTimeMillis() - start);
+        return importer.chat;
+    }
+
+    /**
+     * Gets the sidecar directory of a file.
+     *
+     * @param file The JSON Lines file.
+     * @return The directory, which may not exist.
+     */
+    private static Path sidecarDirectory(Path file) {
+        return file.resolveSibling(file.getFileName() + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * Ends the current line.
+     *
+     * @param generator The generator, at the end of a line's object.
+     * @throws IOException if the line cannot be written.
+     */
+    private static void endLine(JsonGenerator generator) throws IOException {
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Converts an object to JSON for analysis, falling back to its string
+     * form for objects Jackson cannot serialize.
+     *
+     * @param value The object.
+     * @return The JSON tree.
+     */
+    private static JsonNode toJson(Object value) {
+        try {
+            return SchemaProvider.OBJECT_MAPPER.valueToTree(value);
+        } catch (IllegalArgumentException e) {
+            return SchemaProvider.OBJECT_MAPPER.getNodeFactory().textNode(String.valueOf(value));
+        }
+    }
+
+    /**
+     * Writes the lines of the units of a session and the payloads they write
+     * out of line.
+     */
+    private static class Exporter implements SessionKryo.PayloadWriter {
+
+        /** The generator of the lines. */
+        private final JsonGenerator generator;
+
+        /** The directory of the payload files, or {@code null} for chunks. */
+        private final Path sidecarDirectory;
+
+        /** The ids of the blob data written for the current unit, by array identity. */
+        private final Map<byte[], Long> payloadIds = new IdentityHashMap<>();
+
+        /** The id of the next payload. */
+        private long nextId;
+
+        /** The first failure to write, which aborts the export. */
+        private IOException failure;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param generator The generator of the lines.
+         * @param sidecarDirectory The directory of the payload files, or {@code null} for chunks.
+         */
+        Exporter(JsonGenerator generator, Path sidecarDirectory) {
+            this.generator = generator;
+            this.sidecarDirectory = sidecarDirectory;
+        }
+
+        @Override
+        public long write(byte[] bytes) {
+            long id = nextId++;
+            try {
+                generator.writeStartObject();
+                generator.writeStringField("type", "payload");
+                generator.writeNumberField("id", id);
+                generator.writeNumberField("length", bytes.length);
+                if (sidecarDirectory != null) {
+                    String name = id + ".bin";
+                    Files.write(sidecarDirectory.resolve(name), bytes);
+                    generator.writeStringField("file", name);
+                    endLine(generator);
+                } else {
+                    endLine(generator);
+                    for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+                        generator.writeStartObject();
+                        generator.writeStringField("type", "chunk");
+                        generator.writeNumberField("id", id);
+                        generator.writeFieldName("data");
+                        generator.writeBinary(bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset));
+                        endLine(generator);
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException(e);
+            }
+            payloadIds.put(bytes, id);
+            return id;
+        }
+
+        /**
+         * Writes the line of a message and the lines of its parts.
+         *
+         * @param message The message.
+         * @param unit The root message of its unit.
+         * @param state The serialized unit, for the root message only.
+         * @param toolInHistory Whether the tool message of the unit is in the history.
+         * @throws IOException if the lines cannot be written.
+         */
+        void writeMessage(AbstractMessage message, AbstractMessage unit, byte[] state, boolean toolInHistory) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("type", "message");
+            generator.writeStringField("id", message.getId());
+            generator.writeNumberField("sequentialId", message.getSequentialId());
+            generator.writeStringField("class", message.getClass().getName());
+            generator.writeStringField("role", message.getRole().name());
+            generator.writeStringField("from", message.getFrom());
+            generator.writeNumberField("timestamp", message.getTimestamp());
+            if (message.isPruned() != null) {
+                generator.writeBooleanField("pruned", message.isPruned());
+            }
+            if (message instanceof AbstractModelMessage<?, ?> amm) {
+                generator.writeStringField("modelId", amm.getModelId());
+                generator.writeStringField("finishReason", amm.getFinishReason());
+                generator.writeNumberField("tokenCount", amm.getTokenCount());
+            }
+            generator.writeStringField("unit", unit.getId());
+            if (state != null) {
+                generator.writeBooleanField("toolInHistory", toolInHistory);
+                generator.writeFieldName("state");
+                generator.writeBinary(state);
+            }
+            endLine(generator);
+            for (AbstractPart part : message.getParts()) {
+                writePart(message, part);
+            }
+        }
+
+        /**
+         * Writes the line of a part.
+         *
+         * @param message The message of the part.
+         * @param part The part.
+         * @throws IOException if the line cannot be written.
+         */
+        private void writePart(AbstractMessage message, AbstractPart part) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("type", "part");
+            generator.writeStringField("messageId", message.getId());
+            generator.writeNumberField("sequentialId", part.getSequentialId());
+            generator.writeStringField("class", part.getClass().getName());
+            if (part.getPruned() != null) {
+                generator.writeBooleanField("pruned", part.getPruned());
+            }
+            if (part.getTurnsToKeep() != null) {
+                generator.writeNumberField("turnsToKeep", part.getTurnsToKeep());
+            }
+            if (part instanceof TextPart text) {
+                generator.writeStringField("text", text.getText());
+            } else if (part instanceof BlobPart blob) {
+                generator.writeStringField("mimeType", blob.getMimeType());
+                generator.writeNumberField("size", blob.getSize());
+                Long payload = payloadIds.get(blob.getData());
+                if (payload != null) {
+                    generator.writeNumberField("payload", payload);
+                }
+                if (blob.getSourcePath() != null) {
+                    generator.writeStringField("sourcePath", blob.getSourcePath().toString());
+                }
+            } else if (part instanceof AbstractToolCall<?, ?> call) {
+                generator.writeStringField("toolName", call.getToolName());
+                generator.writeStringField("callId", call.getId());
+                generator.writeFieldName("args");
+                generator.writeTree(toJson(call.getArgs()));
+            } else if (part instanceof AbstractToolResponse<?> response) {
+                generator.writeStringField("toolName", response.getToolName());
+                generator.writeStringField("status", response.getStatus() != null ? response.getStatus().name() : null);
+                generator.writeStringField("error", response.getError());
+                generator.writeNumberField("executionTimeMillis", response.getExecutionTimeMillis());
+                Object result = response.getResult();
+                if (result != null) {
+                    generator.writeFieldName("result");
+                    generator.writeTree(toJson(result));
+                }
+            }
+            endLine(generator);
+        }
+    }
+
+    /**
+     * The location of an imported payload: a sidecar file or a range of the spool.
+     *
+     * @param file The file.
+     * @param offset The offset of the payload in the file.
+     * @param length The length of the payload.
+     */
+    private record Location(Path file, long offset, int length) {
+    }
+
+    /**
+     * Rebuilds a chat from the lines of a session, spooling chunked payloads
+     * to a temporary file and resolving deferred data from there or from the
+     * sidecar files.
+     */
+    private static class Importer implements SessionKryo.PayloadReader {
+
+        /** The directory sidecar file names are resolved against. */
+        private final Path sidecarDirectory;
+
+        /** The messages read, by id, for resolving references. */
+        private final Map<String, AbstractMessage> messages = new HashMap<>();
+
+        /** The locations of the payloads, by id. */
+        private final Map<Long, Location> payloads = new HashMap<>();
+
+        /** The history read so far. */
+        private final List<AbstractMessage> history = new ArrayList<>();
+
+        /** The chat, once the session line is read. */
+        private Chat chat;
+
+        /** The Kryo instance of the units. */
+        private SessionKryo kryo;
+
+        /** The spool of the chunked payloads, created on first use. */
+        private Path spool;
+
+        /** The channel of the spool, open while importing. */
+        private FileChannel spoolChannel;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param sidecarDirectory The directory sidecar file names are resolved against.
+         */
+        Importer(Path sidecarDirectory) {
+            this.sidecarDirectory = sidecarDirectory;
+        }
+
+        /**
+         * Applies a line.
+         *
+         * @param asiConfig The application config of the new chat.
+         * @param line The line.
+         * @throws IOException if the line is invalid or a payload cannot be spooled.
+         */
+        void accept(AsiConfig asiConfig, JsonNode line) throws IOException {
+            String type = line.path("type").asText();
+            if (chat == null && !"session".equals(type)) {
+                throw new IOException("Not a session: the first line is a " + type);
+            }
+            switch (type) {
+                case "session" -> {
+                    if (line.path("format").asInt() > FORMAT) {
+                        throw new IOException("Unsupported session format " + line.path("format").asInt());
+                    }
+                    chat = new Chat(new ChatConfig(asiConfig, line.path("sessionId").asText()));
+                    chat.getConfig().setName(line.path("name").textValue());
+                    chat.setSummary(line.path("summary").textValue());
+                    kryo = SessionKryo.create(chat, messages, this);
+                }
+                case "payload" -> {
+                    long id = line.path("id").asLong();
+                    int length = line.path("length").asInt();
+                    if (line.hasNonNull("file")) {
+                        payloads.put(id, new Location(sidecar(id, line.path("file").asText()), 0, length));
+                    } else {
+                        payloads.put(id, new Location(spool(), spoolChannel.size(), length));
+                    }
+                }
+                case "chunk" -> {
+                    if (spoolChannel == null) {
+                        throw new IOException("Chunk of payload " + line.path("id").asLong() + " without a payload line");
+                    }
+                    ByteBuffer data = ByteBuffer.wrap(line.path("data").binaryValue());
+                    while (data.hasRemaining()) {
+                        spoolChannel.write(data, spoolChannel.size());
+                    }
+                }
+                case "message" -> {
+                    if (line.hasNonNull("state")) {
+                        readUnit(line);
+                    }
+                }
+                default -> {
+                    // Parts and unknown lines are for analysis only
+                }
+            }
+        }
+
+        /**
+         * Resolves the sidecar file of a payload, refusing any name that is
+         * absolute or leads outside the sidecar directory.
+         *
+         * @param id The id of the payload.
+         * @param name The file name of the payload line.
+         * @return The sidecar file.
+         * @throws IOException if there is no sidecar directory or the name is outside it.
+         */
+        private Path sidecar(long id, String name) throws IOException {
+            if (sidecarDirectory == null) {
+                throw new IOException("Payload " + id + " is in a sidecar file, but there is no sidecar directory");
+            }
+            Path directory = sidecarDirectory.toAbsolutePath().normalize();
+            Path relative;
+            try {
+                relative = Path.of(name);
+            } catch (InvalidPathException e) {
+                throw new IOException("Invalid sidecar file of payload " + id + ": " + name, e);
+            }
+            Path file = directory.resolve(relative).normalize();
+            if (relative.isAbsolute() || !directory.equals(file.getParent())) {
+                throw new IOException("Sidecar file of payload " + id + " is outside " + directory + ": " + name);
+            }
+            return file;
+        }
+
+        /**
+         * Decodes a unit from the state of its root message line.
+         *
+         * @param line The line.
+         * @throws IOException if the state is not base64.
+         */
+        private void readUnit(JsonNode line) throws IOException {
+            byte[] state = line.path("state").binaryValue();
+            AbstractMessage unit;
+            try {
+                unit = (AbstractMessage) kryo.readClassAndObject(new Input(state));
+            } catch (RuntimeException e) {
+                // E.g. a class that no longer exists
+                log.warn("Skipping unreadable message {} of session {}", line.path("sequentialId").asLong(), chat.getConfig().getSessionId(), e);
+                return;
+            }
+            for (AbstractMessage message : SessionJournal.messages(unit)) {
+                messages.put(message.getId(), message);
+            }
+            history.add(unit);
+            if (line.path("toolInHistory").asBoolean() && unit instanceof AbstractModelMessage<?, ?> amm && amm.getToolMessage() != null) {
+                history.add(amm.getToolMessage());
+            }
+        }
+
+        /**
+         * Gets the spool, creating it on first use. It is deleted when the
+         * JVM exits, as deferred data may be read from it until then.
+         *
+         * @return The spool file.
+         * @throws IOException if the spool cannot be created.
+         */
+        private Path spool() throws IOException {
+            if (spool == null) {
+                spool = Files.createTempFile("anahata-session-", ".spool");
+                spool.toFile().deleteOnExit();
+                spoolChannel = FileChannel.open(spool, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return spool;
+        }
+
+        /**
+         * Closes the channel the spool is written with; deferred data is read
+         * with channels of its own.
+         *
+         * @throws IOException if the channel cannot be closed.
+         */
+        void closeSpool() throws IOException {
+            if (spoolChannel != null) {
+                spoolChannel.close();
+            }
+        }
+
+        @Override
+        public byte[] read(long id, int length) {
+            Location location = payloads.get(id);
+            if (location == null) {
+                throw new IllegalStateException("Missing payload " + id + " of session " + chat.getConfig().getSessionId());
+            }
+            byte[] bytes = new byte[location.length()];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            try (FileChannel channel = FileChannel.open(location.file(), StandardOpenOption.READ)) {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, location.offset() + buffer.position()) < 0) {
+                        throw new IOException("Truncated payload " + id + " in " + location.file());
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,616 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.session;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.SerializerFactory;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.internal.kryo.KryoUtils;
+import uno.anahata.ai.internal.kryo.MessageSerializer;
+import uno.anahata.ai.internal.kryo.PartSerializer;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractPart;
+import uno.anahata.ai.model.core.BlobPart;
+import uno.anahata.ai.model.core.Response;
+import uno.anahata.ai.model.tool.AbstractTool;
+import uno.anahata.ai.model.tool.AbstractToolResponse;
+import uno.anahata.ai.model.tool.AbstractToolkit;
+import uno.anahata.ai.tool.schema.SchemaProvider;
+
+/**
+ * The Kryo instances used to persist messages of a session.
+ * <p>
+ * Messages are serialized one unit at a time (a message, plus the tool message
+ * of a model message), so the object graph is cut at the session boundaries:
+ * <ul>
+ *     <li>The {@link Chat} is not written; it is resolved from the instance on read.</li>
+ *     <li>Tools and toolkits are written by name and resolved in the chat's
+ *         {@link uno.anahata.ai.tool.ToolManager} on read.</li>
+ *     <li>Native provider responses are not written.</li>
+ *     <li>Exceptions are written as their class name and message.</li>
+ *     <li>Values of classes outside the registration tables (e.g. tool
+ *         results) are written as JSON and read back as plain maps, lists
+ *         and values.</li>
+ *     <li>Messages outside the unit being written are written by id and
+ *         resolved among the messages already read.</li>
+ * </ul>
+ * Instances created with a {@link PayloadWriter} (e.g. for a
+ * {@link SessionArchive} being written) also write blob data and tool results
+ * out of line; instances created with a {@link PayloadReader} defer them on
+ * read until they are first accessed. Tool results are serialized with a Kryo
+ * instance of their own, so they can be read without the message they belong to.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+final class SessionKryo extends Kryo {
+
+    /**
+     * The first id of the registration table of the session types, clear of
+     * the ids of {@link KryoUtils}. New ids must be appended and never
+     * reused, as they are persisted.
+     */
+    private static final int FIRST_ID = 1000;
+
+    /** The classes whose subclasses are written with the registration of the class itself. */
+    private static final List<Class<?>> COLLAPSED = List.of(Chat.class, AbstractTool.class, AbstractToolkit.class, Response.class, Throwable.class);
+
+    /** The chat messages are written from and read into. */
+    private final Chat chat;
+
+    /** The messages already read, by id, for resolving references. */
+    private final Map<String, AbstractMessage> messages;
+
+    /** The Kryo instance of the tool results written out of line, or {@code null} if written inline. */
+    private final SessionKryo results;
+
+    /** The messages of the unit being written, written in full; {@code null} to write every message in full. */
+    private Set<AbstractMessage> unit;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param chat The chat messages are written from and read into.
+     * @param messages The messages already read, by id, for resolving references.
+     * @param writer The store the out of line data is written to, or {@code null}.
+     * @param reader The store the out of line data is read from, or {@code null}.
+     */
+    private SessionKryo(Chat chat, Map<String, AbstractMessage> messages, PayloadWriter writer, PayloadReader reader) {
+        super(new UnitClassResolver(), null);
+        this.chat = chat;
+        this.messages = messages;
+        this.results = writer != null || reader != null ? new SessionKryo(chat, new HashMap<>(), null, null) : null;
+        // Only registered classes are read; see getRegistration for the others
+        setRegistrationRequired(true);
+        // Tool calls and responses refer to each other
+        setReferences(true);
+        if (results != null) {
+            addDefaultSerializer(BlobPart.class, new SerializerFactory.BaseSerializerFactory<DeferredBlobSerializer>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public DeferredBlobSerializer newSerializer(Kryo kryo, Class type) {
+                    return new DeferredBlobSerializer(kryo, type, writer, reader);
+                }
+            });
+            addDefaultSerializer(AbstractToolResponse.class, new SerializerFactory.BaseSerializerFactory<DeferredResultSerializer>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public DeferredResultSerializer newSerializer(Kryo kryo, Class type) {
+                    return new DeferredResultSerializer(kryo, type, writer, reader);
+                }
+            });
+        }
+        addDefaultSerializer(AbstractMessage.class, new SerializerFactory.BaseSerializerFactory<UnitSerializer>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public UnitSerializer newSerializer(Kryo kryo, Class type) {
+                return new UnitSerializer(new MessageSerializer<>(kryo, type));
+            }
+        });
+        KryoUtils.configure(this);
+        register(Chat.class, new ChatSerializer(), FIRST_ID);
+        register(AbstractTool.class, new ToolSerializer(), FIRST_ID + 1);
+        register(AbstractToolkit.class, new ToolkitSerializer(), FIRST_ID + 2);
+        register(Response.class, new NullSerializer(), FIRST_ID + 3);
+        register(Throwable.class, new ThrowableSerializer(), FIRST_ID + 4);
+        register(JsonValue.class, new JsonValueSerializer(), FIRST_ID + 5);
+        KryoUtils.setChat(this, chat);
+    }
+
+    /**
+     * Resolves the registration of a class, for writing it or for reading a
+     * class written by name:
+     * <ul>
+     *     <li>Classes of the registration tables are written by id.</li>
+     *     <li>Subclasses of the chat, tools, toolkits, responses and
+     *         exceptions share the registration of their base class.</li>
+     *     <li>Messages and parts not in the table (e.g. those of a provider)
+     *         are written by name. No other class is ever read by name.</li>
+     *     <li>Any other class (e.g. of a tool result) is written as JSON and
+     *         read back as plain maps, lists and values.</li>
+     * </ul>
+     *
+     * @param type The class.
+     * @return The registration.
+     */
+    @Override
+    public Registration getRegistration(Class type) {
+        Registration registration = getClassResolver().getRegistration(type);
+        if (registration != null) {
+            return registration;
+        }
+        for (Class<?> base : COLLAPSED) {
+            if (base.isAssignableFrom(type)) {
+                return getClassResolver().getRegistration(base);
+            }
+        }
+        if (AbstractMessage.class.isAssignableFrom(type) || AbstractPart.class.isAssignableFrom(type)) {
+            return getClassResolver().register(new Registration(type, getDefaultSerializer(type), DefaultClassResolver.NAME));
+        }
+        try {
+            // Enums and arrays of registered classes
+            return super.getRegistration(type);
+        } catch (IllegalArgumentException e) {
+            return getClassResolver().getRegistration(JsonValue.class);
+        }
+    }
+
+    /**
+     * Creates a Kryo instance bound to a chat, writing and reading everything inline.
+     *
+     * @param chat The chat messages are written from and read into.
+     * @param messages The messages already read, by id, for resolving references.
+     * @return The Kryo instance. Not thread safe.
+     */
+    static SessionKryo create(Chat chat, Map<String, AbstractMessage> messages) {
+        return new SessionKryo(chat, messages, null, null);
+    }
+
+    /**
+     * Creates a Kryo instance bound to a chat, writing blob data and tool
+     * results out of line.
+     *
+     * @param chat The chat messages are written from.
+     * @param messages The messages already read, by id, for resolving references.
+     * @param writer The store of the out of line data.
+     * @return The Kryo instance. Not thread safe.
+     */
+    static SessionKryo create(Chat chat, Map<String, AbstractMessage> messages, @NonNull PayloadWriter writer) {
+        return new SessionKryo(chat, messages, writer, null);
+    }
+
+    /**
+     * Creates a Kryo instance bound to a chat, deferring the blob data and
+     * tool results written out of line until they are first accessed.
+     *
+     * @param chat The chat messages are read into.
+     * @param messages The messages already read, by id, for resolving references.
+     * @param reader The store of the out of line data. Must be thread safe,
+     *        as deferred data is read on first access, from any thread.
+     * @return The Kryo instance. Not thread safe, except for the deferred reads.
+     */
+    static SessionKryo create(Chat chat, Map<String, AbstractMessage> messages, @NonNull PayloadReader reader) {
+        return new SessionKryo(chat, messages, null, reader);
+    }
+
+    /**
+     * Writes a message unit: its messages in full and any other message by id.
+     *
+     * @param output The output.
+     * @param root The root message of the unit.
+     */
+    void writeUnit(Output output, AbstractMessage root) {
+        Set<AbstractMessage> written = Collections.newSetFromMap(new IdentityHashMap<>());
+        written.addAll(SessionJournal.messages(root));
+        unit = written;
+        try {
+            writeClassAndObject(output, root);
+        } finally {
+            unit = null;
+        }
+    }
+
+    /**
+     * Writes a message unit into a new array.
+     *
+     * @param root The root message of the unit.
+     * @return The serialized unit.
+     */
+    byte[] writeUnit(AbstractMessage root) {
+        Output output = new Output(4096, -1);
+        writeUnit(output, root);
+        return output.toBytes();
+    }
+
+    /**
+     * Serializes a tool result written out of line.
+     *
+     * @param result The result.
+     * @return The serialized result.
+     */
+    private byte[] serializeResult(Object result) {
+        Output output = new Output(1024, -1);
+        results.writeClassAndObject(output, result);
+        return output.toBytes();
+    }
+
+    /**
+     * Deserializes a tool result written out of line, from any thread.
+     *
+     * @param bytes The serialized result.
+     * @return The result.
+     */
+    private Object deserializeResult(byte[] bytes) {
+        synchronized (results) {
+            return results.readClassAndObject(new Input(bytes));
+        }
+    }
+
+    /**
+     * Gets the session Kryo instance of a serializer.
+     *
+     * @param kryo The Kryo instance passed to the serializer.
+     * @return The session Kryo instance.
+     */
+    private static SessionKryo session(Kryo kryo) {
+        return (SessionKryo) kryo;
+    }
+
+    /**
+     * Writes nothing for the chat and resolves it from the context on read.
+     */
+    private static class ChatSerializer extends Serializer<Chat> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Chat object) {
+        }
+
+        @Override
+        public Chat read(Kryo kryo, Input input, Class<? extends Chat> type) {
+            return session(kryo).chat;
+        }
+    }
+
+    /**
+     * Writes a tool by name and resolves it in the chat's tool manager on read.
+     * Tools no longer registered read as {@code null}.
+     */
+    private static class ToolSerializer extends Serializer<AbstractTool> {
+
+        @Override
+        public void write(Kryo kryo, Output output, AbstractTool tool) {
+            output.writeString(tool.getName());
+        }
+
+        @Override
+        public AbstractTool read(Kryo kryo, Input input, Class<? extends AbstractTool> type) {
+            String name = input.readString();
+            return session(kryo).chat.getToolManager().findToolByName(name).orElse(null);
+        }
+    }
+
+    /**
+     * Writes a toolkit by name and resolves it in the chat's tool manager on read.
+     */
+    private static class ToolkitSerializer extends Serializer<AbstractToolkit<?>> {
+
+        @Override
+        public void write(Kryo kryo, Output output, AbstractToolkit<?> toolkit) {
+            output.writeString(toolkit.getName());
+        }
+
+        @Override
+        public AbstractToolkit<?> read(Kryo kryo, Input input, Class<? extends AbstractToolkit<?>> type) {
+            String name = input.readString();
+            Chat chat = session(kryo).chat;
+            for (AbstractToolkit<?> toolkit : chat.getToolManager().getEnabledToolkits()) {
+                if (toolkit.getName().equals(name)) {
+                    return toolkit;
+                }
+            }
+            for (AbstractToolkit<?> toolkit : chat.getToolManager().getDisabledToolkits()) {
+                if (toolkit.getName().equals(name)) {
+                    return toolkit;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes nothing and reads {@code null}, for runtime-only objects.
+     */
+    private static class NullSerializer extends Serializer<Object> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Object object) {
+        }
+
+        @Override
+        public Object read(Kryo kryo, Input input, Class<? extends Object> type) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes an exception as its class name and message, which is all the UI
+     * and the model are shown, and reads it back as a {@link RuntimeException}.
+     */
+    private static class ThrowableSerializer extends Serializer<Throwable> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Throwable throwable) {
+            output.writeString(throwable.getClass().getName());
+            output.writeString(throwable.getMessage());
+        }
+
+        @Override
+        public Throwable read(Kryo kryo, Input input, Class<? extends Throwable> type) {
+            String className = input.readString();
+            String message = input.readString();
+            return new RuntimeException(message != null ? className + ": " + message : className);
+        }
+    }
+
+    /**
+     * The marker class of the values written as JSON.
+     */
+    private static final class JsonValue {
+    }
+
+    /**
+     * Forgets the classes written by name at the end of every object graph, as
+     * Kryo only does when registration is not required. Each unit then names
+     * its classes itself, so it can be read on its own and in any order, and
+     * a unit whose write failed half way does not leave later units referring
+     * to a name that was never written.
+     */
+    private static class UnitClassResolver extends DefaultClassResolver {
+
+        @Override
+        public void reset() {
+            super.reset();
+            if (classToNameId != null) {
+                classToNameId.clear(2048);
+            }
+            if (nameIdToClass != null) {
+                nameIdToClass.clear();
+            }
+            nextNameId = 0;
+        }
+    }
+
+    /**
+     * Writes a value of an unregistered class as JSON, falling back to its
+     * string form, and reads it back as plain maps, lists and values, so no
+     * class named by a session file is ever instantiated.
+     */
+    private static class JsonValueSerializer extends Serializer<Object> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Object value) {
+            String json;
+            try {
+                json = SchemaProvider.OBJECT_MAPPER.writeValueAsString(value);
+            } catch (JsonProcessingException | RuntimeException e) {
+                log.debug("Writing a {} as its string form", value.getClass().getName(), e);
+                json = SchemaProvider.OBJECT_MAPPER.getNodeFactory().textNode(String.valueOf(value)).toString();
+            }
+            output.writeString(json);
+        }
+
+        @Override
+        public Object read(Kryo kryo, Input input, Class<? extends Object> type) {
+            String json = input.readString();
+            try {
+                return SchemaProvider.OBJECT_MAPPER.readValue(json, Object.class);
+            } catch (JsonProcessingException e) {
+                throw new KryoException("Unreadable JSON value", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the messages of the unit in full and any other message by id.
+     */
+    private static class UnitSerializer extends Serializer<AbstractMessage> {
+
+        /** The serializer of the messages written in full. */
+        private final MessageSerializer<AbstractMessage> fields;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param fields The serializer of the messages written in full.
+         */
+        UnitSerializer(MessageSerializer<AbstractMessage> fields) {
+            this.fields = fields;
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, AbstractMessage message) {
+            Set<AbstractMessage> unit = session(kryo).unit;
+            if (unit == null || unit.contains(message)) {
+                output.writeBoolean(true);
+                fields.write(kryo, output, message);
+            } else {
+                output.writeBoolean(false);
+                output.writeString(message.getId());
+            }
+        }
+
+        @Override
+        public AbstractMessage read(Kryo kryo, Input input, Class<? extends AbstractMessage> type) {
+            if (input.readBoolean()) {
+                return fields.read(kryo, input, type);
+            }
+            return session(kryo).messages.get(input.readString());
+        }
+    }
+
+    /**
+     * The store the data written out of line is written to, e.g. the file
+     * being written.
+     */
+    interface PayloadWriter {
+
+        /**
+         * Writes data out of line.
+         *
+         * @param bytes The data.
+         * @return The offset of the data in the store.
+         */
+        long write(byte[] bytes);
+    }
+
+    /**
+     * The store the data written out of line is read from, e.g. the file
+     * being read.
+     */
+    interface PayloadReader {
+
+        /**
+         * Reads data written out of line.
+         *
+         * @param offset The offset of the data in the store, as returned by
+         *        {@link #locate(long)}.
+         * @param length The length of the data.
+         * @return The data.
+         */
+        byte[] read(long offset, int length);
+
+        /**
+         * Resolves an offset written with the record being read into an
+         * offset in the store, for stores whose writers return offsets
+         * relative to the record (e.g. to the block of a unit in an
+         * archive). Called while the record is read, not when the data is.
+         *
+         * @param offset The written offset.
+         * @return The offset in the store.
+         */
+        default long locate(long offset) {
+            return offset;
+        }
+    }
+
+    /**
+     * Writes the data of a blob part out of line and defers it on read.
+     */
+    private static class DeferredBlobSerializer extends PartSerializer<BlobPart> {
+
+        /** The store the data is written to, or {@code null} if the instance reads only. */
+        private final PayloadWriter writer;
+
+        /** The store the data is read from, or {@code null} if the instance writes only. */
+        private final PayloadReader reader;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param kryo The Kryo instance.
+         * @param type The blob part class.
+         * @param writer The store the data is written to, or {@code null}.
+         * @param reader The store the data is read from, or {@code null}.
+         */
+        DeferredBlobSerializer(Kryo kryo, Class<BlobPart> type, PayloadWriter writer, PayloadReader reader) {
+            super(kryo, type);
+            this.writer = writer;
+            this.reader = reader;
+            removeField("data");
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, BlobPart part) {
+            if (writer == null) {
+                throw new KryoException("This Kryo instance reads only");
+            }
+            super.write(kryo, output, part);
+            byte[] data = part.getData();
+            output.writeVarLong(writer.write(data), true);
+            output.writeVarInt(data.length, true);
+        }
+
+        @Override
+        public BlobPart read(Kryo kryo, Input input, Class<? extends BlobPart> type) {
+            if (reader == null) {
+                throw new KryoException("This Kryo instance writes only");
+            }
+            BlobPart part = super.read(kryo, input, type);
+            long offset = reader.locate(input.readVarLong(true));
+            int length = input.readVarInt(true);
+            part.defer(length, () -> reader.read(offset, length));
+            return part;
+        }
+    }
+
+    /**
+     * Writes the result of a tool response out of line and defers it on read.
+     */
+    private static class DeferredResultSerializer extends PartSerializer<AbstractToolResponse<?>> {
+
+        /** The store the results are written to, or {@code null} if the instance reads only. */
+        private final PayloadWriter writer;
+
+        /** The store the results are read from, or {@code null} if the instance writes only. */
+        private final PayloadReader reader;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param kryo The Kryo instance.
+         * @param type The response class.
+         * @param writer The store the results are written to, or {@code null}.
+         * @param reader The store the results are read from, or {@code null}.
+         */
+        DeferredResultSerializer(Kryo kryo, Class<AbstractToolResponse<?>> type, PayloadWriter writer, PayloadReader reader) {
+            super(kryo, type);
+            this.writer = writer;
+            this.reader = reader;
+            removeField("result");
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, AbstractToolResponse<?> response) {
+            if (writer == null) {
+                throw new KryoException("This Kryo instance reads only");
+            }
+            super.write(kryo, output, response);
+            Object result = response.getResult();
+            output.writeBoolean(result != null);
+            if (result != null) {
+                byte[] bytes = session(kryo).serializeResult(result);
+                output.writeVarLong(writer.write(bytes), true);
+                output.writeVarInt(bytes.length, true);
+            }
+        }
+
+        @Override
+        public AbstractToolResponse<?> read(Kryo kryo, Input input, Class<? extends AbstractToolResponse<?>> type) {
+            if (reader == null) {
+                throw new KryoException("This Kryo instance writes only");
+            }
+            AbstractToolResponse<?> response = super.read(kryo, input, type);
+            if (input.readBoolean()) {
+                long offset = reader.locate(input.readVarLong(true));
+                int length = input.readVarInt(true);
+                SessionKryo session = session(kryo);
+                response.deferResult(() -> session.deserializeResult(reader.read(offset, length)));
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,866 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.session;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+
+/**
+ * A directory of saved sessions with a small embedded index, so that thousands
+ * of sessions can be listed and searched without opening any of them.
+ * <p>
+ * Each session is saved by a {@link SessionJournal} in a subdirectory named
+ * after its id, so saving costs O(delta) and a session is loaded lazily,
+ * latest messages first. The
+ * index is an append-only file of framed records, one per save or delete,
+ * holding the metadata shown in session lists: name, summary, model, message
+ * count, token totals and the time of the save. It is read once, into memory,
+ * when the repository is opened; a torn record at its end (e.g. after a crash)
+ * is truncated. When most records are superseded, the index is rewritten with
+ * the live entries only and atomically replaces the old one:
+ * <pre>
+ * [magic, version]
+ * [length, CRC, type, payload] ...
+ * </pre>
+ * Sessions can be saved explicitly with {@link #save(Chat)} or in the
+ * background with {@link #autoSave(Chat)}. Either enables the journal of the
+ * chat in its directory, which writes its changes from then on; auto-saving
+ * also records the chat in the index shortly after its history, nickname or
+ * summary changes or a turn completes. All the changes made while an index
+ * update is pending are coalesced into that update.
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public class SessionRepository implements Closeable {
+
+    /** The name of the subdirectory of the application directory holding the sessions. */
+    public static final String DIRECTORY = "sessions";
+
+    /** The name of the index file. */
+    public static final String INDEX_FILE = "sessions.idx";
+
+    /** The magic number of index files. */
+    private static final int MAGIC = 0x414E5349;
+
+    /** The version of the index format. */
+    private static final int VERSION = 1;
+
+    /** The size of the index file header: magic and version. */
+    private static final int HEADER_SIZE = 8;
+
+    /** The size of the frame of a record: length and CRC. */
+    private static final int FRAME_SIZE = 8;
+
+    /** Record type of a saved session. */
+    private static final byte PUT = 1;
+
+    /** Record type of a deleted session. */
+    private static final byte REMOVE = 2;
+
+    /** The number of superseded records tolerated before the index is compacted. */
+    private static final int COMPACTION_SLACK = 256;
+
+    /** The delay between a change to an auto-saved chat and the update of its index entry. */
+    private static final long AUTO_SAVE_DELAY_MILLIS = 2000;
+
+    /** The shared scheduler of the auto-saves of all repositories. */
+    private static final ScheduledExecutorService SAVER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-repository");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The directory of the sessions and the index. */
+    @Getter
+    private final Path directory;
+
+    /** The index file channel, positioned at its end; replaced when the index is compacted. */
+    private FileChannel channel;
+
+    /** The live entries, by session id. */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /** The auto-saved chats. */
+    private final Map<Chat, AutoSave> autoSaves = new IdentityHashMap<>();
+
+    /** The number of records in the index file. */
+    private int records;
+
+    /** Whether the repository is closed. */
+    private boolean closed;
+
+    /**
+     * Creates a new instance over an open index.
+     *
+     * @param directory The repository directory.
+     * @param channel The index channel.
+     */
+    private SessionRepository(Path directory, FileChannel channel) {
+        this.directory = directory;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the repository of an application, in the {@value #DIRECTORY}
+     * subdirectory of its application directory.
+     *
+     * @param asiConfig The application config.
+     * @return The open repository.
+     * @throws IOException if the index cannot be read or written.
+     */
+    public static SessionRepository open(@NonNull AsiConfig asiConfig) throws IOException {
+        return open(asiConfig.getAppDirSubDir(DIRECTORY));
+    }
+
+    /**
+     * Opens the repository in a directory, reading its index.
+     *
+     * @param directory The repository directory, created if missing.
+     * @return The open repository.
+     * @throws IOException if the index cannot be read or written.
+     */
+    public static SessionRepository open(@NonNull Path directory) throws IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        Path file = directory.resolve(INDEX_FILE);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            SessionRepository repository = new SessionRepository(directory, channel);
+            if (channel.size() == 0) {
+                channel.write(header(), 0);
+                channel.force(true);
+            } else {
+                long end = repository.replay();
+                if (end < channel.size()) {
+                    log.warn("Truncating {} bytes of incomplete records at the end of {}", channel.size() - end, file);
+                    channel.truncate(end);
+                }
+            }
+            channel.position(channel.size());
+            log.info("Opened session repository {} ({} sessions) in {} ms", directory, repository.entries.size(), System.currentTimeMillis() - start);
+            return repository;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Lists the saved sessions, most recently saved first.
+     *
+     * @return The entries.
+     */
+    public synchronized List<Entry> list() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        list.sort(Comparator.comparingLong(Entry::getLastModified).reversed());
+        return list;
+    }
+
+    /**
+     * Searches the saved sessions, most recently saved first. A session matches
+     * if its id, name, summary or model contains every whitespace separated
+     * term of the query, ignoring case.
+     *
+     * @param query The query; all sessions are returned if it is blank.
+     * @return The matching entries.
+     */
+    public List<Entry> search(@NonNull String query) {
+        String[] terms = query.toLowerCase(Locale.ROOT).trim().split("\\s+");
+        List<Entry> list = list();
+        if (terms[0].isEmpty()) {
+            return list;
+        }
+        list.removeIf(entry -> !entry.matches(terms));
+        return list;
+    }
+
+    /**
+     * Gets the entry of a saved session.
+     *
+     * @param sessionId The session id.
+     * @return The entry, if the session is saved.
+     */
+    public synchronized Optional<Entry> get(@NonNull String sessionId) {
+        return Optional.ofNullable(entries.get(sessionId));
+    }
+
+    /**
+     * Gets the journal directory of a session, whether saved or not.
+     *
+     * @param sessionId The session id.
+     * @return The directory.
+     */
+    public Path getSessionDirectory(@NonNull String sessionId) {
+        return directory.resolve(sessionId);
+    }
+
+    /**
+     * Saves a chat and records it in the index, waiting for its running turn
+     * (if any) to end. The journal of the chat is enabled in its session
+     * directory if it is not yet, so its changes are saved continuously from
+     * then on. Chats without any message are not saved.
+     *
+     * @param chat The chat.
+     * @return The new entry, empty if the chat has no messages.
+     * @throws IOException if the journal or the index cannot be written, or
+     *         the chat is journaled outside this repository.
+     */
+    public Optional<Entry> save(@NonNull Chat chat) throws IOException {
+        if (chat.getContextManager().getHistory().isEmpty() && chat.getContextManager().getDeferredCount() == 0) {
+            return Optional.empty();
+        }
+        SessionJournal journal = journal(chat);
+        journal.flush();
+        return Optional.of(index(chat, journal));
+    }
+
+    /**
+     * Loads a saved session into a new chat, latest messages first, with the
+     * given config, e.g. one of the host application carrying its providers.
+     * The journal of the new chat is enabled in the session directory.
+     *
+     * @param config The config of the new chat, with the id of the saved session.
+     * @return The new chat.
+     * @throws IOException if the session is not saved or cannot be read.
+     */
+    public Chat load(@NonNull ChatConfig config) throws IOException {
+        Path sessionDirectory = getSessionDirectory(config.getSessionId());
+        if (!Files.isDirectory(sessionDirectory)) {
+            throw new IOException("No saved session " + config.getSessionId() + " in " + directory);
+        }
+        Chat chat = new Chat(config);
+        try {
+            chat.enableJournal(sessionDirectory);
+        } catch (IOException | RuntimeException e) {
+            chat.shutdown();
+            throw e;
+        }
+        return chat;
+    }
+
+    /**
+     * Gets the journal of a chat, enabling it in its session directory if
+     * the chat is not journaled yet.
+     *
+     * @param chat The chat.
+     * @return The journal.
+     * @throws IOException if the journal cannot be opened, or the chat is
+     *         journaled outside this repository.
+     */
+    private SessionJournal journal(Chat chat) throws IOException {
+        Path sessionDirectory = getSessionDirectory(chat.getConfig().getSessionId());
+        // The lock of enableJournal
+        synchronized (chat) {
+            SessionJournal journal = chat.getJournal();
+            if (journal == null) {
+                return chat.enableJournal(sessionDirectory);
+            }
+            if (!journal.getDirectory().equals(sessionDirectory)) {
+                throw new IOException("Session " + chat.getConfig().getSessionId() + " is journaled to " + journal.getDirectory() + ", not to " + directory);
+            }
+            return journal;
+        }
+    }
+
+    /**
+     * Records a chat in the index, with the counts of its journal.
+     *
+     * @param chat The chat.
+     * @param journal The journal of the chat.
+     * @return The new entry.
+     * @throws IOException if the index cannot be written.
+     */
+    private Entry index(Chat chat, SessionJournal journal) throws IOException {
+        ChatConfig config = chat.getConfig();
+        Entry entry = new Entry(
+                config.getSessionId(),
+                config.getName(),
+                chat.getSummary(),
+                chat.getSelectedModel() != null ? chat.getSelectedModel().getModelId() : null,
+                journal.getMessageCount(),
+                journal.getTokenCount(),
+                chat.getLastTotalTokenCount(),
+                System.currentTimeMillis());
+        synchronized (this) {
+            append(PUT, entry.write());
+            entries.put(entry.getSessionId(), entry);
+        }
+        log.debug("Saved session {} ({} messages)", entry.getSessionId(), entry.getMessageCount());
+        return entry;
+    }
+
+    /**
+     * Deletes a saved session, stopping its auto-save and journal, if any.
+     * Files that cannot be deleted yet (e.g. on Windows, a snapshot an open
+     * chat still has mapped) are left behind.
+     *
+     * @param sessionId The session id.
+     * @return {@code true} if the session was saved.
+     * @throws IOException if the index cannot be written.
+     */
+    public boolean delete(@NonNull String sessionId) throws IOException {
+        List<AutoSave> stopped = new ArrayList<>();
+        synchronized (this) {
+            autoSaves.values().removeIf(autoSave -> {
+                if (autoSave.chat.getConfig().getSessionId().equals(sessionId)) {
+                    stopped.add(autoSave);
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (AutoSave autoSave : stopped) {
+            autoSave.detach();
+            autoSave.chat.disableJournal();
+        }
+        Path sessionDirectory = getSessionDirectory(sessionId);
+        if (Files.isDirectory(sessionDirectory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(sessionDirectory)) {
+                for (Path file : files) {
+                    deleteQuietly(file);
+                }
+            }
+            deleteQuietly(sessionDirectory);
+        }
+        synchronized (this) {
+            if (!entries.containsKey(sessionId)) {
+                return false;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                writeString(out, sessionId);
+            }
+            append(REMOVE, bytes.toByteArray());
+            entries.remove(sessionId);
+            return true;
+        }
+    }
+
+    /**
+     * Saves a chat in the background from now on: its journal writes its
+     * changes and its index entry is updated shortly after each change. Does
+     * nothing if the chat is already auto-saved.
+     *
+     * @param chat The chat.
+     */
+    public synchronized void autoSave(@NonNull Chat chat) {
+        if (closed || autoSaves.containsKey(chat)) {
+            return;
+        }
+        AutoSave autoSave = new AutoSave(chat);
+        autoSaves.put(chat, autoSave);
+        autoSave.attach();
+    }
+
+    /**
+     * Stops updating the index entry of a chat, updating it first if changes
+     * are pending. The journal of the chat keeps writing its changes until
+     * the chat is shut down.
+     *
+     * @param chat The chat.
+     */
+    public void stopAutoSave(@NonNull Chat chat) {
+        AutoSave autoSave;
+        synchronized (this) {
+            autoSave = autoSaves.remove(chat);
+        }
+        if (autoSave != null) {
+            autoSave.detach();
+            autoSave.saveIfPending();
+        }
+    }
+
+    /**
+     * Stops all auto-saves, saving their pending changes, and closes the index.
+     *
+     * @throws IOException if the index cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        List<AutoSave> pending;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = new ArrayList<>(autoSaves.values());
+            autoSaves.clear();
+        }
+        for (AutoSave autoSave : pending) {
+            autoSave.detach();
+            autoSave.saveIfPending();
+        }
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Deletes a file or an empty directory, logging failures.
+     *
+     * @param file The file.
+     */
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete {}", file, e);
+        }
+    }
+
+    /**
+     * Reads the index file into the entries.
+     *
+     * @return The end of the last complete record.
+     * @throws IOException if the file cannot be read or is not an index.
+     */
+    private long replay() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // Read the whole file: the index is small
+        }
+        buffer.flip();
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a session index: " + directory.resolve(INDEX_FILE));
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported session index version " + version + ": " + directory.resolve(INDEX_FILE));
+        }
+        long end = buffer.position();
+        while (buffer.remaining() >= FRAME_SIZE) {
+            int length = buffer.getInt();
+            int crc = buffer.getInt();
+            if (length < 1 || length > buffer.remaining()) {
+                break;
+            }
+            ByteBuffer record = buffer.slice(buffer.position(), length);
+            if (checksum(record) != crc) {
+                break;
+            }
+            try {
+                byte type = record.get();
+                if (type == PUT) {
+                    Entry entry = Entry.read(record);
+                    entries.put(entry.getSessionId(), entry);
+                } else if (type == REMOVE) {
+                    entries.remove(readString(record));
+                }
+            } catch (BufferUnderflowException e) {
+                break;
+            }
+            buffer.position(buffer.position() + length);
+            end = buffer.position();
+            records++;
+        }
+        return end;
+    }
+
+    /**
+     * Appends a record to the index, compacting it first when most of its
+     * records are superseded. Must be called holding the lock of this
+     * repository.
+     *
+     * @param type The record type.
+     * @param payload The record payload.
+     * @throws IOException if the index cannot be written.
+     */
+    private void append(byte type, byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("The session repository " + directory + " is closed");
+        }
+        if (records > 2 * entries.size() + COMPACTION_SLACK) {
+            compact();
+        }
+        channel.write(frame(type, payload));
+        channel.force(false);
+        records++;
+    }
+
+    /**
+     * Rewrites the index with the live entries only, replacing the index file
+     * atomically. Must be called holding the lock of this repository.
+     *
+     * @throws IOException if the index cannot be written.
+     */
+    private void compact() throws IOException {
+        Path file = directory.resolve(INDEX_FILE);
+        Path tmp = directory.resolve(INDEX_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(header());
+            for (Entry entry : entries.values()) {
+                out.write(frame(PUT, entry.write()));
+            }
+            out.force(true);
+        }
+        log.info("Compacted session index {} from {} to {} records", file, records, entries.size());
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        records = entries.size();
+    }
+
+    /**
+     * Creates the header of an index file.
+     *
+     * @return The header.
+     */
+    private static ByteBuffer header() {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+    }
+
+    /**
+     * Frames a record: length, CRC, type and payload.
+     *
+     * @param type The record type.
+     * @param payload The record payload.
+     * @return The framed record.
+     */
+    private static ByteBuffer frame(byte type, byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(1 + payload.length).put(type).put(payload).flip();
+        return ByteBuffer.allocate(FRAME_SIZE + record.remaining())
+                .putInt(record.remaining())
+                .putInt(checksum(record))
+                .put(record)
+                .flip();
+    }
+
+    /**
+     * Computes the CRC-32 of the remaining bytes of a buffer, without moving
+     * its position.
+     *
+     * @param buffer The buffer.
+     * @return The CRC.
+     */
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes a nullable string as its UTF-8 length (-1 for {@code null}) and bytes.
+     *
+     * @param out The output.
+     * @param value The string.
+     * @throws IOException if the output cannot be written.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param buffer The buffer.
+     * @return The string, possibly {@code null}.
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The indexed metadata of a saved session.
+     */
+    @Getter
+    public static class Entry {
+
+        /** The session id. */
+        private final String sessionId;
+
+        /** The session name, if any. */
+        private final String name;
+
+        /** The summary of the conversation, if any. */
+        private final String summary;
+
+        /** The id of the selected model, if any. */
+        private final String modelId;
+
+        /** The number of messages in the history. */
+        private final int messageCount;
+
+        /** The token count of the history: billed counts of model messages, local estimates of the rest. */
+        private final int estimatedTokens;
+
+        /** The total token count billed for the last request. */
+        private final int totalTokens;
+
+        /** The time of the save, in milliseconds since the epoch. */
+        private final long lastModified;
+
+        /** The lower-case text the entry is searched by. */
+        @Getter(AccessLevel.NONE)
+        private final String searchText;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param sessionId The session id.
+         * @param name The session name, if any.
+         * @param summary The summary, if any.
+         * @param modelId The model id, if any.
+         * @param messageCount The number of messages.
+         * @param estimatedTokens The token count of the history.
+         * @param totalTokens The total token count of the last request.
+         * @param lastModified The time of the save.
+         */
+        public Entry(@NonNull String sessionId, String name, String summary, String modelId,
+                int messageCount, int estimatedTokens, int totalTokens, long lastModified) {
+            this.sessionId = sessionId;
+            this.name = name;
+            this.summary = summary;
+            this.modelId = modelId;
+            this.messageCount = messageCount;
+            this.estimatedTokens = estimatedTokens;
+            this.totalTokens = totalTokens;
+            this.lastModified = lastModified;
+            StringBuilder text = new StringBuilder(sessionId);
+            for (String field : new String[]{name, summary, modelId}) {
+                if (field != null) {
+                    text.append('\n').append(field);
+                }
+            }
+            this.searchText = text.toString().toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * Gets the name to show for the session: its name or, if it has none,
+         * the end of its id, as {@link Chat#getShortId()}.
+         *
+         * @return The display name.
+         */
+        public String getDisplayName() {
+            if (name != null) {
+                return name;
+            }
+            return sessionId.length() > 7 ? sessionId.substring(sessionId.length() - 7) : sessionId;
+        }
+
+        /**
+         * Whether the entry contains all the given lower-case terms.
+         *
+         * @param terms The terms.
+         * @return {@code true} if every term is found.
+         */
+        boolean matches(String[] terms) {
+            for (String term : terms) {
+                if (!searchText.contains(term)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Writes the payload of the index record of this entry.
+         *
+         * @return The payload.
+         */
+        private byte[] write() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                writeString(out, sessionId);
+                writeString(out, name);
+                writeString(out, summary);
+                writeString(out, modelId);
+                out.writeInt(messageCount);
+                out.writeInt(estimatedTokens);
+                out.writeInt(totalTokens);
+                out.writeLong(lastModified);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Reads an entry from the payload of its index record.
+         *
+         * @param buffer The payload, after the record type.
+         * @return The entry.
+         */
+        private static Entry read(ByteBuffer buffer) {
+            return new Entry(readString(buffer), readString(buffer), readString(buffer), readString(buffer),
+                    buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+        }
+    }
+
+    /**
+     * The background saving of a chat. Changes schedule an update of its
+     * index entry unless one is already scheduled, so bursts of changes (e.g.
+     * a streamed response and its tool calls) result in a single update. The
+     * update flushes the journal first, unless a turn is running, in which
+     * case it is postponed.
+     */
+    private class AutoSave {
+
+        /** The chat. */
+        private final Chat chat;
+
+        /** The listener of the history and of the chat. */
+        private final PropertyChangeListener listener = this::onChange;
+
+        /** The scheduled update, if any. */
+        private ScheduledFuture<?> scheduled;
+
+        /** Whether the chat changed since its entry was last updated. */
+        private boolean pending;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param chat The chat.
+         */
+        AutoSave(Chat chat) {
+            this.chat = chat;
+        }
+
+        /**
+         * Starts listening to the chat.
+         */
+        void attach() {
+            chat.getContextManager().addPropertyChangeListener(listener);
+            chat.addPropertyChangeListener(listener);
+        }
+
+        /**
+         * Stops listening to the chat and cancels the scheduled update, if any.
+         */
+        synchronized void detach() {
+            chat.getContextManager().removePropertyChangeListener(listener);
+            chat.removePropertyChangeListener(listener);
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+        }
+
+        /**
+         * Schedules an update on changes to the history, nickname or summary
+         * and at the end of each turn.
+         *
+         * @param evt The event.
+         */
+        private void onChange(PropertyChangeEvent evt) {
+            switch (evt.getPropertyName()) {
+                case "history", "nickname", "summary" -> schedule();
+                case "running" -> {
+                    if (Boolean.FALSE.equals(evt.getNewValue())) {
+                        schedule();
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        /**
+         * Marks the chat as changed and schedules an update, unless one is
+         * already scheduled.
+         */
+        private synchronized void schedule() {
+            pending = true;
+            if (scheduled == null) {
+                scheduled = SAVER.schedule(this::saveQuietly, AUTO_SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Updates the entry of the chat if it changed since it was last
+         * updated, without waiting for a running turn.
+         */
+        void saveIfPending() {
+            synchronized (this) {
+                if (!pending) {
+                    return;
+                }
+            }
+            saveQuietly();
+        }
+
+        /**
+         * Flushes the journal of the chat and updates its entry from the
+         * scheduler, logging failures. While a turn is running, the journal
+         * is not flushed and the update is postponed; changes made while
+         * updating schedule another update.
+         */
+        private void saveQuietly() {
+            synchronized (this) {
+                scheduled = null;
+                pending = false;
+            }
+            try {
+                if (!chat.getContextManager().getHistory().isEmpty() || chat.getContextManager().getDeferredCount() > 0) {
+                    SessionJournal journal = journal(chat);
+                    if (!journal.tryFlush() && !chat.isShutdown()) {
+                        schedule();
+                    }
+                    index(chat, journal);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to auto-save session {} to {}", chat.getConfig().getSessionId(), directory, e);
+            }
+            if (chat.isShutdown()) {
+                // Nothing changes after a shutdown: this was the last save
+                synchronized (SessionRepository.this) {
+                    autoSaves.remove(chat);
+                }
+                detach();
+                try {
+                    // Closes a journal enabled by this save
+                    chat.disableJournal();
+                } catch (IOException e) {
+                    log.error("Failed to close the journal of session {}", chat.getConfig().getSessionId(), e);
+                }
+            }
+        }
+    }
+}
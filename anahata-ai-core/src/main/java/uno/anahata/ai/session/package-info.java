@@ -0,0 +1,12 @@
+/*
+ * Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça!
+ */
+/**
+ * Provides the persistence of chat sessions: an append-only journal of history
+ * changes, compacted into snapshots, indexed session archives that are
+ * loaded lazily, latest messages first, and a repository of saved sessions
+ * that are listed and searched from a small embedded index and auto-saved
+ * in the background. Sessions can also be streamed to and from JSON Lines
+ * for moving them between nodes and analyzing them offline.
+ */
+package uno.anahata.ai.session;
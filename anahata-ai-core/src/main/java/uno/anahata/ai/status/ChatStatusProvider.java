@@ -42,6 +42,16 @@ public class ChatStatusProvider extends AbstractContextProvider {
         return Collections.singletonList(sb.toString());
     }
 
+    /**
+     * The status changes on every request.
+     *
+     * @return Always {@code true}.
+     */
+    @Override
+    public boolean isVolatile() {
+        return true;
+    }
+
     @Override
     public void populateMessage(RagMessage ragMessage) throws Exception {
         // No prompt augmentation needed for chat status at this time.
@@ -156,7 +156,13 @@ public class ToolManager {
         return call;
     }
 
-    private Optional<? extends AbstractTool> findToolByName(String name) {
+    /**
+     * Finds a tool by its name among all the registered toolkits.
+     *
+     * @param name The tool name.
+     * @return The tool, or empty if no toolkit declares it.
+     */
+    public Optional<? extends AbstractTool> findToolByName(String name) {
         return getAllTools().stream()
                 .filter(t -> t.getName().equals(name))
                 .findFirst();
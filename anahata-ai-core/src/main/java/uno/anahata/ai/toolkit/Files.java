@@ -1,6 +1,7 @@
 package uno.anahata.ai.toolkit;
 
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -8,7 +9,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import uno.anahata.ai.model.resource.AbstractPathResource;
 import uno.anahata.ai.model.resource.AbstractResource;
+import uno.anahata.ai.model.resource.DirectoryResource;
+import uno.anahata.ai.model.resource.DocumentResource;
+import uno.anahata.ai.model.resource.GrepResult;
+import uno.anahata.ai.model.resource.LineIndex;
+import uno.anahata.ai.model.resource.MappedTextFile;
 import uno.anahata.ai.model.resource.TextFileResource;
+import uno.anahata.ai.model.resource.TextGrep;
 import uno.anahata.ai.model.resource.TextViewport;
 import uno.anahata.ai.tool.AiTool;
 import uno.anahata.ai.tool.AiToolException;
@@ -25,13 +32,52 @@ import uno.anahata.ai.tool.AiToolParam;
 @Slf4j
 public class Files extends AnahataToolkit {
 
-    @AiTool(value = "Updates the viewport of a TextFileResource ", retention = 0)
+    @AiTool(value = "Updates the viewport of a TextFileResource or DocumentResource", retention = 0)
     public void updateTextFileViewport(
             @AiToolParam("The absolute paths to the text files.") String resourceId, 
             @AiToolParam("The new view port for the text file") TextViewport newViewPort) throws Exception {
-        TextFileResource tfr = getResourceManager().getResource(resourceId);
-        tfr.setViewport(newViewPort);
-        tfr.reload();
+        AbstractResource<?> resource = getResourceManager().getResource(resourceId);
+        if (resource instanceof TextFileResource tfr) {
+            tfr.setViewport(newViewPort);
+            tfr.reload();
+        } else if (resource instanceof DocumentResource dr) {
+            dr.setViewport(newViewPort);
+            dr.reload();
+        } else {
+            throw new AiToolException("Resource " + resourceId + " does not have a text viewport");
+        }
+        resource.touch();
+    }
+
+    /**
+     * Searches a text file for a regular expression without loading it into the
+     * context. The file is memory-mapped and matched in parallel, so it is
+     * suitable for very large files such as logs.
+     *
+     * @param path The absolute path to the text file.
+     * @param regex The regular expression to search for within each line.
+     * @param contextLines The number of context lines around each match.
+     * @param maxMatches The maximum number of matches to return.
+     * @return The matches and the total number of matching lines.
+     * @throws Exception if the file does not exist or cannot be read.
+     */
+    @AiTool(value = "Searches a text file (of any size) for a regular expression, returning the matching lines with their line numbers and char offsets.", retention = 0)
+    public GrepResult grepTextFile(
+            @AiToolParam("The absolute path to the text file.") String path,
+            @AiToolParam("The regular expression to search for within each line (java.util.regex syntax).") String regex,
+            @AiToolParam(value = "The number of context lines to include before and after each match.", required = false) Integer contextLines,
+            @AiToolParam(value = "The maximum number of matches to return (defaults to 100).", required = false) Integer maxMatches) throws Exception {
+        if (!java.nio.file.Files.exists(Paths.get(path))) {
+            throw new AiToolException("File not found: " + path);
+        }
+        try (MappedTextFile file = MappedTextFile.open(Paths.get(path))) {
+            BasicFileAttributes attrs = java.nio.file.Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            GrepResult result = TextGrep.grep(file, LineIndex.loadShared(file, attrs, null), regex,
+                    contextLines != null ? contextLines : 0,
+                    maxMatches != null ? maxMatches : 100);
+            log("Found " + result.getTotalMatches() + " matching lines in " + result.getElapsedMillis() + " ms");
+            return result;
+        }
     }
 
     /**
@@ -99,6 +145,99 @@ public class Files extends AnahataToolkit {
         return resource;
     }
 
+    /**
+     * Loads binary documents (PDF, Office, etc.) into the context as managed
+     * resources. The text is extracted in the background and cached by content
+     * hash, so documents that were already extracted load instantly.
+     *
+     * @param resourcePaths The absolute paths to the documents.
+     * @return The newly created DocumentResources.
+     * @throws Exception if none of the documents could be loaded.
+     */
+    @AiTool(value = "Loads documents (e.g. PDF, Word, Excel) into the context as managed resources with their extracted text.", retention = 0)
+    public List<DocumentResource> loadDocument(
+            @AiToolParam("The absolute paths to the documents.") List<String> resourcePaths) throws Exception {
+
+        List<DocumentResource> ret = new ArrayList<>(resourcePaths.size());
+        List<String> errors = new ArrayList<>();
+        for (String path : resourcePaths) {
+            try {
+                if (findByPath(path).isPresent()) {
+                    throw new AiToolException("Resource already loaded for path: " + path);
+                }
+                if (!java.nio.file.Files.exists(Paths.get(path))) {
+                    throw new AiToolException("File not found: " + path);
+                }
+                DocumentResource resource = new DocumentResource(Paths.get(path));
+                getResourceManager().register(resource);
+                log("Loaded OK " + path + (resource.isPending() ? " (text extraction in progress)" : ""));
+                ret.add(resource);
+            } catch (Exception e) {
+                log.error("Exception loading document resource", e);
+                errors.add(e.getMessage());
+                getResponse().addError(ExceptionUtils.getStackTrace(e));
+            }
+        }
+        if (!errors.isEmpty()) {
+            super.getResponse().setError(errors.toString());
+        }
+
+        if (ret.isEmpty()) {
+            throw new AiToolException("Nothing got loaded");
+        }
+
+        return ret;
+    }
+
+    /**
+     * Loads a directory tree into the context as a managed resource: a listing
+     * of the (non git-ignored) files and directories with their sizes, bounded
+     * by a token budget. With a LIVE refresh policy only the changed
+     * directories are rescanned on each turn.
+     *
+     * @param path The absolute path to the directory.
+     * @param maxTokens The token budget of the listing.
+     * @return The newly created DirectoryResource.
+     * @throws Exception if the directory does not exist, is already loaded, or cannot be read.
+     */
+    @AiTool(value = "Loads a directory tree (honouring .gitignore files) into the context as a managed resource, "
+            + "rendered as a size-annotated listing that fits in a token budget.", retention = 0)
+    public DirectoryResource loadDirectory(
+            @AiToolParam("The absolute path to the directory.") String path,
+            @AiToolParam(value = "The maximum number of tokens of the listing (defaults to 4000).", required = false) Integer maxTokens) throws Exception {
+        if (findByPath(path).isPresent()) {
+            throw new AiToolException("Resource already loaded for path: " + path);
+        }
+        if (!java.nio.file.Files.isDirectory(Paths.get(path))) {
+            throw new AiToolException("Directory not found: " + path);
+        }
+        DirectoryResource resource = new DirectoryResource(Paths.get(path),
+                maxTokens != null ? maxTokens : DirectoryResource.DEFAULT_MAX_TOKENS);
+        getResourceManager().register(resource);
+        log("Loaded " + path + ": " + resource.getTree().getFileCount() + " files, " + resource.getTree().getDirectoryCount() + " directories");
+        return resource;
+    }
+
+    /**
+     * Changes the token budget of a directory listing.
+     *
+     * @param resourceId The id of the DirectoryResource.
+     * @param maxTokens The new token budget.
+     * @throws Exception if the resource is not a directory resource.
+     */
+    @AiTool(value = "Changes the token budget of the listing of a DirectoryResource.", retention = 0)
+    public void updateDirectoryMaxTokens(
+            @AiToolParam("The id of the directory resource.") String resourceId,
+            @AiToolParam("The new maximum number of tokens of the listing.") int maxTokens) throws Exception {
+        AbstractResource<?> resource = getResourceManager().getResource(resourceId);
+        if (!(resource instanceof DirectoryResource dr)) {
+            throw new AiToolException("Resource " + resourceId + " is not a directory");
+        }
+        dr.setMaxTokens(maxTokens);
+        dr.rerender();
+        dr.touch();
+    }
+
     /**
      * Finds a managed resource by its absolute file path. This is a private
      * helper method that encapsulates the logic specific to this toolkit.
@@ -106,11 +245,7 @@ public class Files extends AnahataToolkit {
      * @param path The path to search for.
      * @return An Optional containing the resource if found, otherwise empty.
      */
-    private Optional<AbstractPathResource> findByPath(String path) {
-        return getResourceManager().getResources().stream()
-                .filter(r -> r instanceof AbstractPathResource)
-                .map(r -> (AbstractPathResource) r)
-                .filter(r -> r.getPath().equals(path))
-                .findFirst();
+    private Optional<AbstractPathResource<?, ?>> findByPath(String path) {
+        return getResourceManager().getResourcesByPath(path).stream().findFirst();
     }
 }
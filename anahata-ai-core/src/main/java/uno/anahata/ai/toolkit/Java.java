@@ -1,39 +1,33 @@
 package uno.anahata.ai.toolkit;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
-import java.io.OutputStream;
 import java.io.StringWriter;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
 import java.net.URI;
-import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.tools.Diagnostic;
 import javax.tools.DiagnosticCollector;
-import javax.tools.FileObject;
-import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaCompiler;
-import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.SimpleJavaFileObject;
 import javax.tools.ToolProvider;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import uno.anahata.ai.chat.Chat;
 import uno.anahata.ai.internal.ClasspathPrinter;
 import uno.anahata.ai.model.core.RagMessage;
 import uno.anahata.ai.model.core.TextPart;
 import uno.anahata.ai.model.tool.java.JavaMethodTool;
-import uno.anahata.ai.model.tool.java.JavaMethodToolResponse;
 import uno.anahata.ai.tool.AiTool;
 import uno.anahata.ai.tool.AiToolException;
 import uno.anahata.ai.tool.AiToolParam;
@@ -41,6 +35,9 @@ import uno.anahata.ai.tool.AiToolkit;
 import uno.anahata.ai.tool.AnahataTool;
 import uno.anahata.ai.tool.HandyToolStuff;
 import uno.anahata.ai.tool.AnahataToolkit;
+import uno.anahata.ai.toolkit.java.CompiledClassLoader;
+import uno.anahata.ai.toolkit.java.CompiledLibrary;
+import uno.anahata.ai.toolkit.java.InMemoryFileManager;
 
 /**
  *
@@ -49,6 +46,11 @@ import uno.anahata.ai.tool.AnahataToolkit;
 @Slf4j
 @AiToolkit("Toolkit for compiling and executing java code, has a 'temp' HashMap for storing java objects across turns / tool calls and uses a child first classloader if additional classpath entries are provided")
 public class Java extends AnahataToolkit {
+
+    private static final Pattern LIBRARY_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_.-]+");
+    private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+    private static final Pattern PUBLIC_TYPE_PATTERN = Pattern.compile("\\bpublic\\s+(?:(?:abstract|final|sealed|non-sealed|strictfp|static)\\s+)*(?:class|interface|enum|record|@interface)\\s+(\\w+)");
+    private static final Pattern TYPE_PATTERN = Pattern.compile("\\b(?:class|interface|enum|record)\\s+(\\w+)");
     
 
     /**
@@ -66,6 +68,11 @@ public class Java extends AnahataToolkit {
      */
     public String defaultCompilerClasspath;
 
+    /**
+     * The in-memory libraries compiled in this session (see {@link #compileLibrary}), by library name.
+     */
+    private final Map<String, CompiledLibrary> compiledLibraries = Collections.synchronizedMap(new LinkedHashMap<>());
+
     /**
      * Taraaa
      */
@@ -103,6 +110,7 @@ public class Java extends AnahataToolkit {
     public void populateMessage(RagMessage ragMessage) throws Exception {
         String ragText = "\nSession map keys: " + sessionMap.keySet()
                 + "\nApplication map keys: " + applicationMap.keySet()
+                + "\nCompiled libraries: " + getCompiledLibraries()
                 + "\nDefault Compiler and ClassLoader Classpath (abbreviated):\n" + getPrettyPrintedDefaultClasspath();
         new TextPart(ragMessage, ragText);
     }
@@ -119,6 +127,7 @@ public class Java extends AnahataToolkit {
         appendMethods(sb, HandyToolStuff.class);
         
         sb.append("\nAbout the maps: the session map is for you only (chat scoped) and the application map to be shared all other instances of you (jvm scoped)\n");
+        sb.append("\nAbout libraries: use `compileLibrary` to compile helper classes once (many sources in one go) and pass the library names to `compileAndExecute` on later turns instead of recompiling or inlining them. Recompiling a library with the same name creates a new version.\n");
         sb.append("\nAbout the attachments: at the time of this release (only tested with gemini-3-flash) only pdf, text and image attachments are supported\n");
         
         sb.append("\n#### Example:\n");
@@ -163,49 +172,126 @@ public class Java extends AnahataToolkit {
             @AiToolParam("The class name") String className,
             @AiToolParam(value = "Additional classpath entries", required = false) String extraClassPath,
             @AiToolParam(value = "Additional compiler options", required = false) String[] compilerOptions)
-            throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            throws ClassNotFoundException {
+        return compile(sourceCode, className, extraClassPath, compilerOptions, Collections.emptyList());
+    }
 
-        if (compiler == null) {
-            throw new RuntimeException("JDK required (running on JRE).");
+    @AiTool(value = "Compiles many java source files in a single compiler task and registers the resulting classes as a named, versioned, "
+            + "in-memory library of this session. Later calls to compileLibrary or compileAndExecute can link against the library "
+            + "(by name) without recompiling it. Compiling a library with an existing name replaces it with a new version.",
+            requiresApproval = true)
+    public CompiledLibrary compileLibrary(
+            @AiToolParam("The name of the library (letters, digits, '.', '_' or '-')") String libraryName,
+            @AiToolParam(value = "The source code of each compilation unit (the class names are inferred from the package and type declarations)", rendererId = "java") List<String> sourceCodes,
+            @AiToolParam(value = "Names of previously compiled libraries this library links against", required = false) List<String> libraries,
+            @AiToolParam(value = "Additional classpath entries", required = false) String extraClassPath,
+            @AiToolParam(value = "Additional compiler options", required = false) String[] compilerOptions) throws Exception {
+
+        if (libraryName == null || !LIBRARY_NAME_PATTERN.matcher(libraryName).matches()) {
+            throw new AiToolException("Invalid library name: " + libraryName);
+        }
+        if (sourceCodes == null || sourceCodes.isEmpty()) {
+            throw new AiToolException("No sources provided for library: " + libraryName);
         }
 
-        String sourceFile = className + ".java";
-        JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///" + sourceFile), JavaFileObject.Kind.SOURCE) {
-            @Override
-            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
-                return sourceCode;
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (String sourceCode : sourceCodes) {
+            String className = inferClassName(sourceCode);
+            if (sources.put(className, sourceCode) != null) {
+                throw new AiToolException("Duplicate compilation unit for class: " + className);
             }
-        };
+        }
 
-        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<CompiledLibrary> dependencies = resolveLibraries(libraries);
+        long start = System.currentTimeMillis();
+        Map<String, byte[]> compiledClasses = compileSources(sources, extraClassPath, compilerOptions, dependencies);
+        long compileTime = System.currentTimeMillis() - start;
+
+        synchronized (compiledLibraries) {
+            CompiledLibrary previous = compiledLibraries.get(libraryName);
+            int version = previous == null ? 1 : previous.getVersion() + 1;
+            CompiledLibrary library = new CompiledLibrary(libraryName, version, compiledClasses, dependencies, extraClassPath, compileTime);
+            compiledLibraries.put(libraryName, library);
+            log.info("Registered compiled library {} in {} ms", library, compileTime);
+            return library;
+        }
+    }
 
-        ForwardingJavaFileManager<JavaFileManager> fileManager = new ForwardingJavaFileManager<JavaFileManager>(compiler.getStandardFileManager(diagnostics, null, null)) {
-            private final Map<String, ByteArrayOutputStream> compiledClasses = new HashMap<>();
-
-            @Override
-            public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
-                if (kind == JavaFileObject.Kind.CLASS) {
-                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                    compiledClasses.put(className, outputStream);
-                    return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + ".class"), JavaFileObject.Kind.CLASS) {
-                        @Override
-                        public OutputStream openOutputStream() throws IOException {
-                            return outputStream;
-                        }
-                    };
-                }
-                return super.getJavaFileForOutput(location, className, kind, sibling);
+    @AiTool(value = "Removes compiled libraries from this session.", retention = 0)
+    public void removeLibraries(
+            @AiToolParam("The names of the libraries to remove") List<String> libraryNames) {
+        for (String libraryName : libraryNames) {
+            if (compiledLibraries.remove(libraryName) != null) {
+                log("Removed library " + libraryName);
+            } else {
+                error("Library not found " + libraryName);
             }
+        }
+    }
+
+    /**
+     * Gets a snapshot of the compiled libraries of this session.
+     *
+     * @return The compiled libraries, in registration order.
+     */
+    public List<CompiledLibrary> getCompiledLibraries() {
+        synchronized (compiledLibraries) {
+            return new ArrayList<>(compiledLibraries.values());
+        }
+    }
+
+    /**
+     * Compiles a single class, linking against the given libraries, and loads it.
+     *
+     * @param sourceCode The source code.
+     * @param className The fully qualified class name.
+     * @param extraClassPath Additional class path entries (can be null).
+     * @param compilerOptions Additional compiler options (can be null).
+     * @param libraries The compiled libraries to link against.
+     * @return The loaded class.
+     * @throws ClassNotFoundException if the compiled class cannot be loaded.
+     */
+    private Class compile(String sourceCode, String className, String extraClassPath, String[] compilerOptions, List<CompiledLibrary> libraries)
+            throws ClassNotFoundException {
+        Map<String, byte[]> compiledClasses = compileSources(Collections.singletonMap(className, sourceCode), extraClassPath, compilerOptions, libraries);
+
+        URLClassLoader reloadingClassLoader = new CompiledClassLoader(compiledClasses, libraries,
+                CompiledLibrary.toUrls(extraClassPath), Thread.currentThread().getContextClassLoader());
+
+        return reloadingClassLoader.loadClass(className);
+    }
 
-            public Map<String, byte[]> getCompiledClasses() {
-                Map<String, byte[]> result = new HashMap<>();
-                for (Map.Entry<String, ByteArrayOutputStream> entry : compiledClasses.entrySet()) {
-                    result.put(entry.getKey(), entry.getValue().toByteArray());
+    /**
+     * Compiles all the given sources in a single javac task, keeping the output in memory.
+     *
+     * @param sources The source code of each compilation unit, by fully qualified class name.
+     * @param extraClassPath Additional class path entries (can be null).
+     * @param compilerOptions Additional compiler options (can be null).
+     * @param libraries The compiled libraries to link against.
+     * @return The bytecode of all compiled classes, by binary name.
+     */
+    private Map<String, byte[]> compileSources(Map<String, String> sources, String extraClassPath, String[] compilerOptions, List<CompiledLibrary> libraries) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+        if (compiler == null) {
+            throw new RuntimeException("JDK required (running on JRE).");
+        }
+
+        List<JavaFileObject> compilationUnits = new ArrayList<>();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            String sourceFile = entry.getKey().replace('.', '/') + ".java";
+            String sourceCode = entry.getValue();
+            compilationUnits.add(new SimpleJavaFileObject(URI.create("string:///" + sourceFile), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return sourceCode;
                 }
-                return result;
-            }
-        };
+            });
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+        InMemoryFileManager fileManager = new InMemoryFileManager(compiler.getStandardFileManager(diagnostics, null, null), libraries);
 
         if (extraClassPath != null) {
             log.info("extraClassPath: {} entries:\n{}", extraClassPath.split(File.pathSeparator).length, extraClassPath);
@@ -218,11 +304,20 @@ public class Java extends AnahataToolkit {
             // CRITICAL FIX: Prepend extraClassPath to ensure hot-reloaded classes take precedence
             classpath = extraClassPath + File.pathSeparator + classpath;
         }
+        for (CompiledLibrary library : libraries) {
+            // Libraries inherit the extra classpath they were compiled with
+            if (library.getExtraClassPath() != null && !library.getExtraClassPath().isEmpty()) {
+                classpath = classpath + File.pathSeparator + library.getExtraClassPath();
+            }
+        }
 
         log.info("total classpathEntries: {} entries:", classpath.split(File.pathSeparator).length);
         if (compilerOptions != null) {
             log.info("compilerOptions:", Arrays.asList(compilerOptions));
         }
+        if (!libraries.isEmpty()) {
+            log.info("Linking against libraries: {}", libraries);
+        }
 
         List<String> options = new ArrayList<>(Arrays.asList("-classpath", classpath));
 
@@ -255,9 +350,9 @@ public class Java extends AnahataToolkit {
         log.debug("Compiling with options: \n{}", options);
 
         StringWriter writer = new StringWriter();
-        JavaCompiler.CompilationTask task = compiler.getTask(writer, fileManager, diagnostics, options, null, Collections.singletonList(source));
+        JavaCompiler.CompilationTask task = compiler.getTask(writer, fileManager, diagnostics, options, null, compilationUnits);
         boolean success = task.call();
-        log.info("Compilation Success: {}", success);
+        log.info("Compilation Success: {} ({} compilation units)", success, compilationUnits.size());
 
         if (!success) {
             StringBuilder error = new StringBuilder("Compiler: " + compiler + "\n");
@@ -271,52 +366,50 @@ public class Java extends AnahataToolkit {
             throw new java.lang.RuntimeException("Compilation error:\n" + error.toString());
         }
 
-        Map<String, byte[]> compiledClasses = ((Map<String, byte[]>) fileManager.getClass().getMethod("getCompiledClasses").invoke(fileManager));
+        return fileManager.getCompiledClasses();
+    }
 
-        List<URL> urlList = new ArrayList<>();
-        if (extraClassPath != null && !extraClassPath.isEmpty()) {
-            String[] pathElements = extraClassPath.split(File.pathSeparator);
-            for (String element : pathElements) {
-                try {
-                    urlList.add(new File(element).toURI().toURL());
-                } catch (Exception e) {
-                    log.warn("Invalid classpath entry: {}", element, e);
-                }
+    /**
+     * Resolves the latest version of each of the given compiled libraries.
+     *
+     * @param libraryNames The library names (can be null).
+     * @return The libraries, in the given order.
+     * @throws AiToolException if a library is not registered in this session.
+     */
+    private List<CompiledLibrary> resolveLibraries(List<String> libraryNames) throws AiToolException {
+        if (libraryNames == null || libraryNames.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<CompiledLibrary> ret = new ArrayList<>(libraryNames.size());
+        for (String libraryName : libraryNames) {
+            CompiledLibrary library = compiledLibraries.get(libraryName);
+            if (library == null) {
+                throw new AiToolException("Library not found: " + libraryName + ". Available libraries: " + compiledLibraries.keySet());
             }
+            ret.add(library);
         }
+        return ret;
+    }
 
-        URLClassLoader reloadingClassLoader = new URLClassLoader(urlList.toArray(new URL[0]), Thread.currentThread().getContextClassLoader()) {
-            @Override
-            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-                synchronized (getClassLoadingLock(name)) {
-                    // 1. Check if class is already loaded by this loader
-                    Class<?> c = findLoadedClass(name);
-                    if (c == null) {
-                        // 2. Check for our in-memory compiled class first (the "hot-reload" part for Anahata.java)
-                        byte[] bytes = compiledClasses.get(name);
-                        if (bytes != null) {
-                            log.info("Hot-reloading in-memory class: {}", name);
-                            c = defineClass(name, bytes, 0, bytes.length);
-                        } else {
-                            try {
-                                // 3. CHILD-FIRST: Try to find the class in our own URLs (e.g., target/classes)
-                                c = findClass(name);
-                                log.info("Loaded class from extraClassPath (Child-First): {}", name);
-                            } catch (ClassNotFoundException e) {
-                                // 4. PARENT-LAST: If not found, delegate to the parent classloader.
-                                c = super.loadClass(name, resolve);
-                            }
-                        }
-                    }
-                    if (resolve) {
-                        resolveClass(c);
-                    }
-                    return c;
-                }
+    /**
+     * Infers the fully qualified name of the (preferably public) top level type
+     * declared in a compilation unit.
+     *
+     * @param sourceCode The source code.
+     * @return The fully qualified class name.
+     * @throws AiToolException if no type declaration can be found.
+     */
+    private static String inferClassName(String sourceCode) throws AiToolException {
+        Matcher typeMatcher = PUBLIC_TYPE_PATTERN.matcher(sourceCode);
+        if (!typeMatcher.find()) {
+            typeMatcher = TYPE_PATTERN.matcher(sourceCode);
+            if (!typeMatcher.find()) {
+                throw new AiToolException("Could not find a class, interface, enum or record declaration in:\n" + StringUtils.abbreviate(sourceCode, 200));
             }
-        };
-
-        return reloadingClassLoader.loadClass(className);
+        }
+        Matcher packageMatcher = PACKAGE_PATTERN.matcher(sourceCode);
+        String packageName = packageMatcher.find() ? packageMatcher.group(1) + "." : "";
+        return packageName + typeMatcher.group(1);
     }
 
     @AiTool(
@@ -324,18 +417,20 @@ public class Java extends AnahataToolkit {
             + "The class should:\n"
                     + "- have no package declaration, \n"
                     + "- extend uno.anahata.ai.tool.AnahataTool and \n"
-                    + "- implement the call method of java.util.concurrent.Callable<Object>.\n",
+                    + "- implement the call method of java.util.concurrent.Callable<Object>.\n"
+                    + "It can link against libraries previously compiled with compileLibrary.\n",
             requiresApproval = true
     )
     public Object compileAndExecute(
             @AiToolParam(value = "Source code of a public class called 'Anahata' that extends AnahataTool, implement Callable and has no package declaration.", rendererId = "java") String sourceCode,
             @AiToolParam(value = "Compiler's additional classpath entries separated with File.pathSeparator. These will be first in the final compiler's and ClassLoader's classpath", required = false) String extraClassPath,
-            @AiToolParam(value = "Compiler's options.", required = false) String[] compilerOptions) throws Exception {
+            @AiToolParam(value = "Compiler's options.", required = false) String[] compilerOptions,
+            @AiToolParam(value = "Names of previously compiled libraries to link against (not recompiled).", required = false) List<String> libraries) throws Exception {
 
         log.info("executeJavaCode: \nsource={}", sourceCode);
         log.info("executeJavaCode: \nextraCompilerClassPath={}", extraClassPath);
 
-        Class c = compile(sourceCode, "Anahata", extraClassPath, compilerOptions);
+        Class c = compile(sourceCode, "Anahata", extraClassPath, compilerOptions, resolveLibraries(libraries));
         Object o = c.getDeclaredConstructor().newInstance();
 
         if (o instanceof Callable callable) {
@@ -12,7 +12,10 @@ import uno.anahata.ai.chat.Chat;
 import uno.anahata.ai.context.ContextProvider;
 import uno.anahata.ai.context.ContextManager;
 import uno.anahata.ai.context.ContextPosition;
+import uno.anahata.ai.model.context.RefreshPolicy;
+import uno.anahata.ai.model.context.RenderMode;
 import uno.anahata.ai.model.core.RagMessage;
+import uno.anahata.ai.model.resource.AbstractPathResource;
 import uno.anahata.ai.model.resource.AbstractResource;
 import uno.anahata.ai.model.resource.TextFileResource;
 import uno.anahata.ai.resource.ResourceManager;
@@ -44,19 +47,54 @@ public class Resources extends AnahataToolkit {
         }
     }
 
-    
-    @Override
-    public void populateMessage(RagMessage ragMessage) throws Exception {
-        for (AbstractResource resource : ragMessage.getChat().getResourceManager().getResources()) {
-            try {
-                if (resource.getContextPosition() == ContextPosition.PROMPT_AUGMENTATION) {
-                    // Delegate rendering to the resource itself
-                    resource.populate(ragMessage);
-                }
-            } catch (Exception e) {
-                log.error("Error processing managed resource {} for prompt augmentation", resource.getName(), e);
+
+    @AiTool(value = "Sets the refresh policy of managed resources. LIVE resources are reloaded when they change on disk (appends to log files are loaded incrementally), SNAPSHOT resources keep the content they were loaded with.", retention = 0)
+    public void setRefreshPolicy(
+            @AiToolParam("The ids of the resources.") List<String> resourceIds,
+            @AiToolParam("The new refresh policy.") RefreshPolicy refreshPolicy) throws Exception {
+        ResourceManager rm = getResourceManager();
+        for (String resourceId : resourceIds) {
+            AbstractResource resource = rm.getResource(resourceId);
+            resource.setRefreshPolicy(refreshPolicy);
+            log("Refresh policy of " + resource.getName() + " set to " + refreshPolicy);
+        }
+    }
+
+    @AiTool(value = "Sets the render mode of file resources. FULL resources are rendered in full on every turn. DELTA resources are rendered in full once, "
+            + "into a resource snapshot message kept in the history, and afterwards only as 'unchanged' or a unified diff against it until it is pruned.", retention = 0)
+    public void setRenderMode(
+            @AiToolParam("The ids of the resources.") List<String> resourceIds,
+            @AiToolParam("The new render mode.") RenderMode renderMode) throws Exception {
+        ResourceManager rm = getResourceManager();
+        for (String resourceId : resourceIds) {
+            AbstractResource resource = rm.getResource(resourceId);
+            if (resource instanceof AbstractPathResource<?, ?> pathResource) {
+                pathResource.setRenderMode(renderMode);
+                log("Render mode of " + resource.getName() + " set to " + renderMode);
+            } else {
+                error("Resource " + resource.getName() + " does not support render modes");
             }
         }
     }
 
+    @AiTool(value = "Sets the rendering priority of managed resources. When the resources do not fit in the resource token budget, "
+            + "higher priority (then most recently used) resources are rendered in full and the rest are elided to their header.", retention = 0)
+    public void setPriority(
+            @AiToolParam("The ids of the resources.") List<String> resourceIds,
+            @AiToolParam("The new priority (higher renders first, default is 0).") int priority) throws Exception {
+        ResourceManager rm = getResourceManager();
+        for (String resourceId : resourceIds) {
+            AbstractResource resource = rm.getResource(resourceId);
+            resource.setPriority(priority);
+            log("Priority of " + resource.getName() + " set to " + priority);
+        }
+    }
+
+    @Override
+    public void populateMessage(RagMessage ragMessage) throws Exception {
+        ResourceManager rm = ragMessage.getChat().getResourceManager();
+        rm.ensureWatched();
+        rm.populate(ragMessage, ragMessage.getChat().getConfig().getResourceTokenBudget());
+    }
+
 }
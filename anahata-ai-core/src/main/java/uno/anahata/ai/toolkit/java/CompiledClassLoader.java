@@ -0,0 +1,96 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.toolkit.java;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The class loader for code compiled by the {@code Java} toolkit.
+ * <p>
+ * Classes are resolved in the following order:
+ * <ol>
+ * <li>The in-memory classes compiled for this loader (the "hot-reload" part).</li>
+ * <li>The classes of the linked {@link CompiledLibrary}s, delegating to each
+ * library's own class loader so class identity and static state are shared
+ * across executions.</li>
+ * <li>The extra class path entries (child-first).</li>
+ * <li>The parent class loader (parent-last).</li>
+ * </ol>
+ *
+ * @author anahata
+ */
+@Slf4j
+public class CompiledClassLoader extends URLClassLoader {
+
+    /** The in-memory compiled classes, by binary name. */
+    private final Map<String, byte[]> compiledClasses;
+
+    /** The libraries this loader links against. */
+    private final List<CompiledLibrary> libraries;
+
+    /**
+     * Creates a new class loader.
+     *
+     * @param compiledClasses The in-memory compiled classes, by binary name.
+     * @param libraries The libraries to link against (can be empty).
+     * @param urls The extra class path entries.
+     * @param parent The parent class loader.
+     */
+    public CompiledClassLoader(Map<String, byte[]> compiledClasses, List<CompiledLibrary> libraries, URL[] urls, ClassLoader parent) {
+        super(urls, parent);
+        this.compiledClasses = compiledClasses;
+        this.libraries = libraries;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            // 1. Check if class is already loaded by this loader
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                // 2. Check for our in-memory compiled class first (the "hot-reload" part for Anahata.java)
+                byte[] bytes = compiledClasses.get(name);
+                if (bytes != null) {
+                    log.info("Hot-reloading in-memory class: {}", name);
+                    c = defineClass(name, bytes, 0, bytes.length);
+                } else {
+                    c = loadFromLibraries(name);
+                }
+                if (c == null) {
+                    try {
+                        // 3. CHILD-FIRST: Try to find the class in our own URLs (e.g., target/classes)
+                        c = findClass(name);
+                        log.info("Loaded class from extraClassPath (Child-First): {}", name);
+                    } catch (ClassNotFoundException e) {
+                        // 4. PARENT-LAST: If not found, delegate to the parent classloader.
+                        c = super.loadClass(name, resolve);
+                    }
+                }
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Delegates to the class loader of the first linked library containing the class.
+     *
+     * @param name The binary class name.
+     * @return The class, or {@code null} if no linked library contains it.
+     * @throws ClassNotFoundException if the owning library fails to load it.
+     */
+    private Class<?> loadFromLibraries(String name) throws ClassNotFoundException {
+        for (CompiledLibrary library : libraries) {
+            if (library.getClassBytes().containsKey(name)) {
+                return library.getClassLoader().loadClass(name);
+            }
+        }
+        return null;
+    }
+}
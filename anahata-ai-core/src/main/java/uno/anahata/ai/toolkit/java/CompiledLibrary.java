@@ -0,0 +1,147 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.toolkit.java;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A named, versioned set of classes compiled in a single javac task and kept
+ * in memory for the lifetime of a chat session.
+ * <p>
+ * Code compiled later (e.g. via {@code Java.compileAndExecute}) can link against
+ * a library without recompiling its sources. Each library version owns a single,
+ * lazily created {@link CompiledClassLoader}, so objects created from library
+ * classes keep the same class identity across tool calls.
+ *
+ * @author anahata
+ */
+@Slf4j
+@Getter
+@Schema(description = "A named, versioned set of in-memory compiled classes that later compilations can link against")
+public class CompiledLibrary {
+
+    /** The name of the library. */
+    @Schema(description = "The name of the library")
+    private final String name;
+
+    /** The version of the library, incremented every time a library with the same name is compiled. */
+    @Schema(description = "The version of the library, incremented on every recompilation")
+    private final int version;
+
+    /** The time (epoch millis) this version was compiled. */
+    @Schema(description = "The time (epoch millis) this version was compiled")
+    private final long compiledAt = System.currentTimeMillis();
+
+    /** The time it took to compile this version. */
+    @Schema(description = "The time in milliseconds it took to compile this version")
+    private final long compileTimeMillis;
+
+    /** The class path entries that were added to the compiler and class loader. */
+    @Schema(description = "The extra classpath entries this library was compiled with")
+    private final String extraClassPath;
+
+    /** The compiled bytecode, by binary class name. */
+    @JsonIgnore
+    private final Map<String, byte[]> classBytes;
+
+    /** The libraries this library was compiled against. */
+    @JsonIgnore
+    private final List<CompiledLibrary> dependencies;
+
+    /** The lazily created class loader for this library version. */
+    @JsonIgnore
+    private CompiledClassLoader classLoader;
+
+    /**
+     * Creates a new compiled library.
+     *
+     * @param name The library name.
+     * @param version The library version.
+     * @param classBytes The compiled bytecode, by binary class name.
+     * @param dependencies The libraries this library links against.
+     * @param extraClassPath The extra class path entries (can be null).
+     * @param compileTimeMillis The compilation time.
+     */
+    public CompiledLibrary(String name, int version, Map<String, byte[]> classBytes, List<CompiledLibrary> dependencies, String extraClassPath, long compileTimeMillis) {
+        this.name = name;
+        this.version = version;
+        this.classBytes = Collections.unmodifiableMap(classBytes);
+        this.dependencies = Collections.unmodifiableList(new ArrayList<>(dependencies));
+        this.extraClassPath = extraClassPath;
+        this.compileTimeMillis = compileTimeMillis;
+    }
+
+    /**
+     * Gets the names of all classes in this library, including nested classes.
+     *
+     * @return The sorted binary class names.
+     */
+    @Schema(description = "The binary names of all the classes in this library")
+    public List<String> getClassNames() {
+        List<String> names = new ArrayList<>(classBytes.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Gets the names of the libraries this library was compiled against.
+     *
+     * @return The dependency names and versions (e.g. {@code utils:2}).
+     */
+    @Schema(description = "The libraries (name:version) this library was compiled against")
+    public List<String> getDependencyNames() {
+        List<String> names = new ArrayList<>();
+        for (CompiledLibrary dependency : dependencies) {
+            names.add(dependency.getName() + ":" + dependency.getVersion());
+        }
+        return names;
+    }
+
+    /**
+     * Gets the class loader of this library version, creating it on first access.
+     *
+     * @return The class loader.
+     */
+    @JsonIgnore
+    public synchronized CompiledClassLoader getClassLoader() {
+        if (classLoader == null) {
+            classLoader = new CompiledClassLoader(classBytes, dependencies, toUrls(extraClassPath), Thread.currentThread().getContextClassLoader());
+            log.info("Created class loader for library {}:{} with {} classes", name, version, classBytes.size());
+        }
+        return classLoader;
+    }
+
+    /**
+     * Converts a {@link File#pathSeparator} separated class path to URLs.
+     *
+     * @param classPath The class path (can be null or empty).
+     * @return The URLs, invalid entries are skipped.
+     */
+    public static URL[] toUrls(String classPath) {
+        List<URL> urlList = new ArrayList<>();
+        if (classPath != null && !classPath.isEmpty()) {
+            String[] pathElements = classPath.split(File.pathSeparator);
+            for (String element : pathElements) {
+                try {
+                    urlList.add(new File(element).toURI().toURL());
+                } catch (Exception e) {
+                    log.warn("Invalid classpath entry: {}", element, e);
+                }
+            }
+        }
+        return urlList.toArray(new URL[0]);
+    }
+
+    @Override
+    public String toString() {
+        return name + ":" + version + " (" + classBytes.size() + " classes)";
+    }
+}
@@ -0,0 +1,159 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.toolkit.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * A {@link ForwardingJavaFileManager} that keeps all compiler output in memory
+ * and exposes the classes of previously compiled {@link CompiledLibrary}s on the
+ * compiler's class path, so new sources can link against them without
+ * recompiling their sources.
+ *
+ * @author anahata
+ */
+public class InMemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+    /** The class files produced by the current compilation task, by binary name. */
+    private final Map<String, ByteArrayOutputStream> compiledClasses = new LinkedHashMap<>();
+
+    /** The libraries whose classes are visible to the compiler. */
+    private final Collection<CompiledLibrary> libraries;
+
+    /**
+     * Creates a new in-memory file manager.
+     *
+     * @param fileManager The standard file manager to delegate to.
+     * @param libraries The libraries to link against (can be empty).
+     */
+    public InMemoryFileManager(JavaFileManager fileManager, Collection<CompiledLibrary> libraries) {
+        super(fileManager);
+        this.libraries = libraries;
+    }
+
+    /**
+     * Captures class files in memory, delegating any other kind of output.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+        if (kind == JavaFileObject.Kind.CLASS) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            compiledClasses.put(className, outputStream);
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + ".class"), JavaFileObject.Kind.CLASS) {
+                @Override
+                public OutputStream openOutputStream() throws IOException {
+                    return outputStream;
+                }
+            };
+        }
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+
+    /**
+     * Adds the class files of the linked libraries to the class path listing.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<JavaFileObject> list(JavaFileManager.Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+        Iterable<JavaFileObject> standard = super.list(location, packageName, kinds, recurse);
+        if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS) || libraries.isEmpty()) {
+            return standard;
+        }
+        List<JavaFileObject> result = new ArrayList<>();
+        for (CompiledLibrary library : libraries) {
+            for (Map.Entry<String, byte[]> entry : library.getClassBytes().entrySet()) {
+                String pkg = packageOf(entry.getKey());
+                if (pkg.equals(packageName) || (recurse && pkg.startsWith(packageName + "."))) {
+                    result.add(new LibraryClassFile(library, entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        standard.forEach(result::add);
+        return result;
+    }
+
+    /**
+     * Resolves the binary name of library class files, delegating any other file.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public String inferBinaryName(JavaFileManager.Location location, JavaFileObject file) {
+        if (file instanceof LibraryClassFile lcf) {
+            return lcf.binaryName;
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    /**
+     * Gets the bytecode of all classes produced by the compilation task(s) run
+     * with this file manager.
+     *
+     * @return A map of binary class names to class file bytes.
+     */
+    public Map<String, byte[]> getCompiledClasses() {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> entry : compiledClasses.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toByteArray());
+        }
+        return result;
+    }
+
+    /**
+     * Gets the package portion of a binary class name.
+     *
+     * @param binaryName The binary class name.
+     * @return The package name, or an empty string for the unnamed package.
+     */
+    private static String packageOf(String binaryName) {
+        int idx = binaryName.lastIndexOf('.');
+        return idx == -1 ? "" : binaryName.substring(0, idx);
+    }
+
+    /**
+     * A read-only class file backed by the bytecode of a compiled library.
+     */
+    private static class LibraryClassFile extends SimpleJavaFileObject {
+
+        private final String binaryName;
+        private final byte[] bytes;
+
+        /**
+         * Creates a new library class file.
+         *
+         * @param library The owning library.
+         * @param binaryName The binary name of the class.
+         * @param bytes The class file bytes.
+         */
+        LibraryClassFile(CompiledLibrary library, String binaryName, byte[] bytes) {
+            super(URI.create("mem:///" + library.getName() + "/" + library.getVersion() + "/" + binaryName.replace('.', '/') + ".class"), JavaFileObject.Kind.CLASS);
+            this.binaryName = binaryName;
+            this.bytes = bytes;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+}
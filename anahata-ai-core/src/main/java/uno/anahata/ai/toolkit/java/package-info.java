@@ -0,0 +1,5 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+/**
+ * Provides the in-memory compilation and class loading machinery of the {@code Java} toolkit.
+ */
+package uno.anahata.ai.toolkit.java;
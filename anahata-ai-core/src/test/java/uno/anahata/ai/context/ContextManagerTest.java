@@ -0,0 +1,97 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.context;
+
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.ResponseUsageMetadata;
+import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.core.UserMessage;
+
+/**
+ * Unit test for the prefix-stable assembly mode of the context manager.
+ *
+ * @author anahata-ai
+ */
+public class ContextManagerTest {
+
+    @Test
+    public void testVolatileInstructionsMoveToTheRagMessage() {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "volatile"));
+        ContextManager cm = chat.getContextManager();
+        addUserMessage(chat, "hello");
+
+        assertTrue(String.join("\n", cm.getSystemInstructions()).contains("- Running:"));
+
+        chat.getConfig().setPrefixStableContext(true);
+        assertFalse(String.join("\n", cm.getSystemInstructions()).contains("- Running:"));
+        List<AbstractMessage> visible = cm.buildVisibleHistory();
+        assertTrue(visible.get(visible.size() - 1).asText(false).contains("- Running:"));
+        chat.shutdown();
+    }
+
+    @Test
+    public void testPruningIsAppliedInEpochs() {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "epochs"));
+        chat.getConfig().setPrefixStableContext(true);
+        chat.getConfig().setPruningEpochMessages(4);
+        chat.getConfig().setDefaultTextPartTurnsToKeep(2);
+        chat.getConfig().setHardPruneDelay(-1);
+        ContextManager cm = chat.getContextManager();
+
+        addUserMessage(chat, "m1");
+        addUserMessage(chat, "m2");
+        addUserMessage(chat, "m3");
+        // m1 has run out of turns, but the epoch has not ended yet
+        assertEquals(3, cm.buildVisibleHistory().size() - 1);
+        assertEquals(3, cm.buildVisibleHistory().size() - 1);
+
+        addUserMessage(chat, "m4");
+        // Epoch boundary: m1 and m2 are tombstoned together
+        List<AbstractMessage> visible = cm.buildVisibleHistory();
+        assertEquals(List.of("m3", "m4"), visible.subList(0, visible.size() - 1).stream().map(m -> m.asText(false)).toList());
+        assertEquals(Boolean.TRUE, cm.getHistory().get(0).getParts(true).get(0).getPruned());
+
+        addUserMessage(chat, "m5");
+        addUserMessage(chat, "m6");
+        // m3 and m4 have run out of turns too, but stay until the next epoch
+        assertEquals(4, cm.buildVisibleHistory().size() - 1);
+        chat.shutdown();
+    }
+
+    @Test
+    public void testPromptCacheStats() {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "stats"));
+        chat.getConfig().setPrefixStableContext(true);
+        ContextManager cm = chat.getContextManager();
+        PromptCacheStats stats = cm.getPromptCacheStats();
+
+        addUserMessage(chat, "hello");
+        cm.buildVisibleHistory();
+        stats.recordSystemInstructions(cm.getSystemInstructions());
+        stats.recordUsage(ResponseUsageMetadata.builder().promptTokenCount(1000).build());
+        String firstHash = stats.getPrefixHash();
+
+        addUserMessage(chat, "again");
+        cm.buildVisibleHistory();
+        stats.recordSystemInstructions(cm.getSystemInstructions());
+        stats.recordUsage(ResponseUsageMetadata.builder().promptTokenCount(1000).cachedContentTokenCount(500).build());
+
+        assertEquals(1, stats.getStableMessages());
+        assertNotEquals(firstHash, stats.getPrefixHash());
+        assertEquals(0.5, stats.getLastHitRate(), 1e-9);
+        assertEquals(0.25, stats.getHitRate(), 1e-9);
+        assertEquals(2, stats.getRequests());
+        chat.shutdown();
+    }
+
+    private static void addUserMessage(Chat chat, String text) {
+        UserMessage message = new UserMessage(chat);
+        new TextPart(message, text);
+        chat.getContextManager().addMessage(message);
+    }
+}
@@ -0,0 +1,80 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.internal.kryo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.Preferences;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.model.core.AbstractPart;
+import uno.anahata.ai.model.core.BlobPart;
+import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.core.UserMessage;
+import uno.anahata.ai.model.tool.ToolPermission;
+
+/**
+ * Unit test for the pooled, registration-required Kryo serialization.
+ *
+ * @author anahata-ai
+ */
+public class KryoUtilsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testMessageRoundTripRebuildsBackReferences() throws Exception {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "test-session"));
+        UserMessage message = new UserMessage(chat);
+        TextPart text = new TextPart(message, "Hello");
+        text.setPruned(false);
+        text.setTurnsToKeep(7);
+        Path image = tempDir.resolve("image.png");
+        Files.write(image, new byte[]{1, 2, 3});
+        BlobPart.from(message, image);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        KryoUtils.serialize(message, out);
+        // Registered classes are written by id, not by name
+        assertFalse(out.toString(StandardCharsets.ISO_8859_1).contains("uno.anahata"));
+
+        UserMessage read = KryoUtils.deserialize(new ByteArrayInputStream(out.toByteArray()), UserMessage.class, chat);
+        assertEquals(message.getId(), read.getId());
+        assertSame(chat, read.getChat());
+        assertEquals(2, read.getParts().size());
+        for (AbstractPart part : read.getParts()) {
+            assertSame(read, part.getMessage());
+        }
+        TextPart readText = (TextPart) read.getParts().get(0);
+        assertEquals("Hello", readText.getText());
+        assertEquals(Boolean.FALSE, readText.getPruned());
+        assertEquals(7, readText.getTurnsToKeep());
+        BlobPart readBlob = (BlobPart) read.getParts().get(1);
+        assertArrayEquals(new byte[]{1, 2, 3}, readBlob.getData());
+        assertEquals(image, readBlob.getSourcePath());
+
+        // Listeners work on deserialized instances
+        int[] events = new int[1];
+        readText.addPropertyChangeListener(evt -> events[0]++);
+        readText.setText("Hello again");
+        assertEquals(1, events[0]);
+        chat.shutdown();
+    }
+
+    @Test
+    public void testPreferencesRoundTripAndUnregisteredClasses() {
+        Preferences preferences = new Preferences();
+        preferences.getToolPermissions().put("LocalFiles.readFile", ToolPermission.values()[0]);
+        Preferences read = KryoUtils.deserialize(KryoUtils.serialize(preferences), Preferences.class);
+        assertEquals(preferences.getToolPermissions(), read.getToolPermissions());
+
+        assertThrows(IllegalArgumentException.class, () -> KryoUtils.serialize(new StringBuilder("unregistered")));
+    }
+}
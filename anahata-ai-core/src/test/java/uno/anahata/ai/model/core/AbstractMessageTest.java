@@ -0,0 +1,57 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.model.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+
+/**
+ * Unit test for the version stamp of messages.
+ *
+ * @author anahata-ai
+ */
+public class AbstractMessageTest {
+
+    @Test
+    public void testVersionChangesWithContent() {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "test-session"));
+        UserMessage message = new UserMessage(chat);
+        long version = message.getVersion();
+
+        TextPart part = new TextPart(message, "hello");
+        version = assertNewVersion(message, version);
+
+        // Reading does not change the version
+        message.getParts(false);
+        message.asText(true);
+        assertEquals(version, message.getVersion());
+
+        part.appendText(" world");
+        version = assertNewVersion(message, version);
+
+        part.setPruned(true);
+        version = assertNewVersion(message, version);
+
+        part.setTurnsToKeep(3);
+        version = assertNewVersion(message, version);
+
+        message.setPruned(false);
+        version = assertNewVersion(message, version);
+
+        part.remove();
+        version = assertNewVersion(message, version);
+
+        // A detached part no longer stamps its former message
+        part.setText("detached");
+        assertEquals(version, message.getVersion());
+        chat.shutdown();
+    }
+
+    private static long assertNewVersion(AbstractMessage message, long previous) {
+        long version = message.getVersion();
+        assertNotEquals(previous, version);
+        return version;
+    }
+}
@@ -0,0 +1,132 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.model.provider;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import uno.anahata.ai.tool.RetryableApiException;
+
+/**
+ * Unit test for the health-based leasing of API keys.
+ *
+ * @author anahata-ai
+ */
+public class ApiKeyManagerTest {
+
+    @Test
+    public void testPreferredKeyIsKeptWhileItHasCapacity() {
+        ApiKeyManager manager = new ApiKeyManager(2);
+        manager.setKeys(List.of("key-aaaaa", "key-bbbbb"));
+        assertTrue(manager.acquire(null).isPresent());
+        manager.setKeys(List.of());
+        assertTrue(manager.acquire(null).isEmpty());
+        manager.setKeys(List.of("key-aaaaa", "key-bbbbb"));
+
+        ApiKeyManager.Lease first = manager.acquire("key-bbbbb").orElseThrow();
+        ApiKeyManager.Lease second = manager.acquire("key-bbbbb").orElseThrow();
+        assertEquals("key-bbbbb", first.getKey());
+        assertEquals("key-bbbbb", second.getKey());
+        // At capacity: another key is chosen
+        ApiKeyManager.Lease third = manager.acquire("key-bbbbb").orElseThrow();
+        assertEquals("key-aaaaa", third.getKey());
+
+        first.close();
+        first.close();
+        assertEquals(1, inFlight(manager, "key-bbbbb"));
+        second.close();
+        third.close();
+    }
+
+    @Test
+    public void testRateLimitedKeyCoolsDown() throws Exception {
+        ApiKeyManager manager = new ApiKeyManager();
+        manager.setKeys(List.of("key-aaaaa", "key-bbbbb"));
+
+        try (ApiKeyManager.Lease lease = manager.acquire("key-aaaaa").orElseThrow()) {
+            lease.rateLimited(Duration.ofMillis(300));
+            lease.succeeded(); // Only the first report counts
+        }
+        for (int i = 0; i < 3; i++) {
+            try (ApiKeyManager.Lease lease = manager.acquire("key-aaaaa").orElseThrow()) {
+                assertEquals("key-bbbbb", lease.getKey());
+                lease.succeeded();
+            }
+        }
+        ApiKeyManager.KeyHealth health = manager.getHealth().get(0);
+        assertNotNull(health.cooldownUntil());
+        assertTrue(health.errorRate() > 0);
+
+        // Every key cooling down: the lease waits for the one that is ready first
+        try (ApiKeyManager.Lease lease = manager.acquire(null).orElseThrow()) {
+            lease.rateLimited(Duration.ofMinutes(5));
+        }
+        try (ApiKeyManager.Lease lease = manager.acquire(null).orElseThrow()) {
+            assertEquals("key-aaaaa", lease.getKey());
+            assertTrue(Instant.now().isAfter(health.cooldownUntil()));
+        }
+
+        // A short hint expires, and health survives a reload of the key pool
+        manager.setKeys(List.of("key-ccccc", "key-bbbbb"));
+        try (ApiKeyManager.Lease lease = manager.acquire("key-ccccc").orElseThrow()) {
+            lease.rateLimited(Duration.ofMillis(1));
+        }
+        Thread.sleep(10);
+        assertNull(manager.getHealth().get(0).cooldownUntil());
+        assertNotNull(manager.getHealth().get(1).cooldownUntil());
+    }
+
+    @Test
+    public void testLeaseFailsInsteadOfWaitingForALongCooldown() {
+        ApiKeyManager manager = new ApiKeyManager();
+        manager.setKeys(List.of("key-aaaaa", "key-bbbbb"));
+        for (String key : List.of("key-aaaaa", "key-bbbbb")) {
+            try (ApiKeyManager.Lease lease = manager.acquire(key).orElseThrow()) {
+                lease.rateLimited(ApiKeyManager.MAX_COOLDOWN_WAIT.plusMinutes(1));
+            }
+        }
+        long start = System.nanoTime();
+        assertThrows(RetryableApiException.class, () -> manager.acquire(null));
+        assertTrue(System.nanoTime() - start < ApiKeyManager.MAX_COOLDOWN_WAIT.toNanos());
+
+        // A new key ends the cooldown of the pool
+        manager.setKeys(List.of("key-aaaaa", "key-bbbbb", "key-ccccc"));
+        try (ApiKeyManager.Lease lease = manager.acquire(null).orElseThrow()) {
+            assertEquals("key-ccccc", lease.getKey());
+        }
+    }
+
+    @Test
+    public void testServerErrorsLowerTheHealth() {
+        ApiKeyManager manager = new ApiKeyManager();
+        manager.setKeys(List.of("key-aaaaa", "key-bbbbb"));
+
+        try (ApiKeyManager.Lease lease = manager.acquire("key-aaaaa").orElseThrow()) {
+            lease.failed();
+        }
+        // The failed key is no longer the healthiest, but is not cooling down yet
+        try (ApiKeyManager.Lease lease = manager.acquire(null).orElseThrow()) {
+            assertEquals("key-bbbbb", lease.getKey());
+            lease.succeeded();
+        }
+        assertNull(manager.getHealth().get(0).cooldownUntil());
+
+        for (int i = 0; i < 2; i++) {
+            try (ApiKeyManager.Lease lease = manager.acquire("key-aaaaa").orElseThrow()) {
+                assertEquals("key-aaaaa", lease.getKey());
+                lease.failed();
+            }
+        }
+        // Three consecutive failures start a cooldown
+        assertNotNull(manager.getHealth().get(0).cooldownUntil());
+    }
+
+    private static int inFlight(ApiKeyManager manager, String key) {
+        return manager.getHealth().stream()
+                .filter(h -> h.key().equals(key))
+                .findFirst()
+                .orElseThrow()
+                .inFlight();
+    }
+}
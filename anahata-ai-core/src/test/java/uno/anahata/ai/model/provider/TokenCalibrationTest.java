@@ -0,0 +1,75 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.model.provider;
+
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.internal.TokenizerUtils;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.core.UserMessage;
+import uno.anahata.ai.model.provider.TokenCalibration.Feature;
+
+/**
+ * Unit test for the calibration of local token estimates against billed prompt tokens.
+ *
+ * @author anahata-ai
+ */
+public class TokenCalibrationTest {
+
+    @Test
+    public void testLearnsPerFeatureWeightsAndOverhead() {
+        TokenCalibration calibration = new TokenCalibration("test/model");
+        double[] probe = {20_000, 8_000, 5_000, 0};
+        assertEquals(33_000, calibration.estimate(probe, true));
+
+        // A provider whose tokenizer counts prose 30% higher, code 20% lower, JSON 10% higher, plus 3000 tokens of tool declarations
+        Random random = new Random(42);
+        for (int i = 0; i < 60; i++) {
+            double[] features = {random.nextInt(40_000), random.nextInt(20_000), random.nextInt(10_000), random.nextInt(3) * 258};
+            int billed = (int) (1.3 * features[0] + 0.8 * features[1] + 1.1 * features[2] + features[3] + 3000 + random.nextInt(200) - 100);
+            calibration.observe(features, billed);
+        }
+        double expected = 1.3 * 20_000 + 0.8 * 8_000 + 1.1 * 5_000 + 3000;
+        assertEquals(expected, calibration.estimate(probe, true), expected * 0.02);
+        assertEquals(1.3, calibration.getWeight(Feature.TEXT), 0.05);
+        assertEquals(3000, calibration.getOverhead(), 300);
+        assertEquals(60, calibration.getSamples());
+    }
+
+    @Test
+    public void testFencedCodeIsEstimatedSeparately() {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "test-session"));
+        UserMessage message = new UserMessage(chat);
+        String prose = "Please review this method. ";
+        String code = "\npublic int add(int a, int b) {\n    return a + b;\n}\n";
+        TextPart part = new TextPart(message, prose + "```java" + code + "```");
+        double[] features = TokenCalibration.features(TokenizerRegistry.getDefault(), message.getParts());
+        assertEquals(TokenizerUtils.countTokens(prose), features[Feature.TEXT.ordinal()]);
+        assertEquals(TokenizerUtils.countTokens("java" + code), features[Feature.CODE.ordinal()]);
+        assertEquals(0, features[Feature.JSON.ordinal()]);
+        // The fenced code is estimated on its own, not again as prose
+        assertEquals(TokenizerUtils.countTokens(part.getText()) - TokenizerUtils.countTokens("```java" + code + "```"),
+                features[Feature.TEXT.ordinal()], 3);
+        chat.shutdown();
+    }
+
+    @Test
+    public void testPrunedPartsAreCountedOnlyWhenSent() {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "test-session"));
+        UserMessage message = new UserMessage(chat);
+        new TextPart(message, "Kept in the request.");
+        new TextPart(message, "Pruned from the request.").setPruned(true);
+        List<AbstractMessage> messages = List.of(message);
+        Tokenizer tokenizer = TokenizerRegistry.getDefault();
+        assertEquals(TokenizerUtils.countTokens("Kept in the request."),
+                TokenCalibration.requestFeatures(tokenizer, messages, false)[Feature.TEXT.ordinal()]);
+        assertEquals(TokenizerUtils.countTokens("Kept in the request.") + TokenizerUtils.countTokens("Pruned from the request."),
+                TokenCalibration.requestFeatures(tokenizer, messages, true)[Feature.TEXT.ordinal()]);
+        chat.shutdown();
+    }
+}
@@ -0,0 +1,65 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.model.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import uno.anahata.ai.internal.TokenizerUtils;
+
+/**
+ * Unit test for the tokenizer registry and the cached, batched token counting.
+ *
+ * @author anahata-ai
+ */
+public class TokenizerRegistryTest {
+
+    @Test
+    public void testFallbackAndEstimator() {
+        assertSame(TokenizerUtils.DEFAULT_TOKENIZER, TokenizerRegistry.get(null));
+        String text = "The quick brown fox jumps over the lazy dog. ".repeat(20);
+        int base = TokenizerUtils.countTokens(text);
+        Tokenizer estimator = TokenizerRegistry.estimator("test-estimate", 1.5);
+        assertEquals(Math.round(base * 1.5), TokenizerUtils.countTokens(estimator, text));
+    }
+
+    @Test
+    public void testLargeTextsAreCountedOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        Tokenizer counting = new Tokenizer() {
+            @Override
+            public String getName() {
+                return "test-counting";
+            }
+
+            @Override
+            public int countTokens(String text) {
+                calls.incrementAndGet();
+                return text.length();
+            }
+        };
+        String schema = "{\"type\": \"object\"} ".repeat(50);
+        assertEquals(schema.length(), TokenizerUtils.countTokens(counting, schema));
+        assertEquals(schema.length(), TokenizerUtils.countTokens(counting, new String(schema)));
+        assertEquals(1, calls.get());
+
+        // Short texts are not cached
+        TokenizerUtils.countTokens(counting, "short");
+        TokenizerUtils.countTokens(counting, "short");
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testParallelBatchMatchesSequentialCounts() {
+        List<String> history = new ArrayList<>();
+        int expected = 0;
+        for (int i = 0; i < 200; i++) {
+            String text = ("message " + i + " with some content; ").repeat(i % 40 + 1);
+            history.add(text);
+            expected += TokenizerUtils.countTokens(text);
+        }
+        history.add(null);
+        assertEquals(expected, TokenizerUtils.countTokens(TokenizerRegistry.getDefault(), history));
+    }
+}
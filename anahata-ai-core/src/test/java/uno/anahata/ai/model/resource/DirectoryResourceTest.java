@@ -0,0 +1,139 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.model.resource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit test for the directory tree scanner and resource.
+ *
+ * @author anahata-ai
+ */
+public class DirectoryResourceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testIgnoreRules() throws Exception {
+        Files.writeString(tempDir.resolve(".gitignore"), "# build output\ntarget/\n*.log\n!keep.log\n/root-only.txt\ndocs/**/*.tmp\n");
+        write("src/Main.java", "class Main {}");
+        write("src/root-only.txt", "nested, not ignored");
+        write("root-only.txt", "ignored");
+        write("target/Main.class", "ignored");
+        write("app.log", "ignored");
+        write("keep.log", "kept");
+        write("docs/a/b/draft.tmp", "ignored");
+        write("docs/a/readme.md", "kept");
+        write(".git/HEAD", "ignored");
+
+        DirectoryNode tree = DirectoryScanner.scan(tempDir, null, DirectoryScanner.DEFAULT_MAX_ENTRIES);
+        assertNull(tree.getChild("target"));
+        assertNull(tree.getChild(".git"));
+        assertNull(tree.getChild("app.log"));
+        assertNull(tree.getChild("root-only.txt"));
+        assertNotNull(tree.getChild("keep.log"));
+        assertNotNull(tree.getChild("src").getChild("root-only.txt"));
+        assertNull(tree.getChild("docs").getChild("a").getChild("b").getChild("draft.tmp"));
+        assertNotNull(tree.getChild("docs").getChild("a").getChild("readme.md"));
+        assertEquals(5, tree.getFileCount()); // .gitignore, keep.log, Main.java, src/root-only.txt, readme.md
+    }
+
+    @Test
+    public void testIncrementalRescan() throws Exception {
+        write("a/one.txt", "1");
+        write("b/two.txt", "2");
+        age(tempDir.resolve("a"), tempDir.resolve("b"), tempDir);
+
+        DirectoryNode tree = DirectoryScanner.scan(tempDir, null, DirectoryScanner.DEFAULT_MAX_ENTRIES);
+        assertSame(tree, DirectoryScanner.scan(tempDir, tree, DirectoryScanner.DEFAULT_MAX_ENTRIES));
+
+        write("a/three.txt", "33");
+        DirectoryNode rescanned = DirectoryScanner.scan(tempDir, tree, DirectoryScanner.DEFAULT_MAX_ENTRIES);
+        assertNotSame(tree, rescanned);
+        assertSame(tree.getChild("b"), rescanned.getChild("b"));
+        assertSame(tree.getChild("a").getChild("one.txt"), rescanned.getChild("a").getChild("one.txt"));
+        assertEquals(3, rescanned.getFileCount());
+        assertEquals(4, rescanned.getSize());
+
+        // Modifying a file does not change its directory's mtime, but is still picked up
+        age(tempDir.resolve("a"));
+        rescanned = DirectoryScanner.scan(tempDir, rescanned, DirectoryScanner.DEFAULT_MAX_ENTRIES);
+        Files.writeString(tempDir.resolve("b/two.txt"), "2222");
+        age(tempDir.resolve("b"));
+        DirectoryNode modified = DirectoryScanner.scan(tempDir, rescanned, DirectoryScanner.DEFAULT_MAX_ENTRIES);
+        assertEquals(4, modified.getChild("b").getChild("two.txt").getSize());
+        assertSame(rescanned.getChild("a"), modified.getChild("a"));
+    }
+
+    @Test
+    public void testStaleOnlyWhenADirectoryChanged() throws Exception {
+        write("a/one.txt", "1");
+        write("a/deep/two.txt", "2");
+        age(tempDir.resolve("a/deep"), tempDir.resolve("a"), tempDir);
+
+        DirectoryResource resource = new DirectoryResource(tempDir);
+        assertFalse(resource.isStale());
+
+        // An entry added deep below the root, whose mtime does not change
+        write("a/deep/three.txt", "3");
+        assertTrue(resource.isStale());
+        age(tempDir.resolve("a/deep"));
+        resource.reload();
+        assertFalse(resource.isStale());
+        assertEquals(3, resource.getTree().getFileCount());
+
+        Files.delete(tempDir.resolve("a/deep/three.txt"));
+        Files.delete(tempDir.resolve("a/deep/two.txt"));
+        Files.delete(tempDir.resolve("a/deep"));
+        assertTrue(resource.isStale());
+    }
+
+    @Test
+    public void testListingIsTokenBounded() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            write("dir" + i + "/file" + i + ".txt", "content");
+        }
+        DirectoryResource resource = new DirectoryResource(tempDir, 60);
+        String listing = resource.getCache();
+        assertTrue(listing.contains("dir0/ (1 files"));
+        assertTrue(listing.contains("more entries"));
+        assertFalse(listing.contains("file49.txt"));
+
+        resource.setMaxTokens(10_000);
+        resource.rerender();
+        assertTrue(resource.getCache().contains("file49.txt"));
+        assertFalse(resource.getCache().contains("more entries"));
+    }
+
+    /**
+     * Writes a file, creating its parent directories.
+     *
+     * @param relPath The path relative to the temp dir.
+     * @param content The content.
+     * @throws Exception if the file cannot be written.
+     */
+    private void write(String relPath, String content) throws Exception {
+        Path file = tempDir.resolve(relPath);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    /**
+     * Moves the modification time of directories to the past, so that their
+     * listings are trusted on the next rescan.
+     *
+     * @param dirs The directories.
+     * @throws Exception if the time cannot be set.
+     */
+    private static void age(Path... dirs) throws Exception {
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        for (Path dir : dirs) {
+            Files.setLastModifiedTime(dir, past);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.model.resource;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uno.anahata.ai.resource.DocumentExtractionCache;
+
+/**
+ * Unit test for the cached text extraction of document resources.
+ *
+ * @author anahata-ai
+ */
+public class DocumentResourceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    public void setUp() {
+        DocumentExtractionCache.setStoreDir(tempDir.resolve("store"));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        TestDocumentParser.gate = null;
+        DocumentExtractionCache.setStoreDir(null);
+    }
+
+    @Test
+    public void testExtractionIsSharedByContentHash() throws Exception {
+        String marker = UUID.randomUUID().toString();
+        Path first = Files.writeString(tempDir.resolve("a.txt"), "Quarterly report " + marker + "\n");
+        Path copy = Files.writeString(tempDir.resolve("b.txt"), "Quarterly report " + marker + "\n");
+
+        DocumentExtractionCache.Extraction extraction = DocumentExtractionCache.extract(first).get();
+        assertEquals(tempDir.resolve("store"), extraction.getTextFile().getParent());
+        assertFalse(extraction.isTruncated());
+        // Extracted by the parser found through Tika's service loading
+        assertEquals("Quarterly report " + marker, Files.readString(extraction.getTextFile()).strip());
+
+        // Same content, different file: served from the store without parsing
+        assertTrue(DocumentExtractionCache.extract(copy).isDone());
+        DocumentExtractionCache.Extraction second = DocumentExtractionCache.extract(copy).get();
+        assertEquals(extraction.getHash(), second.getHash());
+        assertEquals(extraction.getTextFile(), second.getTextFile());
+
+        DocumentResource resource = new DocumentResource(copy);
+        assertFalse(resource.isPending());
+        assertEquals(extraction.getHash(), resource.getContentHash());
+        assertNull(resource.getExtractionError());
+        assertTrue(resource.getViewport().getProcessedText().contains(marker));
+    }
+
+    @Test
+    public void testOnlyTheViewportPageIsRead() throws Exception {
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            document.append("Paragraph ").append(i).append('\n');
+        }
+        Path path = Files.writeString(tempDir.resolve("large.txt"), document);
+        DocumentExtractionCache.extract(path).get();
+
+        TextViewport viewport = new TextViewport();
+        viewport.setStartLine(40_000);
+        viewport.setPageSizeInChars(64);
+        DocumentResource resource = new DocumentResource(path, viewport);
+        assertFalse(resource.isPending());
+        String page = viewport.getProcessedText();
+        assertTrue(page.startsWith("Paragraph 4"), page);
+        assertTrue(page.length() < 128, page);
+        assertTrue(viewport.getTotalLines() >= 50_000);
+
+        // Another page of the same extraction
+        viewport.setStartLine(null);
+        viewport.setStartChar(0);
+        viewport.setGrepPattern("Paragraph 4999.");
+        resource.reload();
+        assertEquals(10, viewport.getMatchingLineCount());
+        assertTrue(viewport.getProcessedText().startsWith("Paragraph 49990"));
+    }
+
+    @Test
+    public void testPrepareRendersACompletedExtraction() throws Exception {
+        String marker = UUID.randomUUID().toString();
+        Path path = Files.writeString(tempDir.resolve("slow.txt"), "Minutes " + marker + "\n");
+        TestDocumentParser.gate = new CountDownLatch(1);
+        DocumentResource resource = new DocumentResource(path);
+        assertTrue(resource.isPending());
+        assertTrue(resource.prepare().contains("[Text extraction in progress"));
+
+        TestDocumentParser.gate.countDown();
+        DocumentExtractionCache.extract(path).get();
+        // Budgeted on the extracted text, not on the placeholder
+        String text = resource.prepare();
+        assertTrue(text.contains(marker), text);
+        assertFalse(text.contains("[Text extraction in progress"));
+        assertFalse(resource.isPending());
+    }
+
+    @Test
+    public void testTextIsExtractedFromAPdf() throws Exception {
+        Path pdf = tempDir.resolve("report.pdf");
+        try (InputStream in = getClass().getResourceAsStream("report.pdf")) {
+            Files.copy(in, pdf);
+        }
+        DocumentExtractionCache.Extraction extraction = DocumentExtractionCache.extract(pdf).get();
+        String text = Files.readString(extraction.getTextFile());
+        assertTrue(text.contains("Quarterly report PDF"), text);
+        assertTrue(text.contains("Second line of the report"), text);
+
+        DocumentResource resource = new DocumentResource(pdf);
+        assertEquals("application/pdf", resource.getMimeType());
+        assertTrue(resource.getViewport().getProcessedText().contains("Quarterly report PDF"));
+    }
+
+    @Test
+    public void testUnparseableDocumentIsNotStored() throws Exception {
+        byte[] data = new byte[512];
+        new Random(42).nextBytes(data);
+        Path binary = Files.write(tempDir.resolve("data.bin"), data);
+        CompletableFuture<DocumentExtractionCache.Extraction> extraction = DocumentExtractionCache.extract(binary);
+        ExecutionException e = assertThrows(ExecutionException.class, extraction::get);
+        assertTrue(e.getCause().getMessage().contains("No parser available"), e.getCause().getMessage());
+        try (Stream<Path> stored = Files.list(tempDir.resolve("store"))) {
+            assertEquals(0, stored.count());
+        }
+
+        // Tried again rather than served from the store
+        assertThrows(ExecutionException.class, () -> DocumentExtractionCache.extract(binary).get());
+    }
+}
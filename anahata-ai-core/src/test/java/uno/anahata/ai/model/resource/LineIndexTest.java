@@ -0,0 +1,101 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.model.resource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit test for the line offset index of text resources.
+ *
+ * @author anahata-ai
+ */
+public class LineIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testLineAndOffsetConversions() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("lines.txt"), "uno\ndós\n𝄞 tres\n");
+        try (MappedTextFile mtf = MappedTextFile.open(file)) {
+            LineIndex index = LineIndex.build(mtf);
+            assertEquals(3, index.getLineCount());
+            assertEquals(16, index.getCharCount());
+            assertEquals(4, index.getLineStartChar(1));
+            assertEquals(8, index.getLineStartChar(2));
+            assertEquals(9, index.getLineStartByte(2));
+            assertEquals(1, index.lineOfChar(7));
+            assertEquals(2, index.lineOfChar(15));
+            assertEquals(13, index.byteOffsetOfChar(mtf, 10));
+        }
+    }
+
+    @Test
+    public void testExtendOnAppendAndRebuildOnRewrite() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("log.txt"), "first\nsecond");
+        LineIndex index;
+        try (MappedTextFile mtf = MappedTextFile.open(file)) {
+            index = LineIndex.build(mtf);
+        }
+        assertEquals(2, index.getLineCount());
+
+        Files.writeString(file, " line\nthird\n", StandardOpenOption.APPEND);
+        try (MappedTextFile mtf = MappedTextFile.open(file)) {
+            LineIndex extended = index.extended(mtf);
+            assertEquals(3, extended.getLineCount());
+            assertEquals(18, extended.getLineStartChar(2));
+            assertTrue(extended.continues(index));
+            assertSame(extended, extended.extended(mtf));
+        }
+        assertEquals(2, index.getLineCount());
+        assertEquals(12, index.getByteSize());
+
+        Files.writeString(file, "rewritten\nfrom scratch, but much longer than before\n");
+        try (MappedTextFile mtf = MappedTextFile.open(file)) {
+            assertNull(index.extended(mtf));
+        }
+    }
+
+    @Test
+    public void testDiskCacheEvictsLeastRecentlyUsed() throws Exception {
+        Path oldest = Files.write(tempDir.resolve("a.idx"), new byte[100]);
+        Path used = Files.write(tempDir.resolve("b.idx"), new byte[100]);
+        Path newest = Files.write(tempDir.resolve("c.idx"), new byte[100]);
+        Path other = Files.write(tempDir.resolve("d.txt"), new byte[100]);
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(oldest, FileTime.fromMillis(now - 30_000));
+        Files.setLastModifiedTime(used, FileTime.fromMillis(now - 10_000));
+        Files.setLastModifiedTime(newest, FileTime.fromMillis(now - 20_000));
+
+        LineIndex.pruneDiskCache(tempDir, 300);
+        assertTrue(Files.exists(oldest));
+
+        LineIndex.pruneDiskCache(tempDir, 200);
+        assertFalse(Files.exists(oldest));
+        assertTrue(Files.exists(used));
+        assertTrue(Files.exists(newest));
+        assertTrue(Files.exists(other));
+
+        LineIndex.pruneDiskCache(tempDir, 150);
+        assertFalse(Files.exists(newest));
+        assertTrue(Files.exists(used));
+    }
+
+    @Test
+    public void testViewportStartLine() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("nav.txt"), "a\nbb\nccc\ndddd\n");
+        TextViewport viewport = new TextViewport();
+        viewport.setStartLine(2);
+        viewport.setIncludeLineNumbers(true);
+        try (MappedTextFile mtf = MappedTextFile.open(file)) {
+            viewport.process(mtf);
+        }
+        assertEquals(5, viewport.getStartChar());
+        assertEquals("[2]: ccc\n[3]: dddd", viewport.getProcessedText());
+    }
+}
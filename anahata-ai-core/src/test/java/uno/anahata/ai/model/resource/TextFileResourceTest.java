@@ -0,0 +1,90 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.model.resource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit test for the incremental (tail-follow) reload of text file resources.
+ *
+ * @author anahata-ai
+ */
+public class TextFileResourceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testAppendIsLoadedIncrementally() throws Exception {
+        Path log = Files.writeString(tempDir.resolve("service.log"), "INFO start\nERROR one\nINFO ok\n");
+        TextViewport viewport = new TextViewport();
+        viewport.setGrepPattern("ERROR.*");
+        viewport.setTail(true);
+        viewport.setPageSizeInChars(24);
+        TextFileResource resource = new TextFileResource(log, viewport);
+        LineIndex index = resource.getLineIndex();
+        assertEquals("ERROR one", viewport.getProcessedText());
+
+        Files.writeString(log, "ERROR two\nINFO x\nERROR thr", StandardOpenOption.APPEND);
+        resource.reload();
+        // The index is extended into a new instance: the previous one may be shared with other sessions
+        assertNotSame(index, resource.getLineIndex());
+        assertEquals(3, index.getLineCount());
+        assertEquals(6, resource.getLineIndex().getLineCount());
+        assertEquals(3, viewport.getMatchingLineCount());
+        assertEquals("ERROR two\nERROR thr", viewport.getProcessedText());
+
+        // The partial last line is matched again once it is complete
+        Files.writeString(log, "ee\n", StandardOpenOption.APPEND);
+        resource.reload();
+        assertEquals(3, viewport.getMatchingLineCount());
+        assertEquals("ERROR two\nERROR three", viewport.getProcessedText());
+    }
+
+    @Test
+    public void testTailGrepFollowsAppendsLikeAFreshView() throws Exception {
+        Path log = Files.writeString(tempDir.resolve("follow.log"), "");
+        TextViewport viewport = new TextViewport();
+        viewport.setGrepPattern("ERROR.*");
+        viewport.setTail(true);
+        viewport.setPageSizeInChars(40);
+        TextFileResource resource = new TextFileResource(log, viewport);
+
+        // Includes a match on a partial last line that grows, and one that only matches once complete
+        List<String> appends = List.of("ERROR one\nINFO a\n", "ERROR tw", "o is longer\n", "INFO b\nERR", "OR three\n",
+                "ERROR four has a line longer than the whole page\n", "INFO c\n", "ERROR five\nERROR six\n");
+        for (String append : appends) {
+            Files.writeString(log, append, StandardOpenOption.APPEND);
+            resource.reload();
+            TextViewport fresh = new TextViewport();
+            fresh.setGrepPattern("ERROR.*");
+            fresh.setTail(true);
+            fresh.setPageSizeInChars(40);
+            new TextFileResource(log, fresh);
+            assertEquals(fresh.getMatchingLineCount(), viewport.getMatchingLineCount());
+            assertEquals(fresh.getStartChar(), viewport.getStartChar());
+            assertEquals(fresh.getProcessedText(), viewport.getProcessedText());
+        }
+        assertEquals("ERROR five\nERROR six", viewport.getProcessedText());
+    }
+
+    @Test
+    public void testTruncationReloadsFromScratch() throws Exception {
+        Path log = Files.writeString(tempDir.resolve("rotated.log"), "line 1\nline 2\nline 3\n");
+        TextViewport viewport = new TextViewport();
+        viewport.setTail(true);
+        TextFileResource resource = new TextFileResource(log, viewport);
+        LineIndex index = resource.getLineIndex();
+
+        Files.writeString(log, "new 1\n");
+        resource.reload();
+        assertNotSame(index, resource.getLineIndex());
+        assertEquals(1, viewport.getTotalLines());
+        assertEquals("new 1", viewport.getProcessedText());
+    }
+}
@@ -0,0 +1,52 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.model.resource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit test for the parallel grep engine.
+ *
+ * @author anahata-ai
+ */
+public class TextGrepTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testParallelGrepKeepsFileOrder() throws Exception {
+        // Large enough to be split in several chunks
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            sb.append(i % 1000 == 0 ? "ERROR request " : "INFO request ").append(i).append('\n');
+        }
+        Path file = Files.writeString(tempDir.resolve("app.log"), sb);
+        assertTrue(Files.size(file) > 2 * TextGrep.CHUNK_BYTES);
+
+        try (MappedTextFile mtf = MappedTextFile.open(file)) {
+            LineIndex index = LineIndex.build(mtf);
+            GrepResult result = TextGrep.grep(mtf, index, "ERROR", 1, 50);
+            assertEquals(200, result.getTotalMatches());
+            assertTrue(result.isCapped());
+            assertEquals(50, result.getMatches().size());
+
+            GrepMatch second = result.getMatches().get(1);
+            assertEquals(1000, second.getLineNumber());
+            assertEquals("ERROR request 1000", second.getLine());
+            assertEquals(index.getLineStartChar(1000), second.getStartChar());
+            assertEquals(index.getLineStartChar(1000) + 5, second.getEndChar());
+            assertEquals("INFO request 999", second.getBefore().get(0));
+            assertEquals("INFO request 1001", second.getAfter().get(0));
+            assertEquals(49000, result.getMatches().get(49).getLineNumber());
+        }
+    }
+
+    @Test
+    public void testPatternCache() {
+        assertSame(TextGrep.compile("ERROR.*"), TextGrep.compile("ERROR.*"));
+    }
+}
@@ -0,0 +1,60 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.model.resource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit test checking that the memory-mapped viewport engine produces the same
+ * view as the in-memory one.
+ *
+ * @author anahata-ai
+ */
+public class TextViewportTest {
+
+    private static final String TEXT = "first line\nsegunda línea con acentos\nthird 𝄞 line\nfoo bar\n\nlast foo";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testMappedPageMatchesInMemoryPage() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("text.txt"), TEXT);
+        for (int start = 0; start < TEXT.length(); start += 3) {
+            TextViewport inMemory = viewport(start, 10, null);
+            TextViewport mapped = viewport(start, 10, null);
+            inMemory.process(TEXT);
+            try (MappedTextFile mtf = MappedTextFile.open(file)) {
+                mapped.process(mtf);
+            }
+            assertEquals(inMemory.getTotalChars(), mapped.getTotalChars());
+            assertEquals(inMemory.getTotalLines(), mapped.getTotalLines());
+            if (!Character.isLowSurrogate(TEXT.charAt(Math.min(TEXT.length() - 1, start + 10)))) {
+                assertEquals(inMemory.getProcessedText(), mapped.getProcessedText(), "start=" + start);
+            }
+        }
+    }
+
+    @Test
+    public void testMappedGrepUsesRealLineNumbers() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("grep.txt"), TEXT);
+        TextViewport mapped = viewport(0, 1024, ".*foo.*");
+        mapped.setIncludeLineNumbers(true);
+        try (MappedTextFile mtf = MappedTextFile.open(file)) {
+            mapped.process(mtf);
+        }
+        assertEquals(2, mapped.getMatchingLineCount());
+        assertEquals("[3]: foo bar\n[5]: last foo", mapped.getProcessedText());
+    }
+
+    private static TextViewport viewport(long start, int pageSize, String grep) {
+        TextViewport viewport = new TextViewport();
+        viewport.setStartChar(start);
+        viewport.setPageSizeInChars(pageSize);
+        viewport.setGrepPattern(grep);
+        return viewport;
+    }
+}
@@ -0,0 +1,251 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.resource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.model.context.RenderMode;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.RagMessage;
+import uno.anahata.ai.model.core.ResourceSnapshotMessage;
+import uno.anahata.ai.model.resource.AbstractPathResource;
+import uno.anahata.ai.model.resource.AbstractResource;
+import uno.anahata.ai.model.resource.DirectoryResource;
+import uno.anahata.ai.model.resource.TextFileResource;
+
+/**
+ * Unit test for the token-budgeted rendering of managed resources.
+ *
+ * @author anahata-ai
+ */
+public class ResourceManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testResourcesOverBudgetAreElidedByPriorityAndRecency() throws Exception {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "test-session"));
+        ResourceManager rm = chat.getResourceManager();
+        TextFileResource pinned = load(rm, "pinned.txt");
+        TextFileResource old = load(rm, "old.txt");
+        TextFileResource recent = load(rm, "recent.txt");
+        pinned.setPriority(1);
+        old.setLastUsed(1);
+
+        RagMessage unlimited = new RagMessage(chat);
+        rm.populate(unlimited, 0);
+        assertTrue(unlimited.asText(true).contains("3 rendered in full, 0 elided"));
+
+        // Room for two of the three resources
+        RagMessage budgeted = new RagMessage(chat);
+        rm.populate(budgeted, 1500);
+        String text = budgeted.asText(true);
+        assertTrue(text.contains("2 rendered in full, 1 elided"));
+        assertTrue(text.contains("- Elided: old.txt (id: " + old.getId()));
+        assertTrue(text.contains("pinned.txt content"));
+        assertTrue(text.contains("recent.txt content"));
+        assertFalse(text.contains("old.txt content"));
+        assertTrue(text.contains("[Content elided"));
+
+        // Changing its settings is not using it
+        rm.<TextFileResource>getResource(old.getId()).setPriority(0);
+        RagMessage configured = new RagMessage(chat);
+        rm.populate(configured, 1500);
+        assertTrue(configured.asText(true).contains("- Elided: old.txt"));
+
+        // Using a resource ranks it ahead of the others of the same priority
+        old.touch();
+        RagMessage touched = new RagMessage(chat);
+        rm.populate(touched, 1500);
+        assertTrue(touched.asText(true).contains("- Elided: recent.txt"));
+        chat.shutdown();
+    }
+
+    @Test
+    public void testElidedResourcesAreNotRendered() throws Exception {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "test-session"));
+        ResourceManager rm = chat.getResourceManager();
+        TextFileResource kept = load(rm, "kept.txt");
+        TextFileResource elided = load(rm, "elided.txt");
+        kept.setPriority(1);
+        elided.setRenderMode(RenderMode.DELTA);
+
+        // The delta resource does not fit: no snapshot message is created for it
+        RagMessage budgeted = new RagMessage(chat);
+        rm.populate(budgeted, 1000);
+        String text = budgeted.asText(true);
+        assertTrue(text.contains("- Elided: elided.txt (id: " + elided.getId()));
+        assertTrue(text.contains("kept.txt content"));
+        assertNull(budgeted.getSnapshotMessage(false));
+
+        // Once it fits, it is rendered into the snapshot message
+        RagMessage unlimited = new RagMessage(chat);
+        rm.populate(unlimited, 0);
+        assertNotNull(unlimited.getSnapshotMessage(false));
+        assertTrue(unlimited.getSnapshotMessage(false).asText(true).contains("elided.txt content"));
+        chat.shutdown();
+    }
+
+    @Test
+    public void testDeltaRenderingAgainstSnapshotInHistory() throws Exception {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "test-session"));
+        ResourceManager rm = chat.getResourceManager();
+        TextFileResource resource = load(rm, "delta.txt");
+        resource.setRenderMode(RenderMode.DELTA);
+
+        // First turn: rendered in full into a snapshot message, which joins the history
+        RagMessage first = new RagMessage(chat);
+        rm.populate(first, 0);
+        ResourceSnapshotMessage snapshot = first.getSnapshotMessage(false);
+        assertNotNull(snapshot);
+        assertTrue(snapshot.asText(true).contains("delta.txt content"));
+        assertFalse(first.asText(true).contains("delta.txt content"));
+        chat.getContextManager().addMessage(snapshot);
+
+        // Unchanged: a one-line reference to the snapshot
+        RagMessage second = new RagMessage(chat);
+        rm.populate(second, 0);
+        assertTrue(second.asText(true).contains("unchanged since its rendering in message #" + snapshot.getSequentialId()));
+        assertNull(second.getSnapshotMessage(false));
+
+        // A one-line edit: only the changed hunk
+        Files.writeString(Path.of(resource.getPath()), ("delta.txt content\n").repeat(50) + "edited\n" + ("delta.txt content\n").repeat(49));
+        resource.reload();
+        RagMessage third = new RagMessage(chat);
+        rm.populate(third, 0);
+        String text = third.asText(true);
+        assertTrue(text.contains("```diff"));
+        assertTrue(text.contains("+edited"));
+        assertTrue(text.contains("-delta.txt content"));
+
+        // Once the snapshot is pruned, the resource renders in full again
+        snapshot.getParts().forEach(p -> p.setPruned(true));
+        RagMessage fourth = new RagMessage(chat);
+        rm.populate(fourth, 0);
+        assertNotNull(fourth.getSnapshotMessage(false));
+        assertTrue(fourth.getSnapshotMessage(false).asText(true).contains("edited"));
+        chat.shutdown();
+    }
+
+    @Test
+    public void testRebaselinePrunesThePreviousRendering() throws Exception {
+        Chat chat = new Chat(new ChatConfig(new AsiConfig("test-app"), "test-session"));
+        TextFileResource resource = load(chat.getResourceManager(), "rebaseline.txt");
+        resource.setRenderMode(RenderMode.DELTA);
+
+        List<ResourceSnapshotMessage> snapshots = new ArrayList<>();
+        for (String content : List.of("first", "second", "third")) {
+            // Rewritten completely: the diff is larger than the content, so it is rendered in full again
+            Files.writeString(Path.of(resource.getPath()), (content + " rendering\n").repeat(100));
+            resource.reload();
+            chat.getContextManager().buildVisibleHistory();
+            snapshots.add(lastSnapshot(chat));
+        }
+        assertEquals(3, snapshots.stream().distinct().count());
+        // Only the latest full rendering is visible, the earlier ones are pruned
+        assertTrue(snapshots.get(0).getParts().get(1).isEffectivelyPruned());
+        assertTrue(snapshots.get(1).getParts().get(1).isEffectivelyPruned());
+        assertFalse(snapshots.get(2).getParts().get(1).isEffectivelyPruned());
+        assertTrue(snapshots.get(2).asText(true).contains("third rendering"));
+        String visible = chat.getContextManager().buildVisibleHistory().stream()
+                .map(message -> message.asText(false)).reduce("", String::concat);
+        assertFalse(visible.contains("first rendering"));
+        assertFalse(visible.contains("second rendering"));
+        assertTrue(visible.contains("unchanged since its rendering in message #" + snapshots.get(2).getSequentialId()));
+        chat.shutdown();
+    }
+
+    @Test
+    public void testPathAndTypeIndexes() throws Exception {
+        ResourceManager rm = new ResourceManager();
+        TextFileResource a = load(rm, "a.txt");
+        TextFileResource b = load(rm, "b.txt");
+        DirectoryResource dir = new DirectoryResource(tempDir);
+        rm.register(dir);
+
+        assertEquals(List.of(a), rm.getResourcesByPath(tempDir.resolve("sub/../a.txt").toString()));
+        assertEquals(List.of(dir), rm.getResourcesByPath(tempDir.toString()));
+        assertEquals(List.of(a, b), rm.getResourcesByType(TextFileResource.class));
+        assertEquals(List.of(a, b, dir), rm.getResourcesByType(AbstractPathResource.class));
+
+        rm.unregister(a.getId());
+        assertTrue(rm.getResourcesByPath(a.getPath()).isEmpty());
+        assertEquals(List.of(b), rm.getResourcesByType(TextFileResource.class));
+        assertEquals(List.of(b, dir), rm.getResources());
+        rm.shutdown();
+    }
+
+    @Test
+    public void testIterationWhileRegistering() throws Exception {
+        ResourceManager rm = new ResourceManager();
+        TextFileResource template = load(rm, "template.txt");
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    for (AbstractResource resource : rm.getResources()) {
+                        resource.getName();
+                    }
+                    rm.getResourcesByType(TextFileResource.class);
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 2000; i++) {
+            TextFileResource resource = new TextFileResource(Path.of(template.getPath()));
+            rm.register(resource);
+            if (i % 2 == 0) {
+                rm.unregister(resource.getId());
+            }
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+        assertEquals(1001, rm.getResources().size());
+        rm.shutdown();
+    }
+
+    /**
+     * Gets the last resource snapshot message in the history.
+     *
+     * @param chat The chat.
+     * @return The snapshot message.
+     */
+    private static ResourceSnapshotMessage lastSnapshot(Chat chat) {
+        List<AbstractMessage> history = chat.getContextManager().getHistory();
+        for (int i = history.size() - 1; i >= 0; i--) {
+            if (history.get(i) instanceof ResourceSnapshotMessage snapshot) {
+                return snapshot;
+            }
+        }
+        throw new AssertionError("No snapshot in the history");
+    }
+
+    /**
+     * Creates and registers a text file of roughly 600 tokens.
+     *
+     * @param rm The resource manager.
+     * @param name The file name.
+     * @return The resource.
+     * @throws Exception if the file cannot be written.
+     */
+    private TextFileResource load(ResourceManager rm, String name) throws Exception {
+        Path file = Files.writeString(tempDir.resolve(name), (name + " content\n").repeat(100));
+        TextFileResource resource = new TextFileResource(file);
+        rm.register(resource);
+        return resource;
+    }
+}
@@ -0,0 +1,107 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.resource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uno.anahata.ai.model.resource.TextFileResource;
+
+/**
+ * Unit test for the WatchService based invalidation of path resources.
+ *
+ * @author anahata-ai
+ */
+public class ResourceWatcherTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testChangeInvalidatesCachedAttributes() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("watched.txt"), "v1");
+        ResourceManager rm = new ResourceManager();
+        try {
+            TextFileResource resource = new TextFileResource(file);
+            rm.register(resource);
+            assertTrue(resource.isWatched());
+            assertFalse(resource.isStale());
+
+            // Served from memory: the attributes are the same instance until the file changes
+            assertSame(resource.getFileAttributes(), resource.getFileAttributes());
+
+            Files.writeString(file, "version 2");
+            Files.setLastModifiedTime(file, FileTime.fromMillis(resource.getLoadLastModified() + 5000));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!resource.isStale() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(resource.isStale());
+
+            rm.unregister(resource.getId());
+            assertFalse(resource.isWatched());
+        } finally {
+            rm.shutdown();
+        }
+    }
+
+    @Test
+    public void testManagersShareTheWatcher() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("shared.txt"), "v1");
+        ResourceManager first = new ResourceManager();
+        ResourceManager second = new ResourceManager();
+        TextFileResource a = new TextFileResource(file);
+        TextFileResource b = new TextFileResource(file);
+        first.register(a);
+        second.register(b);
+        assertTrue(a.isWatched());
+        assertTrue(b.isWatched());
+
+        // Shutting one chat's manager down leaves the other's resources watched
+        first.shutdown();
+        assertFalse(a.isWatched());
+        assertTrue(b.isWatched());
+        second.shutdown();
+        assertFalse(b.isWatched());
+    }
+
+    @Test
+    public void testUnwatchableDirectoryIsNotRetried() throws Exception {
+        Path watchable = Files.createDirectories(tempDir.resolve("watchable"));
+        Path unwatchable = Files.createDirectories(tempDir.resolve("unwatchable"));
+        AtomicInteger attempts = new AtomicInteger();
+        ResourceWatcher watcher = new ResourceWatcher() {
+            @Override
+            WatchKey register(Path dir) throws IOException {
+                if (dir.endsWith("unwatchable")) {
+                    attempts.incrementAndGet();
+                    throw new IOException("User limit of inotify watches reached");
+                }
+                return super.register(dir);
+            }
+        };
+        try {
+            TextFileResource other = new TextFileResource(Files.writeString(watchable.resolve("other.txt"), "other"));
+            TextFileResource first = new TextFileResource(Files.writeString(unwatchable.resolve("first.txt"), "first"));
+            TextFileResource second = new TextFileResource(Files.writeString(unwatchable.resolve("second.txt"), "second"));
+            assertTrue(watcher.watch(other));
+            for (int turn = 0; turn < 3; turn++) {
+                assertFalse(watcher.watch(first));
+                assertFalse(watcher.watch(second));
+            }
+            assertEquals(1, attempts.get());
+
+            // Releasing a watched directory may free the capacity: the directory is tried again
+            watcher.unwatch(other);
+            assertFalse(watcher.watch(first));
+            assertEquals(2, attempts.get());
+        } finally {
+            watcher.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.resource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uno.anahata.ai.model.resource.TextFileResource;
+
+/**
+ * Unit test for the JVM-wide cache of resource content shared between sessions.
+ *
+ * @author anahata-ai
+ */
+public class SharedResourceCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    public void setUp() {
+        SharedResourceCache.clear();
+        SharedResourceCache.setMaxBytes(SharedResourceCache.DEFAULT_MAX_BYTES);
+    }
+
+    @Test
+    public void testSessionsShareTheLineIndexOfTheSameContent() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("shared.log"), "line\n".repeat(1000));
+        TextFileResource first = new TextFileResource(file);
+        TextFileResource second = new TextFileResource(file);
+        assertSame(first.getLineIndex(), second.getLineIndex());
+
+        // An append gives the reloading session a new index; the other session's index is untouched
+        Files.writeString(file, "appended\n", StandardOpenOption.APPEND);
+        file.toFile().setLastModified(System.currentTimeMillis() + 5000);
+        first.reload();
+        assertNotSame(first.getLineIndex(), second.getLineIndex());
+        assertEquals(1001, first.getLineIndex().getLineCount());
+        assertEquals(1000, second.getLineIndex().getLineCount());
+
+        // ...and the other session picks up the extended index on its next reload
+        second.reload();
+        assertSame(first.getLineIndex(), second.getLineIndex());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedValuesAreEvictedByBytesButStayReachableWhileInUse() {
+        SharedResourceCache.setMaxBytes(100);
+        String a = new String("a");
+        String b = new String("b");
+        SharedResourceCache.put("a", a, 60);
+        SharedResourceCache.put("b", b, 60);
+        assertEquals(60, SharedResourceCache.getSizeBytes());
+
+        // Evicted from the LRU, but still held by a caller, so it is not loaded twice
+        assertSame(a, SharedResourceCache.get("a", String.class));
+        assertSame(a, SharedResourceCache.put("a", new String("a"), 60));
+        assertNull(SharedResourceCache.get("a", Integer.class));
+        assertNull(SharedResourceCache.get("missing", String.class));
+        assertSame(b, SharedResourceCache.get("b", String.class));
+    }
+}
@@ -0,0 +1,204 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.session;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.context.ContextManager;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractToolMessage;
+import uno.anahata.ai.model.core.BlobPart;
+import uno.anahata.ai.model.core.Role;
+import uno.anahata.ai.model.core.UserMessage;
+import uno.anahata.ai.model.tool.AbstractToolCall;
+import uno.anahata.ai.model.tool.AbstractToolResponse;
+import uno.anahata.ai.model.tool.bad.BadTool;
+import uno.anahata.ai.model.tool.bad.BadToolCall;
+import static uno.anahata.ai.session.SessionTestFixture.*;
+
+/**
+ * Unit test for the indexed, lazily loaded session archive.
+ *
+ * @author anahata-ai
+ */
+public class SessionArchiveTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testLatestMessagesFirstAndOlderOnDemand() throws Exception {
+        Chat chat = newChat();
+        chat.getConfig().setName("Archived");
+        for (int i = 0; i < 30; i++) {
+            UserMessage message = addUserMessage(chat, "message " + i);
+            if (i == 2) {
+                new BlobPart(message, "image/png", new byte[]{1, 2, 3});
+                message.setPruned(true);
+            }
+        }
+        Path file = tempDir.resolve("session.anahata");
+        SessionArchive.write(chat, file);
+        chat.shutdown();
+
+        SessionArchive archive = SessionArchive.open(file);
+        assertEquals("test-session", archive.getSessionId());
+        assertEquals("Archived", archive.getName());
+        assertEquals(30, archive.getEntries().size());
+        SessionArchive.Entry entry = archive.getEntries().get(2);
+        assertEquals(Role.USER, entry.getRole());
+        assertEquals(Boolean.TRUE, entry.getPruned());
+        assertTrue(entry.getTokenCount() > 0);
+
+        Chat loaded = archive.load(new AsiConfig("test-app"), 5);
+        ContextManager contextManager = loaded.getContextManager();
+        List<AbstractMessage> history = contextManager.getHistory();
+        assertEquals(5, history.size());
+        assertEquals(25, contextManager.getDeferredCount());
+        assertEquals("message 29", history.get(4).asText(true));
+        assertSame(loaded, history.get(0).getChat());
+
+        assertEquals(10, contextManager.loadOlder(10));
+        assertEquals(15, contextManager.getDeferredCount());
+        assertEquals("message 15", contextManager.getHistory().get(0).asText(true));
+
+        // Building a request loads the rest; the blob of the pruned message is never read
+        contextManager.buildVisibleHistory();
+        assertEquals(0, contextManager.getDeferredCount());
+        BlobPart blob = (BlobPart) contextManager.getHistory().get(2).getParts().get(1);
+        assertTrue(blob.isDeferred());
+        assertEquals(3, blob.getSize());
+        assertArrayEquals(new byte[]{1, 2, 3}, blob.getData());
+        assertFalse(blob.isDeferred());
+
+        // Ids continue after the highest archived ones
+        UserMessage next = addUserMessage(loaded, "next");
+        assertEquals(31, next.getSequentialId());
+        loaded.shutdown();
+    }
+
+    @Test
+    public void testToolResultsAreDeferred() throws Exception {
+        Chat chat = newChat();
+        TestModelMessage model = new TestModelMessage(chat);
+        BadToolCall call = new BadToolCall(model, "call-1", new BadTool("Missing.tool"), Map.of());
+        call.getResponse().setResult("x".repeat(10_000));
+        chat.getContextManager().addMessage(model);
+        chat.getContextManager().ensureToolMessageFolllowsModelMessage(model);
+        Path file = tempDir.resolve("tools.anahata");
+        SessionArchive.write(chat, file);
+        chat.shutdown();
+
+        Chat loaded = SessionArchive.load(new AsiConfig("test-app"), file);
+        List<AbstractMessage> history = loaded.getContextManager().getHistory();
+        assertEquals(2, history.size());
+        AbstractToolMessage<?> tool = (AbstractToolMessage<?>) history.get(1);
+        assertSame(history.get(0), tool.getModelMessage());
+        AbstractToolResponse<?> response = tool.getToolResponses().get(0);
+        assertEquals("x".repeat(10_000), response.getResult());
+        loaded.shutdown();
+    }
+
+    @Test
+    public void testUnregisteredValuesAreReadAsJson() throws Exception {
+        Chat chat = newChat();
+        TestModelMessage model = new TestModelMessage(chat);
+        BadToolCall call = new BadToolCall(model, "call-1", new BadTool("Missing.tool"), Map.of("point", new Point(3, 4)));
+        call.getResponse().setResult(new Point(1, 2));
+        chat.getContextManager().addMessage(model);
+        Path file = tempDir.resolve("json.anahata");
+        SessionArchive.write(chat, file);
+        chat.shutdown();
+
+        Chat loaded = SessionArchive.load(new AsiConfig("test-app"), file);
+        TestModelMessage restored = (TestModelMessage) loaded.getContextManager().getHistory().get(0);
+        AbstractToolCall<?, ?> restoredCall = restored.getToolCalls().get(0);
+        assertEquals(Map.of("point", Map.of("x", 3, "y", 4)), restoredCall.getArgs());
+        assertEquals(Map.of("x", 1, "y", 2), restoredCall.getResponse().getResult());
+        loaded.shutdown();
+    }
+
+    @Test
+    public void testOtherFilesAreRejected() throws Exception {
+        Path file = tempDir.resolve("notes.txt");
+        Files.writeString(file, "not a session");
+        IOException e = assertThrows(IOException.class, () -> SessionArchive.load(new AsiConfig("test-app"), file));
+        assertTrue(e.getMessage().startsWith("Not a session file"));
+    }
+
+    @Test
+    public void testDeferredUnitsAreCopiedWithoutDecoding() throws Exception {
+        Chat chat = newChat();
+        for (int i = 0; i < 30; i++) {
+            UserMessage message = addUserMessage(chat, "message " + i);
+            if (i == 2) {
+                new BlobPart(message, "image/png", new byte[]{1, 2, 3});
+            }
+        }
+        Path file = tempDir.resolve("session.anahata");
+        SessionArchive.write(chat, file);
+        chat.shutdown();
+
+        Chat loaded = SessionArchive.open(file).load(new AsiConfig("test-app"), 5);
+        addUserMessage(loaded, "message 30");
+        Path copy = tempDir.resolve("copy.anahata");
+        SessionArchive.write(loaded, copy);
+        assertEquals(25, loaded.getContextManager().getDeferredCount());
+        loaded.shutdown();
+
+        SessionArchive archive = SessionArchive.open(copy);
+        assertEquals(31, archive.getEntries().size());
+        Chat reloaded = archive.load(new AsiConfig("test-app"), 31);
+        List<AbstractMessage> history = reloaded.getContextManager().getHistory();
+        assertEquals("message 30", history.get(30).asText(true));
+        // The payload offsets are relative to the copied block
+        BlobPart blob = (BlobPart) history.get(2).getParts().get(1);
+        assertArrayEquals(new byte[]{1, 2, 3}, blob.getData());
+        reloaded.shutdown();
+    }
+
+    @Test
+    public void testFailedWriteKeepsThePreviousFile() throws Exception {
+        Chat chat = newChat();
+        addUserMessage(chat, "kept");
+        Path file = tempDir.resolve("session.anahata");
+        SessionArchive.write(chat, file);
+
+        TestModelMessage model = new TestModelMessage(chat);
+        BadToolCall call = new BadToolCall(model, "call-1", new BadTool("Missing.tool"), Map.of());
+        call.getResponse().setResult(new Unwritable());
+        chat.getContextManager().addMessage(model);
+        addUserMessage(chat, "after");
+        assertThrows(IOException.class, () -> SessionArchive.write(chat, file));
+        chat.shutdown();
+
+        // Nothing was left out of a replaced file: the previous one is still there
+        assertEquals(1, SessionArchive.open(file).getEntries().size());
+        assertFalse(Files.exists(tempDir.resolve("session.anahata.tmp")));
+    }
+
+    /**
+     * A tool result that cannot be written, even as JSON or text.
+     */
+    static class Unwritable {
+
+        public String getValue() {
+            throw new IllegalStateException("Not writable");
+        }
+
+        @Override
+        public String toString() {
+            throw new IllegalStateException("Not writable");
+        }
+    }
+
+    record Point(int x, int y) {
+    }
+}
@@ -0,0 +1,237 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.session;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.context.ContextManager;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.BlobPart;
+import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.core.UserMessage;
+import static uno.anahata.ai.session.SessionTestFixture.*;
+
+/**
+ * Unit test for the append-only session journal.
+ *
+ * @author anahata-ai
+ */
+public class SessionJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testChangesAreReplayedIntoANewChat() throws Exception {
+        Chat chat = newChat();
+        SessionJournal journal = chat.enableJournal(tempDir);
+        UserMessage first = addUserMessage(chat, "first");
+        TextPart edited = new TextPart(first, "draft");
+        UserMessage second = addUserMessage(chat, "second");
+        UserMessage third = addUserMessage(chat, "third");
+        journal.flush();
+        long written = journal.getJournalBytes();
+
+        // A pruned flag is a small record, not a re-write of the message
+        first.getParts().get(0).setPruned(true);
+        journal.flush();
+        assertTrue(journal.getJournalBytes() - written < 64);
+
+        edited.setText("final");
+        third.setPruned(false);
+        chat.getContextManager().removeMessage(second);
+        chat.shutdown();
+
+        Chat restored = newChat();
+        restored.enableJournal(tempDir);
+        List<AbstractMessage> history = restored.getContextManager().getHistory();
+        assertEquals(2, history.size());
+        assertEquals(first.getId(), history.get(0).getId());
+        assertEquals(third.getId(), history.get(1).getId());
+        assertSame(restored, history.get(0).getChat());
+        assertEquals(Boolean.TRUE, history.get(0).getParts().get(0).getPruned());
+        assertEquals("final", ((TextPart) history.get(0).getParts().get(1)).getText());
+        assertEquals(Boolean.FALSE, history.get(1).getPruned());
+
+        // Ids continue after the restored ones
+        UserMessage fourth = addUserMessage(restored, "fourth");
+        assertEquals(third.getSequentialId() + 1, fourth.getSequentialId());
+        restored.shutdown();
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws Exception {
+        Chat chat = newChat();
+        SessionJournal journal = chat.enableJournal(tempDir);
+        addUserMessage(chat, "kept");
+        journal.flush();
+        long size = journal.getJournalBytes();
+        chat.shutdown();
+        // A record cut short by a crash
+        Files.write(tempDir.resolve(SessionJournal.JOURNAL_FILE), new byte[]{0, 0, 1, 0, 42, 42}, StandardOpenOption.APPEND);
+
+        Chat restored = newChat();
+        restored.enableJournal(tempDir);
+        assertEquals(1, restored.getContextManager().getHistory().size());
+        assertEquals(size, Files.size(tempDir.resolve(SessionJournal.JOURNAL_FILE)));
+        restored.shutdown();
+    }
+
+    @Test
+    public void testCompactionIntoSnapshot() throws Exception {
+        Chat chat = newChat();
+        SessionJournal journal = chat.enableJournal(tempDir);
+        UserMessage message = addUserMessage(chat, "x".repeat(3_000_000));
+        addUserMessage(chat, "small");
+        journal.flush();
+        assertEquals(0, journal.getGeneration());
+
+        ((TextPart) message.getParts().get(0)).setText("y".repeat(3_000_000));
+        journal.flush();
+        assertEquals(1, journal.getGeneration());
+        assertTrue(journal.getJournalBytes() < 100);
+        chat.shutdown();
+
+        Chat restored = newChat();
+        restored.enableJournal(tempDir);
+        List<AbstractMessage> history = restored.getContextManager().getHistory();
+        assertEquals(2, history.size());
+        assertTrue(((TextPart) history.get(0).getParts().get(0)).getText().startsWith("yyy"));
+        restored.shutdown();
+    }
+
+    @Test
+    public void testSnapshotIsRestoredLazily() throws Exception {
+        Chat chat = newChat();
+        chat.getConfig().setName("Journaled");
+        SessionJournal journal = chat.enableJournal(tempDir);
+        UserMessage large = addUserMessage(chat, "x".repeat(5_000_000));
+        new BlobPart(large, "image/png", new byte[]{1, 2, 3});
+        List<UserMessage> messages = new ArrayList<>();
+        for (int i = 1; i < 30; i++) {
+            messages.add(addUserMessage(chat, "message " + i));
+        }
+        journal.flush();
+        assertEquals(1, journal.getGeneration());
+        assertTrue(Files.exists(tempDir.resolve("snapshot-1.anahata")));
+
+        // An old message changes after the compaction
+        ((TextPart) messages.get(1).getParts().get(0)).setText("edited");
+        chat.setNickname("Renamed");
+        chat.shutdown();
+
+        Chat restored = newChat();
+        SessionJournal reopened = restored.enableJournal(tempDir);
+        ContextManager contextManager = restored.getContextManager();
+        // The latest units and the edited one are decoded, the older ones deferred
+        assertEquals(2, contextManager.getDeferredCount());
+        assertEquals("edited", contextManager.getHistory().get(0).asText(true));
+        assertEquals("Renamed", restored.getConfig().getName());
+        assertEquals(30, reopened.getMessageCount());
+
+        // A new snapshot copies the deferred units without decoding them
+        addUserMessage(restored, "y".repeat(6_000_000));
+        reopened.flush();
+        assertEquals(2, reopened.getGeneration());
+        assertEquals(2, contextManager.getDeferredCount());
+        restored.shutdown();
+
+        Chat again = newChat();
+        again.enableJournal(tempDir);
+        again.getContextManager().loadAll();
+        List<AbstractMessage> history = again.getContextManager().getHistory();
+        assertEquals(31, history.size());
+        assertEquals("edited", history.get(2).asText(true));
+        BlobPart blob = (BlobPart) history.get(0).getParts().get(1);
+        assertArrayEquals(new byte[]{1, 2, 3}, blob.getData());
+        again.shutdown();
+        assertFalse(Files.exists(tempDir.resolve("snapshot-1.anahata")));
+    }
+
+    @Test
+    public void testHistoryOfANonEmptyChatReplacesTheSavedOne() throws Exception {
+        Chat chat = newChat();
+        chat.enableJournal(tempDir);
+        addUserMessage(chat, "saved");
+        chat.shutdown();
+
+        Chat other = newChat();
+        addUserMessage(other, "first");
+        addUserMessage(other, "second");
+        SessionJournal journal = other.enableJournal(tempDir);
+        journal.flush();
+        assertEquals(1, journal.getGeneration());
+        other.shutdown();
+
+        Chat restored = newChat();
+        restored.enableJournal(tempDir);
+        List<AbstractMessage> history = restored.getContextManager().getHistory();
+        assertEquals(List.of("first", "second"), history.stream().map(m -> m.asText(true)).toList());
+        restored.shutdown();
+    }
+
+    @Test
+    public void testNothingIsWrittenAfterAUnitThatFailsToSerialize() throws Exception {
+        Chat chat = newChat();
+        SessionJournal journal = chat.enableJournal(tempDir);
+        addUserMessage(chat, "first");
+        journal.flush();
+        UserMessage failing = new UserMessage(chat);
+        UnserializablePart part = new UnserializablePart(failing, "second");
+        chat.getContextManager().addMessage(failing);
+        addUserMessage(chat, "third");
+        journal.flush();
+
+        // As after a crash: the log holds a consistent prefix of the history
+        Path copy = Files.createDirectory(tempDir.resolve("copy"));
+        Files.copy(tempDir.resolve(SessionJournal.JOURNAL_FILE), copy.resolve(SessionJournal.JOURNAL_FILE));
+        Chat crashed = newChat();
+        crashed.enableJournal(copy);
+        assertEquals(List.of("first"), crashed.getContextManager().getHistory().stream().map(m -> m.asText(true)).toList());
+        crashed.shutdown();
+
+        part.value = null;
+        part.setText("second, fixed");
+        journal.flush();
+        chat.shutdown();
+
+        Chat restored = newChat();
+        restored.enableJournal(tempDir);
+        assertEquals(List.of("first", "second, fixed", "third"),
+                restored.getContextManager().getHistory().stream().map(m -> m.asText(true)).toList());
+        restored.shutdown();
+    }
+
+    /**
+     * A part that cannot be serialized while it holds a value.
+     */
+    static class UnserializablePart extends TextPart {
+
+        Unwritable value = new Unwritable();
+
+        UnserializablePart(AbstractMessage message, String text) {
+            super(message, text);
+        }
+    }
+
+    /**
+     * A value that can be written neither as JSON nor as its string form.
+     */
+    static class Unwritable {
+
+        public String getState() {
+            throw new IllegalStateException("Not writable");
+        }
+
+        @Override
+        public String toString() {
+            throw new IllegalStateException("Not writable");
+        }
+    }
+}
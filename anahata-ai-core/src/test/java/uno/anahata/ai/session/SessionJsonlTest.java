@@ -0,0 +1,127 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.session;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractToolMessage;
+import uno.anahata.ai.model.core.BlobPart;
+import uno.anahata.ai.model.core.UserMessage;
+import uno.anahata.ai.model.tool.bad.BadTool;
+import uno.anahata.ai.model.tool.bad.BadToolCall;
+import uno.anahata.ai.tool.schema.SchemaProvider;
+import static uno.anahata.ai.session.SessionTestFixture.*;
+
+/**
+ * Unit test for the streaming JSON Lines export and import of sessions.
+ *
+ * @author anahata-ai
+ */
+public class SessionJsonlTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRoundTripWithChunkedPayloads() throws Exception {
+        Chat chat = newSession();
+        Path file = tempDir.resolve("session.jsonl");
+        SessionJsonl.write(chat, file, false);
+        chat.shutdown();
+        assertFalse(Files.exists(tempDir.resolve("session.jsonl" + SessionJsonl.SIDECAR_SUFFIX)));
+
+        // Every line is a standalone JSON object
+        List<String> lines = Files.readAllLines(file);
+        JsonNode session = SchemaProvider.OBJECT_MAPPER.readTree(lines.get(0));
+        assertEquals("session", session.get("type").asText());
+        assertEquals("Exported", session.get("name").asText());
+        JsonNode call = lines.stream().map(SessionJsonlTest::parse)
+                .filter(line -> line.has("callId")).findFirst().orElseThrow();
+        assertEquals("Missing.tool", call.get("toolName").asText());
+        assertEquals(42, call.get("args").get("answer").asInt());
+        assertTrue(lines.stream().map(SessionJsonlTest::parse).anyMatch(line -> "chunk".equals(line.get("type").asText())));
+
+        assertLoaded(SessionJsonl.load(new AsiConfig("test-app"), file));
+    }
+
+    @Test
+    public void testRoundTripWithSidecars() throws Exception {
+        Chat chat = newSession();
+        Path file = tempDir.resolve("sidecar.jsonl");
+        SessionJsonl.write(chat, file, true);
+        chat.shutdown();
+        try (var files = Files.list(tempDir.resolve("sidecar.jsonl" + SessionJsonl.SIDECAR_SUFFIX))) {
+            assertEquals(2, files.count()); // The blob and the tool result
+        }
+        assertTrue(Files.readAllLines(file).stream().map(SessionJsonlTest::parse).noneMatch(line -> "chunk".equals(line.get("type").asText())));
+
+        assertLoaded(SessionJsonl.load(new AsiConfig("test-app"), file));
+    }
+
+    @Test
+    public void testSidecarOutsideTheDirectoryIsRejected() throws Exception {
+        Path secret = Files.writeString(tempDir.resolve("secret.txt"), "not a payload");
+        for (String name : List.of("../secret.txt", secret.toString(), "", "a/../../secret.txt")) {
+            String session = "{\"type\":\"session\",\"format\":1,\"sessionId\":\"test-session\"}\n"
+                    + "{\"type\":\"payload\",\"id\":0,\"length\":13,\"file\":" + SchemaProvider.OBJECT_MAPPER.writeValueAsString(name) + "}\n";
+            IOException e = assertThrows(IOException.class, () -> SessionJsonl.load(new AsiConfig("test-app"),
+                    new ByteArrayInputStream(session.getBytes(StandardCharsets.UTF_8)), tempDir.resolve("sidecars")));
+            assertTrue(e.getMessage().contains("outside"), e.getMessage());
+        }
+    }
+
+    private static Chat newSession() {
+        Chat chat = newChat();
+        chat.getConfig().setName("Exported");
+        chat.setSummary("Round trip");
+        UserMessage message = addUserMessage(chat, "look at this");
+        byte[] image = new byte[200_000];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+        new BlobPart(message, "image/png", image);
+
+        TestModelMessage model = new TestModelMessage(chat);
+        BadToolCall call = new BadToolCall(model, "call-1", new BadTool("Missing.tool"), Map.of("answer", 42));
+        call.getResponse().setResult("done");
+        chat.getContextManager().addMessage(model);
+        chat.getContextManager().ensureToolMessageFolllowsModelMessage(model);
+        return chat;
+    }
+
+    private static void assertLoaded(Chat loaded) {
+        assertEquals("test-session", loaded.getConfig().getSessionId());
+        assertEquals("Exported", loaded.getNickname());
+        assertEquals("Round trip", loaded.getSummary());
+        List<AbstractMessage> history = loaded.getContextManager().getHistory();
+        assertEquals(3, history.size());
+        assertEquals("look at this", history.get(0).getParts().get(0).asText());
+        BlobPart blob = (BlobPart) history.get(0).getParts().get(1);
+        assertTrue(blob.isDeferred());
+        assertEquals(200_000, blob.getSize());
+        assertEquals((byte) 199_999, blob.getData()[199_999]);
+        AbstractToolMessage<?> tool = (AbstractToolMessage<?>) history.get(2);
+        assertSame(history.get(1), tool.getModelMessage());
+        assertEquals("done", tool.getToolResponses().get(0).getResult());
+        loaded.shutdown();
+    }
+
+    private static JsonNode parse(String line) {
+        try {
+            return SchemaProvider.OBJECT_MAPPER.readTree(line);
+        } catch (Exception e) {
+            throw new AssertionError(line, e);
+        }
+    }
+}
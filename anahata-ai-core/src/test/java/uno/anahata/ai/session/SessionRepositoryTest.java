@@ -0,0 +1,128 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.session;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import static uno.anahata.ai.session.SessionTestFixture.*;
+
+/**
+ * Unit test for the indexed repository of saved sessions.
+ *
+ * @author anahata-ai
+ */
+public class SessionRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testSaveListSearchAndDelete() throws Exception {
+        SessionRepository repository = SessionRepository.open(tempDir);
+        Chat first = newChat("first");
+        first.setNickname("Kryo tuning");
+        first.setSummary("Pooling serializers");
+        addUserMessage(first, "hello");
+        addUserMessage(first, "again");
+        Chat second = newChat("second");
+        second.setNickname("Swing layout");
+        addUserMessage(second, "hi");
+        Chat empty = newChat("empty");
+
+        assertTrue(repository.save(first).isPresent());
+        Thread.sleep(5);
+        assertTrue(repository.save(second).isPresent());
+        assertTrue(repository.save(empty).isEmpty());
+
+        List<SessionRepository.Entry> entries = repository.list();
+        assertEquals(List.of("second", "first"), entries.stream().map(SessionRepository.Entry::getSessionId).toList());
+        SessionRepository.Entry entry = entries.get(1);
+        assertEquals("Kryo tuning", entry.getName());
+        assertEquals("Pooling serializers", entry.getSummary());
+        assertEquals(2, entry.getMessageCount());
+        assertTrue(entry.getEstimatedTokens() > 0);
+
+        assertEquals(1, repository.search("kryo POOLING").size());
+        assertEquals(0, repository.search("kryo layout").size());
+        assertEquals(2, repository.search("  ").size());
+
+        assertTrue(repository.delete("second"));
+        assertFalse(repository.delete("second"));
+        assertFalse(Files.exists(repository.getSessionDirectory("second")));
+        repository.close();
+        first.shutdown();
+        second.shutdown();
+        empty.shutdown();
+
+        // A torn record at the end of the index is dropped
+        Path index = tempDir.resolve(SessionRepository.INDEX_FILE);
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2}));
+        }
+        SessionRepository reopened = SessionRepository.open(tempDir);
+        assertEquals(List.of("first"), reopened.list().stream().map(SessionRepository.Entry::getSessionId).toList());
+        Chat loaded = reopened.load(new ChatConfig(new AsiConfig("test-app"), "first"));
+        assertEquals("Kryo tuning", loaded.getNickname());
+        assertEquals("again", loaded.getContextManager().getHistory().get(1).asText(true));
+        loaded.shutdown();
+        reopened.close();
+    }
+
+    @Test
+    public void testIndexIsCompacted() throws Exception {
+        SessionRepository repository = SessionRepository.open(tempDir);
+        Chat chat = newChat("busy");
+        addUserMessage(chat, "hello");
+        for (int i = 0; i < 300; i++) {
+            repository.save(chat);
+        }
+        repository.close();
+        chat.shutdown();
+        // Header plus far fewer than 300 records
+        assertTrue(Files.size(tempDir.resolve(SessionRepository.INDEX_FILE)) < 100 * 100);
+        SessionRepository reopened = SessionRepository.open(tempDir);
+        assertEquals(1, reopened.list().size());
+        reopened.close();
+    }
+
+    @Test
+    public void testAutoSaveCoalescesChanges() throws Exception {
+        SessionRepository repository = SessionRepository.open(tempDir);
+        Chat chat = newChat("auto");
+        repository.autoSave(chat);
+        for (int i = 0; i < 10; i++) {
+            addUserMessage(chat, "message " + i);
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (repository.get("auto").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(10, repository.get("auto").orElseThrow().getMessageCount());
+
+        // Pending changes are saved when auto-saving stops
+        chat.setNickname("Renamed");
+        repository.stopAutoSave(chat);
+        assertEquals("Renamed", repository.get("auto").orElseThrow().getName());
+        repository.close();
+        chat.shutdown();
+
+        // Saved by the journal of the chat, loaded latest messages first
+        assertTrue(Files.exists(tempDir.resolve("auto").resolve(SessionJournal.JOURNAL_FILE)));
+        SessionRepository reopened = SessionRepository.open(tempDir);
+        Chat loaded = reopened.load(new ChatConfig(new AsiConfig("test-app"), "auto"));
+        assertEquals(10, loaded.getContextManager().getHistory().size());
+        assertEquals("Renamed", loaded.getNickname());
+        assertEquals(tempDir.resolve("auto"), loaded.getJournal().getDirectory());
+        reopened.close();
+        loaded.shutdown();
+    }
+}
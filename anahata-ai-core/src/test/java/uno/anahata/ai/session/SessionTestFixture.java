@@ -0,0 +1,59 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.session;
+
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.model.core.AbstractModelMessage;
+import uno.anahata.ai.model.core.AbstractToolMessage;
+import uno.anahata.ai.model.core.Response;
+import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.core.UserMessage;
+
+/**
+ * The chats and messages shared by the session tests.
+ *
+ * @author anahata-ai
+ */
+final class SessionTestFixture {
+
+    private SessionTestFixture() {
+    }
+
+    static Chat newChat() {
+        return newChat("test-session");
+    }
+
+    static Chat newChat(String sessionId) {
+        return new Chat(new ChatConfig(new AsiConfig("test-app"), sessionId));
+    }
+
+    static UserMessage addUserMessage(Chat chat, String text) {
+        UserMessage message = new UserMessage(chat);
+        new TextPart(message, text);
+        chat.getContextManager().addMessage(message);
+        return message;
+    }
+
+    /**
+     * A model message of a provider, i.e. a class outside the registration table.
+     */
+    static class TestModelMessage extends AbstractModelMessage<Response, TestToolMessage> {
+
+        TestModelMessage(Chat chat) {
+            super(chat, "test-model");
+        }
+
+        @Override
+        protected TestToolMessage createToolMessage() {
+            return new TestToolMessage(this);
+        }
+    }
+
+    static class TestToolMessage extends AbstractToolMessage<TestModelMessage> {
+
+        TestToolMessage(TestModelMessage modelMessage) {
+            super(modelMessage);
+        }
+    }
+}
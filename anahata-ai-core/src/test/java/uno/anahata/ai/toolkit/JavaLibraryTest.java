@@ -0,0 +1,57 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.toolkit;
+
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import uno.anahata.ai.toolkit.java.CompiledLibrary;
+
+/**
+ * Unit test for the batch compilation and in-memory library linking of the Java toolkit.
+ *
+ * @author anahata
+ */
+public class JavaLibraryTest {
+
+    private static final String GREETER = "package demo.util;\n"
+            + "public class Greeter {\n"
+            + "    public static int instances;\n"
+            + "    public Greeter() { instances++; }\n"
+            + "    public String greet(String name) { return Format.bold(\"Hola \" + name); }\n"
+            + "}\n";
+
+    private static final String FORMAT = "package demo.util;\n"
+            + "final class Format {\n"
+            + "    static String bold(String s) { return \"**\" + s + \"**\"; }\n"
+            + "}\n";
+
+    private static final String ANAHATA = "import java.util.concurrent.Callable;\n"
+            + "import demo.util.Greeter;\n"
+            + "public class Anahata implements Callable<Object> {\n"
+            + "    public Object call() { new Greeter(); return new Greeter().greet(\"Barça\") + \" \" + Greeter.instances; }\n"
+            + "}\n";
+
+    @Test
+    public void testCompileLibraryAndLink() throws Exception {
+        Java java = new Java();
+
+        CompiledLibrary library = java.compileLibrary("utils", Arrays.asList(GREETER, FORMAT), null, null, null);
+        assertEquals(1, library.getVersion());
+        assertEquals(Arrays.asList("demo.util.Format", "demo.util.Greeter"), library.getClassNames());
+
+        // Static state lives in the library's class loader, so it survives across executions
+        assertEquals("**Hola Barça** 2", java.compileAndExecute(ANAHATA, null, null, Collections.singletonList("utils")));
+        assertEquals("**Hola Barça** 4", java.compileAndExecute(ANAHATA, null, null, Collections.singletonList("utils")));
+
+        CompiledLibrary recompiled = java.compileLibrary("utils", Arrays.asList(GREETER, FORMAT), null, null, null);
+        assertEquals(2, recompiled.getVersion());
+        assertEquals("**Hola Barça** 2", java.compileAndExecute(ANAHATA, null, null, Collections.singletonList("utils")));
+    }
+
+    @Test
+    public void testUnknownLibrary() {
+        Java java = new Java();
+        assertThrows(Exception.class, () -> java.compileAndExecute(ANAHATA, null, null, Collections.singletonList("nope")));
+    }
+}
@@ -0,0 +1,142 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.gemini.adapter;
+
+import com.google.genai.types.Content;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.gemini.GeminiModelMessage;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.BlobPart;
+import uno.anahata.ai.model.core.ModelTextPart;
+import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.core.UserMessage;
+import uno.anahata.ai.model.tool.bad.BadTool;
+import uno.anahata.ai.model.tool.bad.BadToolCall;
+
+/**
+ * Compares converting the whole history on every request, as
+ * {@code GeminiModel} did, with {@link GeminiContentAdapter#toGoogleCached}
+ * converting only the messages that changed since the previous request.
+ * <p>
+ * Each turn of the history is a user message (with an image every tenth
+ * turn), a model message with a tool call and the tool message with its
+ * response. Pruned parts are included, so that the whole history is sent.
+ * Both paths also render the history JSON, as the request does.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec -Djmh.benchmarks=GeminiContentAdapterBenchmark}.
+ *
+ * @author anahata-ai
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeminiContentAdapterBenchmark {
+
+    /** The number of messages in the history. */
+    @Param({"2000"})
+    public int messages;
+
+    /** The chat of the messages. */
+    private Chat chat;
+
+    /** The history. */
+    private List<AbstractMessage> history;
+
+    /** The text of the last user message, changed before every cached request. */
+    private TextPart lastText;
+
+    /** The number of cached requests, alternating the text of the last message. */
+    private long requests;
+
+    /**
+     * Builds the history and warms the cache.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        ChatConfig config = new ChatConfig(new AsiConfig("benchmark"), "benchmark");
+        config.setHardPruneDelay(-1);
+        chat = new Chat(config);
+        byte[] image = new byte[64 * 1024];
+        for (int turn = 0; chat.getContextManager().getHistory().size() < messages; turn++) {
+            UserMessage user = new UserMessage(chat);
+            lastText = new TextPart(user, ("Turn " + turn + ": please read the file and review it. ").repeat(4));
+            if (turn % 10 == 0) {
+                new BlobPart(user, "image/png", image);
+            }
+            chat.getContextManager().addMessage(user);
+
+            GeminiModelMessage model = new GeminiModelMessage(chat, "benchmark-model");
+            new ModelTextPart(model, "Reading the file to review it.", null, false);
+            BadToolCall call = new BadToolCall(model, "call-" + turn, new BadTool("Files.readFile"), Map.of("path", "/src/File" + turn + ".java"));
+            call.getResponse().setResult(Map.of(
+                    "path", "/src/File" + turn + ".java",
+                    "lines", 120,
+                    "content", ("public class File" + turn + " { /* ... */ }\n").repeat(60)));
+            chat.getContextManager().addMessage(model);
+        }
+        history = chat.getContextManager().getHistory();
+        convertCached();
+    }
+
+    /**
+     * Shuts down the chat.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chat.shutdown();
+    }
+
+    /**
+     * The previous path: every message is converted on every request.
+     *
+     * @return The history JSON.
+     */
+    @Benchmark
+    public String convertAll() {
+        List<Content> contents = history.stream()
+                .map(msg -> new GeminiContentAdapter(msg, true).toGoogle())
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return contents.stream()
+                .map(Content::toJson)
+                .collect(Collectors.joining(",\n", "[\n", "\n]"));
+    }
+
+    /**
+     * The cached path, with the last message changed since the previous
+     * request, as when a new turn is sent.
+     *
+     * @return The history JSON.
+     */
+    @Benchmark
+    public String convertCached() {
+        lastText.setText(requests++ % 2 == 0 ? "Next turn." : "Another turn.");
+        return history.stream()
+                .map(msg -> GeminiContentAdapter.toGoogleCached(msg, true))
+                .filter(cc -> cc.getContent() != null)
+                .map(GeminiContentAdapter.ConvertedContent::getJson)
+                .collect(Collectors.joining(",\n", "[\n", "\n]"));
+    }
+}
@@ -4,69 +4,92 @@ package uno.anahata.ai.gemini;
 import com.google.genai.Client;
 import com.google.genai.types.ListModelsConfig;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
+import lombok.AccessLevel;
 import lombok.Getter;
+import uno.anahata.ai.gemini.cache.ClientCachesApi;
+import uno.anahata.ai.gemini.cache.GeminiContextCache;
 import uno.anahata.ai.model.provider.AbstractAiProvider;
 import uno.anahata.ai.model.provider.AbstractModel;
+import uno.anahata.ai.model.provider.ApiKeyManager;
 
 /**
  * The concrete implementation of the {@code AbstractAiProvider} for the Google
- * Gemini API. This class manages the native {@code Client} instance and handles
- * the discovery and listing of available Gemini models.
+ * Gemini API. This class keeps one native {@code Client}, with its connection
+ * pool, per API key and handles the discovery and listing of available Gemini
+ * models.
  *
  * @author anahata-gemini-pro-2.5
  */
 @Getter
 public class GeminiAiProvider extends AbstractAiProvider {
 
-    private Client client;
+    /** The client of every API key, created on first use and kept for the life of the provider. */
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+
+    /** Keeps the stable prefix of every chat's requests in a cached content. */
+    private final GeminiContextCache contextCache = new GeminiContextCache();
 
     public GeminiAiProvider() {
         super("Gemini");
     }
 
     /**
-     * Gets the native Gemini API client, creating it lazily if necessary.
+     * Gets the native Gemini API client of an API key, creating it on first
+     * use. The client is shared by all the requests made with the key.
      *
+     * @param apiKey The API key.
      * @return The native {@code Client} instance.
      */
-    public synchronized Client getClient() {
-        if (client == null) {
-            String nextKey = getNextKey();
-            if (nextKey != null) {
-                client = Client.builder()
-                        .apiKey(nextKey)
-                        .build();
-            } else {
-                throw new IllegalStateException("Could not load an API key for Gemini. Check " + getKeysFilePath());
-            }
-
-        }
-        return client;
+    public Client getClient(String apiKey) {
+        return clients.computeIfAbsent(apiKey, key -> Client.builder()
+                .apiKey(key)
+                .build());
     }
 
     /**
-     * Returns the api key being used by the current genai Client
-     * @return the api key in use
+     * Reloads the keys and forgets the clients of the keys that were removed.
+     * Requests still in flight with them keep their client until they end.
      */
     @Override
-    public String getCurrentApiKey() {
-        return getClient().apiKey();
+    public synchronized void reloadKeyPool() {
+        super.reloadKeyPool();
+        clients.keySet().retainAll(getKeyPool());
+    }
+
+    /**
+     * Gets the caches API of an API key, for the context cache of the
+     * requests made with it.
+     *
+     * @param apiKey The API key.
+     * @return The caches API.
+     */
+    public ClientCachesApi getCachesApi(String apiKey) {
+        return new ClientCachesApi(getClient(apiKey));
     }
 
     /**
-     * Resets the client to null to force a new key on the next call.
+     * Returns the api key of the last request
+     * @return the api key in use, or null if no request was made yet
      */
-    public synchronized void resetClient() {
-        client = null;
+    @Override
+    public String getCurrentApiKey() {
+        return getKeyManager().getLastKey();
     }
 
     @Override
     public List<? extends AbstractModel> listModels() {
-        var pager = getClient().models.list(ListModelsConfig.builder().build());
-        return StreamSupport.stream(pager.spliterator(), false)
-                .map(model -> (AbstractModel) new GeminiModel(this, model))
-                .collect(Collectors.toList());
+        try (ApiKeyManager.Lease lease = acquireKey(null)) {
+            var pager = getClient(lease.getKey()).models.list(ListModelsConfig.builder().build());
+            List<? extends AbstractModel> models = StreamSupport.stream(pager.spliterator(), false)
+                    .map(model -> (AbstractModel) new GeminiModel(this, model))
+                    .collect(Collectors.toList());
+            lease.succeeded();
+            return models;
+        }
     }
 }
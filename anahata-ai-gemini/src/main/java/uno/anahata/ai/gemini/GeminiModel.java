@@ -3,7 +3,7 @@ package uno.anahata.ai.gemini;
 
 import com.google.genai.Client;
 import com.google.genai.ResponseStream;
-import com.google.genai.errors.ClientException;
+import com.google.genai.errors.ApiException;
 import com.google.genai.types.Candidate;
 import com.google.genai.types.Citation;
 import com.google.genai.types.ComputerUse;
@@ -18,17 +18,23 @@ import com.google.genai.types.GoogleSearchRetrieval;
 import com.google.genai.types.Model;
 import com.google.genai.types.Part;
 import com.google.genai.types.ToolCodeExecution;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import uno.anahata.ai.chat.Chat;
 import uno.anahata.ai.gemini.adapter.GeminiContentAdapter;
+import uno.anahata.ai.gemini.adapter.GeminiContentAdapter.ConvertedContent;
 import uno.anahata.ai.gemini.adapter.RequestConfigAdapter;
+import uno.anahata.ai.gemini.cache.GeminiContextCache.CachedPrefix;
 import uno.anahata.ai.internal.JacksonUtils;
 import uno.anahata.ai.model.core.AbstractMessage;
 import uno.anahata.ai.model.core.AbstractModelMessage;
@@ -42,6 +48,7 @@ import uno.anahata.ai.model.core.StreamObserver;
 import uno.anahata.ai.model.core.TextPart;
 import uno.anahata.ai.model.provider.AbstractAiProvider;
 import uno.anahata.ai.model.provider.AbstractModel;
+import uno.anahata.ai.model.provider.ApiKeyManager;
 import uno.anahata.ai.model.provider.ServerTool;
 import uno.anahata.ai.tool.RetryableApiException;
 
@@ -56,6 +63,9 @@ import uno.anahata.ai.tool.RetryableApiException;
 @Slf4j
 public class GeminiModel extends AbstractModel {
 
+    /** The retry-after hint of a rate limit error, in seconds. */
+    private static final Pattern RETRY_DELAY = Pattern.compile("(?:\"retryDelay\"\\s*:\\s*\"|retry in )(\\d+(?:\\.\\d+)?)s");
+
     private final GeminiAiProvider provider;
     private final Model genaiModel;
 
@@ -197,73 +207,156 @@ public class GeminiModel extends AbstractModel {
         return genaiModel.topP().orElse(null);
     }
 
-    private record GeminiGenerateContentParameters(List<Content> history, String historyJson, GenerateContentConfig config) {}
+    /**
+     * A request prepared for the API. Its JSON is rendered at most once: right
+     * away if raw JSON capture is enabled, or else when a response is first
+     * asked for it. It is shared by all the chunks of a stream.
+     */
+    @RequiredArgsConstructor
+    private static final class PreparedRequest {
+
+        /** The converted history to send, with the JSON of each message. */
+        private final List<ConvertedContent> converted;
+
+        /** The history to send. */
+        @Getter
+        private final List<Content> history;
+
+        /** The configuration to send. */
+        @Getter
+        private final GenerateContentConfig config;
+
+        /** The name of the cached content the request references, or null. */
+        @Getter
+        private final String cachedContent;
+
+        private String configJson;
+        private String historyJson;
+
+        /**
+         * Gets the JSON of the configuration, rendering it on first use.
+         *
+         * @return The JSON.
+         */
+        synchronized String getConfigJson() {
+            if (configJson == null) {
+                configJson = config.toJson();
+            }
+            return configJson;
+        }
+
+        /**
+         * Gets the JSON of the history, joining the JSON of every message on
+         * first use.
+         *
+         * @return The JSON.
+         */
+        synchronized String getHistoryJson() {
+            if (historyJson == null) {
+                historyJson = converted.stream()
+                        .map(ConvertedContent::getJson)
+                        .collect(Collectors.joining(",\n", "[\n", "\n]"));
+            }
+            return historyJson;
+        }
+    }
 
-    private GeminiGenerateContentParameters prepareGenerateContentParameters(GenerationRequest request) {
+    private PreparedRequest prepareGenerateContentParameters(GenerationRequest request, String apiKey) {
         RequestConfig config = request.config();
         List<AbstractMessage> history = request.history();
         boolean includePruned = config.isIncludePruned();
 
-        List<Content> googleHistory = history.stream()
-                .map(msg -> new GeminiContentAdapter(msg, includePruned).toGoogle())
-                .filter(Objects::nonNull)
+        // Only the messages that are new or changed since the last request are converted
+        List<ConvertedContent> converted = history.stream()
+                .map(msg -> GeminiContentAdapter.toGoogleCached(msg, includePruned))
+                .filter(cc -> cc.getContent() != null)
                 .collect(Collectors.toList());
 
-        String historyJson = googleHistory.stream()
-                .map(Content::toJson)
-                .collect(Collectors.joining(",\n", "[\n", "\n]"));
-
         GenerateContentConfig gcc = RequestConfigAdapter.toGoogle(config);
-        return new GeminiGenerateContentParameters(googleHistory, historyJson, gcc);
+
+        // The stable prefix of the request is sent once, in a cached content
+        Chat chat = config.getChat();
+        String cachedContent = null;
+        if (chat.getConfig().isContextCaching() && isSupportsCachedContent()) {
+            Optional<CachedPrefix> prefix = provider.getContextCache().prepare(provider.getCachesApi(apiKey), chat, getModelId(), converted, gcc,
+                    Duration.ofSeconds(chat.getConfig().getContextCacheTtlSeconds()));
+            if (prefix.isPresent()) {
+                cachedContent = prefix.get().name();
+                converted = converted.subList(prefix.get().messages(), converted.size());
+                gcc = RequestConfigAdapter.toGoogle(config, cachedContent);
+            }
+        }
+
+        List<Content> googleHistory = converted.stream()
+                .map(ConvertedContent::getContent)
+                .collect(Collectors.toList());
+
+        PreparedRequest prepared = new PreparedRequest(converted, googleHistory, gcc, cachedContent);
+        if (chat.getConfig().isCaptureRawJson()) {
+            prepared.getConfigJson();
+            prepared.getHistoryJson();
+        }
+        return prepared;
     }
 
     @Override
     public Response generateContent(GenerationRequest request) {
-        Client client = provider.getClient();
-        GeminiGenerateContentParameters prepared = prepareGenerateContentParameters(request);
-        
-        log.info("Sending request to Gemini model: {} {} content elements", getModelId(), prepared.history().size());
+        ApiKeyManager.Lease lease = provider.acquireKey(request.config().getChat());
+        Client client = provider.getClient(lease.getKey());
+        PreparedRequest prepared = null;
 
         // 2. Make the API call
         try {
+            prepared = prepareGenerateContentParameters(request, lease.getKey());
+            log.info("Sending request to Gemini model: {} {} content elements, cached content: {}", getModelId(), prepared.getHistory().size(), prepared.getCachedContent());
+
             GenerateContentResponse response = client.models.generateContent(
                     getModelId(),
-                    prepared.history(),
-                    prepared.config()
+                    prepared.getHistory(),
+                    prepared.getConfig()
             );
-            log.info("Got response from Gemini model: {}", response.toJson());
+            lease.succeeded();
+            log.info("Got response from Gemini model: {}", getModelId());
+            if (log.isDebugEnabled()) {
+                log.debug("Response JSON: {}", response.toJson());
+            }
 
             // 3. Convert the Gemini response to the Anahata response using the new OO response class.
             Chat chat = request.config().getChat();
-            return new GeminiResponse(prepared.config().toJson(), prepared.historyJson(), chat, getModelId(), response);
-        } catch (ClientException e) {
+            return new GeminiResponse(prepared::getConfigJson, prepared::getHistoryJson, chat, getModelId(), response);
+        } catch (ApiException e) {
             log.error("Exception in generateContent", e);
-            if (e.toString().contains("429") || e.toString().contains("503") || e.toString().contains("500")) {
-                provider.resetClient();
-                throw new RetryableApiException(client.apiKey(), e.toString(), e);
+            invalidateContextCache(prepared, request.config().getChat());
+            if (reportFailure(e, lease)) {
+                throw new RetryableApiException(lease.getKey(), e.toString(), e);
             }
             throw e;
+        } finally {
+            lease.close();
         }
 
     }
 
     @Override
     public void generateContentStream(GenerationRequest request, StreamObserver<Response<? extends AbstractModelMessage>, ? extends AbstractModelMessage> observer) {
-        Client client = provider.getClient();
-        GeminiGenerateContentParameters prepared = prepareGenerateContentParameters(request);
         Chat chat = request.config().getChat();
+        ApiKeyManager.Lease lease = provider.acquireKey(chat);
+        Client client = provider.getClient(lease.getKey());
+        PreparedRequest prepared = null;
+        List<GeminiModelMessage> targets = new ArrayList<>();
+        List<GenerateContentResponse> chunks = new ArrayList<>();
 
         try {
+            prepared = prepareGenerateContentParameters(request, lease.getKey());
             ResponseStream<GenerateContentResponse> stream = client.models.generateContentStream(
-                    getModelId(), prepared.history(), prepared.config());
+                    getModelId(), prepared.getHistory(), prepared.getConfig());
 
-            List<GeminiModelMessage> targets = new ArrayList<>();
             boolean started = false;
             GeminiResponse lastGeminiResponse = null;
 
             for (GenerateContentResponse chunk : stream) {
-                String chunkJson = chunk.toJson();
-                
+                chunks.add(chunk);
+
                 if (!started) {
                     List<Candidate> candidates = chunk.candidates().orElse(Collections.emptyList());
                     String modelVersion = chunk.modelVersion().orElse(getModelId());
@@ -274,15 +367,14 @@ public class GeminiModel extends AbstractModel {
                     started = true;
                 }
 
-                for (GeminiModelMessage target : targets) {
-                    target.appendRawJson(chunkJson);
-                }
-
                 handleChunk(chunk, targets);
                 
-                lastGeminiResponse = new GeminiResponse(prepared.config().toJson(), prepared.historyJson(), chat, getModelId(), chunk);
+                lastGeminiResponse = new GeminiResponse(prepared::getConfigJson, prepared::getHistoryJson, chat, getModelId(), chunk);
                 observer.onNext(lastGeminiResponse);
             }
+
+            lease.succeeded();
+            setRawJson(targets, chunks, chat);
             
             if (lastGeminiResponse != null) {
                 for (GeminiModelMessage target : targets) {
@@ -293,12 +385,113 @@ public class GeminiModel extends AbstractModel {
             observer.onComplete();
         } catch (Exception e) {
             log.error("Exception in generateContentStream", e);
-            if (e.toString().contains("429") || e.toString().contains("503") || e.toString().contains("500")) {
-                provider.resetClient();
-                observer.onError(new RetryableApiException(client.apiKey(), e.toString(), e));
+            invalidateContextCache(prepared, chat);
+            setRawJson(targets, chunks, chat);
+            if (reportFailure(e, lease)) {
+                observer.onError(new RetryableApiException(lease.getKey(), e.toString(), e));
             } else {
                 observer.onError(e);
             }
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Reports a failed request to the health of its API key: a rate limit
+     * cools the key down, for as long as the API asked if it said, and a
+     * server error counts against it. The next attempt then goes to the
+     * healthiest key instead.
+     *
+     * @param e The failure.
+     * @param lease The lease of the request's key.
+     * @return {@code true} if the request can be retried.
+     */
+    private static boolean reportFailure(Exception e, ApiKeyManager.Lease lease) {
+        ApiException api = findApiException(e);
+        if (api == null) {
+            return false;
+        }
+        if (api.code() == 429) {
+            lease.rateLimited(parseRetryDelay(api.toString()));
+            return true;
+        }
+        if (api.code() == 503 || api.code() == 500) {
+            lease.failed();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the API error carrying the HTTP status of a failure, which a
+     * stream may have wrapped while reading its chunks.
+     *
+     * @param e The failure.
+     * @return The API error, or null if the failure is not one.
+     */
+    private static ApiException findApiException(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ApiException api) {
+                return api;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the retry-after hint of a rate limit error, e.g. the
+     * {@code retryDelay} of its {@code RetryInfo} details.
+     *
+     * @param error The error.
+     * @return The delay, or null if the error has no hint.
+     */
+    private static Duration parseRetryDelay(String error) {
+        Matcher matcher = RETRY_DELAY.matcher(error);
+        if (!matcher.find()) {
+            return null;
+        }
+        return Duration.ofMillis((long) (Double.parseDouble(matcher.group(1)) * 1000));
+    }
+
+    /**
+     * Drops the context cache of a chat after a failed request that
+     * referenced it, in case the cache is what failed (e.g. it expired or was
+     * deleted), so that the retry sends the whole request.
+     *
+     * @param prepared The failed request, or null if it was not prepared.
+     * @param chat The chat.
+     */
+    private void invalidateContextCache(PreparedRequest prepared, Chat chat) {
+        if (prepared != null && prepared.getCachedContent() != null) {
+            provider.getContextCache().invalidate(chat);
+        }
+    }
+
+    /**
+     * Gives the streamed messages the raw JSON of the chunks they were built
+     * from, in a single pass once the stream is over: rendered right away if
+     * raw JSON capture is enabled, or else only when it is asked for.
+     *
+     * @param targets The streamed messages.
+     * @param chunks The chunks received.
+     * @param chat The chat.
+     */
+    private static void setRawJson(List<GeminiModelMessage> targets, List<GenerateContentResponse> chunks, Chat chat) {
+        if (targets.isEmpty() || chunks.isEmpty()) {
+            return;
+        }
+        List<GenerateContentResponse> received = List.copyOf(chunks);
+        Supplier<String> renderer = () -> received.size() == 1
+                ? received.get(0).toJson()
+                : received.stream()
+                        .map(GenerateContentResponse::toJson)
+                        .collect(Collectors.joining(",\n", "[\n", "\n]"));
+        if (chat.getConfig().isCaptureRawJson()) {
+            String json = renderer.get();
+            targets.forEach(target -> target.setRawJson(json));
+        } else {
+            targets.forEach(target -> target.deferRawJson(renderer));
         }
     }
 
@@ -74,7 +74,11 @@ public class GeminiModelMessage extends AbstractModelMessage<GeminiResponse, Gem
             .map(s -> s.category().map(c -> c.knownEnum().name()).orElse("") + ":" + s.probability().map(p -> p.knownEnum().name()).orElse(""))
             .collect(Collectors.joining(", "))));
         setTokenCount(candidate.tokenCount().orElse(0));
-        setRawJson(candidate.toJson());
+        if (chat.getConfig().isCaptureRawJson()) {
+            setRawJson(candidate.toJson());
+        } else {
+            deferRawJson(candidate::toJson);
+        }
         setCitationMetadata(candidate.citationMetadata()
             .map(cm -> cm.citations().orElse(List.of()).stream()
                 .map(Citation::uri)
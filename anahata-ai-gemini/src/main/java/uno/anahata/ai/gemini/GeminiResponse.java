@@ -10,7 +10,9 @@ import com.google.genai.types.GenerateContentResponseUsageMetadata;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import lombok.AccessLevel;
 import lombok.Getter;
 import uno.anahata.ai.chat.Chat;
 import uno.anahata.ai.model.core.AbstractModelMessage;
@@ -35,26 +37,36 @@ public class GeminiResponse extends Response<GeminiModelMessage> {
     private final List<GeminiModelMessage> candidates;
     private final ResponseUsageMetadata usageMetadata;
     private final Optional<String> promptFeedback;
-    private final String rawRequestConfigJson;
-    private final String rawHistoryJson;
-    private final String rawJson;    
     private final String modelVersion;
 
+    /** Renders the JSON of the request configuration, once per request. */
+    @Getter(AccessLevel.NONE)
+    private final transient Supplier<String> requestConfigJson;
+
+    /** Renders the JSON of the history sent in the request, once per request. */
+    @Getter(AccessLevel.NONE)
+    private final transient Supplier<String> historyJson;
+
+    /** The raw JSON of the response, rendered on first access. */
+    @Getter(AccessLevel.NONE)
+    private String rawJson;
+
     /**
      * Constructs a GeminiResponse, performing the full conversion from the native
-     * Google GenAI response to the Anahata domain model.
+     * Google GenAI response to the Anahata domain model. No JSON is rendered
+     * here: the raw JSON of the request and of the response is rendered when
+     * it is first asked for, as every chunk of a stream is a response.
      *
-     * @param requestConfigJson The raw JSON of the request configuration.
-     * @param historyJson   The raw JSON of the conversation history sent in the request.
+     * @param requestConfigJson Renders the raw JSON of the request configuration.
+     * @param historyJson   Renders the raw JSON of the conversation history sent in the request.
      * @param chat          The parent chat session, required for constructing model messages.
      * @param modelId       The ID of the model that generated this response.
      * @param genaiResponse The native response object from the API.
      */
-    public GeminiResponse(String requestConfigJson, String historyJson, Chat chat, String modelId, GenerateContentResponse genaiResponse) {
-        this.rawRequestConfigJson = requestConfigJson;
-        this.rawHistoryJson = historyJson;
-        this.genaiResponse = genaiResponse;        
-        this.rawJson = genaiResponse.toJson();
+    public GeminiResponse(Supplier<String> requestConfigJson, Supplier<String> historyJson, Chat chat, String modelId, GenerateContentResponse genaiResponse) {
+        this.requestConfigJson = requestConfigJson;
+        this.historyJson = historyJson;
+        this.genaiResponse = genaiResponse;
         this.modelVersion = genaiResponse.modelVersion().orElse(modelId);
         
         // --- 1. Convert Usage Metadata ---
@@ -100,6 +112,27 @@ public class GeminiResponse extends Response<GeminiModelMessage> {
             .build();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public synchronized String getRawJson() {
+        if (rawJson == null) {
+            rawJson = genaiResponse.toJson();
+        }
+        return rawJson;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getRawRequestConfigJson() {
+        return requestConfigJson.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getRawHistoryJson() {
+        return historyJson.get();
+    }
+
     @Override
     public int getTotalTokenCount() {
         return usageMetadata.getTotalTokenCount();
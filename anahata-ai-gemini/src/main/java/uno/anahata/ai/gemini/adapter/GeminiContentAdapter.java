@@ -3,35 +3,101 @@ package uno.anahata.ai.gemini.adapter;
 
 import com.google.genai.types.Content;
 import com.google.genai.types.Part;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.WeakHashMap;
 import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.AbstractPart;
 
 /**
  * An object-oriented adapter that converts a single Anahata AbstractMessage into a
  * native Google GenAI Content object.
+ * <p>
+ * Converting a tool response runs its result through Jackson twice and every
+ * blob is rewrapped, so {@link #toGoogleCached(AbstractMessage, boolean)}
+ * keeps the Content of each message across requests and converts only the
+ * messages that are new or have changed since: the ones with a new
+ * {@link AbstractMessage#getVersion() version} or a different set of visible
+ * parts (time-based pruning does not change the version). The visible parts
+ * are remembered by their sequential ids, not the parts themselves: a part
+ * points back to its message, which would keep the message (and its chat)
+ * from ever being collected.
  *
  * @author anahata-ai
  */
 @RequiredArgsConstructor
 public class GeminiContentAdapter {
 
+    /** The converted messages; the values hold no reference to their messages, so entries are dropped with them. */
+    private static final Map<AbstractMessage, ConvertedContent> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+
     private final AbstractMessage anahataMessage;
     private final boolean includePruned;
 
+    /**
+     * Gets the Content of a message, reusing the one converted for a previous
+     * request if the message has not changed since.
+     *
+     * @param message The message.
+     * @param includePruned Whether to include pruned parts.
+     * @return The cached conversion; its Content is null if the message has no visible parts.
+     */
+    public static ConvertedContent toGoogleCached(AbstractMessage message, boolean includePruned) {
+        // Read the version before the parts, so a change made during the conversion is never cached as current
+        long version = message.getVersion();
+        List<AbstractPart> parts = List.copyOf(message.getParts(includePruned));
+        long[] partIds = partIds(parts);
+        ConvertedContent cached = CACHE.get(message);
+        if (cached != null && cached.version == version && cached.includePruned == includePruned && Arrays.equals(cached.partIds, partIds)) {
+            return cached;
+        }
+        cached = new ConvertedContent(version, includePruned, partIds, new GeminiContentAdapter(message, includePruned).toGoogle(parts));
+        CACHE.put(message, cached);
+        return cached;
+    }
+
+    /**
+     * The sequential ids of the given parts.
+     *
+     * @param parts The parts.
+     * @return Their ids, in order.
+     */
+    private static long[] partIds(List<AbstractPart> parts) {
+        long[] ids = new long[parts.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = parts.get(i).getSequentialId();
+        }
+        return ids;
+    }
+
     /**
      * Performs the conversion from the Anahata message to a Google GenAI Content object.
      * @return The corresponding Content object, or null if the message has no visible parts.
      */
     public Content toGoogle() {
+        return toGoogle(anahataMessage.getParts(includePruned));
+    }
+
+    /**
+     * Converts the given visible parts of the message.
+     *
+     * @param visibleParts The parts to convert.
+     * @return The corresponding Content object, or null if there are no parts to send.
+     */
+    private Content toGoogle(List<AbstractPart> visibleParts) {
         Content.Builder builder = Content.builder()
             .role(anahataMessage.getRole().name().toLowerCase());
 
         // The GeminiPartAdapter now handles all part types, including the complex
         // AbstractToolResponse (which includes attachments).
-        List<Part> googleParts = anahataMessage.getParts(includePruned).stream()
+        List<Part> googleParts = visibleParts.stream()
             .map(part -> new GeminiPartAdapter(part).toGoogle())
             .filter(Objects::nonNull)
             .collect(Collectors.toList());
@@ -43,4 +109,34 @@ public class GeminiContentAdapter {
         builder.parts(googleParts);
         return builder.build();
     }
-}
\ No newline at end of file
+
+    /**
+     * The Content converted from a message, with the state of the message it
+     * was converted from. The JSON of the Content is rendered on first use.
+     */
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class ConvertedContent {
+
+        private final long version;
+        private final boolean includePruned;
+        private final long[] partIds;
+
+        /** The Content, or null if the message has no visible parts. */
+        @Getter
+        private final Content content;
+
+        private String json;
+
+        /**
+         * Gets the JSON of the Content, rendering it on first use.
+         *
+         * @return The JSON, or null if there is no Content.
+         */
+        public synchronized String getJson() {
+            if (json == null && content != null) {
+                json = content.toJson();
+            }
+            return json;
+        }
+    }
+}
@@ -5,9 +5,11 @@ import com.google.genai.types.FunctionDeclaration;
 import com.google.genai.types.Schema;
 import com.google.genai.types.Type;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -18,6 +20,11 @@ import uno.anahata.ai.model.tool.AbstractToolParameter;
 /**
  * An object-oriented adapter that converts a single Anahata AbstractTool into a
  * native Google GenAI FunctionDeclaration.
+ * <p>
+ * The conversion parses the JSON schema of every parameter and of the response,
+ * so {@link #toGoogleCached(AbstractTool)} keeps the declaration of each tool
+ * across requests, converting it again only when the description, parameters
+ * or response schema of the tool change.
  *
  * @author anahata-ai
  */
@@ -25,8 +32,32 @@ import uno.anahata.ai.model.tool.AbstractToolParameter;
 @RequiredArgsConstructor
 public class GeminiFunctionDeclarationAdapter {
 
+    /**
+     * The converted declarations, by tool. The values hold no reference back to
+     * their tools, so entries are dropped with the tools.
+     */
+    private static final Map<AbstractTool<?, ?>, CachedDeclaration> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+
     private final AbstractTool<?, ?> anahataTool;
 
+    /**
+     * Gets the declaration of a tool, reusing the one converted for a previous
+     * request if the tool has not changed since.
+     *
+     * @param tool The tool.
+     * @return The corresponding FunctionDeclaration, or null if conversion fails.
+     */
+    public static FunctionDeclaration toGoogleCached(AbstractTool<?, ?> tool) {
+        Fingerprint fingerprint = Fingerprint.of(tool);
+        CachedDeclaration cached = CACHE.get(tool);
+        if (cached != null && cached.fingerprint().equals(fingerprint)) {
+            return cached.declaration();
+        }
+        FunctionDeclaration declaration = new GeminiFunctionDeclarationAdapter(tool).toGoogle();
+        CACHE.put(tool, new CachedDeclaration(fingerprint, declaration));
+        return declaration;
+    }
+
     /**
      * Performs the conversion from the Anahata tool to a Google GenAI FunctionDeclaration.
      * @return The corresponding FunctionDeclaration, or null if conversion fails.
@@ -80,4 +111,51 @@ public class GeminiFunctionDeclarationAdapter {
             return null;
         }
     }
+
+    /**
+     * The inputs of the conversion of a tool, as plain values: the parameters
+     * themselves point back to their tool, which would keep it from ever
+     * being collected. Strings compare by identity first, so comparing the
+     * fingerprint of an unchanged tool is cheap.
+     *
+     * @param description The tool description.
+     * @param responseJsonSchema The response schema.
+     * @param parameters The parameters.
+     */
+    private record Fingerprint(String description, String responseJsonSchema, List<ParameterFingerprint> parameters) {
+
+        /**
+         * Takes the fingerprint of a tool.
+         *
+         * @param tool The tool.
+         * @return The fingerprint.
+         */
+        static Fingerprint of(AbstractTool<?, ?> tool) {
+            List<ParameterFingerprint> parameters = new ArrayList<>();
+            for (AbstractToolParameter p : tool.getParameters()) {
+                parameters.add(new ParameterFingerprint(p.getName(), p.getDescription(), p.getJsonSchema(), p.isRequired()));
+            }
+            return new Fingerprint(tool.getDescription(), tool.getResponseJsonSchema(), parameters);
+        }
+    }
+
+    /**
+     * The inputs of the conversion of a parameter.
+     *
+     * @param name The name.
+     * @param description The description.
+     * @param jsonSchema The JSON schema.
+     * @param required Whether the parameter is required.
+     */
+    private record ParameterFingerprint(String name, String description, String jsonSchema, boolean required) {
+    }
+
+    /**
+     * A converted declaration and the fingerprint of the tool it was converted from.
+     *
+     * @param fingerprint The fingerprint of the tool.
+     * @param declaration The declaration, null if conversion failed.
+     */
+    private record CachedDeclaration(Fingerprint fingerprint, FunctionDeclaration declaration) {
+    }
 }
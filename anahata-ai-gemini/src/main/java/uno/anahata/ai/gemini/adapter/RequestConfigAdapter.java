@@ -18,7 +18,10 @@ import com.google.genai.types.Tool;
 import com.google.genai.types.ToolCodeExecution;
 import com.google.genai.types.ToolConfig;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -27,10 +30,18 @@ import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import uno.anahata.ai.model.core.RequestConfig;
 import uno.anahata.ai.model.provider.ServerTool;
+import uno.anahata.ai.model.tool.AbstractTool;
 
 /**
  * A focused adapter responsible for converting our model-agnostic RequestConfig
  * into a Google GenAI GenerateContentConfig.
+ * <p>
+ * Function declarations are cached per tool by
+ * {@link GeminiFunctionDeclarationAdapter#toGoogleCached(AbstractTool)}, and the
+ * {@link Tool} assembled from them is cached per set of declarations, so a
+ * turn whose tools have not changed reuses both without any conversion. The
+ * rest of the config (system instructions in particular) changes from turn to
+ * turn and is built every time.
  *
  * @author anahata-gemini-pro-2.5
  */
@@ -38,6 +49,22 @@ import uno.anahata.ai.model.provider.ServerTool;
 @Slf4j
 public final class RequestConfigAdapter {
 
+    /** The number of tool sets (e.g. of different chats) whose assembled Tool is kept. */
+    private static final int MAX_CACHED_TOOL_SETS = 16;
+
+    /** The function calling config of local tools, the same for every request. */
+    private static final ToolConfig VALIDATED_TOOL_CONFIG = ToolConfig.builder()
+            .functionCallingConfig(FunctionCallingConfig.builder()
+                    .mode(FunctionCallingConfigMode.Known.VALIDATED)).build();
+
+    /** The assembled Tools, by set of declarations, least recently used first. */
+    private static final Map<DeclarationSet, Tool> TOOLS = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<DeclarationSet, Tool> eldest) {
+            return size() > MAX_CACHED_TOOL_SETS;
+        }
+    });
+
     /**
      * Converts an Anahata RequestConfig to a Google GenAI
      * GenerateContentConfig.
@@ -47,6 +74,21 @@ public final class RequestConfigAdapter {
      * null.
      */
     public static GenerateContentConfig toGoogle(RequestConfig anahataConfig) {
+        return toGoogle(anahataConfig, null);
+    }
+
+    /**
+     * Converts an Anahata RequestConfig to a Google GenAI
+     * GenerateContentConfig that references a cached content. The system
+     * instructions, tools and tool config are in the cached content and the
+     * API rejects requests that send them again, so they are left out.
+     *
+     * @param anahataConfig The Anahata config to convert.
+     * @param cachedContent The name of the cached content, or null to send everything.
+     * @return The corresponding GenerateContentConfig, or null if the input is
+     * null.
+     */
+    public static GenerateContentConfig toGoogle(RequestConfig anahataConfig, String cachedContent) {
         if (anahataConfig == null) {
             return null;
         }
@@ -54,8 +96,12 @@ public final class RequestConfigAdapter {
         log.info("Generating GenerateContentConfig for " + anahataConfig);
 
         GenerateContentConfig.Builder builder = GenerateContentConfig.builder();
+
+        if (cachedContent != null) {
+            builder.cachedContent(cachedContent);
+        }
         
-        if (!anahataConfig.getSystemInstructions().isEmpty()) {
+        if (cachedContent == null && !anahataConfig.getSystemInstructions().isEmpty()) {
             List<Part> parts = new ArrayList<>();
             for (String si : anahataConfig.getSystemInstructions()) {
                parts.add(Part.fromText(si));
@@ -87,20 +133,20 @@ public final class RequestConfigAdapter {
             builder.candidateCount(anahataConfig.getCandidateCount());
         }
 
-        if (anahataConfig.getLocalTools() != null && !anahataConfig.getLocalTools().isEmpty()) {
+        if (cachedContent != null) {
+            log.info("Tools are in cached content {}", cachedContent);
+        } else if (anahataConfig.getLocalTools() != null && !anahataConfig.getLocalTools().isEmpty()) {
             log.info("Local tools enabled, adding " + anahataConfig.getLocalTools().size() + " tools");
             List<FunctionDeclaration> declarations = anahataConfig.getLocalTools().stream()
-                    .map(tool -> new GeminiFunctionDeclarationAdapter(tool).toGoogle())
+                    .map(GeminiFunctionDeclarationAdapter::toGoogleCached)
                     .filter(Objects::nonNull)
                     .collect(Collectors.toList());
 
             if (!declarations.isEmpty()) {
-                Tool tool = Tool.builder().functionDeclarations(declarations).build();
+                Tool tool = TOOLS.computeIfAbsent(new DeclarationSet(declarations),
+                        set -> Tool.builder().functionDeclarations(set.declarations).build());
                 builder.tools(tool);
-                ToolConfig tc = ToolConfig.builder()
-                        .functionCallingConfig(FunctionCallingConfig.builder()
-                                .mode(FunctionCallingConfigMode.Known.VALIDATED)).build();
-                builder.toolConfig(tc);
+                builder.toolConfig(VALIDATED_TOOL_CONFIG);
             }
         } else if (anahataConfig.isServerToolsEnabled()) {
             List<ServerTool> enabledTools = anahataConfig.getEnabledServerTools();
@@ -133,4 +179,49 @@ public final class RequestConfigAdapter {
 
         return builder.build();
     }
+
+    /**
+     * A list of declarations compared by the identity of its elements, which
+     * is cheap and sufficient since declarations are cached per tool.
+     */
+    private static final class DeclarationSet {
+
+        /** The declarations, in request order. */
+        private final List<FunctionDeclaration> declarations;
+
+        /** The hash code, from the identity of the declarations. */
+        private final int hash;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param declarations The declarations.
+         */
+        DeclarationSet(List<FunctionDeclaration> declarations) {
+            this.declarations = declarations;
+            int h = 1;
+            for (FunctionDeclaration declaration : declarations) {
+                h = 31 * h + System.identityHashCode(declaration);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DeclarationSet other) || other.hash != hash || other.declarations.size() != declarations.size()) {
+                return false;
+            }
+            for (int i = 0; i < declarations.size(); i++) {
+                if (declarations.get(i) != other.declarations.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
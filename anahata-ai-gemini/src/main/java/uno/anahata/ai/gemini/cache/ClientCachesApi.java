@@ -0,0 +1,48 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.gemini.cache;
+
+import com.google.genai.Client;
+import com.google.genai.types.CachedContent;
+import com.google.genai.types.CreateCachedContentConfig;
+import com.google.genai.types.DeleteCachedContentConfig;
+import com.google.genai.types.UpdateCachedContentConfig;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The {@link GeminiCachesApi} of a Google GenAI {@link Client}, scoped to the
+ * client's API key.
+ *
+ * @author anahata-ai
+ */
+@RequiredArgsConstructor
+public class ClientCachesApi implements GeminiCachesApi {
+
+    /** The client. */
+    @NonNull
+    private final Client client;
+
+    /** {@inheritDoc} */
+    @Override
+    public String getScope() {
+        return client.apiKey();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CachedContent create(String modelId, CreateCachedContentConfig config) {
+        return client.caches.create(modelId, config);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CachedContent update(String name, UpdateCachedContentConfig config) {
+        return client.caches.update(name, config);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void delete(String name) {
+        client.caches.delete(name, DeleteCachedContentConfig.builder().build());
+    }
+}
@@ -0,0 +1,51 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.gemini.cache;
+
+import com.google.genai.types.CachedContent;
+import com.google.genai.types.CreateCachedContentConfig;
+import com.google.genai.types.UpdateCachedContentConfig;
+
+/**
+ * The calls of the Gemini caches API used by {@link GeminiContextCache}.
+ * {@link ClientCachesApi} makes them with the client of an API key; a client
+ * built with a different base URL, or another implementation altogether,
+ * runs the caching logic against a local stand-in of the API.
+ *
+ * @author anahata-ai
+ */
+public interface GeminiCachesApi {
+
+    /**
+     * Gets the scope of the caches, e.g. the API key in use. A cached
+     * content is only visible within the scope it was created in, so a
+     * change of scope drops it.
+     *
+     * @return The current scope.
+     */
+    String getScope();
+
+    /**
+     * Creates a cached content.
+     *
+     * @param modelId The model the cached content is for.
+     * @param config The contents, system instruction, tools and TTL.
+     * @return The created cached content, with its name and expiry time.
+     */
+    CachedContent create(String modelId, CreateCachedContentConfig config);
+
+    /**
+     * Updates (e.g. extends the TTL of) a cached content.
+     *
+     * @param name The name of the cached content.
+     * @param config The update.
+     * @return The updated cached content.
+     */
+    CachedContent update(String name, UpdateCachedContentConfig config);
+
+    /**
+     * Deletes a cached content.
+     *
+     * @param name The name of the cached content.
+     */
+    void delete(String name);
+}
@@ -0,0 +1,372 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+package uno.anahata.ai.gemini.cache;
+
+import com.google.genai.types.CachedContent;
+import com.google.genai.types.Content;
+import com.google.genai.types.CreateCachedContentConfig;
+import com.google.genai.types.GenerateContentConfig;
+import com.google.genai.types.Tool;
+import com.google.genai.types.ToolConfig;
+import com.google.genai.types.UpdateCachedContentConfig;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.gemini.adapter.GeminiContentAdapter;
+import uno.anahata.ai.gemini.adapter.GeminiContentAdapter.ConvertedContent;
+
+/**
+ * Keeps the stable prefix of each chat's requests in a Gemini cached content:
+ * the system instructions, the tools and the history up to the last message
+ * that has not changed since the previous request. Requests then reference
+ * the cache and send only the rest of the history.
+ * <p>
+ * A prefix is cached once it has been sent unchanged in two consecutive
+ * requests and is at least {@link #getMinTokens() minTokens} long (the API
+ * rejects smaller caches). Messages are compared by the identity of their
+ * converted Content, which {@link GeminiContentAdapter#toGoogleCached} keeps
+ * for as long as a message does not change. The cache is extended when enough
+ * of the history after it has become stable, its TTL is refreshed before it
+ * expires, and it is dropped when the model, the API key, the system
+ * instructions, the tools or any cached message change, or when the chat is
+ * shut down. The state kept per chat holds no reference back to the chat, so
+ * the state of a chat that is never shut down is dropped with it (its cache
+ * then expires with its TTL).
+ *
+ * @author anahata-ai
+ */
+@Slf4j
+public class GeminiContextCache {
+
+    /** The default minimum size of a cache, in tokens. */
+    public static final int DEFAULT_MIN_TOKENS = 4096;
+
+    /** The rough number of JSON characters per token, used to size prefixes. */
+    private static final int CHARS_PER_TOKEN = 4;
+
+    /** A cache is no longer referenced this close to its expiry. */
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+
+    /** How long to send a chat's requests uncached after a cache could not be created. */
+    private static final Duration RETRY_DELAY = Duration.ofMinutes(5);
+
+    /** Deletes the caches that were dropped, off the request path. */
+    private static final ExecutorService CLEANER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "gemini-context-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The minimum size of a cache, in tokens. */
+    @Getter
+    private final int minTokens;
+
+    /** The caching state of every chat; entries are dropped with their chats. */
+    private final Map<Chat, ChatState> states = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Creates a context cache with the default minimum size.
+     */
+    public GeminiContextCache() {
+        this(DEFAULT_MIN_TOKENS);
+    }
+
+    /**
+     * Creates a context cache.
+     *
+     * @param minTokens The minimum size of a cache, in tokens.
+     */
+    public GeminiContextCache(int minTokens) {
+        this.minTokens = minTokens;
+    }
+
+    /**
+     * Prepares a request of a chat: creates, extends, refreshes or drops the
+     * chat's cache as needed and tells the caller which part of the request
+     * it covers. When a cache is returned, the request must reference it and
+     * leave out its system instructions, tools, tool config and the cached
+     * messages.
+     *
+     * @param api The caches API of the API key the request is sent with.
+     * @param chat The chat.
+     * @param modelId The model of the request.
+     * @param history The converted history of the request.
+     * @param config The full config of the request.
+     * @param ttl The time to live of the cache.
+     * @return The cache to reference, or empty to send the whole request.
+     */
+    public Optional<CachedPrefix> prepare(@NonNull GeminiCachesApi api, @NonNull Chat chat, @NonNull String modelId, @NonNull List<ConvertedContent> history,
+            @NonNull GenerateContentConfig config, @NonNull Duration ttl) {
+        Head head = new Head(modelId, api.getScope(), config.systemInstruction().orElse(null),
+                config.tools().orElse(List.of()), config.toolConfig().orElse(null));
+        ChatState state = states.computeIfAbsent(chat, this::newState);
+
+        synchronized (state) {
+            // The messages sent unchanged in the previous request; the last message is always sent
+            int stable = 0;
+            if (head.equals(state.head)) {
+                stable = Math.max(0, Math.min(commonPrefix(state.previous, history), history.size() - 1));
+            } else {
+                state.head = head;
+                state.headTokens = -1;
+            }
+            state.previous = List.copyOf(history);
+
+            Instant now = Instant.now();
+            Entry active = state.active;
+            if (active != null && (!active.head().equals(head)
+                    || commonPrefix(active.contents(), history) < active.contents().size()
+                    || now.plus(EXPIRY_MARGIN).isAfter(active.expireTime()))) {
+                log.info("Dropping cached content {}: its prefix changed or it is about to expire", active.name());
+                drop(active);
+                active = null;
+            }
+
+            int cached = active == null ? 0 : active.contents().size();
+            if (stable > cached && now.isAfter(state.retryAfter) && isWorthCaching(state, history, cached, stable)) {
+                Entry created = create(api, head, history.subList(0, stable), ttl);
+                if (created != null) {
+                    if (active != null) {
+                        drop(active);
+                    }
+                    active = created;
+                } else {
+                    state.retryAfter = now.plus(RETRY_DELAY);
+                }
+            } else if (active != null && now.plus(ttl.dividedBy(2)).isAfter(active.expireTime())) {
+                active = refresh(active, ttl);
+            }
+            state.active = active;
+
+            return active == null ? Optional.empty() : Optional.of(new CachedPrefix(active.name(), active.contents().size()));
+        }
+    }
+
+    /**
+     * Drops the cache of a chat, e.g. after a request that referenced it
+     * failed. The next stable prefix is cached again.
+     *
+     * @param chat The chat.
+     */
+    public void invalidate(@NonNull Chat chat) {
+        ChatState state = states.get(chat);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            if (state.active != null) {
+                log.info("Dropping cached content {}", state.active.name());
+                drop(state.active);
+                state.active = null;
+            }
+        }
+    }
+
+    /**
+     * Creates the caching state of a chat, dropping the chat's cache when it
+     * is shut down.
+     *
+     * @param chat The chat.
+     * @return The new state.
+     */
+    private ChatState newState(Chat chat) {
+        chat.addPropertyChangeListener("shutdown", evt -> {
+            invalidate(chat);
+            states.remove(chat);
+        });
+        return new ChatState();
+    }
+
+    /**
+     * Whether the part of the history that would be added to the cache is
+     * large enough, counting the system instructions and tools when there is
+     * no cache yet.
+     *
+     * @param state The chat's state.
+     * @param history The history.
+     * @param from The first message that would be added.
+     * @param to The end of the messages that would be added.
+     * @return {@code true} to create the cache.
+     */
+    private boolean isWorthCaching(ChatState state, List<ConvertedContent> history, int from, int to) {
+        long tokens = from == 0 ? headTokens(state) : 0;
+        for (int i = from; i < to && tokens < minTokens; i++) {
+            String json = history.get(i).getJson();
+            tokens += json == null ? 0 : json.length() / CHARS_PER_TOKEN;
+        }
+        return tokens >= minTokens;
+    }
+
+    /**
+     * Estimates the size of the system instructions and tools of a chat's
+     * requests, once per change.
+     *
+     * @param state The chat's state.
+     * @return The estimated tokens.
+     */
+    private static int headTokens(ChatState state) {
+        if (state.headTokens < 0) {
+            Head head = state.head;
+            long chars = head.systemInstruction() == null ? 0 : head.systemInstruction().toJson().length();
+            for (Tool tool : head.tools()) {
+                chars += tool.toJson().length();
+            }
+            state.headTokens = (int) Math.min(Integer.MAX_VALUE, chars / CHARS_PER_TOKEN);
+        }
+        return state.headTokens;
+    }
+
+    /**
+     * Creates a cache of the given prefix.
+     *
+     * @param api The caches API.
+     * @param head The system instructions and tools.
+     * @param prefix The messages to cache.
+     * @param ttl The time to live.
+     * @return The cache, or null if it could not be created.
+     */
+    private Entry create(GeminiCachesApi api, Head head, List<ConvertedContent> prefix, Duration ttl) {
+        List<Content> contents = prefix.stream()
+                .map(ConvertedContent::getContent)
+                .collect(Collectors.toList());
+        CreateCachedContentConfig.Builder builder = CreateCachedContentConfig.builder()
+                .contents(contents)
+                .ttl(ttl);
+        if (head.systemInstruction() != null) {
+            builder.systemInstruction(head.systemInstruction());
+        }
+        if (!head.tools().isEmpty()) {
+            builder.tools(head.tools());
+        }
+        if (head.toolConfig() != null) {
+            builder.toolConfig(head.toolConfig());
+        }
+        try {
+            CachedContent created = api.create(head.modelId(), builder.build());
+            String name = created.name().orElseThrow(() -> new IllegalStateException("The cached content has no name"));
+            Instant expireTime = created.expireTime().orElse(Instant.now().plus(ttl));
+            log.info("Created cached content {} of {} messages for {}, expiring at {}", name, prefix.size(), head.modelId(), expireTime);
+            return new Entry(api, name, head, List.copyOf(prefix), expireTime);
+        } catch (RuntimeException e) {
+            log.warn("Could not create a cached content of {} messages for {}, sending requests uncached for {}",
+                    prefix.size(), head.modelId(), RETRY_DELAY, e);
+            return null;
+        }
+    }
+
+    /**
+     * Extends the time to live of a cache.
+     *
+     * @param entry The cache.
+     * @param ttl The time to live.
+     * @return The refreshed cache, or null if it could not be refreshed.
+     */
+    private Entry refresh(Entry entry, Duration ttl) {
+        try {
+            CachedContent updated = entry.api().update(entry.name(), UpdateCachedContentConfig.builder().ttl(ttl).build());
+            Instant expireTime = updated.expireTime().orElse(Instant.now().plus(ttl));
+            log.debug("Refreshed cached content {} until {}", entry.name(), expireTime);
+            return new Entry(entry.api(), entry.name(), entry.head(), entry.contents(), expireTime);
+        } catch (RuntimeException e) {
+            log.warn("Could not refresh cached content {}, dropping it", entry.name(), e);
+            drop(entry);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes a cache in the background. Failures are only logged: a cache
+     * that is not deleted expires with its TTL.
+     *
+     * @param entry The cache.
+     */
+    private void drop(Entry entry) {
+        CLEANER.execute(() -> {
+            try {
+                entry.api().delete(entry.name());
+            } catch (RuntimeException e) {
+                log.debug("Could not delete cached content {}, it will expire", entry.name(), e);
+            }
+        });
+    }
+
+    /**
+     * The number of leading elements two lists share, by identity.
+     *
+     * @param a A list.
+     * @param b Another list.
+     * @return The length of the common prefix.
+     */
+    private static int commonPrefix(List<ConvertedContent> a, List<ConvertedContent> b) {
+        int n = Math.min(a.size(), b.size());
+        int i = 0;
+        while (i < n && a.get(i) == b.get(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * The cache a request references.
+     *
+     * @param name The name of the cached content.
+     * @param messages The number of leading history messages it contains.
+     */
+    public record CachedPrefix(String name, int messages) {
+    }
+
+    /**
+     * What every request of a chat sends before the history.
+     *
+     * @param modelId The model.
+     * @param scope The scope (API key) of the caches.
+     * @param systemInstruction The system instructions, or null.
+     * @param tools The tools.
+     * @param toolConfig The tool config, or null.
+     */
+    private record Head(String modelId, String scope, Content systemInstruction, List<Tool> tools, ToolConfig toolConfig) {
+    }
+
+    /**
+     * A cache that was created.
+     *
+     * @param api The caches API of the scope it was created in.
+     * @param name The name of the cached content.
+     * @param head The system instructions and tools in it.
+     * @param contents The messages in it.
+     * @param expireTime When it expires.
+     */
+    private record Entry(GeminiCachesApi api, String name, Head head, List<ConvertedContent> contents, Instant expireTime) {
+    }
+
+    /**
+     * The caching state of a chat.
+     */
+    private static final class ChatState {
+
+        /** The head of the previous request. */
+        private Head head;
+
+        /** The estimated tokens of the head, or -1 if not estimated yet. */
+        private int headTokens = -1;
+
+        /** The history of the previous request. */
+        private List<ConvertedContent> previous = List.of();
+
+        /** The cache in use, or null. */
+        private Entry active;
+
+        /** No cache is created before this time. */
+        private Instant retryAfter = Instant.MIN;
+    }
+}
@@ -0,0 +1,11 @@
+/* Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça! */
+/**
+ * Explicit context caching for the Gemini API: the stable prefix of a chat's
+ * requests (system instructions, tools and early history) is kept in a
+ * {@code CachedContent} that later requests reference instead of sending it
+ * again. The API calls go through {@link uno.anahata.ai.gemini.cache.GeminiCachesApi},
+ * so the caching logic can run against a local stand-in of the API.
+ *
+ * @author anahata-ai
+ */
+package uno.anahata.ai.gemini.cache;
@@ -0,0 +1,185 @@
+/* Licensed under the Anahata Software License, Version 108 - https://github.com/anahata-os/anahata-ai/blob/main/LICENSE */
+package uno.anahata.ai.gemini.cache;
+
+import com.google.genai.types.CachedContent;
+import com.google.genai.types.Content;
+import com.google.genai.types.CreateCachedContentConfig;
+import com.google.genai.types.GenerateContentConfig;
+import com.google.genai.types.Part;
+import com.google.genai.types.UpdateCachedContentConfig;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import uno.anahata.ai.AsiConfig;
+import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.chat.ChatConfig;
+import uno.anahata.ai.gemini.adapter.GeminiContentAdapter;
+import uno.anahata.ai.gemini.adapter.GeminiContentAdapter.ConvertedContent;
+import uno.anahata.ai.gemini.cache.GeminiContextCache.CachedPrefix;
+import uno.anahata.ai.model.core.AbstractMessage;
+import uno.anahata.ai.model.core.TextPart;
+import uno.anahata.ai.model.core.UserMessage;
+
+/**
+ * Unit test for the caching of the stable prefix of a chat's requests,
+ * against a local stand-in of the caches API.
+ *
+ * @author anahata-ai
+ */
+public class GeminiContextCacheTest {
+
+    private static final GenerateContentConfig CONFIG = GenerateContentConfig.builder()
+            .systemInstruction(Content.fromParts(Part.fromText("Be brief.")))
+            .build();
+
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    @Test
+    public void testCreatesExtendsRefreshesAndDropsTheCache() throws Exception {
+        Chat chat = newChat("lifecycle");
+        FakeCachesApi api = new FakeCachesApi();
+        GeminiContextCache cache = new GeminiContextCache(1);
+
+        AbstractMessage first = addUserMessage(chat, "first");
+        addUserMessage(chat, "second");
+        // Nothing has been sent twice yet
+        assertTrue(prepare(cache, api, chat).isEmpty());
+
+        addUserMessage(chat, "third");
+        CachedPrefix prefix = prepare(cache, api, chat).orElseThrow();
+        assertEquals(2, prefix.messages());
+        assertEquals(2, api.created.get(0).contents().orElseThrow().size());
+
+        // Extended once more messages are stable; the smaller cache is deleted
+        api.lifetime = Duration.ofMinutes(1);
+        addUserMessage(chat, "fourth");
+        prefix = prepare(cache, api, chat).orElseThrow();
+        assertEquals(3, prefix.messages());
+        assertEquals(2, api.created.size());
+        awaitDeleted(api, "cachedContents/1");
+
+        // Refreshed when less than half of the TTL is left
+        prefix = prepare(cache, api, chat).orElseThrow();
+        assertEquals("cachedContents/2", prefix.name());
+        assertEquals(List.of("cachedContents/2"), api.updated);
+
+        // Dropped when a cached message changes
+        new TextPart(first, "edited");
+        assertTrue(prepare(cache, api, chat).isEmpty());
+        awaitDeleted(api, "cachedContents/2");
+        chat.shutdown();
+    }
+
+    @Test
+    public void testFailedCreationIsNotRetriedRightAway() {
+        Chat chat = newChat("failure");
+        FakeCachesApi api = new FakeCachesApi();
+        api.failCreate = true;
+        GeminiContextCache cache = new GeminiContextCache(1);
+
+        addUserMessage(chat, "first");
+        addUserMessage(chat, "second");
+        assertTrue(prepare(cache, api, chat).isEmpty());
+        addUserMessage(chat, "third");
+        assertTrue(prepare(cache, api, chat).isEmpty());
+        assertEquals(1, api.createAttempts);
+
+        api.failCreate = false;
+        addUserMessage(chat, "fourth");
+        assertTrue(prepare(cache, api, chat).isEmpty());
+        assertEquals(1, api.createAttempts);
+        chat.shutdown();
+    }
+
+    @Test
+    public void testCacheIsDeletedWhenTheChatShutsDown() throws Exception {
+        Chat chat = newChat("shutdown");
+        FakeCachesApi api = new FakeCachesApi();
+        GeminiContextCache cache = new GeminiContextCache(1);
+
+        addUserMessage(chat, "first");
+        addUserMessage(chat, "second");
+        prepare(cache, api, chat);
+        addUserMessage(chat, "third");
+        assertTrue(prepare(cache, api, chat).isPresent());
+
+        chat.shutdown();
+        awaitDeleted(api, "cachedContents/1");
+    }
+
+    private static Optional<CachedPrefix> prepare(GeminiContextCache cache, FakeCachesApi api, Chat chat) {
+        List<ConvertedContent> history = chat.getContextManager().getHistory().stream()
+                .map(message -> GeminiContentAdapter.toGoogleCached(message, false))
+                .toList();
+        return cache.prepare(api, chat, "models/test", history, CONFIG, TTL);
+    }
+
+    private static void awaitDeleted(FakeCachesApi api, String name) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!api.deleted.contains(name) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(api.deleted.contains(name), name + " should have been deleted");
+    }
+
+    private static Chat newChat(String sessionId) {
+        return new Chat(new ChatConfig(new AsiConfig("test-app"), sessionId));
+    }
+
+    private static AbstractMessage addUserMessage(Chat chat, String text) {
+        UserMessage message = new UserMessage(chat);
+        new TextPart(message, text);
+        chat.getContextManager().addMessage(message);
+        return message;
+    }
+
+    /**
+     * A local stand-in of the caches API.
+     */
+    private static final class FakeCachesApi implements GeminiCachesApi {
+
+        private final List<CreateCachedContentConfig> created = new ArrayList<>();
+        private final List<String> updated = new ArrayList<>();
+        private final List<String> deleted = Collections.synchronizedList(new ArrayList<>());
+        private Duration lifetime = TTL;
+        private boolean failCreate;
+        private int createAttempts;
+
+        @Override
+        public String getScope() {
+            return "test-key";
+        }
+
+        @Override
+        public CachedContent create(String modelId, CreateCachedContentConfig config) {
+            createAttempts++;
+            if (failCreate) {
+                throw new IllegalStateException("Cached content quota exceeded");
+            }
+            created.add(config);
+            return CachedContent.builder()
+                    .name("cachedContents/" + created.size())
+                    .expireTime(Instant.now().plus(lifetime))
+                    .build();
+        }
+
+        @Override
+        public CachedContent update(String name, UpdateCachedContentConfig config) {
+            updated.add(name);
+            return CachedContent.builder()
+                    .name(name)
+                    .expireTime(Instant.now().plus(TTL))
+                    .build();
+        }
+
+        @Override
+        public void delete(String name) {
+            deleted.add(name);
+        }
+    }
+}
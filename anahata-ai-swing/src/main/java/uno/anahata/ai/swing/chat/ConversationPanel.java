@@ -29,6 +29,7 @@ import uno.anahata.ai.swing.chat.render.ModelMessagePanel;
 import uno.anahata.ai.swing.chat.render.UserMessagePanel;
 import uno.anahata.ai.swing.components.ScrollablePanel;
 import uno.anahata.ai.swing.internal.EdtPropertyChangeListener;
+import uno.anahata.ai.swing.internal.SwingTask;
 
 /**
  * The main container for the conversation history, responsible for rendering
@@ -53,6 +54,12 @@ public class ConversationPanel extends JPanel {
     private final Map<AbstractMessage, AbstractMessagePanel> cachedMessagePanels = new HashMap<>();
     /** The listener for history changes. */
     private EdtPropertyChangeListener historyListener;
+
+    /** The number of older message units loaded at a time when scrolling to the top of a restored session. */
+    private static final int OLDER_MESSAGES_PAGE = 20;
+
+    /** Whether older messages are being loaded. */
+    private boolean loadingOlder = false;
     
     /** 
      * Flag indicating if the view should automatically scroll to the bottom 
@@ -84,6 +91,10 @@ public class ConversationPanel extends JPanel {
         // 1. MouseWheel: Explicitly detect user intent to scroll up or down.
         this.scrollPane.addMouseWheelListener(e -> {
             if (e.getWheelRotation() < 0) {
+                if (isAtTop()) {
+                    // Also when the loaded messages do not fill the viewport
+                    loadOlderMessages();
+                }
                 if (autoScroll) {
                     log.info("[Scroll] User scrolled UP with wheel, disabling autoScroll");
                     autoScroll = false;
@@ -99,6 +110,10 @@ public class ConversationPanel extends JPanel {
         // 2. AdjustmentListener: Handle scrollbar dragging and track clicks.
         this.scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
             boolean atBottom = isAtBottom();
+
+            if (!autoScroll && isAtTop()) {
+                loadOlderMessages();
+            }
             
             if (e.getValueIsAdjusting()) {
                 // User is actively dragging the scrollbar.
@@ -176,6 +191,7 @@ public class ConversationPanel extends JPanel {
         }
 
         boolean added = false;
+        boolean prepended = false;
         for (int i = 0; i < history.size(); i++) {
             AbstractMessage msg = history.get(i);            
             AbstractMessagePanel panel = cachedMessagePanels.get(msg);
@@ -183,8 +199,13 @@ public class ConversationPanel extends JPanel {
             if (panel == null) {
                 panel = createMessagePanel(msg);
                 if (panel != null) {
+                    // Older messages of a restored session are inserted above the ones already shown
+                    if (i < messagesPanel.getComponentCount() && cachedMessagePanels.containsValue(messagesPanel.getComponent(i))) {
+                        prepended = true;
+                    } else {
+                        added = true;
+                    }
                     cachedMessagePanels.put(msg, panel);
-                    added = true;
                 }
             }
 
@@ -205,12 +226,53 @@ public class ConversationPanel extends JPanel {
             log.info("New message added, forcing autoScroll to true.");
             autoScroll = true; 
             scrollToBottom();
+        } else if (prepended) {
+            keepViewPosition();
         }
 
         revalidate();
         repaint();
     }
 
+    /**
+     * Loads a page of older messages of a restored session in the background,
+     * if any are still deferred. The history listener renders them.
+     */
+    private void loadOlderMessages() {
+        if (loadingOlder || chat.getContextManager().getDeferredCount() == 0) {
+            return;
+        }
+        loadingOlder = true;
+        Chat target = chat;
+        new SwingTask<>(this, "Load Older Messages",
+                () -> target.getContextManager().loadOlder(OLDER_MESSAGES_PAGE),
+                loaded -> loadingOlder = false,
+                e -> loadingOlder = false).execute();
+    }
+
+    /**
+     * Keeps the messages on screen in place after older messages were
+     * inserted above them, by scrolling down by the height they added.
+     */
+    private void keepViewPosition() {
+        JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
+        int oldMaximum = verticalBar.getMaximum();
+        int oldValue = verticalBar.getValue();
+        SwingUtilities.invokeLater(() -> {
+            scrollPane.validate();
+            verticalBar.setValue(oldValue + verticalBar.getMaximum() - oldMaximum);
+        });
+    }
+
+    /**
+     * Whether the view is scrolled to the top.
+     *
+     * @return {@code true} if the first message is in view.
+     */
+    public boolean isAtTop() {
+        return scrollPane.getVerticalScrollBar().getValue() == 0;
+    }
+
     private AbstractMessagePanel createMessagePanel(AbstractMessage message) {
         if (message instanceof UserMessage userMessage) {
             return new UserMessagePanel(chatPanel, userMessage);
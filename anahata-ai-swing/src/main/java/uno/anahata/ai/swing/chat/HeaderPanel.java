@@ -8,7 +8,6 @@ import java.awt.Dimension;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
 import java.io.File;
-import java.nio.file.Files;
 import java.util.List;
 import java.util.stream.Collectors;
 import javax.swing.*;
@@ -18,9 +17,10 @@ import net.miginfocom.swing.MigLayout;
 import org.jdesktop.swingx.JXTextField;
 import org.jdesktop.swingx.autocomplete.AutoCompleteDecorator;
 import uno.anahata.ai.chat.Chat;
-import uno.anahata.ai.internal.kryo.KryoUtils;
 import uno.anahata.ai.model.provider.AbstractAiProvider;
 import uno.anahata.ai.model.provider.AbstractModel;
+import uno.anahata.ai.session.SessionArchive;
+import uno.anahata.ai.session.SessionJsonl;
 import uno.anahata.ai.swing.icons.LoadSessionIcon;
 import uno.anahata.ai.swing.icons.SaveSessionIcon;
 import uno.anahata.ai.swing.icons.SearchIcon;
@@ -208,8 +208,12 @@ public class HeaderPanel extends JPanel {
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
             new SwingTask<>(this, "Save Session", () -> {
-                byte[] data = KryoUtils.serialize(chat);
-                Files.write(file.toPath(), data);
+                if (file.getName().endsWith(".jsonl")) {
+                    // Portable, line-oriented export with blobs as base64 chunks
+                    SessionJsonl.write(chat, file.toPath(), false);
+                } else {
+                    SessionArchive.write(chat, file.toPath());
+                }
                 return null;
             }).execute();
         }
@@ -221,8 +225,11 @@ public class HeaderPanel extends JPanel {
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
             new SwingTask<>(this, "Load Session", () -> {
-                byte[] data = Files.readAllBytes(file.toPath());
-                return KryoUtils.deserialize(data, Chat.class);
+                if (file.getName().endsWith(".jsonl")) {
+                    return SessionJsonl.load(chat.getConfig().getAsiConfig(), file.toPath());
+                }
+                // Only the latest messages are decoded; older ones are loaded as they are scrolled to
+                return SessionArchive.load(chat.getConfig().getAsiConfig(), file.toPath());
             }, loadedChat -> {
                 chatPanel.reload(loadedChat);
             }).execute();
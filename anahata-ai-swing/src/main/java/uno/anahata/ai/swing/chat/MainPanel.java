@@ -6,6 +6,7 @@ package uno.anahata.ai.swing.chat;
 import java.awt.BorderLayout;
 import java.awt.Component;
 import java.beans.PropertyChangeEvent;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.BiConsumer;
@@ -17,7 +18,9 @@ import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import uno.anahata.ai.chat.Chat;
 import uno.anahata.ai.model.provider.AbstractAiProvider;
+import uno.anahata.ai.session.SessionRepository;
 import uno.anahata.ai.swing.internal.EdtPropertyChangeListener;
+import uno.anahata.ai.swing.internal.SwingTask;
 
 /**
  * The main container for the Anahata AI Swing UI, managing multiple chat sessions.
@@ -106,6 +109,13 @@ public class MainPanel extends JPanel implements SessionsPanel.SessionController
             
             // Listen for nickname changes to update the tab title
             new EdtPropertyChangeListener(this, chat, "nickname", this::handleNicknameChange);
+            
+            // Every open session is saved in the background as it changes
+            try {
+                baseConfig.getAsiConfig().getSessionRepository().autoSave(chat);
+            } catch (IOException e) {
+                log.error("Could not enable auto-save for session: {}", id, e);
+            }
         }
 
         tabbedPane.setSelectedIndex(tabIndex);
@@ -128,6 +138,11 @@ public class MainPanel extends JPanel implements SessionsPanel.SessionController
     public void dispose(@NonNull Chat chat) {
         log.info("Disposing session: {}", chat.getConfig().getSessionId());
         close(chat);
+        try {
+            baseConfig.getAsiConfig().getSessionRepository().stopAutoSave(chat);
+        } catch (IOException e) {
+            log.error("Could not save session: {}", chat.getConfig().getSessionId(), e);
+        }
         chat.shutdown();
     }
 
@@ -141,6 +156,24 @@ public class MainPanel extends JPanel implements SessionsPanel.SessionController
         focus(newChat);
     }
 
+    @Override
+    public void restore(@NonNull String sessionId) {
+        for (Chat chat : baseConfig.getAsiConfig().getActiveChats()) {
+            if (sessionId.equals(chat.getConfig().getSessionId())) {
+                focus(chat);
+                return;
+            }
+        }
+        log.info("Restoring saved session: {}", sessionId);
+        new SwingTask<>(this, "Restore Session", () -> {
+            SwingChatConfig config = new SwingChatConfig(baseConfig.getAsiConfig(), sessionId);
+            config.getProviderClasses().addAll(defaultProviders);
+            // Only the latest messages are decoded; older ones are loaded as they are scrolled to
+            SessionRepository repository = baseConfig.getAsiConfig().getSessionRepository();
+            return repository.load(config);
+        }, this::focus).execute();
+    }
+
     private void handleNicknameChange(PropertyChangeEvent evt) {
         Chat chat = (Chat) evt.getSource();
         String id = chat.getConfig().getSessionId();
@@ -50,6 +50,10 @@ public class RequestConfigPanel extends JPanel implements PropertyChangeListener
     private SliderSpinner candidateCountControl;
     /** Checkbox for session-level streaming toggle. */
     private JCheckBox streamingCheckbox;
+    /** Checkbox for session-level raw JSON capture. */
+    private JCheckBox captureRawJsonCheckbox;
+    /** Checkbox for session-level prefix-stable context assembly. */
+    private JCheckBox prefixStableCheckbox;
     /** Panel for response modalities checkboxes. */
     private JPanel modalitiesPanel;
     /** Panel for server tools checkboxes. */
@@ -83,7 +87,7 @@ public class RequestConfigPanel extends JPanel implements PropertyChangeListener
         // Column 3: Control (fill, grows)
         FormLayout layout = new FormLayout(
             "right:pref, 4dlu, fill:pref:grow",
-            "pref, 5dlu, pref, 5dlu, pref, 5dlu, pref, 5dlu, pref, 5dlu, pref, 10dlu, pref, 10dlu, pref"
+            "pref, 5dlu, pref, 5dlu, pref, 5dlu, pref, 5dlu, pref, 5dlu, pref, 5dlu, pref, 5dlu, pref, 10dlu, pref, 10dlu, pref"
         );
         
         JPanel mainPanel = new JPanel(layout);
@@ -97,6 +101,20 @@ public class RequestConfigPanel extends JPanel implements PropertyChangeListener
         mainPanel.add(streamingCheckbox, "3, " + row);
         row += 2;
 
+        // Capture Raw JSON (Session Level)
+        mainPanel.add(new JLabel("Capture Raw JSON:"), "1, " + row);
+        captureRawJsonCheckbox = new JCheckBox();
+        captureRawJsonCheckbox.setToolTipText("Capture the JSON of every request and response as it happens, and save it with the session. Otherwise it is rendered only when it is opened.");
+        mainPanel.add(captureRawJsonCheckbox, "3, " + row);
+        row += 2;
+
+        // Prefix-Stable Context (Session Level)
+        mainPanel.add(new JLabel("Prefix-Stable Context:"), "1, " + row);
+        prefixStableCheckbox = new JCheckBox();
+        prefixStableCheckbox.setToolTipText("Keep the start of every request identical to the previous one, so the provider can serve it from its cache: volatile status goes to the end of the request and expired parts are pruned in batches.");
+        mainPanel.add(prefixStableCheckbox, "3, " + row);
+        row += 2;
+
         // Temperature
         mainPanel.add(new JLabel("Temperature:"), "1, " + row);
         temperatureControl = new SliderSpinner(new SpinnerNumberModel(1.0, 0.0, 2.0, 0.1), 0, 200, 100.0);
@@ -166,6 +184,14 @@ public class RequestConfigPanel extends JPanel implements PropertyChangeListener
         streamingCheckbox.addActionListener(e -> {
             chat.getConfig().setStreaming(streamingCheckbox.isSelected());
         });
+
+        captureRawJsonCheckbox.addActionListener(e -> {
+            chat.getConfig().setCaptureRawJson(captureRawJsonCheckbox.isSelected());
+        });
+
+        prefixStableCheckbox.addActionListener(e -> {
+            chat.getConfig().setPrefixStableContext(prefixStableCheckbox.isSelected());
+        });
     }
 
     /**
@@ -177,6 +203,8 @@ public class RequestConfigPanel extends JPanel implements PropertyChangeListener
         AbstractModel model = chat.getSelectedModel();
         
         streamingCheckbox.setSelected(chat.getConfig().isStreaming());
+        captureRawJsonCheckbox.setSelected(chat.getConfig().isCaptureRawJson());
+        prefixStableCheckbox.setSelected(chat.getConfig().isPrefixStableContext());
         
         float temp = config.getTemperature() != null ? config.getTemperature() : (model != null && model.getDefaultTemperature() != null ? model.getDefaultTemperature() : 1.0f);
         temperatureControl.setValue((double) temp);
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Anahata Software License (ASL) v 108. See the LICENSE file for details. Força Barça!
+ */
+package uno.anahata.ai.swing.chat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.swing.table.AbstractTableModel;
+import lombok.NonNull;
+import uno.anahata.ai.session.SessionRepository;
+
+/**
+ * A table model for the saved sessions of a {@link SessionRepository}. The rows
+ * come straight from the repository index, so no session is opened to list or
+ * filter them.
+ *
+ * @author anahata-ai
+ */
+public class SavedSessionsTableModel extends AbstractTableModel {
+
+    private final List<SessionRepository.Entry> entries = new ArrayList<>();
+    private final String[] columnNames = {"Nickname", "Summary", "Model", "Msgs", "Tokens", "Saved"};
+
+    public static final int SESSION_COL = 0;
+    public static final int SUMMARY_COL = 1;
+    public static final int MODEL_COL = 2;
+    public static final int MESSAGES_COL = 3;
+    public static final int TOKENS_COL = 4;
+    public static final int SAVED_COL = 5;
+
+    @Override
+    public int getRowCount() {
+        return entries.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        switch (columnIndex) {
+            case MESSAGES_COL:
+            case TOKENS_COL:
+                return Integer.class;
+            case SAVED_COL:
+                return Date.class;
+            default:
+                return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        if (rowIndex < 0 || rowIndex >= entries.size()) {
+            return null;
+        }
+        SessionRepository.Entry entry = entries.get(rowIndex);
+
+        switch (columnIndex) {
+            case SESSION_COL:
+                return entry.getDisplayName();
+            case SUMMARY_COL:
+                return entry.getSummary();
+            case MODEL_COL:
+                return entry.getModelId();
+            case MESSAGES_COL:
+                return entry.getMessageCount();
+            case TOKENS_COL:
+                return entry.getTotalTokens() > 0 ? entry.getTotalTokens() : entry.getEstimatedTokens();
+            case SAVED_COL:
+                return new Date(entry.getLastModified());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Replaces the rows, unless they are the same entries as before (entries
+     * are replaced in the index on every save), so that the selection is kept
+     * on periodic refreshes.
+     *
+     * @param newEntries The entries to show.
+     */
+    public void setEntries(@NonNull List<SessionRepository.Entry> newEntries) {
+        if (entries.equals(newEntries)) {
+            return;
+        }
+        entries.clear();
+        entries.addAll(newEntries);
+        fireTableDataChanged();
+    }
+
+    public SessionRepository.Entry getEntryAt(int row) {
+        if (row >= 0 && row < entries.size()) {
+            return entries.get(row);
+        }
+        return null;
+    }
+}
@@ -8,6 +8,7 @@ import java.awt.CardLayout;
 import java.awt.Component;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -16,9 +17,12 @@ import java.util.Map;
 import javax.swing.Box;
 import javax.swing.JButton;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
 import javax.swing.JTable;
+import javax.swing.JTextField;
 import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 import javax.swing.ListSelectionModel;
@@ -28,22 +32,30 @@ import javax.swing.table.TableColumn;
 import javax.swing.table.TableRowSorter;
 import lombok.NonNull;
 import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 import uno.anahata.ai.AsiConfig;
 import uno.anahata.ai.chat.Chat;
+import uno.anahata.ai.session.SessionRepository;
 import uno.anahata.ai.status.ChatStatus;
 import uno.anahata.ai.swing.icons.CardsIcon;
 import uno.anahata.ai.swing.icons.DeleteIcon;
 import uno.anahata.ai.swing.icons.RestartIcon;
+import uno.anahata.ai.swing.icons.SearchIcon;
 import uno.anahata.ai.swing.icons.TableIcon;
+import uno.anahata.ai.swing.internal.AnyChangeDocumentListener;
+import uno.anahata.ai.swing.internal.SwingTask;
 import uno.anahata.ai.swing.internal.WrapLayout;
 
 /**
  * A reusable Swing panel for managing active AI chat sessions.
  * This panel provides a table view of all live sessions and actions to create,
- * focus, close, or dispose of them.
+ * focus, close, or dispose of them, and a searchable table of the sessions
+ * saved in the {@link SessionRepository} of the application, which can be
+ * restored or deleted.
  * 
  * @author anahata-gemini-pro-2.5
  */
+@Slf4j
 public class SessionsPanel extends JPanel {
 
     private final JTable table;
@@ -58,6 +70,12 @@ public class SessionsPanel extends JPanel {
     private final AsiConfig asiConfig;
     
     private final Map<Chat, SessionCard> cachedCards = new HashMap<>();
+
+    private final SessionRepository repository;
+    private final JTable savedTable;
+    private final SavedSessionsTableModel savedModel;
+    private final JTextField searchField;
+    private final JButton deleteSavedButton;
     
     @Setter
     private SessionController controller;
@@ -74,9 +92,16 @@ public class SessionsPanel extends JPanel {
         this.closeButton = new JButton("Close");
         this.disposeButton = new JButton("Dispose", new DeleteIcon(16));
         
+        this.repository = openRepository(asiConfig);
+        this.savedModel = new SavedSessionsTableModel();
+        this.savedTable = new JTable(savedModel);
+        this.searchField = new JTextField();
+        this.deleteSavedButton = new JButton("Delete", new DeleteIcon(16));
+        
         this.refreshTimer = new Timer(1000, e -> {
             model.refresh();
             refreshCards();
+            refreshSaved();
         });
 
         // 2. Setup Layout and Components
@@ -161,9 +186,114 @@ public class SessionsPanel extends JPanel {
         mainView.add(new JScrollPane(table), "table");
         mainView.add(new JScrollPane(cardContainer), "cards");
         
-        add(mainView, BorderLayout.CENTER);
+        if (repository != null) {
+            JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, mainView, createSavedView());
+            splitPane.setResizeWeight(0.5);
+            add(splitPane, BorderLayout.CENTER);
+        } else {
+            add(mainView, BorderLayout.CENTER);
+        }
         
         setColumnWidths();
+        refreshSaved();
+    }
+
+    /**
+     * Opens the session repository of the application.
+     *
+     * @param asiConfig The application config.
+     * @return The repository, or {@code null} if it cannot be opened.
+     */
+    private static SessionRepository openRepository(AsiConfig asiConfig) {
+        try {
+            return asiConfig.getSessionRepository();
+        } catch (IOException e) {
+            log.error("Could not open the saved sessions of {}", asiConfig.getHostApplicationId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates the view of the saved sessions: a search field and a table
+     * filtered as the query is typed.
+     *
+     * @return The view.
+     */
+    private JPanel createSavedView() {
+        JPanel savedView = new JPanel(new BorderLayout());
+
+        JToolBar searchBar = new JToolBar();
+        searchBar.setFloatable(false);
+        searchBar.add(new JLabel("Saved ", new SearchIcon(16), JLabel.LEADING));
+        searchField.setToolTipText("Filter saved sessions by name, summary, model or id");
+        searchField.getDocument().addDocumentListener(new AnyChangeDocumentListener(this::refreshSaved));
+        searchBar.add(searchField);
+
+        deleteSavedButton.setToolTipText("Permanently delete the selected saved session");
+        deleteSavedButton.addActionListener(e -> deleteSelectedSaved());
+        deleteSavedButton.setEnabled(false);
+        searchBar.add(deleteSavedButton);
+        savedView.add(searchBar, BorderLayout.NORTH);
+
+        savedTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        savedTable.setFillsViewportHeight(true);
+        savedTable.setAutoCreateRowSorter(true);
+        savedTable.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                deleteSavedButton.setEnabled(getSelectedSaved() != null);
+            }
+        });
+        savedTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    SessionRepository.Entry entry = getSelectedSaved();
+                    if (entry != null && controller != null) {
+                        controller.restore(entry.getSessionId());
+                    }
+                }
+            }
+        });
+        TableColumn msgColumn = savedTable.getColumnModel().getColumn(SavedSessionsTableModel.MESSAGES_COL);
+        msgColumn.setMinWidth(60);
+        msgColumn.setMaxWidth(80);
+        savedView.add(new JScrollPane(savedTable), BorderLayout.CENTER);
+        return savedView;
+    }
+
+    /**
+     * Refreshes the saved sessions from the in-memory index of the repository,
+     * filtered by the search field.
+     */
+    private void refreshSaved() {
+        if (repository != null) {
+            savedModel.setEntries(repository.search(searchField.getText()));
+        }
+    }
+
+    private SessionRepository.Entry getSelectedSaved() {
+        int viewRow = savedTable.getSelectedRow();
+        if (viewRow >= 0) {
+            return savedModel.getEntryAt(savedTable.convertRowIndexToModel(viewRow));
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the selected saved session after confirmation.
+     */
+    private void deleteSelectedSaved() {
+        SessionRepository.Entry entry = getSelectedSaved();
+        if (entry == null) {
+            return;
+        }
+        int choice = JOptionPane.showConfirmDialog(this,
+                "Permanently delete the saved session '" + entry.getDisplayName() + "'?",
+                "Delete Saved Session", JOptionPane.YES_NO_OPTION);
+        if (choice == JOptionPane.YES_OPTION) {
+            new SwingTask<>(this, "Delete Session", () -> repository.delete(entry.getSessionId()),
+                    deleted -> refreshSaved()).execute();
+        }
     }
 
     private void setColumnWidths() {
@@ -248,6 +378,7 @@ public class SessionsPanel extends JPanel {
         void close(@NonNull Chat chat);
         void dispose(@NonNull Chat chat);
         void createNew();
+        void restore(@NonNull String sessionId);
     }
 
     private static class StatusCellRenderer extends DefaultTableCellRenderer {
@@ -328,7 +328,8 @@ public class StatusPanel extends JPanel {
             if (usage != null) {
                 String prompt = "Prompt: " + NUMBER_FORMAT.format(usage.getPromptTokenCount());
                 String candidates = "Candidates: " + NUMBER_FORMAT.format(usage.getCandidatesTokenCount());
-                String cached = "Cached: " + NUMBER_FORMAT.format(usage.getCachedContentTokenCount());
+                String cached = "Cached: " + NUMBER_FORMAT.format(usage.getCachedContentTokenCount())
+                        + String.format(" (%.0f%% session)", chat.getContextManager().getPromptCacheStats().getHitRate() * 100);
                 String thoughts = "Thoughts: " + NUMBER_FORMAT.format(usage.getThoughtsTokenCount());
                 String toolPrompt = "Tools: " + NUMBER_FORMAT.format(usage.getToolUsePromptTokenCount());
                 String total = "Billed Tokens: " + NUMBER_FORMAT.format(usage.getTotalTokenCount());
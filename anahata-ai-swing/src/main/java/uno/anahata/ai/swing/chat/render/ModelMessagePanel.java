@@ -85,8 +85,8 @@ public class ModelMessagePanel extends AbstractMessagePanel<AbstractModelMessage
      * Updates the JSON link visibility.
      */
     private void updateRawJsonVisibility() {
-        String rawJson = message.getRawJson();
-        boolean shouldBeVisible = rawJson != null && !rawJson.isEmpty();
+        // Deferred raw JSON is only rendered when the link is clicked
+        boolean shouldBeVisible = message.hasRawJson();
         if (jsonLink.isVisible() != shouldBeVisible) {
             jsonLink.setVisible(shouldBeVisible);
         }